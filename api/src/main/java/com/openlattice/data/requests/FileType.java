@@ -21,5 +21,6 @@ package com.openlattice.data.requests;
 public enum FileType {
     json,
     csv,
-    yaml
+    yaml,
+    arrow
 }
@@ -150,6 +150,21 @@ public interface ConductorElasticsearchApi {
 
     boolean createBulkEntityData( UUID entityTypeId, UUID entitySetId, Map<UUID, Map<UUID, Set<Object>>> entitiesById );
 
+    /**
+     * Applies the written properties of entities to their documents in elasticsearch. Properties that weren't written
+     * are left as is. Entities that aren't indexed yet are not updated, since the written properties alone aren't a
+     * complete document.
+     * @param entitiesById Map of the written property values, mapped by entity key id and property type id.
+     * @param merge If true the written values are added to the indexed values of each property, otherwise they replace
+     *              them.
+     * @return The entity key ids of the entities whose documents were updated.
+     */
+    Set<UUID> updateBulkEntityData(
+            UUID entityTypeId,
+            UUID entitySetId,
+            Map<UUID, Map<UUID, Set<Object>>> entitiesById,
+            boolean merge );
+
     /**
      * Creates documents in elasticsearch for each of these linked entities.
      * @param entityTypeId The entity type of the linked entities.
@@ -209,6 +224,21 @@ public interface ConductorElasticsearchApi {
             int size,
             boolean explain );
 
+    /**
+     * Performs several blocking searches against the same index in a single multi-search request.
+     * NOTE: permissions are not enforced on this search, so it should not be exposed via the api.
+     *
+     * @param entityTypeId  The entity type id of the index to search
+     * @param fieldSearches The values for each field that is being searched, one entry per blocking search.
+     * @param size          The size cap on the results per entity set of each search.
+     * @return For each blocking search, in order, a map of entity set ids to entity key ids of its results.
+     * @throws IllegalStateException if any of the blocking searches failed.
+     */
+    List<Map<UUID, Set<UUID>>> executeBlockingSearches(
+            UUID entityTypeId,
+            List<Map<UUID, DelegatedStringSet>> fieldSearches,
+            int size );
+
     /**
      * EDM / SecurableObject Create/Update/Delete
      **/
@@ -27,6 +27,7 @@ import java.util.Map;
 import java.util.Set;
 
 import com.openlattice.edm.EdmConstants;
+import com.openlattice.edm.type.PropertyType;
 import org.apache.commons.lang3.NotImplementedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,13 +44,26 @@ public class EntitySetData<T> implements Iterable<SetMultimap<T, Object>> {
             .getLogger( EntitySetData.class );
 
     private LinkedHashSet<String>            columnTitles;
+    private Map<String, PropertyType>        columnPropertyTypes;
     private Iterable<Map<T, Set<Object>>> entities;
 
     public EntitySetData(
             LinkedHashSet<String> columnTitles,
             Iterable<Map<T, Set<Object>>> entities ) {
+        this( columnTitles, Map.of(), entities );
+    }
+
+    /**
+     * @param columnPropertyTypes The property type of each column title, used by typed output formats. Columns without
+     * a property type, such as the entity key id, are written as strings.
+     */
+    public EntitySetData(
+            LinkedHashSet<String> columnTitles,
+            Map<String, PropertyType> columnPropertyTypes,
+            Iterable<Map<T, Set<Object>>> entities ) {
         this.columnTitles = columnTitles;
         this.columnTitles.add( EdmConstants.ID_FQN.getFullQualifiedNameAsString() );
+        this.columnPropertyTypes = columnPropertyTypes;
         this.entities = entities;
     }
 
@@ -57,6 +71,10 @@ public class EntitySetData<T> implements Iterable<SetMultimap<T, Object>> {
         return columnTitles;
     }
 
+    public Map<String, PropertyType> getColumnPropertyTypes() {
+        return columnPropertyTypes;
+    }
+
     @JsonValue
     public Iterable<Map<T, Set<Object>>> getEntities() {
         return entities::iterator;
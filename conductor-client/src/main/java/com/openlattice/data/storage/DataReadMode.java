@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.data.storage;
+
+/**
+ * Controls how entity data is transferred from postgres when reading entities.
+ */
+public enum DataReadMode {
+    /**
+     * Postgres aggregates each entity into a single json document which is parsed with jackson. Values are returned
+     * as json types.
+     */
+    JSON,
+    /**
+     * Postgres returns one row per property value, ordered by entity, which is decoded from its typed column and
+     * grouped into entities as the rows are read. Values are returned as java types (e.g. {@link java.util.UUID},
+     * {@link java.time.LocalDate}).
+     * <p>
+     * Not supported for linking or detailed reads.
+     */
+    TYPED_ROWS
+}
@@ -23,6 +23,7 @@
 package com.openlattice.datastore.services;
 
 import com.hazelcast.map.EntryProcessor;
+import com.openlattice.edm.EdmSnapshotCache;
 import com.openlattice.edm.EntityDataModel;
 import com.openlattice.edm.EntityDataModelDiff;
 import com.openlattice.edm.requests.MetadataUpdate;
@@ -169,4 +170,9 @@ public interface EdmManager {
     void ensurePropertyTypeExists( UUID propertyTypeId );
 
     Triple<Set<UUID>, Set<UUID>, Set<UUID>> getSrcAssocDstInvolvingEntityTypes( Set<UUID> entityTypeIds );
+
+    /**
+     * @return The node local snapshot of property types, entity types and entity sets backing metadata lookups.
+     */
+    EdmSnapshotCache getSnapshotCache();
 }
\ No newline at end of file
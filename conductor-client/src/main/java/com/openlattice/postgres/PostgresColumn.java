@@ -96,6 +96,7 @@ public final class PostgresColumn {
     public static final String                   BLOCK_ID_FIELD                    = "block_id";
     public static final PostgresColumnDefinition BLOCK_ID                          =
             new PostgresColumnDefinition( BLOCK_ID_FIELD, UUID );
+    public static final String                   CATALOG_FINGERPRINT_FIELD         = "catalog_fingerprint";
     public static final String                   CATEGORY_FIELD                    = "category";
     public static final PostgresColumnDefinition CATEGORY                          =
             new PostgresColumnDefinition( CATEGORY_FIELD, TEXT ).notNull();
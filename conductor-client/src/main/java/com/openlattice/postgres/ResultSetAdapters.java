@@ -121,6 +121,7 @@ import static com.openlattice.postgres.PostgresColumn.AUDIT_RECORD_ENTITY_SET_ID
 import static com.openlattice.postgres.PostgresColumn.AUTHENTICATION_METHOD;
 import static com.openlattice.postgres.PostgresColumn.BASE_TYPE;
 import static com.openlattice.postgres.PostgresColumn.BIDIRECTIONAL;
+import static com.openlattice.postgres.PostgresColumn.CATALOG_FINGERPRINT_FIELD;
 import static com.openlattice.postgres.PostgresColumn.CATEGORY;
 import static com.openlattice.postgres.PostgresColumn.CLASS_NAME;
 import static com.openlattice.postgres.PostgresColumn.CLASS_PROPERTIES;
@@ -1136,6 +1137,10 @@ public final class ResultSetAdapters {
         return Lists.newArrayList( getTextArray( rs, COLUMN_NAMES_FIELD ) );
     }
 
+    public static String catalogFingerprint( ResultSet rs ) throws SQLException {
+        return rs.getString( CATALOG_FINGERPRINT_FIELD );
+    }
+
     public static PostgresDatatype sqlDataType( ResultSet rs ) throws SQLException {
         String dataType = rs.getString( DATATYPE.getName() ).toUpperCase();
         return PostgresDatatype.getEnum( dataType );
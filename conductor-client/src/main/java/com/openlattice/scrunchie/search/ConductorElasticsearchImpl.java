@@ -47,6 +47,7 @@ import com.openlattice.edm.type.PropertyType;
 import com.openlattice.organizations.Organization;
 import com.geekbeast.hazelcast.DelegatedStringSet;
 import com.geekbeast.hazelcast.DelegatedUUIDSet;
+import com.openlattice.search.EntityDocumentWriter;
 import com.openlattice.search.SortDefinition;
 import com.openlattice.search.requests.Constraint;
 import com.openlattice.search.requests.ConstraintGroup;
@@ -77,6 +78,7 @@ import org.elasticsearch.common.geo.GeoPoint;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.DistanceUnit;
 import org.elasticsearch.common.unit.Fuzziness;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
@@ -84,6 +86,7 @@ import org.elasticsearch.index.query.*;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryAction;
 import org.elasticsearch.index.reindex.DeleteByQueryRequestBuilder;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.FieldSortBuilder;
@@ -110,7 +113,6 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.openlattice.IdConstants.ENTITY_SET_ID_KEY_ID;
-import static com.openlattice.IdConstants.ID_ID;
 import static com.openlattice.IdConstants.LAST_WRITE_ID;
 import static java.util.stream.Collectors.toSet;
 
@@ -159,6 +161,9 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         mapper.configure( SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false );
     }
 
+    private static final ThreadLocal<EntityDocumentWriter> documentWriters = ThreadLocal
+            .withInitial( () -> new EntityDocumentWriter( mapper ) );
+
     private       Client                              client;
     private       RestHighLevelClient                 restClient;
     private       ElasticsearchTransportClientFactory factory;
@@ -582,38 +587,6 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
 
     /*** ENTITY DATA CREATE/DELETE ***/
 
-    /**
-     * @param entityValues Property values of a linked entity mapped by the normal entity set id, normal entity key id
-     *                     and property type ids respectively.
-     */
-    private byte[] formatLinkedEntity( Map<UUID, Map<UUID, Map<UUID, Set<Object>>>> entityValues ) {
-
-        List<Map<Object, Object>> documents = entityValues.entrySet().stream().flatMap( esEntry -> {
-            final var entitySetId = esEntry.getKey();
-            Map<UUID, Map<UUID, Set<Object>>> entity = esEntry.getValue(); // ek_id -> pt_id -> pt_values
-
-            return entity.entrySet().stream().map( ekEntry -> {
-                final var entityKeyId = ekEntry.getKey();
-                final var propertyValues = ekEntry.getValue();
-
-                Map<Object, Object> values = new HashMap<>( propertyValues.size() + 2 );
-                propertyValues.forEach( values::put );
-                values.put( ID_ID.getId(), entityKeyId );
-                values.put( ENTITY_SET_ID_KEY_ID.getId(), entitySetId );
-
-                return values;
-            } );
-        } ).collect( Collectors.toList() );
-
-        try {
-            return mapper.writeValueAsBytes( ImmutableMap.of( ENTITY, documents ) );
-
-        } catch ( JsonProcessingException e ) {
-            logger.debug( "error creating linked entity data" );
-            return null;
-        }
-    }
-
     private byte[] formatEntity( UUID entitySetId, Map<UUID, Set<Object>> entity ) {
 
         Map<Object, Object> values = new HashMap<>( entity.size() + 1 );
@@ -658,19 +631,25 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
             String indexName = getIndexName( entityTypeId );
             String indexType = getTypeName( entityTypeId );
 
-            BulkRequestBuilder requestBuilder = client.prepareBulk();
+            EntityDocumentWriter writer = documentWriters.get();
+            BulkResponse resp;
 
-            entitiesById.forEach( ( entityKeyId, entityData ) -> {
-                byte[] data = formatEntity( entitySetId, entityData );
-
-                if ( data != null ) {
-                    requestBuilder.add(
-                            client.prepareIndex( indexName, indexType, entityKeyId.toString() )
-                                    .setSource( data, XContentType.JSON ) );
-                }
-            } );
-
-            BulkResponse resp = requestBuilder.execute().actionGet();
+            try {
+                entitiesById.forEach( ( entityKeyId, entityData ) ->
+                        writer.writeEntity( indexName, indexType, entityKeyId, entitySetId, entityData ) );
+
+                BulkRequestBuilder requestBuilder = client.prepareBulk();
+                requestBuilder.request().add( writer.bytes(), indexName, indexType, XContentType.JSON );
+                resp = requestBuilder.execute().actionGet();
+            } catch ( IOException e ) {
+                logger.error( "Unable to create bulk request for {} entities of entity set {}",
+                        entitiesById.size(),
+                        entitySetId,
+                        e );
+                return false;
+            } finally {
+                writer.reset();
+            }
 
             if ( resp.hasFailures() ) {
                 logger.info( "At least one failure observed when attempting to index {} entities for entity set {}",
@@ -678,6 +657,14 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
                         entitySetId
                 );
                 logger.debug( "Entity index failure details: {}", resp.buildFailureMessage() );
+
+                // Surface item level back pressure the same way as a rejection of the whole request, so callers can
+                // tell it apart from failures that a smaller request would not fix.
+                if ( Stream.of( resp.getItems() )
+                        .anyMatch( item -> item.isFailed() && item.status() == RestStatus.TOO_MANY_REQUESTS ) ) {
+                    throw new EsRejectedExecutionException( "Elasticsearch rejected indexing of entities for entity set "
+                            + entitySetId );
+                }
                 return false;
             }
 
@@ -685,6 +672,72 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         return true;
     }
 
+    @Override
+    public Set<UUID> updateBulkEntityData(
+            UUID entityTypeId,
+            UUID entitySetId,
+            Map<UUID, Map<UUID, Set<Object>>> entitiesById,
+            boolean merge ) {
+        if ( !verifyElasticsearchConnection() ) { return ImmutableSet.of(); }
+
+        if ( entitiesById.isEmpty() ) {
+            return ImmutableSet.of();
+        }
+
+        String indexName = getIndexName( entityTypeId );
+        String indexType = getTypeName( entityTypeId );
+
+        EntityDocumentWriter writer = documentWriters.get();
+        BulkResponse resp;
+
+        try {
+            entitiesById.forEach( ( entityKeyId, entityData ) ->
+                    writer.writeEntityUpdate( indexName, indexType, entityKeyId, entityData, merge ) );
+
+            BulkRequestBuilder requestBuilder = client.prepareBulk();
+            requestBuilder.request().add( writer.bytes(), indexName, indexType, XContentType.JSON );
+            resp = requestBuilder.execute().actionGet();
+        } catch ( IOException e ) {
+            logger.error( "Unable to create bulk update request for {} entities of entity set {}",
+                    entitiesById.size(),
+                    entitySetId,
+                    e );
+            return ImmutableSet.of();
+        } finally {
+            writer.reset();
+        }
+
+        if ( resp.hasFailures() ) {
+            // updates of entities that aren't indexed yet are expected to fail, as their documents are missing
+            long failures = Stream.of( resp.getItems() )
+                    .filter( item -> item.isFailed() && item.status() != RestStatus.NOT_FOUND )
+                    .count();
+            if ( failures > 0 ) {
+                logger.info( "{} of {} entity updates failed for entity set {}",
+                        failures,
+                        entitiesById.size(),
+                        entitySetId
+                );
+            }
+            logger.debug( "Entity update failure details: {}", resp.buildFailureMessage() );
+        }
+
+        return getUpdatedEntityKeyIds( resp );
+    }
+
+    /**
+     * Updates of entities that aren't indexed yet fail as their documents are missing, so they are left out along with
+     * any other failed update.
+     *
+     * @return The entity key ids of the successful updates of a bulk update request.
+     */
+    static Set<UUID> getUpdatedEntityKeyIds( BulkResponse response ) {
+        return Stream.of( response.getItems() )
+                .filter( item -> !item.isFailed() )
+                .map( item -> UUID.fromString( item.getId() ) )
+                .collect( Collectors.toSet() );
+    }
+
     @Override
     public boolean createBulkLinkedData(
             UUID entityTypeId,
@@ -696,19 +749,22 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
             String indexName = getIndexName( entityTypeId );
             String indexType = getTypeName( entityTypeId );
 
-            BulkRequestBuilder requestBuilder = client.prepareBulk();
-
-            entitiesByLinkingId.forEach( ( linkingId, entityValues ) -> {
-                        final byte[] data = formatLinkedEntity( entityValues );
+            final var writer = documentWriters.get();
+            final BulkResponse resp;
 
-                        if ( data != null ) {
-                            requestBuilder.add(
-                                    client.prepareIndex( indexName, indexType, linkingId.toString() )
-                                            .setSource( data, XContentType.JSON ) );
-                        }
-                    }
-            );
-            final var resp = requestBuilder.execute().actionGet();
+            try {
+                entitiesByLinkingId.forEach( ( linkingId, entityValues ) ->
+                        writer.writeLinkedEntity( indexName, indexType, linkingId, entityValues ) );
+
+                BulkRequestBuilder requestBuilder = client.prepareBulk();
+                requestBuilder.request().add( writer.bytes(), indexName, indexType, XContentType.JSON );
+                resp = requestBuilder.execute().actionGet();
+            } catch ( IOException e ) {
+                logger.error( "Unable to create bulk request for linking ids {}", entitiesByLinkingId.keySet(), e );
+                return false;
+            } finally {
+                writer.reset();
+            }
 
             if ( resp.hasFailures() ) {
                 logger.info(
@@ -1066,6 +1122,47 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
             boolean explain ) {
         if ( !verifyElasticsearchConnection() ) { return null; }
 
+        return getBlockingSearchResults( buildBlockingSearch( entityTypeId, fieldSearches, size )
+                .setExplain( explain )
+                .execute()
+                .actionGet() );
+    }
+
+    @Override
+    public List<Map<UUID, Set<UUID>>> executeBlockingSearches(
+            UUID entityTypeId,
+            List<Map<UUID, DelegatedStringSet>> fieldSearches,
+            int size ) {
+        if ( !verifyElasticsearchConnection() ) { return null; }
+
+        if ( fieldSearches.isEmpty() ) {
+            return ImmutableList.of();
+        }
+
+        MultiSearchRequest requests = new MultiSearchRequest();
+        fieldSearches.forEach( fieldSearch -> requests.add( buildBlockingSearch( entityTypeId, fieldSearch, size ) ) );
+
+        return getBlockingSearchResults( client.multiSearch( requests ).actionGet() );
+    }
+
+    /**
+     * Fails if any of the searches failed, since an empty result would link the searched entity only to itself.
+     */
+    static List<Map<UUID, Set<UUID>>> getBlockingSearchResults( MultiSearchResponse response ) {
+        return Stream.of( response.getResponses() )
+                .map( item -> {
+                    if ( item.isFailure() ) {
+                        throw new IllegalStateException( "Unable to execute blocking search.", item.getFailure() );
+                    }
+                    return getBlockingSearchResults( item.getResponse() );
+                } )
+                .collect( Collectors.toList() );
+    }
+
+    private SearchRequestBuilder buildBlockingSearch(
+            UUID entityTypeId,
+            Map<UUID, DelegatedStringSet> fieldSearches,
+            int size ) {
         BoolQueryBuilder valuesQuery = new BoolQueryBuilder();
 
         fieldSearches.entrySet().stream().forEach( entry -> {
@@ -1083,14 +1180,15 @@ public class ConductorElasticsearchImpl implements ConductorElasticsearchApi {
         BoolQueryBuilder query = QueryBuilders.boolQuery().must( valuesQuery )
                 .must( QueryBuilders.existsQuery( ENTITY_SET_ID_FIELD ) );
 
-        return StreamUtil.stream( client.prepareSearch( getIndexName( entityTypeId ) )
+        return client.prepareSearch( getIndexName( entityTypeId ) )
                 .setQuery( query )
                 .setFrom( 0 )
                 .setSize( size )
-                .setExplain( explain )
-                .setFetchSource( ENTITY_SET_ID_FIELD, null )
-                .execute()
-                .actionGet().getHits() )
+                .setFetchSource( ENTITY_SET_ID_FIELD, null );
+    }
+
+    private static Map<UUID, Set<UUID>> getBlockingSearchResults( SearchResponse response ) {
+        return StreamUtil.stream( response.getHits() )
                 .map( hit -> Pair
                         .of( UUID.fromString( hit.getSourceAsMap().get( ENTITY_SET_ID_FIELD ).toString() ),
                                 UUID.fromString( hit.getId() ) ) )
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.web.converters;
+
+import com.openlattice.data.EntitySetData;
+import com.openlattice.edm.EdmConstants;
+import com.openlattice.edm.type.PropertyType;
+import com.openlattice.web.mediatypes.CustomMediaType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeMicroVector;
+import org.apache.arrow.vector.TimeStampMicroTZVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Writes entity set data as an Apache Arrow IPC stream.
+ * <p>
+ * Every column title becomes a typed column based on the datatype of its property type. Multi-valued property types
+ * are written as list columns, single valued property types as plain columns holding the first value. Datatypes
+ * without a natural Arrow counterpart, as well as the entity key id, are written as strings. Rows are written in
+ * record batches of {@link #RECORD_BATCH_ROWS} as they are read, so only one batch is held in memory at a time.
+ */
+public class ArrowHttpMessageConverter
+        extends AbstractGenericHttpMessageConverter<EntitySetData<?>> {
+
+    /**
+     * Number of rows in each record batch.
+     */
+    private static final int RECORD_BATCH_ROWS = 10_000;
+
+    private static final String LIST_ITEM_NAME = "item";
+
+    private final BufferAllocator rootAllocator = new RootAllocator( Long.MAX_VALUE );
+
+    public ArrowHttpMessageConverter() {
+        super( CustomMediaType.APPLICATION_ARROW_STREAM );
+    }
+
+    @Override
+    public EntitySetData<?> read(
+            Type type,
+            Class<?> contextClass,
+            HttpInputMessage inputMessage )
+            throws IOException, HttpMessageNotReadableException {
+        throw new UnsupportedOperationException( "Arrow is not a supported input format" );
+    }
+
+    @Override
+    protected void writeInternal(
+            EntitySetData<?> t,
+            Type type,
+            HttpOutputMessage outputMessage )
+            throws IOException, HttpMessageNotWritableException {
+        List<Column> columns = columns( t );
+        Schema schema = new Schema( columns.stream().map( column -> column.field ).collect( Collectors.toList() ) );
+        OutputStream out = StreamUtils.nonClosing( outputMessage.getBody() );
+
+        try ( BufferAllocator allocator = rootAllocator.newChildAllocator( "entity-set-export", 0, Long.MAX_VALUE );
+                VectorSchemaRoot root = VectorSchemaRoot.create( schema, allocator );
+                ArrowStreamWriter writer = new ArrowStreamWriter( root, null, Channels.newChannel( out ) ) ) {
+            writer.start();
+            root.allocateNew();
+
+            int rows = 0;
+            for ( Map<?, Set<Object>> entity : t.getEntities() ) {
+                for ( int i = 0; i < columns.size(); ++i ) {
+                    Column column = columns.get( i );
+                    column.write( root.getVector( i ), rows, entity.get( column.key ) );
+                }
+                if ( ++rows == RECORD_BATCH_ROWS ) {
+                    writeBatch( writer, root, rows, out );
+                    rows = 0;
+                }
+            }
+            if ( rows > 0 ) {
+                writeBatch( writer, root, rows, out );
+            }
+
+            writer.end();
+        }
+    }
+
+    @Override
+    protected boolean supports( Class<?> clazz ) {
+        return EntitySetData.class.isAssignableFrom( clazz );
+    }
+
+    @Override
+    protected EntitySetData<?> readInternal(
+            Class<? extends EntitySetData<?>> clazz,
+            HttpInputMessage inputMessage ) throws HttpMessageNotReadableException {
+        throw new UnsupportedOperationException( "Arrow is not a supported input format" );
+    }
+
+    private static void writeBatch( ArrowStreamWriter writer, VectorSchemaRoot root, int rows, OutputStream out )
+            throws IOException {
+        root.setRowCount( rows );
+        writer.writeBatch();
+        out.flush();
+        root.allocateNew();
+    }
+
+    private static List<Column> columns( EntitySetData<?> t ) {
+        Map<String, PropertyType> propertyTypes = t.getColumnPropertyTypes();
+        List<Column> columns = new ArrayList<>( t.getColumnTitles().size() );
+
+        for ( String title : t.getColumnTitles() ) {
+            PropertyType propertyType = propertyTypes.get( title );
+            if ( propertyType == null ) {
+                boolean multiValued = !title.equals( EdmConstants.ID_FQN.getFullQualifiedNameAsString() );
+                columns.add( new Column( title, ArrowType.Utf8.INSTANCE, ArrowHttpMessageConverter::writeString,
+                        multiValued ) );
+            } else {
+                columns.add( column( title, propertyType ) );
+            }
+        }
+
+        return columns;
+    }
+
+    private static Column column( String title, PropertyType propertyType ) {
+        boolean multiValued = propertyType.isMultiValued();
+        switch ( propertyType.getDatatype() ) {
+            case Boolean:
+                return new Column( title, ArrowType.Bool.INSTANCE, ArrowHttpMessageConverter::writeBoolean,
+                        multiValued );
+            case Int16:
+                return new Column( title, new ArrowType.Int( 16, true ), ArrowHttpMessageConverter::writeShort,
+                        multiValued );
+            case Int32:
+                return new Column( title, new ArrowType.Int( 32, true ), ArrowHttpMessageConverter::writeInt,
+                        multiValued );
+            case Int64:
+            case Duration:
+                return new Column( title, new ArrowType.Int( 64, true ), ArrowHttpMessageConverter::writeLong,
+                        multiValued );
+            case Double:
+                return new Column( title,
+                        new ArrowType.FloatingPoint( FloatingPointPrecision.DOUBLE ),
+                        ArrowHttpMessageConverter::writeDouble,
+                        multiValued );
+            case Date:
+                return new Column( title, new ArrowType.Date( DateUnit.DAY ), ArrowHttpMessageConverter::writeDate,
+                        multiValued );
+            case TimeOfDay:
+                return new Column( title,
+                        new ArrowType.Time( TimeUnit.MICROSECOND, 64 ),
+                        ArrowHttpMessageConverter::writeTimeOfDay,
+                        multiValued );
+            case DateTimeOffset:
+                return new Column( title,
+                        new ArrowType.Timestamp( TimeUnit.MICROSECOND, "UTC" ),
+                        ArrowHttpMessageConverter::writeDateTimeOffset,
+                        multiValued );
+            default:
+                return new Column( title, ArrowType.Utf8.INSTANCE, ArrowHttpMessageConverter::writeString,
+                        multiValued );
+        }
+    }
+
+    private static void writeString( FieldVector vector, int index, Object value ) {
+        ( (VarCharVector) vector ).setSafe( index, value.toString().getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private static void writeBoolean( FieldVector vector, int index, Object value ) {
+        boolean b = ( value instanceof Boolean ) ? (Boolean) value : Boolean.parseBoolean( value.toString() );
+        ( (BitVector) vector ).setSafe( index, b ? 1 : 0 );
+    }
+
+    private static void writeShort( FieldVector vector, int index, Object value ) {
+        ( (SmallIntVector) vector ).setSafe( index, toNumber( value ).shortValue() );
+    }
+
+    private static void writeInt( FieldVector vector, int index, Object value ) {
+        ( (IntVector) vector ).setSafe( index, toNumber( value ).intValue() );
+    }
+
+    private static void writeLong( FieldVector vector, int index, Object value ) {
+        ( (BigIntVector) vector ).setSafe( index, toNumber( value ).longValue() );
+    }
+
+    private static void writeDouble( FieldVector vector, int index, Object value ) {
+        ( (Float8Vector) vector ).setSafe( index, toNumber( value ).doubleValue() );
+    }
+
+    private static void writeDate( FieldVector vector, int index, Object value ) {
+        LocalDate date = ( value instanceof LocalDate ) ? (LocalDate) value : LocalDate.parse( value.toString() );
+        ( (DateDayVector) vector ).setSafe( index, Math.toIntExact( date.toEpochDay() ) );
+    }
+
+    private static void writeTimeOfDay( FieldVector vector, int index, Object value ) {
+        LocalTime time = ( value instanceof LocalTime ) ? (LocalTime) value : LocalTime.parse( value.toString() );
+        ( (TimeMicroVector) vector ).setSafe( index, time.toNanoOfDay() / 1_000 );
+    }
+
+    private static void writeDateTimeOffset( FieldVector vector, int index, Object value ) {
+        OffsetDateTime dateTime = ( value instanceof OffsetDateTime )
+                ? (OffsetDateTime) value
+                : OffsetDateTime.parse( value.toString() );
+        ( (TimeStampMicroTZVector) vector )
+                .setSafe( index, ChronoUnit.MICROS.between( Instant.EPOCH, dateTime.toInstant() ) );
+    }
+
+    private static Number toNumber( Object value ) {
+        return ( value instanceof Number ) ? (Number) value : new BigDecimal( value.toString() );
+    }
+
+    @FunctionalInterface
+    private interface ValueWriter {
+        void write( FieldVector vector, int index, Object value );
+    }
+
+    private static class Column {
+        private final FullQualifiedName key;
+        private final Field             field;
+        private final ValueWriter       valueWriter;
+        private final boolean           multiValued;
+
+        Column( String title, ArrowType type, ValueWriter valueWriter, boolean multiValued ) {
+            this.key = new FullQualifiedName( title );
+            this.field = multiValued
+                    ? new Field( title,
+                    FieldType.nullable( ArrowType.List.INSTANCE ),
+                    List.of( Field.nullable( LIST_ITEM_NAME, type ) ) )
+                    : Field.nullable( title, type );
+            this.valueWriter = valueWriter;
+            this.multiValued = multiValued;
+        }
+
+        /**
+         * Writes the values of this column for the row at {@code index}. Missing values are left null.
+         */
+        void write( FieldVector vector, int index, Set<Object> values ) {
+            if ( values == null || values.isEmpty() ) {
+                return;
+            }
+
+            if ( multiValued ) {
+                ListVector list = (ListVector) vector;
+                FieldVector items = list.getDataVector();
+                int offset = list.startNewValue( index );
+                int size = 0;
+                for ( Object value : values ) {
+                    valueWriter.write( items, offset + size++, value );
+                }
+                list.endValue( index, size );
+            } else {
+                valueWriter.write( vector, index, values.iterator().next() );
+            }
+        }
+    }
+}
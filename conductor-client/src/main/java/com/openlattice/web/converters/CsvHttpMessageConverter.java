@@ -20,6 +20,7 @@
 
 package com.openlattice.web.converters;
 
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.dataformat.csv.CsvGenerator;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
@@ -35,15 +36,23 @@ import com.openlattice.data.EntitySetData;
 import com.openlattice.web.mediatypes.CustomMediaType;
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.Set;
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
 import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.util.StreamUtils;
 
 public class CsvHttpMessageConverter
         extends AbstractGenericHttpMessageConverter<EntitySetData<?>> {
 
+    /**
+     * Number of rows written between flushes, so large entity sets reach the client while they are being exported.
+     */
+    private static final int FLUSH_INTERVAL_ROWS = 10_000;
+
     private final CsvMapper csvMapper = new CsvMapper();
 
     public CsvHttpMessageConverter() {
@@ -74,8 +83,17 @@ public class CsvHttpMessageConverter
             throws IOException, HttpMessageNotWritableException {
         // Get schema
         CsvSchema schema = schemaBuilder( t );
-        // Write to CSV
-        csvMapper.writer( schema ).writeValue( outputMessage.getBody(), t.getEntities() );
+        // Write to CSV, one row at a time through a single writer
+        try ( SequenceWriter writer = csvMapper.writer( schema )
+                .writeValues( StreamUtils.nonClosing( outputMessage.getBody() ) ) ) {
+            int rows = 0;
+            for ( Map<?, Set<Object>> entity : t.getEntities() ) {
+                writer.write( entity );
+                if ( ++rows % FLUSH_INTERVAL_ROWS == 0 ) {
+                    writer.flush();
+                }
+            }
+        }
     }
 
     @Override
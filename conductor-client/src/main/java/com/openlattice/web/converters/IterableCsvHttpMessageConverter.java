@@ -22,13 +22,21 @@ package com.openlattice.web.converters;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
 import org.springframework.http.converter.AbstractGenericHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.util.StreamUtils;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema.Builder;
@@ -41,6 +49,16 @@ import com.google.common.collect.Multimap;
 public class IterableCsvHttpMessageConverter
         extends AbstractGenericHttpMessageConverter<Iterable<Multimap<String, ?>>> {
 
+    /**
+     * Number of leading rows whose keys make up the columns. Keys first seen after these rows are not written.
+     */
+    private static final int SCHEMA_SAMPLE_ROWS = 1_000;
+
+    /**
+     * Number of rows written between flushes.
+     */
+    private static final int FLUSH_INTERVAL_ROWS = 10_000;
+
     private final CsvMapper csvMapper = new CsvMapper();
 
     public IterableCsvHttpMessageConverter() {
@@ -58,16 +76,29 @@ public class IterableCsvHttpMessageConverter
     @Override
     protected void writeInternal( Iterable<Multimap<String, ?>> t, Type type, HttpOutputMessage outputMessage )
             throws IOException, HttpMessageNotWritableException {
-        CsvSchema schema = null;
+        Iterator<Multimap<String, ?>> rows = t.iterator();
+        List<Multimap<String, ?>> sample = new ArrayList<>( SCHEMA_SAMPLE_ROWS );
+        while ( rows.hasNext() && sample.size() < SCHEMA_SAMPLE_ROWS ) {
+            sample.add( rows.next() );
+        }
 
-        for ( Multimap<String, ?> obj : t ) {
-            if ( schema == null ) {
-                schema = fromMultimap( obj );
-            }
+        CsvSchema schema = fromMultimaps( sample );
+        try ( SequenceWriter writer = csvMapper.writer( schema )
+                .with( JsonGenerator.Feature.IGNORE_UNKNOWN )
+                .writeValues( StreamUtils.nonClosing( outputMessage.getBody() ) ) ) {
             // TODO: Flatten or drop multiple output values into obj.
-            csvMapper.writer( schema ).writeValue( outputMessage.getBody(), obj.asMap() );
-        }
+            for ( Multimap<String, ?> obj : sample ) {
+                writer.write( obj.asMap() );
+            }
 
+            int written = sample.size();
+            while ( rows.hasNext() ) {
+                writer.write( rows.next().asMap() );
+                if ( ++written % FLUSH_INTERVAL_ROWS == 0 ) {
+                    writer.flush();
+                }
+            }
+        }
     }
 
     @Override
@@ -91,4 +122,14 @@ public class IterableCsvHttpMessageConverter
         return schemaBuilder.build();
     }
 
+    public CsvSchema fromMultimaps( Iterable<Multimap<String, ?>> ms ) {
+        Builder schemaBuilder = CsvSchema.builder();
+
+        Set<String> columns = new LinkedHashSet<>();
+        ms.forEach( m -> columns.addAll( m.keySet() ) );
+        columns.forEach( type -> schemaBuilder.addColumn( type, ColumnType.ARRAY ) );
+        schemaBuilder.setUseHeader( true );
+        return schemaBuilder.build();
+    }
+
 }
@@ -36,8 +36,13 @@ public class CustomMediaType implements Serializable {
     
     public static final String    TEXT_YAML_VALUE  = "text/x-yaml;charset=UTF-8";
 
+    public static final MediaType APPLICATION_ARROW_STREAM;
+
+    public static final String    APPLICATION_ARROW_STREAM_VALUE = "application/vnd.apache.arrow.stream";
+
     static {
         TEXT_CSV = MediaType.valueOf( TEXT_CSV_VALUE );
         TEXT_YAML = MediaType.valueOf( TEXT_YAML_VALUE );
+        APPLICATION_ARROW_STREAM = MediaType.valueOf( APPLICATION_ARROW_STREAM_VALUE );
     }
 }
@@ -33,15 +33,21 @@ private const val configFileName = "assembler.yaml"
 /**
  * [server] is a remote server that data will be transported to and assembled upon
  *
+ * [connectionBudget] is the total number of connections the pools of all organization databases on [server] may hold
+ * at once on each instance, not across the cluster. The `maximumPoolSize` of [server] caps the pool of each database.
+ *
  * @author Matthew Tamayo-Rios &lt;matthew@openlattice.com&gt;
  */
 @ReloadableConfiguration(uri= configFileName)
 data class AssemblerConfiguration(
         @JsonProperty val server: Properties,
-        @JsonProperty val ssl: Boolean = true
+        @JsonProperty val ssl: Boolean = true,
+        @JsonProperty val connectionBudget: Int = DEFAULT_CONNECTION_BUDGET
 ): Configuration {
 
     companion object {
+        const val DEFAULT_CONNECTION_BUDGET = 100
+
         @JvmStatic
         @get:JvmName("key")
         val key = SimpleConfigurationKey(configFileName)
@@ -52,6 +58,6 @@ data class AssemblerConfiguration(
     }
 
     override fun toString(): String {
-        return "AssemblerConfiguration(server=$server, ssl=$ssl)"
+        return "AssemblerConfiguration(server=$server, ssl=$ssl, connectionBudget=$connectionBudget)"
     }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package com.openlattice.auditing
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import org.slf4j.LoggerFactory
+import java.io.Closeable
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Bounded node local buffer that takes auditable events off the request path and hands them to [flush] in batches.
+ *
+ * A batch is flushed once it reaches [batchSize] events or once it has been filling for [flushIntervalMillis] ms,
+ * whichever comes first. When the buffer is full, callers block until there is room again. Failed flushes are retried
+ * [MAX_FLUSH_ATTEMPTS] times before the batch is dropped. On [close] the buffer stops accepting events, flushes
+ * everything still queued and waits up to [SHUTDOWN_TIMEOUT_MILLIS] ms for that to complete. Events added after that
+ * are flushed on the calling thread.
+ */
+class AuditEventBuffer(
+        name: String,
+        metricRegistry: MetricRegistry,
+        capacity: Int,
+        private val batchSize: Int,
+        private val flushIntervalMillis: Long,
+        private val flush: (List<AuditableEvent>) -> Unit
+) : Closeable {
+    companion object {
+        private val logger = LoggerFactory.getLogger(AuditEventBuffer::class.java)
+
+        private const val MAX_FLUSH_ATTEMPTS = 3
+        private const val RETRY_DELAY_MILLIS = 1_000L
+        private const val BACKPRESSURE_WAIT_MILLIS = 100L
+        private const val SHUTDOWN_TIMEOUT_MILLIS = 60_000L
+    }
+
+    private val events = ArrayBlockingQueue<AuditableEvent>(capacity)
+    private val executor = Executors.newSingleThreadExecutor()
+
+    @Volatile
+    private var running = true
+
+    private val queued = metricRegistry.meter(MetricRegistry.name(AuditEventBuffer::class.java, name, "queued"))
+    private val flushed = metricRegistry.meter(MetricRegistry.name(AuditEventBuffer::class.java, name, "flushed"))
+    private val dropped = metricRegistry.meter(MetricRegistry.name(AuditEventBuffer::class.java, name, "dropped"))
+    private val blocked = metricRegistry.meter(MetricRegistry.name(AuditEventBuffer::class.java, name, "blocked"))
+    private val flushes = metricRegistry.timer(MetricRegistry.name(AuditEventBuffer::class.java, name, "flushes"))
+
+    init {
+        metricRegistry.register(
+                MetricRegistry.name(AuditEventBuffer::class.java, name, "pending"),
+                Gauge<Int> { events.size }
+        )
+    }
+
+    @Suppress("UNUSED")
+    private val worker = executor.submit {
+        while (running || events.isNotEmpty()) {
+            try {
+                val batch = nextBatch()
+                if (batch.isNotEmpty()) {
+                    flushBatch(batch)
+                }
+            } catch (ex: InterruptedException) {
+                logger.info("Audit event buffer {} interrupted with {} pending events.", name, events.size)
+                Thread.currentThread().interrupt()
+                break
+            } catch (ex: Exception) {
+                logger.error("Encountered error while flushing audit event buffer {}.", name, ex)
+            }
+        }
+    }
+
+    /**
+     * Queues [newEvents] to be flushed, blocking while the buffer is full. Once the buffer is closed events are
+     * flushed on the calling thread instead.
+     */
+    fun addAll(newEvents: List<AuditableEvent>) {
+        if (!running) {
+            newEvents.chunked(batchSize).forEach { flushBatch(it) }
+            return
+        }
+
+        newEvents.forEach { event ->
+            if (!events.offer(event)) {
+                blocked.mark()
+                while (!events.offer(event, BACKPRESSURE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (!running) {
+                        flushBatch(listOf(event))
+                        return@forEach
+                    }
+                }
+            }
+            queued.mark()
+        }
+
+        if (!running) {
+            // The worker may have stopped before these events were queued, so they would never be flushed otherwise.
+            flushQueued()
+        }
+    }
+
+    override fun close() {
+        running = false
+        executor.shutdown()
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            logger.error("Timed out flushing audit event buffer with {} pending events.", events.size)
+        }
+    }
+
+    private fun flushQueued() {
+        while (true) {
+            val batch = ArrayList<AuditableEvent>(batchSize)
+            events.drainTo(batch, batchSize)
+            if (batch.isEmpty()) {
+                return
+            }
+            flushBatch(batch)
+        }
+    }
+
+    private fun nextBatch(): List<AuditableEvent> {
+        val batch = ArrayList<AuditableEvent>(batchSize)
+        val deadline = System.currentTimeMillis() + flushIntervalMillis
+
+        while (batch.size < batchSize) {
+            events.drainTo(batch, batchSize - batch.size)
+            val remaining = deadline - System.currentTimeMillis()
+            if (batch.size >= batchSize || remaining <= 0 || !running) {
+                break
+            }
+
+            val event = events.poll(remaining, TimeUnit.MILLISECONDS) ?: break
+            batch.add(event)
+        }
+
+        return batch
+    }
+
+    private fun flushBatch(batch: List<AuditableEvent>) {
+        for (attempt in 1..MAX_FLUSH_ATTEMPTS) {
+            try {
+                val flushContext = flushes.time()
+                flush(batch)
+                flushContext.stop()
+                flushed.mark(batch.size.toLong())
+                return
+            } catch (ex: Exception) {
+                logger.warn(
+                        "Unable to flush {} audit events (attempt {} of {}).",
+                        batch.size,
+                        attempt,
+                        MAX_FLUSH_ATTEMPTS,
+                        ex
+                )
+                if (attempt < MAX_FLUSH_ATTEMPTS) {
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt)
+                }
+            }
+        }
+
+        logger.error("Dropping {} audit events after {} failed flushes.", batch.size, MAX_FLUSH_ATTEMPTS)
+        dropped.mark(batch.size.toLong())
+    }
+}
@@ -36,5 +36,8 @@ data class AuditingConfiguration(
         @JsonProperty("fqns") val fqns: Map<AuditProperty, String>,
         @JsonProperty("aws") val awsS3ClientConfiguration: Optional<AwsS3ClientConfiguration>,
         @JsonProperty("partitions") val partitions: Int = 257,
-        @JsonProperty("enabled") val enabled: Boolean = true
+        @JsonProperty("enabled") val enabled: Boolean = true,
+        @JsonProperty("buffer-capacity") val bufferCapacity: Int = 100_000,
+        @JsonProperty("flush-batch-size") val flushBatchSize: Int = 10_000,
+        @JsonProperty("flush-interval-millis") val flushIntervalMillis: Long = 1_000
 )
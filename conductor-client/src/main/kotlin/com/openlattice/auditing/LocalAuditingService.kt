@@ -1,23 +1,44 @@
 package com.openlattice.auditing
 
+import com.codahale.metrics.MetricRegistry
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.google.common.collect.ArrayListMultimap
 import com.google.common.collect.ImmutableMap
 import com.openlattice.data.DataEdge
 import com.openlattice.data.DataGraphManager
 import com.openlattice.data.EntityDataKey
+import java.io.Closeable
 import java.util.*
 
+/**
+ * Records auditable events as entities in their audit entity sets. Events are buffered and written in batches off the
+ * request path, grouped by audit entity set, by an [AuditEventBuffer].
+ */
 class LocalAuditingService(
         private val dataGraphService: DataGraphManager,
         private val ares: AuditRecordEntitySetsManager,
-        private val mapper: ObjectMapper
-) : AuditingManager {
+        private val mapper: ObjectMapper,
+        auditingConfiguration: AuditingConfiguration,
+        metricRegistry: MetricRegistry
+) : AuditingManager, Closeable {
+
+    private val buffer = AuditEventBuffer(
+            "local",
+            metricRegistry,
+            auditingConfiguration.bufferCapacity,
+            auditingConfiguration.flushBatchSize,
+            auditingConfiguration.flushIntervalMillis
+    ) { writeEvents(it) }
 
     fun recordEvent(event: AuditableEvent): Int {
         return recordEvents(listOf(event))
     }
 
+    /**
+     * Queues [events] to be recorded.
+     *
+     * @return The number of queued events.
+     */
     override fun recordEvents(events: List<AuditableEvent>): Int {
 
         val auditingConfiguration = ares.auditingTypes
@@ -29,6 +50,17 @@ class LocalAuditingService(
             return 0
         }
 
+        buffer.addAll(events)
+        return events.size
+    }
+
+    override fun close() {
+        buffer.close()
+    }
+
+    private fun writeEvents(events: List<AuditableEvent>): Int {
+        val auditingConfiguration = ares.auditingTypes
+
         return events
                 .groupBy { ares.getActiveAuditEntitySetIds(it.aclKey, it.eventType) }
                 .filter { (auditEntitySetConfiguration, _) ->
@@ -1,21 +1,33 @@
 package com.openlattice.auditing
 
+import com.amazonaws.services.s3.AmazonS3
 import com.amazonaws.services.s3.model.ListObjectsV2Request
 import com.amazonaws.services.s3.model.ObjectMetadata
 import com.amazonaws.services.s3.model.PutObjectRequest
+import com.amazonaws.services.s3.model.S3ObjectSummary
+import com.codahale.metrics.MetricRegistry
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.module.kotlin.readValue
-import com.google.common.collect.Queues
-import com.google.common.util.concurrent.MoreExecutors
 import com.openlattice.aws.newS3Client
 import com.openlattice.ids.HazelcastLongIdService
 import com.openlattice.ids.IdScopes
-import org.springframework.http.MediaType
-import java.util.concurrent.Executors
+import java.io.ByteArrayOutputStream
+import java.io.Closeable
+import java.io.InputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
 
-private const val LONG_IDS_BATCH_SIZE = 8192
+private const val LONG_IDS_BATCH_SIZE = 256L
+private const val SEGMENT_SUFFIX = ".ndjson.gz"
+private const val SEGMENT_CONTENT_TYPE = "application/x-ndjson"
+private const val SEGMENT_CONTENT_ENCODING = "gzip"
 
 /**
+ * Records auditable events to S3 as gzip compressed, newline delimited json segments.
+ *
+ * Events from all requests are collected by an [AuditEventBuffer] and each flushed batch is uploaded as a single
+ * segment, so the number of objects depends on the flush size and interval rather than the request rate. Segment ids
+ * are leased from the [HazelcastLongIdService] in blocks of [LONG_IDS_BATCH_SIZE].
  *
  * @author Matthew Tamayo-Rios &lt;matthew@openlattice.com&gt;
  */
@@ -23,9 +35,46 @@ private const val LONG_IDS_BATCH_SIZE = 8192
 class S3AuditingService(
         auditingConfiguration: AuditingConfiguration,
         private val longIdService: HazelcastLongIdService,
-        private val mapper: ObjectMapper
+        private val mapper: ObjectMapper,
+        metricRegistry: MetricRegistry,
+        private val s3: AmazonS3
+) : AuditingManager, Closeable {
+
+    constructor(
+            auditingConfiguration: AuditingConfiguration,
+            longIdService: HazelcastLongIdService,
+            mapper: ObjectMapper,
+            metricRegistry: MetricRegistry
+    ) : this(
+            auditingConfiguration,
+            longIdService,
+            mapper,
+            metricRegistry,
+            newS3Client(auditingConfiguration.awsS3ClientConfiguration.orElseThrow {
+                IllegalStateException("Auditing configuration from auditing.yaml must include S3 configuration details.")
+            })
+    )
+
+    companion object {
+        @JvmStatic
+        fun writeSegment(mapper: ObjectMapper, events: List<AuditableEvent>): ByteArray {
+            val bytes = ByteArrayOutputStream()
+            GZIPOutputStream(bytes).use { gzip ->
+                events.forEach { event ->
+                    gzip.write(mapper.writeValueAsBytes(event))
+                    gzip.write('\n'.code)
+                }
+            }
+            return bytes.toByteArray()
+        }
 
-) : AuditingManager {
+        @JvmStatic
+        fun readSegment(mapper: ObjectMapper, segment: InputStream): List<AuditableEvent> {
+            return GZIPInputStream(segment).bufferedReader().useLines { lines ->
+                lines.filter { it.isNotBlank() }.map { mapper.readValue<AuditableEvent>(it) }.toList()
+            }
+        }
+    }
 
     init {
         if (auditingConfiguration.awsS3ClientConfiguration.isEmpty) {
@@ -38,42 +87,54 @@ class S3AuditingService(
 
     private val partitions = auditingConfiguration.partitions
     private val bucket = auditingConfiguration.awsS3ClientConfiguration.get().bucket
-    private val longIdsQueue = Queues.newArrayBlockingQueue<Long>(LONG_IDS_BATCH_SIZE)
-    private val executorService = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor())
-
-    private val s3 = newS3Client(auditingConfiguration.awsS3ClientConfiguration.get())
-
-    private val refreshQueue = executorService.execute {
-        while (true) {
-            longIdService
-                    .getIds(IdScopes.AUDITING.name, LONG_IDS_BATCH_SIZE.toLong())
-                    .forEach(longIdsQueue::put)
-        }
-    }
-
+    private var ids = LongRange.EMPTY.iterator()
+
+    private val segmentSizes = metricRegistry.histogram(
+            MetricRegistry.name(S3AuditingService::class.java, "segmentBytes")
+    )
+
+    private val buffer = AuditEventBuffer(
+            "s3",
+            metricRegistry,
+            auditingConfiguration.bufferCapacity,
+            auditingConfiguration.flushBatchSize,
+            auditingConfiguration.flushIntervalMillis
+    ) { writeEvents(it) }
+
+    /**
+     * Queues [events] to be uploaded.
+     *
+     * @return The number of queued events.
+     */
     override fun recordEvents(events: List<AuditableEvent>): Int {
-        val eventsBytes = mapper.writeValueAsBytes(events)
-        val eventsInputStream = eventsBytes.inputStream()
-
-        val metadata = ObjectMetadata()
-        metadata.contentLength = eventsInputStream.available().toLong()
-        metadata.contentType = MediaType.APPLICATION_JSON_VALUE
-
-        val id = getId()
-        val partition = id % partitions.toLong()
-        val key = "$partition/${System.currentTimeMillis()}/event-$id.json"
-        s3.putObject(PutObjectRequest(bucket, key, eventsInputStream, metadata))
+        buffer.addAll(events)
         return events.size
     }
 
+    override fun close() {
+        buffer.close()
+    }
+
     fun getRecordedEvents(): List<AuditableEvent> {
         //TODO: Need to make sure that auditable event is only queued up once from s3
 
 
-        val objectListing = s3.listObjectsV2(ListObjectsV2Request().withBucketName(bucket))
-
-        return objectListing.objectSummaries.flatMap { objSummary ->
-            return@flatMap mapper.readValue<List<AuditableEvent>>(s3.getObject(bucket, objSummary.key).objectContent)
+        val request = ListObjectsV2Request().withBucketName(bucket)
+        val objectSummaries = mutableListOf<S3ObjectSummary>()
+        do {
+            val objectListing = s3.listObjectsV2(request)
+            objectSummaries.addAll(objectListing.objectSummaries)
+            request.continuationToken = objectListing.nextContinuationToken
+        } while (objectListing.isTruncated)
+
+        return objectSummaries.flatMap { objSummary ->
+            s3.getObject(bucket, objSummary.key).objectContent.use { content ->
+                if (objSummary.key.endsWith(SEGMENT_SUFFIX)) {
+                    readSegment(mapper, content)
+                } else {
+                    mapper.readValue<List<AuditableEvent>>(content)
+                }
+            }
         }
     }
 
@@ -81,9 +142,27 @@ class S3AuditingService(
         TODO("Implement deleting events after they are stored.")
     }
 
-    private fun getId(): Long {
-        return longIdsQueue.take()
+    private fun writeEvents(events: List<AuditableEvent>) {
+        val segment = writeSegment(mapper, events)
+        segmentSizes.update(segment.size)
+
+        val metadata = ObjectMetadata()
+        metadata.contentLength = segment.size.toLong()
+        metadata.contentType = SEGMENT_CONTENT_TYPE
+        metadata.contentEncoding = SEGMENT_CONTENT_ENCODING
 
+        val id = getId()
+        val partition = id % partitions.toLong()
+        val key = "$partition/${System.currentTimeMillis()}/events-$id$SEGMENT_SUFFIX"
+        s3.putObject(PutObjectRequest(bucket, key, segment.inputStream(), metadata))
+    }
+
+    @Synchronized
+    private fun getId(): Long {
+        if (!ids.hasNext()) {
+            ids = longIdService.getIds(IdScopes.AUDITING.name, LONG_IDS_BATCH_SIZE).iterator()
+        }
+        return ids.next()
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package com.openlattice.authorization
+
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.RatioGauge
+import com.google.common.cache.CacheBuilder
+import com.google.common.collect.ImmutableSet
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Node local cache of resolved permissions, keyed by acl key and the full set of principals of a caller.
+ *
+ * Entries are grouped by acl key, so a change to any ace of an acl key invalidates the permissions of every principal
+ * set on that acl key. Invalidation is driven by [AuthorizationCacheInvalidationListener] and by local writes. Since
+ * map events are delivered at most once, entries also expire after [ttlMillis].
+ *
+ * Permissions loaded while an invalidation happens are not kept, so a load that raced a permission change can not
+ * reinstate stale permissions.
+ */
+class AuthorizationCache(
+        metricRegistry: MetricRegistry,
+        maximumAclKeys: Long = DEFAULT_MAXIMUM_ACL_KEYS,
+        private val maximumPrincipalSetsPerAclKey: Int = DEFAULT_MAXIMUM_PRINCIPAL_SETS_PER_ACL_KEY,
+        ttlMillis: Long = DEFAULT_TTL_MILLIS
+) {
+    companion object {
+        const val DEFAULT_MAXIMUM_ACL_KEYS = 100_000L
+        const val DEFAULT_MAXIMUM_PRINCIPAL_SETS_PER_ACL_KEY = 256
+        const val DEFAULT_TTL_MILLIS = 10L * 60L * 1000L
+    }
+
+    private val permissions = CacheBuilder.newBuilder()
+            .maximumSize(maximumAclKeys)
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+            .build<AclKey, ConcurrentHashMap<Set<Principal>, EnumSet<Permission>>>()
+
+    private val generation = AtomicLong()
+
+    private val hits = metricRegistry.meter(MetricRegistry.name(AuthorizationCache::class.java, "hits"))
+    private val misses = metricRegistry.meter(MetricRegistry.name(AuthorizationCache::class.java, "misses"))
+    private val invalidations = metricRegistry.meter(
+            MetricRegistry.name(AuthorizationCache::class.java, "invalidations")
+    )
+
+    init {
+        metricRegistry.register(
+                MetricRegistry.name(AuthorizationCache::class.java, "hitRate"),
+                object : RatioGauge() {
+                    override fun getRatio(): Ratio {
+                        return Ratio.of(
+                                hits.fifteenMinuteRate,
+                                hits.fifteenMinuteRate + misses.fifteenMinuteRate
+                        )
+                    }
+                }
+        )
+    }
+
+    /**
+     * Gets the permissions of [principals] on each of [aclKeys], loading the ones that are not cached.
+     *
+     * @param load Loads the combined permissions of [principals] on the given acl keys. Acl keys missing from the
+     * result have no permissions.
+     * @return The combined permissions of [principals] on each acl key. The returned sets must not be modified.
+     */
+    fun getAll(
+            aclKeys: Collection<AclKey>,
+            principals: Set<Principal>,
+            load: (Set<AclKey>) -> Map<AclKey, EnumSet<Permission>>
+    ): Map<AclKey, EnumSet<Permission>> {
+        val principalSet: Set<Principal> = ImmutableSet.copyOf(principals)
+        val resolved = HashMap<AclKey, EnumSet<Permission>>(aclKeys.size)
+        val missing = mutableSetOf<AclKey>()
+
+        aclKeys.forEach { aclKey ->
+            val cached = permissions.getIfPresent(aclKey)?.get(principalSet)
+            if (cached == null) {
+                missing.add(aclKey)
+            } else {
+                resolved[aclKey] = cached
+            }
+        }
+
+        hits.mark(resolved.size.toLong())
+        misses.mark(missing.size.toLong())
+
+        if (missing.isEmpty()) {
+            return resolved
+        }
+
+        val startGeneration = generation.get()
+        val loaded = load(missing)
+        missing.forEach { aclKey ->
+            val aclKeyPermissions = loaded[aclKey] ?: EnumSet.noneOf(Permission::class.java)
+            resolved[aclKey] = aclKeyPermissions
+
+            val principalSets = permissions.get(aclKey) { ConcurrentHashMap() }
+            if (principalSets.size < maximumPrincipalSetsPerAclKey) {
+                principalSets[principalSet] = aclKeyPermissions
+            }
+        }
+
+        // An invalidation may have happened while loading, so drop what was just cached.
+        if (generation.get() != startGeneration) {
+            permissions.invalidateAll(missing)
+        }
+
+        return resolved
+    }
+
+    fun invalidate(aclKey: AclKey) {
+        generation.incrementAndGet()
+        invalidations.mark()
+        permissions.invalidate(aclKey)
+    }
+
+    fun invalidateAll(aclKeys: Collection<AclKey>) {
+        generation.incrementAndGet()
+        invalidations.mark(aclKeys.size.toLong())
+        permissions.invalidateAll(aclKeys)
+    }
+
+    fun invalidateAll() {
+        generation.incrementAndGet()
+        invalidations.mark()
+        permissions.invalidateAll()
+    }
+}
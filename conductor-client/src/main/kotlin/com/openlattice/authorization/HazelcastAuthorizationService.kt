@@ -1,5 +1,6 @@
 package com.openlattice.authorization
 
+import com.codahale.metrics.MetricRegistry
 import com.codahale.metrics.annotation.Timed
 import com.google.common.collect.HashMultimap
 import com.google.common.collect.ImmutableSet
@@ -14,6 +15,7 @@ import com.hazelcast.query.Predicates
 import com.openlattice.assembler.events.MaterializePermissionChangeEvent
 import com.openlattice.authorization.aggregators.AuthorizationSetAggregator
 import com.openlattice.authorization.aggregators.PrincipalAggregator
+import com.openlattice.authorization.listeners.AuthorizationCacheInvalidationListener
 import com.openlattice.authorization.mapstores.PermissionMapstore.ACL_KEY_INDEX
 import com.openlattice.authorization.mapstores.PermissionMapstore.PERMISSIONS_INDEX
 import com.openlattice.authorization.mapstores.PermissionMapstore.PRINCIPAL_INDEX
@@ -39,13 +41,20 @@ import java.util.stream.Stream
 class HazelcastAuthorizationService(
         hazelcastInstance: HazelcastInstance,
         val eventBus: EventBus,
-        val principalsMapManager: PrincipalsMapManager
+        val principalsMapManager: PrincipalsMapManager,
+        metricRegistry: MetricRegistry
 ) : AuthorizationManager {
 
     private val securableObjectTypes: IMap<AclKey, SecurableObjectType> = HazelcastMap.SECURABLE_OBJECT_TYPES.getMap(
             hazelcastInstance
     )
     private val aces: IMap<AceKey, AceValue> = HazelcastMap.PERMISSIONS.getMap(hazelcastInstance)
+    private val authorizationCache = AuthorizationCache(metricRegistry)
+    private val principalPermissionIndex = PrincipalPermissionIndex(aces)
+
+    init {
+        aces.addEntryListener(AuthorizationCacheInvalidationListener(authorizationCache), false)
+    }
 
     companion object {
         private val logger = LoggerFactory.getLogger(HazelcastAuthorizationService::class.java)
@@ -140,7 +149,10 @@ class HazelcastAuthorizationService(
             expirationDate: OffsetDateTime
     ) {
         ensurePrincipalsExist(setOf(principal))
-        aces.executeOnKey(AceKey(key, principal), PermissionMerger(permissions, securableObjectType, expirationDate))
+        val aceKey = AceKey(key, principal)
+        aces.executeOnKey(aceKey, PermissionMerger(permissions, securableObjectType, expirationDate))
+        authorizationCache.invalidate(key)
+        principalPermissionIndex.refresh(setOf(aceKey))
 
         signalMaterializationPermissionChange(key, principal, permissions, securableObjectType)
     }
@@ -164,6 +176,8 @@ class HazelcastAuthorizationService(
         ensurePrincipalsExist(setOf(principal))
         val aceKeys = toAceKeys(keys, principal)
         aces.executeOnKeys(aceKeys, PermissionMerger(permissions, securableObjectType, expirationDate))
+        authorizationCache.invalidateAll(keys)
+        principalPermissionIndex.refresh(aceKeys)
     }
 
     override fun addPermissions(acls: List<Acl>) {
@@ -173,6 +187,8 @@ class HazelcastAuthorizationService(
             val aceKeys = updates[it]
             aces.executeOnKeys(aceKeys, PermissionMerger(it.permissions, it.securableObjectType, it.expirationDate))
         }
+        authorizationCache.invalidateAll(acls.map { AclKey(it.aclKey) })
+        principalPermissionIndex.refresh(updates.values().toSet())
     }
 
     /** Remove Permissions **/
@@ -192,6 +208,8 @@ class HazelcastAuthorizationService(
         updates.keySet().forEach {
             aces.executeOnKeys(updates[it], PermissionRemover(it.permissions))
         }
+        authorizationCache.invalidateAll(acls.map { AclKey(it.aclKey) })
+        principalPermissionIndex.refresh(updates.values().toSet())
     }
 
     override fun removePermission(
@@ -207,16 +225,22 @@ class HazelcastAuthorizationService(
                 key, principal, permissions, getDefaultObjectType(securableObjectTypes, key)
         )
 
-        aces.executeOnKey(AceKey(key, principal), PermissionRemover(permissions))
+        val aceKey = AceKey(key, principal)
+        aces.executeOnKey(aceKey, PermissionRemover(permissions))
+        authorizationCache.invalidate(key)
+        principalPermissionIndex.refresh(setOf(aceKey))
     }
 
     override fun deletePermissions(aclKey: AclKey) {
         securableObjectTypes.delete(aclKey)
         aces.removeAll(hasAclKey(aclKey))
+        authorizationCache.invalidate(aclKey)
+        principalPermissionIndex.remove(aclKey)
     }
 
     override fun deletePrincipalPermissions(principal: Principal) {
         aces.removeAll(hasPrincipal(principal))
+        authorizationCache.invalidateAll()
     }
 
     /** Set Permissions **/
@@ -240,6 +264,8 @@ class HazelcastAuthorizationService(
         }
 
         aces.putAll(updates)
+        authorizationCache.invalidateAll(acls.map { AclKey(it.aclKey) })
+        principalPermissionIndex.refresh(updates.keys)
     }
 
     override fun setPermission(
@@ -264,7 +290,10 @@ class HazelcastAuthorizationService(
         //This should be a rare call to overwrite all permissions, so it's okay to do a read before write.
         val securableObjectType = getDefaultObjectType(securableObjectTypes, key)
         signalMaterializationPermissionChange(key, principal, permissions, securableObjectType)
-        aces[AceKey(key, principal)] = AceValue(permissions, securableObjectType, expirationDate)
+        val aceKey = AceKey(key, principal)
+        aces[aceKey] = AceValue(permissions, securableObjectType, expirationDate)
+        authorizationCache.invalidate(key)
+        principalPermissionIndex.refresh(setOf(aceKey))
     }
 
     override fun setPermission(aclKeys: Set<AclKey>, principals: Set<Principal>, permissions: EnumSet<Permission>) {
@@ -288,6 +317,8 @@ class HazelcastAuthorizationService(
         }
 
         aces.putAll(newPermissions)
+        authorizationCache.invalidateAll(aclKeys)
+        principalPermissionIndex.refresh(newPermissions.keys)
     }
 
     override fun setPermissions(permissions: Map<AceKey, EnumSet<Permission>>) {
@@ -311,6 +342,8 @@ class HazelcastAuthorizationService(
         }
 
         aces.putAll(newPermissions)
+        authorizationCache.invalidateAll(permissions.keys.map { it.aclKey })
+        principalPermissionIndex.refresh(newPermissions.keys)
     }
 
     /*** AUTH CHECKS ***/
@@ -323,18 +356,12 @@ class HazelcastAuthorizationService(
 
         val permissionMap = requests.mapValues { noAccess(it.value) }.toMutableMap()
 
-        val aceKeys = requests.keys
-                .flatMap { aclKey -> principals.map { principal -> AceKey(aclKey, principal) } }
-                .toSet()
-
-        aces
-                .executeOnKeys(aceKeys, AuthorizationEntryProcessor())
-                .forEach { (aceKey, permissions) ->
-                    val aclKeyPermissions = permissionMap.getValue(aceKey.aclKey)
-                    permissions.forEach { permission ->
-                        aclKeyPermissions.computeIfPresent(permission) { _, _ -> true }
-                    }
-                }
+        getPermissions(requests.keys, principals).forEach { (aclKey, permissions) ->
+            val aclKeyPermissions = permissionMap.getValue(aclKey)
+            permissions.forEach { permission ->
+                aclKeyPermissions.computeIfPresent(permission) { _, _ -> true }
+            }
+        }
 
         return permissionMap
     }
@@ -364,13 +391,7 @@ class HazelcastAuthorizationService(
             principals: Set<Principal>,
             requiredPermissions: EnumSet<Permission>
     ): Boolean {
-        val aceKeys = principals.map { AceKey(key, it) }.toSet()
-
-        return aces.executeOnKeys(aceKeys, AuthorizationEntryProcessor())
-                .values
-                .flatMap { it as DelegatedPermissionEnumSet }
-                .toSet()
-                .containsAll(requiredPermissions)
+        return getPermissions(setOf(key), principals).getValue(key).containsAll(requiredPermissions)
     }
 
     @Timed
@@ -389,11 +410,7 @@ class HazelcastAuthorizationService(
             key: AclKey,
             principals: Set<Principal>
     ): Set<Permission> {
-        val objectPermissions = EnumSet.noneOf(Permission::class.java)
-        val aceKeys = principals.map { AceKey(key, it) }.toSet()
-        aces.getAll(aceKeys).values.mapNotNull { it.permissions }.forEach { objectPermissions.addAll(it) }
-
-        return objectPermissions
+        return EnumSet.copyOf(getPermissions(setOf(key), principals).getValue(key))
     }
 
     @Timed
@@ -411,6 +428,11 @@ class HazelcastAuthorizationService(
             objectType: SecurableObjectType,
             permissions: EnumSet<Permission>
     ): Stream<AclKey> {
+        val indexed = principalPermissionIndex.getAuthorizedObjects(principals, listOf(objectType), permissions)
+        if (indexed != null) {
+            return indexed.stream()
+        }
+
         val principalPredicate = if (principals.size == 1) hasPrincipal(principals.first()) else hasAnyPrincipals(
                 principals
         )
@@ -432,6 +454,11 @@ class HazelcastAuthorizationService(
             objectTypes: Collection<SecurableObjectType>,
             permissions: EnumSet<Permission>
     ): Stream<AclKey> {
+        val indexed = principalPermissionIndex.getAuthorizedObjects(principals, objectTypes, permissions)
+        if (indexed != null) {
+            return indexed.stream()
+        }
+
         val principalPredicate = if (principals.size == 1) hasPrincipal(principals.first()) else hasAnyPrincipals(
                 principals
         )
@@ -516,6 +543,27 @@ class HazelcastAuthorizationService(
 
     /** Private Helpers **/
 
+    /**
+     * Resolves the combined permissions of [principals] on each of [aclKeys], going to the permissions map only for
+     * acl keys that are not in the node local authorization cache.
+     */
+    private fun getPermissions(
+            aclKeys: Collection<AclKey>,
+            principals: Set<Principal>
+    ): Map<AclKey, EnumSet<Permission>> {
+        return authorizationCache.getAll(aclKeys, principals) { missing ->
+            val aceKeys = missing
+                    .flatMap { aclKey -> principals.map { principal -> AceKey(aclKey, principal) } }
+                    .toSet()
+
+            val loaded = missing.associateWith { EnumSet.noneOf(Permission::class.java) }
+            aces.executeOnKeys(aceKeys, AuthorizationEntryProcessor()).forEach { (aceKey, permissions) ->
+                loaded.getValue(aceKey.aclKey).addAll(permissions)
+            }
+            loaded
+        }
+    }
+
     private fun ensureAclKeysHaveOtherUserOwners(aclKeys: Set<AclKey>, principals: Set<Principal>) {
         val userPrincipals = principals.stream().filter { p: Principal -> p.type == PrincipalType.USER }
                 .collect(Collectors.toSet())
@@ -0,0 +1,293 @@
+package com.openlattice.authorization
+
+import com.google.common.util.concurrent.Striped
+import com.hazelcast.map.IMap
+import com.hazelcast.query.Predicates
+import com.openlattice.authorization.listeners.PrincipalPermissionIndexListener
+import com.openlattice.authorization.mapstores.PermissionMapstore.SECURABLE_OBJECT_TYPE_INDEX
+import com.openlattice.authorization.securable.SecurableObjectType
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.concurrent.read
+import kotlin.concurrent.thread
+import kotlin.concurrent.write
+
+/**
+ * Node local index of the acl keys each principal has permissions on, grouped by securable object type.
+ *
+ * Lookups only touch the aces of the requested principals and types, instead of evaluating a predicate against every
+ * ace in the permissions map. The index is built on first use and kept up to date by
+ * [PrincipalPermissionIndexListener]. Until the first build completes lookups return null and callers are expected to
+ * fall back to querying the permissions map. Since map events are delivered at most once, the number of indexed aces
+ * is compared against the size of the permissions map every [checkIntervalMillis] ms and the index is rebuilt when
+ * they differ, or at the latest every [rebuildIntervalMillis] ms to pick up lost permission updates.
+ */
+class PrincipalPermissionIndex(
+        private val aces: IMap<AceKey, AceValue>,
+        private val checkIntervalMillis: Long = DEFAULT_CHECK_INTERVAL_MILLIS,
+        private val rebuildIntervalMillis: Long = DEFAULT_REBUILD_INTERVAL_MILLIS
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(PrincipalPermissionIndex::class.java)
+
+        const val DEFAULT_CHECK_INTERVAL_MILLIS = 60L * 60L * 1000L
+        const val DEFAULT_REBUILD_INTERVAL_MILLIS = 24L * DEFAULT_CHECK_INTERVAL_MILLIS
+        private const val RETRY_INTERVAL_MILLIS = 30_000L
+        private const val LOCK_STRIPES = 1024
+    }
+
+    private val started = AtomicBoolean(false)
+    private val locks = Striped.lock(LOCK_STRIPES)
+
+    /**
+     * Held for reading while changing the indexed permissions of a single ace and for writing while removing many aces
+     * at once, so that bulk removals can't interleave with single ace changes.
+     */
+    private val bulkLock = ReentrantReadWriteLock()
+
+    @Volatile
+    private var current: Snapshot? = null
+
+    @Volatile
+    private var building: Snapshot? = null
+
+    /**
+     * Gets the acl keys of [objectTypes] on which any of [principals] has all of [permissions].
+     *
+     * @return The matching acl keys or null if the index has not been built yet.
+     */
+    fun getAuthorizedObjects(
+            principals: Set<Principal>,
+            objectTypes: Collection<SecurableObjectType>,
+            permissions: EnumSet<Permission>
+    ): Set<AclKey>? {
+        val snapshot = current
+        if (snapshot == null) {
+            start()
+            return null
+        }
+
+        return snapshot.getAuthorizedObjects(principals, objectTypes, permissions)
+    }
+
+    /**
+     * Replaces the indexed permissions of [aceKey], with a null [oldValue] or [newValue] meaning the ace did not exist
+     * before or does not exist after the change.
+     */
+    fun update(aceKey: AceKey, oldValue: AceValue?, newValue: AceValue?) {
+        withAceLock(aceKey) {
+            current?.update(aceKey, oldValue, newValue)
+            building?.let {
+                it.touched.add(aceKey)
+                it.update(aceKey, oldValue, newValue)
+            }
+        }
+    }
+
+    /**
+     * Re-reads [aceKeys] from the permissions map, so that local writes are visible to lookups on this node without
+     * waiting for their map events.
+     */
+    fun refresh(aceKeys: Set<AceKey>) {
+        if (current == null && building == null) {
+            return
+        }
+
+        val aceValues = aces.getAll(aceKeys)
+        aceKeys.forEach { aceKey ->
+            withAceLock(aceKey) {
+                current?.replace(aceKey, aceValues[aceKey])
+                building?.let {
+                    it.touched.add(aceKey)
+                    it.replace(aceKey, aceValues[aceKey])
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every ace of [aclKey], for deletes that are not applied key by key.
+     */
+    fun remove(aclKey: AclKey) {
+        bulkLock.write {
+            current?.remove(aclKey)
+            building?.let {
+                it.removedAclKeys.add(aclKey)
+                it.remove(aclKey)
+            }
+        }
+    }
+
+    fun clear() {
+        bulkLock.write {
+            current?.clear()
+            building?.let {
+                it.cleared = true
+                it.clear()
+            }
+        }
+    }
+
+    private inline fun withAceLock(aceKey: AceKey, action: () -> Unit) {
+        bulkLock.read {
+            val lock = locks.get(aceKey)
+            lock.lock()
+            try {
+                action()
+            } finally {
+                lock.unlock()
+            }
+        }
+    }
+
+    private fun start() {
+        if (!started.compareAndSet(false, true)) {
+            return
+        }
+
+        // The listener has to be registered before the first build, so that no change is missed in between.
+        aces.addEntryListener(PrincipalPermissionIndexListener(this), true)
+
+        thread(isDaemon = true, name = "principal-permission-index") {
+            var lastRebuild = 0L
+            while (!Thread.currentThread().isInterrupted) {
+                try {
+                    val now = System.currentTimeMillis()
+                    if (now - lastRebuild >= rebuildIntervalMillis || !isInSync()) {
+                        rebuild()
+                        lastRebuild = now
+                    }
+                    Thread.sleep(checkIntervalMillis)
+                } catch (ex: InterruptedException) {
+                    logger.info("Principal permission index rebuild interrupted.")
+                    Thread.currentThread().interrupt()
+                } catch (ex: Exception) {
+                    logger.error("Unable to build principal permission index.", ex)
+                    try {
+                        Thread.sleep(RETRY_INTERVAL_MILLIS)
+                    } catch (ex: InterruptedException) {
+                        logger.info("Principal permission index rebuild interrupted.")
+                        Thread.currentThread().interrupt()
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether the index holds as many aces as the permissions map, which stops being the case when an add or
+     * remove event was lost.
+     */
+    internal fun isInSync(): Boolean {
+        val snapshot = current ?: return false
+        val indexed = snapshot.size()
+        val stored = aces.size()
+        if (indexed != stored) {
+            logger.info("Principal permission index holds {} aces while there are {}.", indexed, stored)
+        }
+        return indexed == stored
+    }
+
+    /**
+     * Loads every ace into a new snapshot, one securable object type at a time, and swaps it in once complete. Aces
+     * changed while loading are applied to the new snapshot by [update] and are not overwritten by the loaded values,
+     * and loaded aces of acl keys removed while loading are dropped.
+     */
+    internal fun rebuild() {
+        val snapshot = Snapshot()
+        building = snapshot
+
+        try {
+            var count = 0
+            SecurableObjectType.values().forEach { objectType ->
+                val typeAces = aces.entrySet(Predicates.equal(SECURABLE_OBJECT_TYPE_INDEX, objectType))
+                typeAces.forEach { (aceKey, aceValue) ->
+                    withAceLock(aceKey) {
+                        if (!snapshot.cleared
+                                && !snapshot.touched.contains(aceKey)
+                                && !snapshot.removedAclKeys.contains(aceKey.aclKey)) {
+                            snapshot.put(aceKey, aceValue)
+                        }
+                    }
+                    count++
+                }
+            }
+
+            current = snapshot
+            logger.info("Built principal permission index of {} aces.", count)
+        } finally {
+            building = null
+        }
+    }
+
+    private class Snapshot {
+        val touched: MutableSet<AceKey> = ConcurrentHashMap.newKeySet()
+        val removedAclKeys: MutableSet<AclKey> = ConcurrentHashMap.newKeySet()
+
+        @Volatile
+        var cleared = false
+
+        private val index = ConcurrentHashMap<
+                Pair<Principal, SecurableObjectType>,
+                MutableMap<AclKey, EnumSet<Permission>>
+                >()
+
+        fun getAuthorizedObjects(
+                principals: Set<Principal>,
+                objectTypes: Collection<SecurableObjectType>,
+                permissions: EnumSet<Permission>
+        ): Set<AclKey> {
+            val aclKeys = mutableSetOf<AclKey>()
+            principals.forEach { principal ->
+                objectTypes.forEach { objectType ->
+                    index[principal to objectType]?.forEach { (aclKey, acePermissions) ->
+                        if (acePermissions.containsAll(permissions)) {
+                            aclKeys.add(aclKey)
+                        }
+                    }
+                }
+            }
+            return aclKeys
+        }
+
+        fun size(): Int {
+            return index.values.sumOf { it.size }
+        }
+
+        fun update(aceKey: AceKey, oldValue: AceValue?, newValue: AceValue?) {
+            if (oldValue != null) {
+                remove(aceKey, oldValue.securableObjectType)
+            }
+            if (newValue != null) {
+                put(aceKey, newValue)
+            }
+        }
+
+        fun put(aceKey: AceKey, aceValue: AceValue) {
+            index.computeIfAbsent(aceKey.principal to aceValue.securableObjectType) { ConcurrentHashMap() }[aceKey.aclKey] =
+                    EnumSet.copyOf(aceValue.permissions)
+        }
+
+        fun replace(aceKey: AceKey, aceValue: AceValue?) {
+            SecurableObjectType.values().forEach { remove(aceKey, it) }
+            if (aceValue != null) {
+                put(aceKey, aceValue)
+            }
+        }
+
+        fun remove(aclKey: AclKey) {
+            index.values.forEach { it.remove(aclKey) }
+        }
+
+        fun clear() {
+            index.clear()
+        }
+
+        private fun remove(aceKey: AceKey, objectType: SecurableObjectType) {
+            index[aceKey.principal to objectType]?.remove(aceKey.aclKey)
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.openlattice.authorization.listeners
+
+import com.hazelcast.core.EntryEvent
+import com.hazelcast.map.MapEvent
+import com.hazelcast.map.listener.EntryAddedListener
+import com.hazelcast.map.listener.EntryEvictedListener
+import com.hazelcast.map.listener.EntryExpiredListener
+import com.hazelcast.map.listener.EntryRemovedListener
+import com.hazelcast.map.listener.EntryUpdatedListener
+import com.hazelcast.map.listener.MapClearedListener
+import com.hazelcast.map.listener.MapEvictedListener
+import com.openlattice.authorization.AceKey
+import com.openlattice.authorization.AceValue
+import com.openlattice.authorization.AuthorizationCache
+
+/**
+ * Invalidates the node local [AuthorizationCache] whenever an ace changes anywhere in the cluster.
+ *
+ * Unlike [PermissionMapListener], which is registered on the permissions map config and only receives events for
+ * locally owned entries, this listener is registered by each authorization service so it is notified of every change.
+ */
+class AuthorizationCacheInvalidationListener(
+        private val authorizationCache: AuthorizationCache
+) : EntryAddedListener<AceKey, AceValue>,
+    EntryRemovedListener<AceKey, AceValue>,
+    EntryUpdatedListener<AceKey, AceValue>,
+    EntryEvictedListener<AceKey, AceValue>,
+    EntryExpiredListener<AceKey, AceValue>,
+    MapClearedListener,
+    MapEvictedListener {
+
+    override fun entryAdded(event: EntryEvent<AceKey, AceValue>) {
+        authorizationCache.invalidate(event.key.aclKey)
+    }
+
+    override fun entryRemoved(event: EntryEvent<AceKey, AceValue>) {
+        authorizationCache.invalidate(event.key.aclKey)
+    }
+
+    override fun entryUpdated(event: EntryEvent<AceKey, AceValue>) {
+        authorizationCache.invalidate(event.key.aclKey)
+    }
+
+    override fun entryEvicted(event: EntryEvent<AceKey, AceValue>) {
+        authorizationCache.invalidate(event.key.aclKey)
+    }
+
+    override fun entryExpired(event: EntryEvent<AceKey, AceValue>) {
+        authorizationCache.invalidate(event.key.aclKey)
+    }
+
+    override fun mapCleared(event: MapEvent) {
+        authorizationCache.invalidateAll()
+    }
+
+    override fun mapEvicted(event: MapEvent) {
+        authorizationCache.invalidateAll()
+    }
+}
@@ -0,0 +1,45 @@
+package com.openlattice.authorization.listeners
+
+import com.hazelcast.core.EntryEvent
+import com.hazelcast.map.MapEvent
+import com.hazelcast.map.listener.EntryAddedListener
+import com.hazelcast.map.listener.EntryExpiredListener
+import com.hazelcast.map.listener.EntryRemovedListener
+import com.hazelcast.map.listener.EntryUpdatedListener
+import com.hazelcast.map.listener.MapClearedListener
+import com.openlattice.authorization.AceKey
+import com.openlattice.authorization.AceValue
+import com.openlattice.authorization.PrincipalPermissionIndex
+
+/**
+ * Applies every ace change in the cluster to the node local [PrincipalPermissionIndex]. Must be registered with values
+ * included, since the index needs the securable object type of the previous value to remove it.
+ */
+class PrincipalPermissionIndexListener(
+        private val principalPermissionIndex: PrincipalPermissionIndex
+) : EntryAddedListener<AceKey, AceValue>,
+    EntryRemovedListener<AceKey, AceValue>,
+    EntryUpdatedListener<AceKey, AceValue>,
+    EntryExpiredListener<AceKey, AceValue>,
+    MapClearedListener {
+
+    override fun entryAdded(event: EntryEvent<AceKey, AceValue>) {
+        principalPermissionIndex.update(event.key, null, event.value)
+    }
+
+    override fun entryRemoved(event: EntryEvent<AceKey, AceValue>) {
+        principalPermissionIndex.update(event.key, event.oldValue, null)
+    }
+
+    override fun entryUpdated(event: EntryEvent<AceKey, AceValue>) {
+        principalPermissionIndex.update(event.key, event.oldValue, event.value)
+    }
+
+    override fun entryExpired(event: EntryEvent<AceKey, AceValue>) {
+        principalPermissionIndex.update(event.key, event.oldValue, null)
+    }
+
+    override fun mapCleared(event: MapEvent) {
+        principalPermissionIndex.clear()
+    }
+}
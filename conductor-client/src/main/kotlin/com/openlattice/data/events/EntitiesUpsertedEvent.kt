@@ -22,4 +22,31 @@ package com.openlattice.data.events
 
 import java.util.UUID
 
-data class EntitiesUpsertedEvent(val entitySetId: UUID, val entities: Map<UUID, Map<UUID, Set<Any>>>)
\ No newline at end of file
+/**
+ * @param entities The entities to index, mapped by entity key id and property type id. Must include the last write of
+ * each entity.
+ * @param update How [entities] are applied to the indexed documents.
+ */
+data class EntitiesUpsertedEvent(
+        val entitySetId: UUID,
+        val entities: Map<UUID, Map<UUID, Set<Any>>>,
+        val update: EntityIndexUpdate = EntityIndexUpdate.INDEX
+)
+
+enum class EntityIndexUpdate {
+    /**
+     * The entities are complete and replace the indexed documents.
+     */
+    INDEX,
+
+    /**
+     * The entities only contain the written properties, whose values replace the indexed values of those properties.
+     */
+    REPLACE_PROPERTIES,
+
+    /**
+     * The entities only contain the written properties, whose values are added to the indexed values of those
+     * properties.
+     */
+    MERGE_PROPERTIES
+}
\ No newline at end of file
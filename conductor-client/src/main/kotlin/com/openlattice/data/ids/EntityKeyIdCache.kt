@@ -0,0 +1,161 @@
+package com.openlattice.data.ids
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.cache.CacheBuilder
+import com.google.common.hash.BloomFilter
+import com.google.common.hash.Funnels
+import com.hazelcast.map.IMap
+import com.openlattice.data.EntityKey
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Node local front for entity key id lookups.
+ *
+ * Entity key ids that have been fully written are kept in a size bounded cache whose entries expire after [ttlMillis].
+ * Each entry is tagged with the epoch of its entity set in [epochs] as it was before the entity key id was read from
+ * the database. Hard deletes on any node move the epoch of the deleted entity sets forward through [invalidate], after
+ * which the tagged entries are no longer served, so a deleted entity is never written against its old id.
+ *
+ * In addition, a bloom filter over the entity ids of each entity set is built asynchronously from [loadEntityIds]
+ * the first time the entity set is seen. Keys that are not in the filter are definitely new and can skip the lookup
+ * query. Ids assigned by other nodes after the filter was built are reported as new, which is safe since assignment
+ * falls back to the existing entity key id on conflict.
+ */
+class EntityKeyIdCache(
+        metricRegistry: MetricRegistry,
+        private val executor: ExecutorService,
+        private val loadEntityIds: (UUID) -> Iterable<String>,
+        private val epochs: IMap<UUID, Long>,
+        maximumSize: Long = DEFAULT_MAXIMUM_SIZE,
+        ttlMillis: Long = DEFAULT_TTL_MILLIS,
+        maximumBloomFilters: Long = DEFAULT_MAXIMUM_BLOOM_FILTERS
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(EntityKeyIdCache::class.java)
+
+        const val DEFAULT_MAXIMUM_SIZE = 1_000_000L
+        const val DEFAULT_TTL_MILLIS = 60L * 60L * 1000L
+        const val DEFAULT_MAXIMUM_BLOOM_FILTERS = 32L
+        const val BLOOM_FILTER_EXPECTED_INSERTIONS = 2_000_000L
+        const val BLOOM_FILTER_FPP = 0.01
+
+        /**
+         * Invalidates the entity key ids of [entitySetIds] cached on every node. Must be called once entities of these
+         * entity sets have been hard deleted.
+         */
+        @JvmStatic
+        fun invalidate(epochs: IMap<UUID, Long>, entitySetIds: Collection<UUID>) {
+            entitySetIds.forEach { entitySetId ->
+                epochs.merge(entitySetId, 1L) { epoch, increment -> epoch + increment }
+            }
+        }
+    }
+
+    private data class CachedEntityKeyId(val id: UUID, val epoch: Long)
+
+    private val entityKeyIds = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+            .build<EntityKey, CachedEntityKeyId>()
+
+    private val bloomFilters = CacheBuilder.newBuilder()
+            .maximumSize(maximumBloomFilters)
+            .build<UUID, BloomFilter<CharSequence>>()
+
+    private val bloomFiltersInProgress = ConcurrentHashMap.newKeySet<UUID>()
+
+    private val hits = metricRegistry.meter(MetricRegistry.name(EntityKeyIdCache::class.java, "hits"))
+    private val misses = metricRegistry.meter(MetricRegistry.name(EntityKeyIdCache::class.java, "misses"))
+    private val bloomFilterSkips = metricRegistry.meter(
+            MetricRegistry.name(EntityKeyIdCache::class.java, "bloomFilterSkips")
+    )
+
+    /**
+     * @return The current epochs of [entitySetIds]. They must be read before the entity key ids that are later passed
+     * to [putAll] are read from the database.
+     */
+    fun getEpochs(entitySetIds: Set<UUID>): Map<UUID, Long> {
+        return epochs.getAll(entitySetIds)
+    }
+
+    /**
+     * @return The cached entity key ids for any of the [entityKeys] that have them and are still valid in [epochs].
+     */
+    fun getAllPresent(entityKeys: Set<EntityKey>, epochs: Map<UUID, Long>): Map<EntityKey, UUID> {
+        val present = entityKeyIds.getAllPresent(entityKeys)
+                .mapNotNull { (entityKey, cached) ->
+                    validOrInvalidate(entityKey, cached, epochs[entityKey.entitySetId] ?: 0L)?.let { entityKey to it }
+                }
+                .toMap()
+        hits.mark(present.size.toLong())
+        misses.mark((entityKeys.size - present.size).toLong())
+        return present
+    }
+
+    fun getIfPresent(entityKey: EntityKey, epoch: Long): UUID? {
+        val entityKeyId = entityKeyIds.getIfPresent(entityKey)?.let { validOrInvalidate(entityKey, it, epoch) }
+        if (entityKeyId == null) misses.mark() else hits.mark()
+        return entityKeyId
+    }
+
+    /**
+     * Records entity key ids that have been written.
+     *
+     * @param epochs The epochs of the entity sets of [written] from [getEpochs].
+     */
+    fun putAll(written: Map<EntityKey, UUID>, epochs: Map<UUID, Long>) {
+        written.forEach { (entityKey, entityKeyId) ->
+            entityKeyIds.put(entityKey, CachedEntityKeyId(entityKeyId, epochs[entityKey.entitySetId] ?: 0L))
+            bloomFilters.getIfPresent(entityKey.entitySetId)?.put(entityKey.entityId)
+        }
+    }
+
+    private fun validOrInvalidate(entityKey: EntityKey, cached: CachedEntityKeyId, epoch: Long): UUID? {
+        if (cached.epoch == epoch) {
+            return cached.id
+        }
+        entityKeyIds.invalidate(entityKey)
+        return null
+    }
+
+    /**
+     * Splits [entityKeys] into keys that definitely do not have an entity key id yet and keys that might.
+     */
+    fun partitionDefinitelyNew(entityKeys: Collection<EntityKey>): Pair<List<EntityKey>, List<EntityKey>> {
+        val (definitelyNew, unknown) = entityKeys.partition { entityKey ->
+            val bloomFilter = getBloomFilter(entityKey.entitySetId)
+            bloomFilter != null && !bloomFilter.mightContain(entityKey.entityId)
+        }
+        bloomFilterSkips.mark(definitelyNew.size.toLong())
+        return definitelyNew to unknown
+    }
+
+    private fun getBloomFilter(entitySetId: UUID): BloomFilter<CharSequence>? {
+        val bloomFilter = bloomFilters.getIfPresent(entitySetId)
+        if (bloomFilter == null && bloomFiltersInProgress.add(entitySetId)) {
+            executor.execute { buildBloomFilter(entitySetId) }
+        }
+        return bloomFilter
+    }
+
+    private fun buildBloomFilter(entitySetId: UUID) {
+        try {
+            val bloomFilter = BloomFilter.create(
+                    Funnels.stringFunnel(Charsets.UTF_8),
+                    BLOOM_FILTER_EXPECTED_INSERTIONS,
+                    BLOOM_FILTER_FPP
+            )
+            loadEntityIds(entitySetId).forEach { bloomFilter.put(it) }
+            bloomFilters.put(entitySetId, bloomFilter)
+            logger.info("Built entity id bloom filter for entity set {}.", entitySetId)
+        } catch (ex: Exception) {
+            logger.error("Unable to build entity id bloom filter for entity set {}.", entitySetId, ex)
+        } finally {
+            bloomFiltersInProgress.remove(entitySetId)
+        }
+    }
+}
@@ -21,13 +21,17 @@
 
 package com.openlattice.data.ids
 
+import com.codahale.metrics.MetricRegistry
+import com.hazelcast.core.HazelcastInstance
 import com.openlattice.IdConstants
 import com.openlattice.data.EntityDataKey
 import com.openlattice.data.EntityKey
 import com.openlattice.data.EntityKeyIdService
 import com.openlattice.data.storage.DataSourceResolver
+import com.openlattice.data.storage.FETCH_SIZE
 import com.openlattice.data.storage.getByDataSource
 import com.openlattice.data.util.PostgresDataHasher
+import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.ids.HazelcastIdGenerationService
 import com.geekbeast.postgres.PostgresArrays
 import com.openlattice.postgres.PostgresColumn.*
@@ -41,11 +45,13 @@ import org.springframework.stereotype.Service
 import java.sql.Connection
 import java.sql.PreparedStatement
 import java.util.*
+import java.util.concurrent.Executors
 import kotlin.collections.HashMap
 
 internal val entityKeyIdsSqlNotIdWritten = "SELECT * FROM ${SYNC_IDS.name} WHERE ${ENTITY_SET_ID.name} = ? AND ${ENTITY_ID.name} = ANY(?) AND NOT ${ID_WRITTEN.name} "
 private val entityKeyIdsSqlAny = "SELECT * FROM ${SYNC_IDS.name} WHERE ${ENTITY_SET_ID.name} = ? AND ${ENTITY_ID.name} = ANY(?)"
 private val entityKeyIdSql = "SELECT * FROM ${SYNC_IDS.name} WHERE ${ENTITY_SET_ID.name} = ? AND ${ENTITY_ID.name} = ? "
+private val entityIdsOfEntitySetSql = "SELECT ${ENTITY_ID.name} FROM ${SYNC_IDS.name} WHERE ${ENTITY_SET_ID.name} = ?"
 private val linkedEntityKeyIdsSql = "SELECT ${ID.name},${LINKING_ID.name} as $ENTITY_KEY_IDS_FIELD FROM ${IDS.name} WHERE ${ID.name} = ANY(?) AND ${LINKING_ID.name} IS NOT NULL"
 
 //Only update ids the need updating to minimize i/o
@@ -70,8 +76,20 @@ private val logger = LoggerFactory.getLogger(PostgresEntityKeyIdService::class.j
 @Service
 class PostgresEntityKeyIdService(
         private val dataSourceResolver: DataSourceResolver,
-        private val idGenerationService: HazelcastIdGenerationService
+        private val idGenerationService: HazelcastIdGenerationService,
+        hazelcastInstance: HazelcastInstance,
+        metricRegistry: MetricRegistry
 ) : EntityKeyIdService {
+    companion object {
+        private val bloomFilterExecutor = Executors.newSingleThreadExecutor()
+    }
+
+    private val entityKeyIdCache = EntityKeyIdCache(
+            metricRegistry,
+            bloomFilterExecutor,
+            this::loadEntityIds,
+            HazelcastMap.ENTITY_KEY_ID_EPOCHS.getMap(hazelcastInstance)
+    )
 
     private fun genEntityKeyIds(entityIds: Set<EntityKey>): Map<EntityKey, UUID> {
         val ids = idGenerationService.getNextIds(entityIds.size)
@@ -106,28 +124,62 @@ class PostgresEntityKeyIdService(
         return getByDataSource(dataSourceResolver, entityKeyIds) { it.entitySetId }
     }
 
-    private fun storeEntityKeyIds(entityKeyIds: Map<EntityKey, UUID>): Map<EntityKey, UUID> {
+    /**
+     * @param epochs The epochs of the entity sets of [entityKeyIds], read before any of them were looked up.
+     */
+    private fun storeEntityKeyIds(entityKeyIds: Map<EntityKey, UUID>, epochs: Map<UUID, Long>): Map<EntityKey, UUID> {
         val entityKeyIdsByDatasource = getEntityKeyIdsByDataSource(entityKeyIds)
 
-        return entityKeyIdsByDatasource.map { (datasourceName, entityKeyIdGroup) ->
+        val storedEntityKeyIds = entityKeyIdsByDatasource.map { (datasourceName, entityKeyIdGroup) ->
             dataSourceResolver.getDataSource(datasourceName).connection.use { connection ->
                 storeEntityKeyIds(connection, entityKeyIdGroup, idGenerationService)
             }
         }.flatMap { entityKeyIdGroup -> entityKeyIdGroup.entries.map { it.toPair() } }.toMap()
+
+        //Only ids that have been fully written are safe to serve from the cache.
+        entityKeyIdCache.putAll(storedEntityKeyIds, epochs)
+
+        return storedEntityKeyIds
     }
 
-    private fun assignEntityKeyIds(entityKeys: Set<EntityKey>): Map<EntityKey, UUID> {
-        val assignedEntityKeyIds = entityKeys.associateWith { idGenerationService.getNextId() }
-        return storeEntityKeyIds(assignedEntityKeyIds)
+    private fun loadEntityIds(entitySetId: UUID): Iterable<String> {
+        return BasePostgresIterable(
+                PreparedStatementHolderSupplier(
+                        dataSourceResolver.resolve(entitySetId),
+                        entityIdsOfEntitySetSql,
+                        FETCH_SIZE
+                ) { ps -> ps.setObject(1, entitySetId) }
+        ) { it.getString(ENTITY_ID.name) }
     }
 
-    override fun reserveEntityKeyIds(entityKeys: Set<EntityKey>): Set<UUID> {
-        val entityIdsByEntitySet = entityKeys
+    /**
+     * Loads entity key ids for keys that are neither cached nor known to be new.
+     */
+    private fun loadUncachedEntityKeyIds(entityKeys: Set<EntityKey>, epochs: Map<UUID, Long>): Map<EntityKey, UUID> {
+        val cached = entityKeyIdCache.getAllPresent(entityKeys, epochs)
+        val (_, unknown) = entityKeyIdCache.partitionDefinitelyNew(entityKeys.filter { it !in cached })
+
+        val entityIdsByEntitySet = unknown
                 .groupBy({ it.entitySetId }, { it.entityId })
                 .mapValues { it.value.toSet() }
-        val existing = loadEntityKeyIds(entityIdsByEntitySet)
+
+        return cached + loadEntityKeyIds(entityIdsByEntitySet)
+    }
+
+    private fun assignEntityKeyIds(entityKeys: Set<EntityKey>, epochs: Map<UUID, Long>): Map<EntityKey, UUID> {
+        val assignedEntityKeyIds = entityKeys.associateWith { idGenerationService.getNextId() }
+        return storeEntityKeyIds(assignedEntityKeyIds, epochs)
+    }
+
+    private fun getEpochs(entityKeys: Set<EntityKey>): Map<UUID, Long> {
+        return entityKeyIdCache.getEpochs(entityKeys.mapTo(mutableSetOf()) { it.entitySetId })
+    }
+
+    override fun reserveEntityKeyIds(entityKeys: Set<EntityKey>): Set<UUID> {
+        val epochs = getEpochs(entityKeys)
+        val existing = loadUncachedEntityKeyIds(entityKeys, epochs)
         val missing = entityKeys - existing.keys
-        val missingMap = assignEntityKeyIds(missing)
+        val missingMap = assignEntityKeyIds(missing, epochs)
 
         return entityKeys.asSequence().map { existing[it] ?: missingMap.getValue(it) }.toSet()
     }
@@ -157,8 +209,12 @@ class PostgresEntityKeyIdService(
     }
 
     override fun getEntityKeyId(entityKey: EntityKey): UUID {
-        return loadEntityKeyId(entityKey.entitySetId, entityKey.entityId) ?: storeEntityKeyIds(
-                genEntityKeyIds(setOf(entityKey))
+        val epochs = getEpochs(setOf(entityKey))
+        return entityKeyIdCache.getIfPresent(entityKey, epochs[entityKey.entitySetId] ?: 0L)
+                ?: loadEntityKeyId(entityKey.entitySetId, entityKey.entityId)
+                ?: storeEntityKeyIds(
+                genEntityKeyIds(setOf(entityKey)),
+                epochs
         ).getValue(entityKey)
     }
 
@@ -214,15 +270,13 @@ class PostgresEntityKeyIdService(
             entityKeys: Set<EntityKey>,
             entityKeyIds: MutableMap<EntityKey, UUID>
     ): MutableMap<EntityKey, UUID> {
-        val entityIdsByEntitySet = entityKeys
-                .groupBy({ it.entitySetId }, { it.entityId })
-                .mapValues { it.value.toSet() }
-        entityKeyIds.putAll(loadEntityKeyIds(entityIdsByEntitySet))
+        val epochs = getEpochs(entityKeys)
+        entityKeyIds.putAll(loadUncachedEntityKeyIds(entityKeys, epochs))
 
         //Making this line O(n) is why we chose to just take a set instead of a sequence (thus allowing lazy views since copy is required anyway)
         val missing = entityKeys.minus(entityKeyIds.keys)
 
-        val missingMap = assignEntityKeyIds(missing)
+        val missingMap = assignEntityKeyIds(missing, epochs)
         entityKeyIds.putAll(missingMap)
 
         return entityKeyIds
@@ -10,6 +10,7 @@ import com.openlattice.data.DataEdgeKey
 import com.openlattice.data.DeleteType
 import com.openlattice.data.EntityDataKey
 import com.openlattice.data.WriteEvent
+import com.openlattice.data.ids.EntityKeyIdCache
 import com.openlattice.data.storage.FETCH_SIZE
 import com.openlattice.data.storage.PostgresEntitySetSizesInitializationTask
 import com.openlattice.data.storage.postgres.getMergedDataColumnName
@@ -51,6 +52,9 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import java.sql.PreparedStatement
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 class DataDeletionJob(
         state: DataDeletionJobState
@@ -74,9 +78,44 @@ class DataDeletionJob(
 
     companion object {
         private const val BATCH_SIZE = 10_000
-        private val ALL_PARTITIONS = (0..257)
+
+        /**
+         * Number of disjoint entity key id ranges an entity set is split into for deletion. Each range is worked on by
+         * one worker at a time and checkpointed in [DataDeletionJobState.remainingSlices] once it is empty. Must be a
+         * power of two.
+         */
+        private const val ID_SLICES = 16
+
+        /**
+         * Maximum number of batches deleted concurrently, shared by all deletion jobs running on this node.
+         */
+        private const val MAX_CONCURRENT_BATCHES = 8
+
+        private val executor = Executors.newFixedThreadPool(MAX_CONCURRENT_BATCHES)
+
+        /**
+         * Inclusive bounds of entity key id range [slice]. Postgres compares uuids byte by byte, so splitting on the
+         * leading bits of the most significant long yields contiguous, disjoint ranges.
+         */
+        @JvmStatic
+        internal fun idSliceBounds(slice: Int): Pair<UUID, UUID> {
+            val sliceBits = Long.SIZE_BITS - Integer.numberOfTrailingZeros(ID_SLICES)
+            val lower = UUID(slice.toLong() shl sliceBits, 0L)
+            val upper = UUID(((slice + 1).toLong() shl sliceBits) - 1, -1L)
+            return lower to upper
+        }
+    }
+
+    private sealed class DeletionSlice {
+        data class IdRange(val slice: Int) : DeletionSlice()
+        data class EntityKeyIds(val entityKeyIds: Set<UUID>) : DeletionSlice()
     }
 
+    /**
+     * @param completed Whether there is nothing left to delete in the slice, so it no longer needs to be scheduled.
+     */
+    private data class SliceResult(val deleted: Long, val completed: Boolean)
+
     @Transient
     private lateinit var lateInitProvider: LateInitProvider
 
@@ -89,37 +128,124 @@ class DataDeletionJob(
     @Transient
     private lateinit var propertyTypes: IMap<UUID, PropertyType>
 
+    @Transient
+    private lateinit var entityKeyIdEpochs: IMap<UUID, Long>
+
+    @Transient
+    private var startedAt = 0L
+
+    @Transient
+    private var deletesAtStart = 0L
+
     override fun initializeHazelcastRelatedObjects() {
         this.entitySets = HazelcastMap.ENTITY_SETS.getMap(hazelcastInstance)
         this.entityTypes = HazelcastMap.ENTITY_TYPES.getMap(hazelcastInstance)
         this.propertyTypes = HazelcastMap.PROPERTY_TYPES.getMap(hazelcastInstance)
+        this.entityKeyIdEpochs = HazelcastMap.ENTITY_KEY_ID_EPOCHS.getMap(hazelcastInstance)
     }
 
     override fun initialize() {
         state.totalToDelete = getTotalToDelete()
+        if (state.entityKeyIds == null) {
+            state.remainingSlices = (0 until ID_SLICES).toMutableSet()
+        }
         logger.info("${state.totalToDelete} entities to be deleted")
     }
 
+    /**
+     * Deletes up to [MAX_CONCURRENT_BATCHES] batches in parallel, one per pending slice, and checkpoints the slices
+     * that were completed. A failed slice is logged and scheduled again on the next call, since deletes are idempotent.
+     */
     override fun processNextBatch() {
-        val entityDataKeys = getBatchOfEntityDataKeys()
+        if (startedAt == 0L) {
+            startedAt = System.currentTimeMillis()
+            deletesAtStart = state.numDeletes
+        }
 
-        if (entityDataKeys.isEmpty()) {
+        val slices = getPendingSlices()
+
+        if (slices.isEmpty()) {
             hasWorkRemaining = false
             publishJobState()
             return
         }
 
-        // batch delete neighbors first. Only delete from state.entitySetId if there are no more neighbors to delete
+        val futures = slices.map { slice -> slice to executor.submit(Callable { processSlice(slice) }) }
+        val failures = mutableListOf<Throwable>()
+
+        futures.forEach { (slice, future) ->
+            try {
+                val result = future.get()
+                state.numDeletes += result.deleted
+                if (result.completed) {
+                    completeSlice(slice)
+                }
+            } catch (ex: ExecutionException) {
+                logger.warn("Unable to delete slice {} of entity set {}, it will be retried.", slice, state.entitySetId, ex)
+                failures.add(ex.cause ?: ex)
+            }
+        }
+
+        updateThroughput()
+        publishJobState()
+
+        if (failures.size == futures.size) {
+            throw failures.first()
+        }
+    }
+
+    @JsonIgnore
+    private fun getPendingSlices(): List<DeletionSlice> {
+        state.entityKeyIds?.let { entityKeyIds ->
+            return entityKeyIds
+                    .take(BATCH_SIZE * MAX_CONCURRENT_BATCHES)
+                    .chunked(BATCH_SIZE)
+                    .map { DeletionSlice.EntityKeyIds(it.toSet()) }
+        }
+
+        val remainingSlices = state.remainingSlices ?: (0 until ID_SLICES).toMutableSet()
+        state.remainingSlices = remainingSlices
+        return remainingSlices.sorted().take(MAX_CONCURRENT_BATCHES).map { DeletionSlice.IdRange(it) }
+    }
+
+    private fun completeSlice(slice: DeletionSlice) {
+        when (slice) {
+            is DeletionSlice.IdRange -> state.remainingSlices?.remove(slice.slice)
+            is DeletionSlice.EntityKeyIds -> state.entityKeyIds?.removeAll(slice.entityKeyIds)
+        }
+    }
+
+    private fun processSlice(slice: DeletionSlice): SliceResult {
+        return when (slice) {
+            is DeletionSlice.IdRange -> {
+                val entityDataKeys = getBatchOfEntityDataKeys(slice.slice)
+                if (entityDataKeys.isEmpty()) {
+                    SliceResult(0, true)
+                } else {
+                    // the range may still hold more entities, so it is only complete once a batch comes back empty
+                    SliceResult(deleteBatch(entityDataKeys).deleted, false)
+                }
+            }
+            is DeletionSlice.EntityKeyIds -> deleteBatch(
+                    slice.entityKeyIds.mapTo(mutableSetOf()) { EntityDataKey(state.entitySetId, it) }
+            )
+        }
+    }
+
+    /**
+     * Deletes a batch of entities of state.entitySetId along with their edges. Neighbors are deleted first, one batch
+     * at a time, and the batch only counts as completed once it has no more neighbors to delete.
+     */
+    private fun deleteBatch(entityDataKeys: Set<EntityDataKey>): SliceResult {
         val neighborEntityDataKeys = getBatchOfNeighborEntityDataKeys(entityDataKeys.map { it.entityKeyId }.toSet())
         if (neighborEntityDataKeys.isNotEmpty()) {
-            deleteNeighborEntitiesAndEdges(neighborEntityDataKeys)
-            return
+            return SliceResult(deleteNeighborEntitiesAndEdges(neighborEntityDataKeys).toLong(), false)
         }
 
-        logger.info("Processing data keys: {}", entityDataKeys)
+        logger.info("Processing batch of {} data keys", entityDataKeys.size)
         var edgeBatch = getBatchOfEdgesForIds(entityDataKeys)
         while (edgeBatch.isNotEmpty()) {
-            logger.info("${state.deleteType} deleting edges and entities involving {}", edgeBatch)
+            logger.info("${state.deleteType} deleting edges and entities involving {} edges", edgeBatch.size)
             val edgeEdkBatch = edgeBatch.map { it.edge }.toSet()
             val deletedEntities = deleteEntities(edgeEdkBatch)
             val deletedEdges = deleteEdges(edgeBatch).numUpdates
@@ -128,10 +254,30 @@ class DataDeletionJob(
         }
 
         val deletedEntities = deleteEntities(entityDataKeys)
-        logger.info("Deleted $deletedEntities from batch {}", entityDataKeys)
-        state.numDeletes += deletedEntities
+        logger.info("Deleted $deletedEntities from batch of size ${entityDataKeys.size}")
         cleanUpBatch(entityDataKeys)
-        publishJobState()
+        return SliceResult(deletedEntities.toLong(), true)
+    }
+
+    private fun updateThroughput() {
+        val elapsedMillis = System.currentTimeMillis() - startedAt
+        val deleted = state.numDeletes - deletesAtStart
+        if (elapsedMillis <= 0 || deleted <= 0) {
+            return
+        }
+
+        val remaining = (state.totalToDelete - state.numDeletes).coerceAtLeast(0)
+        state.deletesPerSecond = deleted * 1000.0 / elapsedMillis
+        state.estimatedMillisRemaining = remaining * elapsedMillis / deleted
+
+        logger.info(
+                "Deleted {} of {} entities for entity set {} ({} per second, about {} seconds remaining)",
+                state.numDeletes,
+                state.totalToDelete,
+                state.entitySetId,
+                state.deletesPerSecond.toLong(),
+                state.estimatedMillisRemaining / 1000
+        )
     }
 
     override fun updateProgress() {
@@ -195,7 +341,7 @@ class DataDeletionJob(
     }
 
     @JsonIgnore
-    private fun deleteNeighborEntitiesAndEdges(entityDataKeys: Set<EntityDataKey>) {
+    private fun deleteNeighborEntitiesAndEdges(entityDataKeys: Set<EntityDataKey>): Int {
 
         logger.info("Processing neighbor entity data keys of batch size ${entityDataKeys.size}")
 
@@ -211,7 +357,7 @@ class DataDeletionJob(
 
         val deletedEntities = deleteEntities(entityDataKeys)
         logger.info("Deleted $deletedEntities neighbor entities from batch size ${entityDataKeys.size}")
-        state.numDeletes += deletedEntities
+        return deletedEntities
     }
 
     /**
@@ -275,15 +421,14 @@ class DataDeletionJob(
     }
 
     @JsonIgnore
-    private fun getBatchOfEntityDataKeys(): Set<EntityDataKey> {
-        state.entityKeyIds?.let { entityKeyIds ->
-            return entityKeyIds.take(BATCH_SIZE).mapTo(mutableSetOf()) { EntityDataKey(state.entitySetId, it) }
-        }
-
+    private fun getBatchOfEntityDataKeys(slice: Int): Set<EntityDataKey> {
+        val (lower, upper) = idSliceBounds(slice)
         val hds = lateInitProvider.resolver.resolve(state.entitySetId)
 
         return BasePostgresIterable(PreparedStatementHolderSupplier(hds, getIdsBatchSql()) {
             it.setObject(1, state.entitySetId)
+            it.setObject(2, lower)
+            it.setObject(3, upper)
         }) {
             ResultSetAdapters.entityDataKey(it)
         }.toSet()
@@ -294,7 +439,6 @@ class DataDeletionJob(
         //This is just affecting linking so we use default data source by design.
         val hds = lateInitProvider.resolver.getDefaultDataSource()
         PostgresLinkingQueryService.deleteNeighborhoods(hds, state.entitySetId, entityKeyIds)
-        state.entityKeyIds?.removeAll(entityKeyIds)
     }
 
     @JsonIgnore
@@ -356,7 +500,7 @@ class DataDeletionJob(
             }
         }
 
-        return entityDataKeys.groupBy { lateInitProvider.resolver.getDataSourceName(it.entitySetId) }
+        val deletedCount = entityDataKeys.groupBy { lateInitProvider.resolver.getDataSourceName(it.entitySetId) }
                 .map { (dataSourceName, entityDataKeysForDataSource) ->
                     val dataHds = lateInitProvider.resolver.getDataSource(dataSourceName)
                     val entitySetIdToIds = entityDataKeysForDataSource
@@ -377,6 +521,13 @@ class DataDeletionJob(
                         }
                     }
                 }.sum()
+
+        if (isHardDelete()) {
+            //Rewrites of hard deleted entities have to go through entity key id assignment again.
+            EntityKeyIdCache.invalidate(entityKeyIdEpochs, entitySetIds)
+        }
+
+        return deletedCount
     }
 
     @JsonIgnore
@@ -596,6 +747,8 @@ class DataDeletionJob(
      * PreparedStatement bind order:
      *
      * 1) entitySetId
+     * 2) lower bound of entity key id slice (inclusive)
+     * 3) upper bound of entity key id slice (inclusive)
      */
     @JsonIgnore
     private fun getIdsBatchSql(): String {
@@ -603,6 +756,7 @@ class DataDeletionJob(
             SELECT ${ENTITY_SET_ID.name}, ${ID.name}
             FROM ${IDS.name}
             WHERE ${ENTITY_SET_ID.name} = ?
+            AND ${ID.name} BETWEEN ? AND ?
             ${excludeClearedIfSoftDeleteSql()}
             LIMIT $BATCH_SIZE
         """.trimIndent()
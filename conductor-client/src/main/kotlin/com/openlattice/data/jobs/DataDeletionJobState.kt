@@ -13,5 +13,8 @@ data class DataDeletionJobState(
         internal var totalToDelete: Long = 0,
         var numDeletes: Long = 0,
         val neighborSrcEntitySetIds: Set<UUID> = setOf(),
-        val neighborDstEntitySetIds: Set<UUID> = setOf()
+        val neighborDstEntitySetIds: Set<UUID> = setOf(),
+        var remainingSlices: MutableSet<Int>? = null,
+        var deletesPerSecond: Double = 0.0,
+        var estimatedMillisRemaining: Long = -1
 ) : JobState
@@ -25,7 +25,8 @@ interface EntityDataQueryService {
             authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
             propertyTypeFilters: Map<UUID, Set<Filter>> = mapOf(),
             metadataOptions: Set<MetadataOption> = EnumSet.noneOf(MetadataOption::class.java),
-            version: Optional<Long> = Optional.empty()
+            version: Optional<Long> = Optional.empty(),
+            readMode: DataReadMode = DataReadMode.JSON
     ): Iterable<Pair<UUID, MutableMap<UUID, MutableSet<Any>>>>
 
     fun getLinkedEntitiesWithPropertyTypeIds(
@@ -72,9 +73,38 @@ interface EntityDataQueryService {
             metadataOptions: Set<MetadataOption> = EnumSet.noneOf(MetadataOption::class.java),
             version: Optional<Long> = Optional.empty(),
             linking: Boolean = false,
-            filteredDataPageDefinition: FilteredDataPageDefinition? = null
+            filteredDataPageDefinition: FilteredDataPageDefinition? = null,
+            readMode: DataReadMode = DataReadMode.JSON
     ): Map<UUID, MutableMap<FullQualifiedName, MutableSet<Any>>>
 
+    /**
+     * Streams entities keyed by property type full qualified name. Unlike [getEntitiesWithPropertyTypeFqns] the
+     * result is never materialized, so this should be used for exports of whole entity sets.
+     *
+     * Note: not implemented for linking entity sets!
+     */
+    fun getEntitiesWithPropertyTypeFqnsIterable(
+            entityKeyIds: Map<UUID, Optional<Set<UUID>>>,
+            authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
+            propertyTypeFilters: Map<UUID, Set<Filter>> = mapOf(),
+            metadataOptions: Set<MetadataOption> = EnumSet.noneOf(MetadataOption::class.java),
+            version: Optional<Long> = Optional.empty(),
+            readMode: DataReadMode = DataReadMode.JSON
+    ): Iterable<MutableMap<FullQualifiedName, MutableSet<Any>>>
+
+    /**
+     * Reads entities with [DataReadMode.TYPED_ROWS], returning entity key id to entity set id and entity.
+     *
+     * Note: not implemented for linking entity sets!
+     */
+    fun getTypedEntitySetIterable(
+            entityKeyIds: Map<UUID, Optional<Set<UUID>>>,
+            authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
+            propertyTypeFilters: Map<UUID, Set<Filter>> = mapOf(),
+            metadataOptions: Set<MetadataOption> = EnumSet.noneOf(MetadataOption::class.java),
+            filteredDataPageDefinition: FilteredDataPageDefinition? = null
+    ): Iterable<Pair<UUID, Pair<UUID, MutableMap<UUID, MutableSet<Any>>>>>
+
     /**
      * Note: for linking queries, linking id and entity set id will be returned, thus data won't be merged by linking id
      */
@@ -0,0 +1,48 @@
+package com.openlattice.data.storage
+
+import com.hazelcast.core.HazelcastInstance
+import com.openlattice.data.EntityDataKey
+import com.openlattice.hazelcast.HazelcastQueue
+import org.slf4j.LoggerFactory
+import java.util.*
+
+/**
+ * Publishes written entities to the indexer so that batches too large to index directly are picked up within seconds
+ * instead of waiting for the background scan of the ids table.
+ *
+ * Publishing is best effort. If the queue is full the change is dropped and the entities are picked up by the
+ * background scan, which only looks at entities with last_index < last_write.
+ */
+class IndexingChangeFeed(hazelcastInstance: HazelcastInstance) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(IndexingChangeFeed::class.java)
+    }
+
+    private val changes = HazelcastQueue.INDEXING_CHANGES.getQueue(hazelcastInstance)
+
+    fun publish(entitySetId: UUID, entityKeyIds: Set<UUID>) {
+        if (entityKeyIds.isEmpty()) {
+            return
+        }
+
+        if (changes.remainingCapacity() < entityKeyIds.size) {
+            logger.warn(
+                    "Indexing change feed is full. Leaving {} entities of entity set {} to the background scan.",
+                    entityKeyIds.size,
+                    entitySetId
+            )
+            return
+        }
+
+        try {
+            changes.addAll(entityKeyIds.map { EntityDataKey(entitySetId, it) })
+        } catch (ex: IllegalStateException) {
+            logger.warn(
+                    "Unable to publish {} entities of entity set {}. Leaving them to the background scan.",
+                    entityKeyIds.size,
+                    entitySetId,
+                    ex
+            )
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.openlattice.data.storage
 import com.openlattice.data.EntityDataKey
 import com.openlattice.postgres.DataTables.LAST_INDEX
 import com.openlattice.postgres.DataTables.LAST_LINK
+import com.openlattice.postgres.DataTables.LAST_WRITE
 import com.openlattice.postgres.PostgresColumn.ENTITY_SET_ID
 import com.openlattice.postgres.PostgresColumn.ID
 import com.openlattice.postgres.PostgresColumn.LAST_LINK_INDEX
@@ -21,7 +22,8 @@ class IndexingMetadataManager(
 ) {
 
     /**
-     * Marks entities as indexed by setting last_index = last_write.
+     * Marks entities as indexed by setting last_index = last_write. Entities written again since the indexed last
+     * write are left as is, so that they are indexed again.
      * @param entityKeyIdsWithLastWrite Map of (normal) entity_set_id to id to last_write.
      */
     fun markAsIndexed(
@@ -33,11 +35,12 @@ class IndexingMetadataManager(
                     hds.connection.use { connection ->
                         val ps = connection.prepareStatement(updateLastIndexSql)
                         entityKeyIdsWithLastWriteForDataSource.map { (entitySetId, idsAndExpirationsMap) ->
-                            prepareIndexQuery(
-                                    ps,
-                                    entitySetId,
-                                    idsAndExpirationsMap
-                            )
+                            idsAndExpirationsMap.forEach { (id, lastWrite) ->
+                                ps.setObject(1, entitySetId)
+                                ps.setObject(2, id)
+                                ps.setObject(3, lastWrite)
+                                ps.addBatch()
+                            }
                             ps.executeBatch().sum()
                         }.sum()
                     }
@@ -198,12 +201,15 @@ private val entitySetIdClause =
 
 
 /**
+ * Sets last_index to the stored last_write, unless the entity was written after the indexed last write.
+ *
  * Arguments of preparable sql in order:
- * 1. last index
- * 2. entity set id
- * 3. entity key id
+ * 1. entity set id
+ * 2. entity key id
+ * 3. indexed last write
  */
-private val updateLastIndexSql = "UPDATE ${IDS.name} SET ${LAST_INDEX.name} = ? WHERE $entityKeyIdInEntitySet"
+private val updateLastIndexSql = "UPDATE ${IDS.name} SET ${LAST_INDEX.name} = ${LAST_WRITE.name} " +
+        "WHERE $entityKeyIdInEntitySet AND ${LAST_WRITE.name} <= ?"
 
 /**
  * Arguments of preparable sql in order:
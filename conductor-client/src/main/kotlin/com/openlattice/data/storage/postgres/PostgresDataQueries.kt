@@ -139,6 +139,71 @@ fun buildPreparableFiltersSql(
     return sql to binders
 }
 
+/**
+ * Builds a preparable SQL query that reads the same data as [buildPreparableFiltersSql], but returns a row per
+ * property value instead of aggregating each entity into a json document.
+ *
+ * Each row contains the entity set id, entity key id, property type id, any requested metadata and the typed value
+ * columns of the requested property types. Rows are ordered by entity set id and entity key id, so that all the values
+ * of an entity are adjacent and can be grouped while streaming.
+ *
+ * Binding works the same as for [buildPreparableFiltersSql]. Linking and detailed reads are not supported.
+ */
+fun buildPreparableTypedRowsSql(
+        propertyTypes: Map<UUID, PropertyType>,
+        propertyTypeFilters: Map<UUID, Set<Filter>>,
+        metadataOptions: Set<MetadataOption>,
+        entitySetIds: Set<UUID>,
+        entityKeyIds: Set<UUID>,
+        filteredDataPageDefinition: FilteredDataPageDefinition? = null
+): Pair<String, Set<SqlBinder>> {
+    var index = 1
+    val binders = mutableSetOf<SqlBinder>()
+
+    val (sqlClauses, filterBinders, nextIndex) = filteredDataPagePrefixAndSuffix(
+            index,
+            filteredDataPageDefinition,
+            propertyTypes,
+            entitySetIds,
+            entityKeyIds
+    )
+    binders.addAll(filterBinders)
+    index = nextIndex
+    val (prefix, filterIdsOnCTEClause, _) = sqlClauses
+
+    binders.add(SqlBinder(SqlBindInfo(index++, entitySetIds), ::doBind))
+    if (entityKeyIds.isNotEmpty()) {
+        binders.add(SqlBinder(SqlBindInfo(index++, entityKeyIds), ::doBind))
+    }
+
+    val (filterClauseSql, filterClauseBinders) = buildPreparableFiltersClause(index, propertyTypes, propertyTypeFilters)
+    val filtersClause = if (filterClauseSql.isNotEmpty()) " AND $filterClauseSql " else ""
+    binders.addAll(filterClauseBinders)
+
+    //Already have the comma prefix
+    val metadataOptionsSql = metadataOptions.joinToString("") { mapTypedRowMetaDataToSelector(it) }
+    val valueColumnsSql = propertyTypes.values
+            .map { ",${getSourceDataColumnName(it)}" }
+            .toSortedSet()
+            .joinToString("")
+
+    val sql = """
+        $prefix
+        SELECT
+          ${ENTITY_SET_ID.name},
+          ${ID_VALUE.name},
+          ${PROPERTY_TYPE_ID.name}
+          $metadataOptionsSql
+          $valueColumnsSql
+        FROM ${DATA.name}
+        ${optionalWhereClauses(idsPresent = entityKeyIds.isNotEmpty())}
+        $filtersClause $filterIdsOnCTEClause
+        ORDER BY ${ENTITY_SET_ID.name},${ID_VALUE.name}
+    """.trimIndent()
+
+    return sql to binders
+}
+
 internal fun filteredDataPagePrefixAndSuffix(
         startIndex: Int,
         filteredDataPageDefinition: FilteredDataPageDefinition?,
@@ -253,6 +318,18 @@ private fun mapMetaDataToSelector(metadataOption: MetadataOption): String {
     }
 }
 
+/**
+ * Returns the select sql snippet for the requested metadata option of a single typed row.
+ */
+private fun mapTypedRowMetaDataToSelector(metadataOption: MetadataOption): String {
+    return when (metadataOption) {
+        MetadataOption.LAST_WRITE -> ",${LAST_WRITE.name}"
+        else -> throw UnsupportedOperationException(
+                "No implementation yet for metadata option $metadataOption when reading typed rows"
+        )
+    }
+}
+
 /*
  * Creates a preparable query with the following clauses.
  */
@@ -419,6 +496,25 @@ val lockLinkedEntitiesInIdsTable =
                 "ORDER BY ${ID_VALUE.name} " +
                 "FOR UPDATE"
 
+/**
+ * Preparable sql to lock entities in [IDS] table.
+ *
+ * This query will lock provided entities in ID order, so that set based updates of overlapping entities cannot
+ * deadlock.
+ *
+ * The bind order is the following:
+ *
+ * 1 - entity set id
+ *
+ * 2 - entity key ids
+ *
+ */
+val lockEntitiesInIdsTableInOrder =
+        "SELECT 1 FROM ${IDS.name} " +
+                "WHERE ${ENTITY_SET_ID.name} = ? AND ${ID_VALUE.name} = ANY(?) " +
+                "ORDER BY ${ID_VALUE.name} " +
+                "FOR UPDATE"
+
 /**
  * Preparable sql to upsert entities in [IDS] table.
  *
@@ -774,6 +870,76 @@ fun upsertPropertyValueSql(propertyType: PropertyType, updateType: PropertyUpdat
             VERSIONS
     ).joinToString(",") { it.name }
 
+    return """
+        INSERT INTO ${DATA.name} ($metadataColumnsSql,${insertColumn.name})
+            VALUES (?,?,?,?,now(),?,?,?)
+            ${upsertPropertyValueConflictSql(updateType)}
+        """.trimIndent()
+}
+
+/**
+ * Name of the transaction scoped staging table used by COPY based upserts.
+ */
+internal const val UPSERT_STAGING_TABLE = "upsert_staging"
+
+/**
+ * Columns of the [UPSERT_STAGING_TABLE] in the order in which rows are copied into it. Every row sets exactly one of
+ * the value columns and leaves the others null.
+ */
+internal val upsertStagingColumns = listOf(ENTITY_SET_ID, ID_VALUE, PROPERTY_TYPE_ID, HASH) + dataTableValueColumns
+
+/**
+ * Index of the first value column in [upsertStagingColumns].
+ */
+internal val upsertStagingValueColumnsOffset = upsertStagingColumns.size - dataTableValueColumns.size
+
+private val upsertStagingColumnsSql = upsertStagingColumns.joinToString(",") { it.name }
+
+/**
+ * Creates a staging table with the key, hash and value columns of [DATA]. The table is dropped when the
+ * transaction that created it commits, so it must be used with auto-commit disabled.
+ */
+internal val createUpsertStagingTableSql = "CREATE TEMPORARY TABLE $UPSERT_STAGING_TABLE ON COMMIT DROP AS " +
+        "SELECT $upsertStagingColumnsSql FROM ${DATA.name} WITH NO DATA"
+
+/**
+ * COPY statement for streaming csv rows into the [UPSERT_STAGING_TABLE] in [upsertStagingColumns] order.
+ */
+internal val copyIntoUpsertStagingTableSql = "COPY $UPSERT_STAGING_TABLE ($upsertStagingColumnsSql) " +
+        "FROM STDIN WITH (FORMAT csv)"
+
+/**
+ * Merges all rows of the [UPSERT_STAGING_TABLE] into [DATA] with the same conflict semantics as
+ * [upsertPropertyValueSql]. Rows are merged in primary key order, so that concurrent merges with overlapping keys lock
+ * rows in the same order and cannot deadlock.
+ *
+ * The bind order is the following:
+ *
+ * 1. VERSION
+ * 2. VERSIONS
+ */
+fun mergeUpsertStagingTableSql(updateType: PropertyUpdateType): String {
+    val metadataColumnsSql = listOf(
+            ENTITY_SET_ID,
+            ID_VALUE,
+            PROPERTY_TYPE_ID,
+            HASH,
+            LAST_WRITE,
+            VERSION,
+            VERSIONS
+    ).joinToString(",") { it.name }
+    val valueColumnsSql = dataTableValueColumns.joinToString(",") { it.name }
+
+    return """
+        INSERT INTO ${DATA.name} ($metadataColumnsSql,$valueColumnsSql)
+            SELECT ${ENTITY_SET_ID.name},${ID_VALUE.name},${PROPERTY_TYPE_ID.name},${HASH.name},now(),?,?,$valueColumnsSql
+            FROM $UPSERT_STAGING_TABLE
+            ORDER BY $primaryKeyColumnNamesAsString
+            ${upsertPropertyValueConflictSql(updateType)}
+        """.trimIndent()
+}
+
+private fun upsertPropertyValueConflictSql(updateType: PropertyUpdateType): String {
     val whereClause = when (updateType) {
         PropertyUpdateType.Versioned -> ""
         PropertyUpdateType.Unversioned -> """
@@ -781,8 +947,6 @@ fun upsertPropertyValueSql(propertyType: PropertyType, updateType: PropertyUpdat
         """.trimIndent()
     }
     return """
-        INSERT INTO ${DATA.name} ($metadataColumnsSql,${insertColumn.name})
-            VALUES (?,?,?,?,now(),?,?,?)
             ON CONFLICT ($primaryKeyColumnNamesAsString)
             DO UPDATE SET
                 ${VERSIONS.name} = ${DATA.name}.${VERSIONS.name} || EXCLUDED.${VERSIONS.name},
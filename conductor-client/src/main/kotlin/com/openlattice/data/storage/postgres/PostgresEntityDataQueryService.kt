@@ -3,11 +3,14 @@ package com.openlattice.data.storage.postgres
 import com.codahale.metrics.annotation.Timed
 import com.geekbeast.postgres.PostgresArrays
 import com.geekbeast.postgres.PostgresDatatype
+import com.openlattice.IdConstants
 import com.openlattice.analysis.requests.Filter
 import com.openlattice.data.*
 import com.openlattice.data.storage.*
 import com.openlattice.data.storage.PostgresEntitySetSizesInitializationTask.Companion.ENTITY_SET_SIZES_VIEW
+import com.google.common.io.BaseEncoding
 import com.openlattice.data.util.PostgresDataHasher
+import com.openlattice.edm.EdmConstants
 import com.openlattice.edm.EntitySet
 import com.openlattice.edm.set.ExpirationBase
 import com.openlattice.edm.type.PropertyType
@@ -24,6 +27,9 @@ import com.geekbeast.postgres.streams.PreparedStatementHolderSupplier
 import com.geekbeast.postgres.streams.StatementHolderSupplier
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.apache.olingo.commons.api.edm.FullQualifiedName
+import com.zaxxer.hikari.HikariDataSource
+import org.postgresql.PGConnection
+import org.postgresql.copy.CopyIn
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
 import java.nio.ByteBuffer
@@ -31,8 +37,11 @@ import java.security.InvalidParameterException
 import java.sql.PreparedStatement
 import java.sql.ResultSet
 import java.sql.Types
+import java.time.LocalDate
+import java.time.LocalTime
 import java.time.OffsetDateTime
 import java.time.ZoneId
+import java.time.format.DateTimeFormatter
 import java.util.*
 import java.util.concurrent.atomic.AtomicLong
 import kotlin.streams.asStream
@@ -51,6 +60,12 @@ class PostgresEntityDataQueryService(
 
         private const val S3_DELETE_BATCH_SIZE = 10_000
         private const val EXPIRED_DATA_BATCH_SIZE = 10_000
+
+        /**
+         * Writes with at least this many property values use COPY instead of batched prepared statements.
+         */
+        private const val COPY_UPSERT_THRESHOLD = 10_000
+        private const val COPY_BUFFER_SIZE = 1 shl 20
     }
 
     override fun getEntitySetCounts(): Map<UUID, Long> {
@@ -68,8 +83,18 @@ class PostgresEntityDataQueryService(
             authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
             propertyTypeFilters: Map<UUID, Set<Filter>>,
             metadataOptions: Set<MetadataOption>,
-            version: Optional<Long>
+            version: Optional<Long>,
+            readMode: DataReadMode
     ): Iterable<Pair<UUID, MutableMap<UUID, MutableSet<Any>>>> {
+        if (readMode == DataReadMode.TYPED_ROWS) {
+            return getTypedEntitySetIterable(
+                    entityKeyIds,
+                    authorizedPropertyTypes,
+                    propertyTypeFilters,
+                    metadataOptions
+            ).map { (id, entity) -> id to entity.second }
+        }
+
         return getEntitySetIterable(
                 entityKeyIds,
                 authorizedPropertyTypes,
@@ -170,8 +195,21 @@ class PostgresEntityDataQueryService(
             metadataOptions: Set<MetadataOption>,
             version: Optional<Long>,
             linking: Boolean,
-            filteredDataPageDefinition: FilteredDataPageDefinition?
+            filteredDataPageDefinition: FilteredDataPageDefinition?,
+            readMode: DataReadMode
     ): Map<UUID, MutableMap<FullQualifiedName, MutableSet<Any>>> {
+        if (!linking && readMode == DataReadMode.TYPED_ROWS) {
+            return getTypedEntitySetIterable(
+                    entityKeyIds,
+                    authorizedPropertyTypes,
+                    propertyTypeFilters,
+                    metadataOptions,
+                    filteredDataPageDefinition
+            ).associate { (id, entity) ->
+                id to typedEntityByFqn(id, entity.first, entity.second, authorizedPropertyTypes)
+            }
+        }
+
         val entitiesById = getEntitySetIterable(
                 entityKeyIds,
                 authorizedPropertyTypes,
@@ -201,6 +239,112 @@ class PostgresEntityDataQueryService(
         }
     }
 
+    /**
+     * Streams entities keyed by property type full qualified name without materializing the entity set. Each data
+     * source is only queried once the previous one has been exhausted, so memory use is bounded by the fetch size.
+     *
+     * Note: not implemented for linking entity sets, since merging by linking id requires the whole result.
+     */
+    override fun getEntitiesWithPropertyTypeFqnsIterable(
+            entityKeyIds: Map<UUID, Optional<Set<UUID>>>,
+            authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
+            propertyTypeFilters: Map<UUID, Set<Filter>>,
+            metadataOptions: Set<MetadataOption>,
+            version: Optional<Long>,
+            readMode: DataReadMode
+    ): Iterable<MutableMap<FullQualifiedName, MutableSet<Any>>> {
+        if (readMode == DataReadMode.TYPED_ROWS) {
+            return getTypedEntitySetIterable(
+                    entityKeyIds,
+                    authorizedPropertyTypes,
+                    propertyTypeFilters,
+                    metadataOptions
+            ).asSequence().map { (id, entity) ->
+                typedEntityByFqn(id, entity.first, entity.second, authorizedPropertyTypes)
+            }.asIterable()
+        }
+
+        val entities = streamEntitySet(
+                entityKeyIds,
+                authorizedPropertyTypes,
+                propertyTypeFilters,
+                metadataOptions,
+                linking = false,
+                detailed = false,
+                filteredDataPageDefinition = null
+        ) { rs ->
+            getEntityPropertiesByFullQualifiedName(
+                    rs,
+                    authorizedPropertyTypes,
+                    metadataOptions,
+                    byteBlobDataManager
+            )
+        }
+
+        return entities.map { it.second }.asIterable()
+    }
+
+    /**
+     * Reads entities as typed rows, one per property value, and groups them into entities while streaming. This skips
+     * building a json document per entity in postgres and parsing it again with jackson.
+     *
+     * Like [streamEntitySet], data sources are read lazily one after the other.
+     */
+    override fun getTypedEntitySetIterable(
+            entityKeyIds: Map<UUID, Optional<Set<UUID>>>,
+            authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
+            propertyTypeFilters: Map<UUID, Set<Filter>>,
+            metadataOptions: Set<MetadataOption>,
+            filteredDataPageDefinition: FilteredDataPageDefinition?
+    ): Iterable<Pair<UUID, Pair<UUID, MutableMap<UUID, MutableSet<Any>>>>> {
+        val propertyTypes = authorizedPropertyTypes.values.flatMap { it.values }.associateBy { it.id }
+        val entitySetIds = entityKeyIds.keys
+
+        return entitySetIds
+                .groupBy { dataSourceResolver.getDataSourceName(it) }
+                .asSequence()
+                .flatMap { (dataSourceName, entitySetIdsForDataSource) ->
+                    val (sql, binders) = buildPreparableTypedRowsSql(
+                            propertyTypes,
+                            propertyTypeFilters,
+                            metadataOptions,
+                            entitySetIdsForDataSource.toSet(),
+                            entitySetIdsForDataSource.flatMap { entityKeyIds.getValue(it).orElse(emptySet()) }.toSet(),
+                            filteredDataPageDefinition
+                    )
+
+                    val rows = BasePostgresIterable(
+                            PreparedStatementHolderSupplier(
+                                    dataSourceResolver.getDataSource(dataSourceName),
+                                    sql,
+                                    FETCH_SIZE
+                            ) { ps -> binders.forEach { it.bind(ps) } }
+                    ) { rs -> readTypedDataRow(rs, authorizedPropertyTypes, metadataOptions) }
+
+                    groupTypedDataRows(rows.asSequence(), authorizedPropertyTypes, byteBlobDataManager)
+                }
+                .asIterable()
+    }
+
+    private fun typedEntityByFqn(
+            id: UUID,
+            entitySetId: UUID,
+            entity: MutableMap<UUID, MutableSet<Any>>,
+            authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>
+    ): MutableMap<FullQualifiedName, MutableSet<Any>> {
+        val propertyTypes = authorizedPropertyTypes.getValue(entitySetId)
+        val entityByFqn = entity.mapKeys {
+            if (it.key == IdConstants.LAST_WRITE_ID.id) {
+                EdmConstants.LAST_WRITE_FQN
+            } else {
+                propertyTypes.getValue(it.key).type
+            }
+        }.toMutableMap()
+        entityByFqn[EdmConstants.ID_FQN] = mutableSetOf<Any>(id.toString())
+
+        return entityByFqn
+    }
+
     /**
      * Note: for linking queries, linking id and entity set id will be returned, thus data won't be merged by linking id
      */
@@ -215,11 +359,39 @@ class PostgresEntityDataQueryService(
             filteredDataPageDefinition: FilteredDataPageDefinition?,
             adapter: (ResultSet) -> T
     ): Iterable<T> {
+        return streamEntitySet(
+                entityKeyIds,
+                authorizedPropertyTypes,
+                propertyTypeFilters,
+                metadataOptions,
+                linking,
+                detailed,
+                filteredDataPageDefinition,
+                adapter
+        ).toList()
+    }
+
+    /**
+     * Reads the data sources lazily one after the other, so the returned sequence never holds more than one fetch of
+     * rows in memory. Each iteration re-runs the queries, and a cursor is only released once it has been read to the
+     * end, so this is only meant for streaming whole results out, like exports.
+     */
+    private fun <T> streamEntitySet(
+            entityKeyIds: Map<UUID, Optional<Set<UUID>>>,
+            authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
+            propertyTypeFilters: Map<UUID, Set<Filter>>,
+            metadataOptions: Set<MetadataOption>,
+            linking: Boolean,
+            detailed: Boolean,
+            filteredDataPageDefinition: FilteredDataPageDefinition?,
+            adapter: (ResultSet) -> T
+    ): Sequence<T> {
         val propertyTypes = authorizedPropertyTypes.values.flatMap { it.values }.associateBy { it.id }
         val entitySetIds = entityKeyIds.keys
 
         return entitySetIds
                 .groupBy { dataSourceResolver.getDataSourceName(it) }
+                .asSequence()
                 .flatMap { (dataSourceName, entitySetIdsForDataSource) ->
                     val (sql, binders) = buildPreparableFiltersSql(
                             propertyTypes,
@@ -240,7 +412,7 @@ class PostgresEntityDataQueryService(
                                     FETCH_SIZE
                             ) { ps -> binders.forEach { it.bind(ps) } },
                         adapter
-                    ).toList()
+                    ).asSequence()
                 }
     }
 
@@ -365,6 +537,21 @@ class PostgresEntityDataQueryService(
         }
         val hds = dataSourceResolver.resolve(entitySetId)
 
+        val propertyValueCount = entitiesWithHashAndInsertData.values.sumOf { entityData ->
+            entityData.values.sumOf { it.size }
+        }
+
+        if (propertyValueCount >= COPY_UPSERT_THRESHOLD) {
+            return copyUpsertEntities(
+                    entitySetId,
+                    entitiesWithHashAndInsertData,
+                    authorizedPropertyTypes,
+                    version,
+                    propertyUpdateType,
+                    hds
+            )
+        }
+
         return hds.connection.use { connection ->
             //Update the versions of all entities.
             val versionsArrays = PostgresArrays.createLongArray(connection, version)
@@ -427,6 +614,106 @@ class PostgresEntityDataQueryService(
         }
     }
 
+    /**
+     * Bulk load path for large writes. Instead of batching one set of statements per entity, hashed property rows are
+     * streamed through COPY into a transaction scoped staging table and then merged into [DATA] and [IDS] with a
+     * single set based statement each. Version semantics are identical to the prepared statement path.
+     *
+     * @return The number of property rows written.
+     */
+    private fun copyUpsertEntities(
+            entitySetId: UUID,
+            entitiesWithHashAndInsertData: Map<UUID, Map<UUID, List<Pair<ByteArray, Any>>>>,
+            authorizedPropertyTypes: Map<UUID, PropertyType>,
+            version: Long,
+            propertyUpdateType: PropertyUpdateType,
+            hds: HikariDataSource
+    ): Int {
+        val valueColumnIndices = upsertStagingColumns.withIndex().associate { it.value.name to it.index }
+
+        return hds.connection.use { connection ->
+            val autoCommit = connection.autoCommit
+            connection.autoCommit = false
+
+            try {
+                connection.createStatement().use { it.execute(createUpsertStagingTableSql) }
+
+                val copyIn = connection.unwrap(PGConnection::class.java).copyAPI.copyIn(copyIntoUpsertStagingTableSql)
+                try {
+                    val buffer = StringBuilder()
+                    entitiesWithHashAndInsertData.forEach { (entityKeyId, entityData) ->
+                        entityData.forEach { (propertyTypeId, hashAndInsertValues) ->
+                            val pt = authorizedPropertyTypes[propertyTypeId] ?: abortInsert(entitySetId, entityKeyId)
+                            val valueColumnIndex = valueColumnIndices.getValue(
+                                    PostgresDataTables.getColumnDefinition(pt.postgresIndexType, pt.datatype).name
+                            )
+
+                            hashAndInsertValues.forEach { (propertyHash, insertValue) ->
+                                appendCopyRow(
+                                        buffer,
+                                        entitySetId,
+                                        entityKeyId,
+                                        propertyTypeId,
+                                        propertyHash,
+                                        valueColumnIndex,
+                                        insertValue
+                                )
+
+                                if (buffer.length >= COPY_BUFFER_SIZE) {
+                                    flushCopyBuffer(copyIn, buffer)
+                                }
+                            }
+                        }
+                    }
+                    flushCopyBuffer(copyIn, buffer)
+                    copyIn.endCopy()
+                } finally {
+                    if (copyIn.isActive) {
+                        copyIn.cancelCopy()
+                    }
+                }
+
+                val versionsArrays = PostgresArrays.createLongArray(connection, version)
+
+                val updatedPropertyCounts = connection.prepareStatement(
+                        mergeUpsertStagingTableSql(propertyUpdateType)
+                ).use { ps ->
+                    ps.setObject(1, version)
+                    ps.setArray(2, versionsArrays)
+                    ps.executeUpdate()
+                }
+
+                //Make data visible by marking new version in ids table. Entities are locked in id order first, since
+                //the set based update locks them in whatever order it finds them in.
+                val entityKeyIds = PostgresArrays.createUuidArray(connection, entitiesWithHashAndInsertData.keys)
+                connection.prepareStatement(lockEntitiesInIdsTableInOrder).use { ps ->
+                    ps.setObject(1, entitySetId)
+                    ps.setArray(2, entityKeyIds)
+                    ps.executeQuery().close()
+                }
+
+                val updatedEntities = connection.prepareStatement(upsertEntitiesSql).use { ps ->
+                    ps.setArray(1, versionsArrays)
+                    ps.setObject(2, version)
+                    ps.setObject(3, version)
+                    ps.setObject(4, entitySetId)
+                    ps.setArray(5, entityKeyIds)
+                    ps.executeUpdate()
+                }
+
+                connection.commit()
+
+                logger.debug("Updated $updatedEntities entities as part of bulk insert.")
+                return@use updatedPropertyCounts
+            } catch (ex: Exception) {
+                connection.rollback()
+                throw ex
+            } finally {
+                connection.autoCommit = autoCommit
+            }
+        }
+    }
+
     override fun getPropertyHash(
             entitySetId: UUID,
             entityKeyId: UUID,
@@ -925,6 +1212,56 @@ class PostgresEntityDataQueryService(
     }
 }
 
+/**
+ * Appends a single csv row in [upsertStagingColumns] order. Only the value column at [valueColumnIndex] is set, all
+ * other value columns are written as unquoted empty fields, which COPY reads as null. The value is always quoted, so
+ * an empty string stays distinct from null.
+ */
+internal fun appendCopyRow(
+        buffer: StringBuilder,
+        entitySetId: UUID,
+        entityKeyId: UUID,
+        propertyTypeId: UUID,
+        propertyHash: ByteArray,
+        valueColumnIndex: Int,
+        insertValue: Any
+) {
+    buffer.append(entitySetId).append(',')
+            .append(entityKeyId).append(',')
+            .append(propertyTypeId).append(',')
+            .append("\\x").append(BaseEncoding.base16().lowerCase().encode(propertyHash))
+
+    for (index in upsertStagingValueColumnsOffset until upsertStagingColumns.size) {
+        buffer.append(',')
+        if (index == valueColumnIndex) {
+            buffer.append('"').append(copyValue(insertValue).replace("\"", "\"\"")).append('"')
+        }
+    }
+    buffer.append('\n')
+}
+
+/**
+ * Formats [value] in the text input format of its column. Only the types produced by [JsonDeserializer] are accepted,
+ * anything else would be written as its [Any.toString] and silently stored as garbage. Binary values are stored as
+ * the S3 key returned by [PostgresEntityDataQueryService.getPropertyHash], which is a string.
+ */
+internal fun copyValue(value: Any): String {
+    return when (value) {
+        is String -> value
+        is UUID, is Boolean, is Byte, is Short, is Int, is Long, is Double -> value.toString()
+        is LocalDate -> value.format(DateTimeFormatter.ISO_LOCAL_DATE)
+        is LocalTime -> value.format(DateTimeFormatter.ISO_LOCAL_TIME)
+        is OffsetDateTime -> value.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)
+        else -> throw IllegalArgumentException("Unable to bulk load values of type ${value.javaClass.name}.")
+    }
+}
+
+private fun flushCopyBuffer(copyIn: CopyIn, buffer: StringBuilder) {
+    val bytes = buffer.toString().toByteArray(Charsets.UTF_8)
+    copyIn.writeToCopy(bytes, 0, bytes.size)
+    buffer.setLength(0)
+}
+
 private fun abortInsert(entitySetId: UUID, entityKeyId: UUID): Nothing {
     throw InvalidParameterException(
             "Cannot insert property type not in authorized property types for entity $entityKeyId from entity set $entitySetId."
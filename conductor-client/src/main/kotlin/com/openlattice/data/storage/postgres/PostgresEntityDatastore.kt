@@ -2,6 +2,7 @@ package com.openlattice.data.storage.postgres
 
 import com.codahale.metrics.MetricRegistry
 import com.codahale.metrics.annotation.Timed
+import com.openlattice.IdConstants
 import com.google.common.collect.ImmutableMap
 import com.google.common.collect.Multimaps
 import com.google.common.collect.SetMultimap
@@ -10,7 +11,9 @@ import com.openlattice.assembler.events.MaterializedEntitySetDataChangeEvent
 import com.openlattice.data.*
 import com.openlattice.data.events.EntitiesDeletedEvent
 import com.openlattice.data.events.EntitiesUpsertedEvent
+import com.openlattice.data.events.EntityIndexUpdate
 import com.openlattice.data.storage.EntityDatastore
+import com.openlattice.data.storage.IndexingChangeFeed
 import com.openlattice.data.storage.MetadataOption
 import com.openlattice.datastore.services.EdmManager
 import com.openlattice.datastore.services.EntitySetManager
@@ -19,6 +22,7 @@ import com.openlattice.edm.set.EntitySetFlag
 import com.openlattice.edm.type.PropertyType
 import com.openlattice.linking.LinkingQueryService
 import com.openlattice.linking.PostgresLinkingFeedbackService
+import com.openlattice.postgres.JsonDeserializer
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.apache.olingo.commons.api.edm.FullQualifiedName
@@ -43,6 +47,7 @@ class PostgresEntityDatastore(
         private val eventBus: EventBus,
         private val feedbackQueryService: PostgresLinkingFeedbackService,
         private val linkingQueryService: LinkingQueryService,
+        private val indexingChangeFeed: IndexingChangeFeed
 ) : EntityDatastore {
 
     companion object {
@@ -76,7 +81,7 @@ class PostgresEntityDatastore(
                 authorizedPropertyTypes,
                 propertyUpdateType = propertyUpdateType
         )
-        signalCreatedEntities(entitySetId, entities.keys)
+        signalWrittenEntities(entitySetId, entities, authorizedPropertyTypes, EntityIndexUpdate.MERGE_PROPERTIES)
 
         return writeEvent
     }
@@ -96,7 +101,16 @@ class PostgresEntityDatastore(
                 authorizedPropertyTypes,
                 propertyUpdateType
         )
-        signalCreatedEntities(entitySetId, entities.keys)
+        // all authorized properties are replaced, including the ones missing from the entities
+        val replacedEntities = entities.mapValues { (_, entity) ->
+            authorizedPropertyTypes.keys.associateWith { entity[it] ?: emptySet() }
+        }
+        signalWrittenEntities(
+                entitySetId,
+                replacedEntities,
+                authorizedPropertyTypes,
+                EntityIndexUpdate.REPLACE_PROPERTIES
+        )
 
         return writeEvent
     }
@@ -117,13 +131,49 @@ class PostgresEntityDatastore(
                         propertyUpdateType
                 )
 
-        signalCreatedEntities(entitySetId, entities.keys)
+        signalWrittenEntities(entitySetId, entities, authorizedPropertyTypes, EntityIndexUpdate.REPLACE_PROPERTIES)
 
         return writeEvent
     }
 
+    /**
+     * Same as [signalCreatedEntities], except that small writes are indexed from the written values instead of reading
+     * the entities back. [entities] must only contain values of [authorizedPropertyTypes] and [update] determines how
+     * they are applied to the indexed documents.
+     *
+     * The last write is taken after the write has completed, so it is never earlier than the last write recorded by
+     * postgres and the background indexer won't index the entities again.
+     */
+    private fun signalWrittenEntities(
+            entitySetId: UUID,
+            entities: Map<UUID, Map<UUID, Set<Any>>>,
+            authorizedPropertyTypes: Map<UUID, PropertyType>,
+            update: EntityIndexUpdate
+    ) {
+        if (entities.size >= BATCH_INDEX_THRESHOLD || isAuditEntitySet(entitySetId)) {
+            signalCreatedEntities(entitySetId, entities.keys)
+            return
+        }
+
+        val lastWrite = mutableSetOf<Any>(OffsetDateTime.now())
+        val propertyTypesToIndex = authorizedPropertyTypes.filter { it.value.datatype != EdmPrimitiveTypeKind.Binary }
+        val documents = entities.mapValues { (entityKeyId, entity) ->
+            val document = JsonDeserializer.validateFormatAndNormalize(
+                    entity.filterKeys { propertyTypesToIndex.containsKey(it) },
+                    propertyTypesToIndex
+            ) { "Entity set $entitySetId with entity key id $entityKeyId" }.toMutableMap()
+            document[IdConstants.LAST_WRITE_ID.id] = lastWrite
+            document
+        }
+        eventBus.post(EntitiesUpsertedEvent(entitySetId, documents, update))
+
+        markEntitiesDirty(entitySetId)
+    }
+
     private fun signalCreatedEntities(entitySetId: UUID, entityKeyIds: Set<UUID>) {
-        if (shouldIndexDirectly(entitySetId, entityKeyIds)) {
+        if (isAuditEntitySet(entitySetId)) {
+            // audit entity sets are never indexed
+        } else if (entityKeyIds.size < BATCH_INDEX_THRESHOLD) {
             val propertyTypesToIndex = entitySetManager.getPropertyTypesForEntitySet(entitySetId)
                     .filter { it.value.datatype != EdmPrimitiveTypeKind.Binary }
             val entities = dataQueryService
@@ -134,8 +184,14 @@ class PostgresEntityDatastore(
                             EnumSet.of(MetadataOption.LAST_WRITE)
                     )
             eventBus.post(EntitiesUpsertedEvent(entitySetId, entities.toMap()))
+        } else {
+            indexingChangeFeed.publish(entitySetId, entityKeyIds)
         }
 
+        markEntitiesDirty(entitySetId)
+    }
+
+    private fun markEntitiesDirty(entitySetId: UUID) {
         markMaterializedEntitySetDirty(entitySetId) // mark entityset as unsync with data
         // mark all involved linking entitysets as unsync with data
         edmManager.getAllLinkingEntitySetIdsForEntitySet(entitySetId)
@@ -152,8 +208,12 @@ class PostgresEntityDatastore(
     }
 
     private fun signalDeletedEntities(entitySetId: UUID, entityKeyIds: Set<UUID>, deleteType: DeleteType) {
-        if (shouldIndexDirectly(entitySetId, entityKeyIds)) {
+        if (isAuditEntitySet(entitySetId)) {
+            // audit entity sets are never indexed
+        } else if (entityKeyIds.size < BATCH_INDEX_THRESHOLD) {
             eventBus.post(EntitiesDeletedEvent(entitySetId, entityKeyIds, deleteType))
+        } else {
+            indexingChangeFeed.publish(entitySetId, entityKeyIds)
         }
 
         markMaterializedEntitySetDirty(entitySetId) // mark entityset as unsync with data
@@ -163,9 +223,8 @@ class PostgresEntityDatastore(
                 .forEach { this.markMaterializedEntitySetDirty(it) }
     }
 
-    private fun shouldIndexDirectly(entitySetId: UUID, entityKeyIds: Set<UUID>): Boolean {
-        return entityKeyIds.size < BATCH_INDEX_THRESHOLD
-                && entitySetManager.getEntitySetIdsWithFlags(setOf(entitySetId), setOf(EntitySetFlag.AUDIT)).isEmpty()
+    private fun isAuditEntitySet(entitySetId: UUID): Boolean {
+        return entitySetManager.getEntitySetIdsWithFlags(setOf(entitySetId), setOf(EntitySetFlag.AUDIT)).isNotEmpty()
     }
 
     private fun markMaterializedEntitySetDirty(entitySetId: UUID) {
@@ -203,8 +262,13 @@ class PostgresEntityDatastore(
                 entityKeyIds,
                 authorizedPropertyTypes
         )
-        // same as if we updated the entities
-        signalCreatedEntities(entitySetId, entityKeyIds)
+        // same as if we replaced all authorized properties with no values
+        signalWrittenEntities(
+                entitySetId,
+                entityKeyIds.associateWith { authorizedPropertyTypes.keys.associateWith { emptySet<Any>() } },
+                authorizedPropertyTypes,
+                EntityIndexUpdate.REPLACE_PROPERTIES
+        )
 
         return writeEvent
     }
@@ -224,18 +288,25 @@ class PostgresEntityDatastore(
         }
         //If the query generated exceed 33.5M UUIDs good chance that it exceed Postgres's 1 GB max query buffer size
 
-        val entitySetData = EntitySetData(
-                orderedPropertyTypes,
-                dataQueryService.getEntitiesWithPropertyTypeFqns(
-                        entityKeyIds,
-                        authorizedPropertyTypes,
-                        emptyMap(),
-                        EnumSet.noneOf(MetadataOption::class.java),
-                        Optional.empty(),
-                        linking
-                ).values.asIterable()
+        // linked entities have to be merged by linking id, so only normal entity sets can be streamed
+        val entities: Iterable<MutableMap<FullQualifiedName, MutableSet<Any>>> = if (linking) {
+            dataQueryService.getEntitiesWithPropertyTypeFqns(
+                    entityKeyIds,
+                    authorizedPropertyTypes,
+                    emptyMap(),
+                    EnumSet.noneOf(MetadataOption::class.java),
+                    Optional.empty(),
+                    linking
+            ).values
+        } else {
+            dataQueryService.getEntitiesWithPropertyTypeFqnsIterable(entityKeyIds, authorizedPropertyTypes)
+        }
 
-        )
+        val columnPropertyTypes = authorizedPropertyTypes.values
+                .flatMap { it.values }
+                .associateBy { it.type.fullQualifiedNameAsString }
+
+        val entitySetData = EntitySetData(orderedPropertyTypes, columnPropertyTypes, entities)
 
         context.stop()
 
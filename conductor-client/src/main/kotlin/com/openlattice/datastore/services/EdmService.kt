@@ -12,6 +12,7 @@ import com.openlattice.authorization.securable.SecurableObjectType
 import com.geekbeast.controllers.exceptions.TypeExistsException
 import com.openlattice.datasets.DataSetService
 import com.openlattice.datasets.SecurableObjectMetadata
+import com.openlattice.edm.EdmSnapshotCache
 import com.openlattice.edm.EntityDataModel
 import com.openlattice.edm.EntityDataModelDiff
 import com.openlattice.edm.EntitySet
@@ -59,6 +60,8 @@ class EdmService(
     private val objectMetadata = HazelcastMap.OBJECT_METADATA.getMap(hazelcastInstance)
     private val entityTypePropertyMetadata = HazelcastMap.ENTITY_TYPE_PROPERTY_METADATA.getMap(hazelcastInstance)
 
+    private val edmSnapshots = EdmSnapshotCache(propertyTypes, entityTypes, entitySets)
+
     init {
         propertyTypes.values.forEach { propertyType: PropertyType? -> logger.debug("Property type read: {}", propertyType) }
         entityTypes.values.forEach { entityType: EntityType? -> logger.debug("Object type read: {}", entityType) }
@@ -89,6 +92,7 @@ class EdmService(
          */
         val dbRecord = propertyTypes.putIfAbsent(propertyType.id, propertyType)
         if (dbRecord == null) {
+            edmSnapshots.refreshPropertyType(propertyType.id)
             propertyType.schemas.forEach(schemaManager.propertyTypesSchemaAdder(propertyType.id))
             eventBus.post(PropertyTypeCreatedEvent(propertyType))
         } else {
@@ -171,6 +175,7 @@ class EdmService(
             }
         }
         entityTypes.delete(entityTypeId)
+        edmSnapshots.refreshEntityType(entityTypeId)
         aclKeyReservations.release(entityTypeId)
         eventBus.post(EntityTypeDeletedEvent(entityTypeId))
 
@@ -190,6 +195,7 @@ class EdmService(
         val entityTypes = getEntityTypesContainPropertyType(propertyTypeId)
         entityTypes.forEach { forceRemovePropertyTypesFromEntityType(it.id, setOf(propertyTypeId)) }
         propertyTypes.delete(propertyTypeId)
+        edmSnapshots.refreshPropertyType(propertyTypeId)
         aclKeyReservations.release(propertyTypeId)
         eventBus.post(PropertyTypeDeletedEvent(propertyTypeId))
     }
@@ -207,6 +213,7 @@ class EdmService(
         val existing = entityTypes.putIfAbsent(entityType.id, entityType)
 
         if (existing == null) {
+            edmSnapshots.refreshEntityType(entityType.id)
             setUpDefaultEntityTypePropertyMetadata(entityType.id)
             /*
              * As long as schemas are registered with upsertSchema, the schema query service should pick up the schemas
@@ -271,7 +278,7 @@ class EdmService(
     }
 
     override fun getPropertyTypeId(fqn: FullQualifiedName): UUID {
-        return aclKeys[fqn.fullQualifiedNameAsString]!!
+        return edmSnapshots.getPropertyTypeId(fqn) ?: aclKeys[fqn.fullQualifiedNameAsString]!!
     }
 
     override fun getEntityTypeHierarchy(entityTypeId: UUID): Set<EntityType> {
@@ -303,7 +310,7 @@ class EdmService(
     }
 
     override fun getEntityTypeSafe(entityTypeId: UUID): EntityType? {
-        return entityTypes[entityTypeId]
+        return edmSnapshots.getEntityType(entityTypeId)
     }
 
     override fun getEntityTypes(): Iterable<EntityType> {
@@ -327,7 +334,9 @@ class EdmService(
     }
 
     override fun getPropertyType(fqn: FullQualifiedName): PropertyType {
-        return checkNotNull(propertyTypes[aclKeys[fqn.toString()]]) { "Property type $fqn does not exist" }
+        val propertyType = edmSnapshots.getPropertyTypeId(fqn)?.let { edmSnapshots.getPropertyType(it) }
+                ?: propertyTypes[aclKeys[fqn.toString()]]
+        return checkNotNull(propertyType) { "Property type $fqn does not exist" }
     }
 
     override fun getPropertyTypesInNamespace(namespace: String): Iterable<PropertyType> {
@@ -382,6 +391,7 @@ class EdmService(
         }
 
         entityTypes.executeOnKey(entityTypeId, AddPropertyTypesToEntityTypeProcessor(propertyTypeIds))
+        edmSnapshots.refreshEntityType(entityTypeId)
 
         authorizations.setSecurableObjectTypes(aclKeysForSecurableObjectTypes, SecurableObjectType.PropertyTypeInEntitySet)
         authorizations.addPermissions(acls)
@@ -414,6 +424,7 @@ class EdmService(
         val id = entityType.id
 
         entityTypes.executeOnKey(id, RemovePropertyTypesFromEntityTypeProcessor(propertyTypeIds))
+        edmSnapshots.refreshEntityType(id)
 
         val childEntityType = getEntityType(id)
         if (childEntityType.category != SecurableObjectType.AssociationType) {
@@ -432,6 +443,7 @@ class EdmService(
 
     override fun reorderPropertyTypesInEntityType(entityTypeId: UUID, propertyTypeIds: LinkedHashSet<UUID>) {
         entityTypes.executeOnKey(entityTypeId, ReorderPropertyTypesInEntityTypeProcessor(propertyTypeIds))
+        edmSnapshots.refreshEntityType(entityTypeId)
         val entityType = getEntityType(entityTypeId)
         if (entityType.category == SecurableObjectType.AssociationType) {
             eventBus.post(AssociationTypeCreatedEvent(getAssociationType(entityTypeId)))
@@ -450,6 +462,7 @@ class EdmService(
                 "Entity type $entityTypeId does not contain all the requested primary key property types.")
 
         entityTypes.executeOnKey(entityTypeId, AddPrimaryKeysToEntityTypeProcessor(propertyTypeIds))
+        edmSnapshots.refreshEntityType(entityTypeId)
 
         entityType = entityTypes[entityTypeId]!!
         if (entityType.category == SecurableObjectType.AssociationType) {
@@ -467,6 +480,7 @@ class EdmService(
                 "Entity type $entityTypeId does not contain all the requested primary key property types.")
 
         entityTypes.executeOnKey(entityTypeId, RemovePrimaryKeysFromEntityTypeProcessor(propertyTypeIds))
+        edmSnapshots.refreshEntityType(entityTypeId)
 
         entityType = entityTypes[entityTypeId]!!
         if (entityType.category == SecurableObjectType.AssociationType) {
@@ -512,6 +526,7 @@ class EdmService(
             eventBus.post(PropertyTypeCreatedEvent(propertyType))
         }
         propertyTypes.executeOnKey(propertyTypeId, UpdatePropertyTypeMetadataProcessor(update))
+        edmSnapshots.refreshPropertyType(propertyTypeId)
         // get all entity sets containing the property type, and re-index them.
         getEntityTypesContainPropertyType(propertyTypeId).forEach {
             val properties = propertyTypes.getAll(it.properties).values.toList()
@@ -532,6 +547,7 @@ class EdmService(
             aclKeyReservations.renameReservation(entityTypeId, update.type.get())
         }
         entityTypes.executeOnKey(entityTypeId, UpdateEntityTypeMetadataProcessor(update))
+        edmSnapshots.refreshEntityType(entityTypeId)
         if (getEntityType(entityTypeId).category != SecurableObjectType.AssociationType) {
             eventBus.post(EntityTypeCreatedEvent(getEntityType(entityTypeId)))
         } else {
@@ -559,7 +575,7 @@ class EdmService(
     }
 
     override fun getPropertyTypes(propertyIds: Set<UUID>): Collection<PropertyType> {
-        return propertyTypes.getAll(propertyIds).values
+        return edmSnapshots.getPropertyTypes(propertyIds).values
     }
 
     override fun getTypeAclKey(type: FullQualifiedName): UUID? {
@@ -567,29 +583,40 @@ class EdmService(
     }
 
     override fun getPropertyType(propertyTypeId: UUID): PropertyType? {
-        return propertyTypes[propertyTypeId]
+        return edmSnapshots.getPropertyType(propertyTypeId)
     }
 
     override fun getPropertyTypeFqn(propertyTypeId: UUID): FullQualifiedName {
-        return FullQualifiedName(names[propertyTypeId])
+        return edmSnapshots.getSnapshot().propertyTypes[propertyTypeId]?.type
+                ?: FullQualifiedName(names[propertyTypeId])
     }
 
     override fun getFqnToIdMap(propertyTypeFqns: Set<FullQualifiedName>): Map<FullQualifiedName, UUID> {
-        return aclKeys.getAll(propertyTypeFqns.map { it.fullQualifiedNameAsString }.toSet()).entries.associate {
-            FullQualifiedName(it.key) to it.value
+        val propertyTypeIdsByFqn = edmSnapshots.getSnapshot().propertyTypeIdsByFqn
+        val (cached, missing) = propertyTypeFqns.partition { propertyTypeIdsByFqn.containsKey(it) }
+        val fqnToIdMap = cached.associateWithTo(mutableMapOf()) { propertyTypeIdsByFqn.getValue(it) }
+
+        if (missing.isNotEmpty()) {
+            aclKeys.getAll(missing.map { it.fullQualifiedNameAsString }.toSet()).forEach { (fqn, id) ->
+                fqnToIdMap[FullQualifiedName(fqn)] = id
+            }
         }
+
+        return fqnToIdMap
     }
 
     override fun getPropertyTypesAsMap(propertyTypeIds: Set<UUID>): Map<UUID, PropertyType> {
-        return propertyTypes.getAll(propertyTypeIds)
+        return edmSnapshots.getPropertyTypes(propertyTypeIds)
     }
 
     override fun getEntityTypesAsMap(entityTypeIds: Set<UUID>): Map<UUID, EntityType> {
-        return entityTypes.getAll(entityTypeIds)
+        return edmSnapshots.getEntityTypes(entityTypeIds)
     }
 
     override fun getPropertyTypesOfEntityType(entityTypeId: UUID): Map<UUID, PropertyType> {
-        return propertyTypes.getAll(getEntityType(entityTypeId).properties)
+        return checkNotNull(edmSnapshots.getPropertyTypesOfEntityType(entityTypeId)) {
+            "Entity type of id $entityTypeId does not exist."
+        }
     }
 
     override fun createAssociationType(associationType: AssociationType, entityTypeId: UUID): UUID {
@@ -1056,7 +1083,12 @@ class EdmService(
     }
 
     override fun getAllLinkingEntitySetIdsForEntitySet(entitySetId: UUID): Set<UUID> {
-        return entitySets.keySet(Predicates.equal(EntitySetMapstore.LINKED_ENTITY_SET_INDEX, entitySetId))
+        return edmSnapshots.getLinkingEntitySetIds(entitySetId)
+                ?: entitySets.keySet(Predicates.equal(EntitySetMapstore.LINKED_ENTITY_SET_INDEX, entitySetId))
+    }
+
+    override fun getSnapshotCache(): EdmSnapshotCache {
+        return edmSnapshots
     }
 
     /* Entity set related functions */
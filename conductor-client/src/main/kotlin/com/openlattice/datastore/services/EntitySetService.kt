@@ -53,7 +53,6 @@ import com.openlattice.edm.events.*
 import com.openlattice.edm.processors.EntitySetsFlagFilteringAggregator
 import com.openlattice.edm.processors.GetEntityTypeFromEntitySetEntryProcessor
 import com.openlattice.edm.processors.GetNormalEntitySetIdsEntryProcessor
-import com.openlattice.edm.processors.GetPropertiesFromEntityTypeEntryProcessor
 import com.openlattice.edm.requests.MetadataUpdate
 import com.openlattice.edm.set.EntitySetFlag
 import com.openlattice.edm.set.EntitySetPropertyMetadata
@@ -117,6 +116,8 @@ class EntitySetService(
 
     private val aclKeys = HazelcastMap.ACL_KEYS.getMap(hazelcastInstance)
 
+    private val edmSnapshots = edm.snapshotCache
+
     @Timed
     override fun createEntitySet(principal: Principal, entitySet: EntitySet): UUID {
         ensureValidEntitySet(entitySet)
@@ -294,6 +295,7 @@ class EntitySetService(
         aclKeyReservations.reserveIdAndValidateType(entitySet)
 
         checkState(entitySets.putIfAbsent(entitySet.id, entitySet) == null, "Entity set already exists.")
+        edmSnapshots.refreshEntitySets(setOf(entitySet.id))
         dataSetService.initializeMetadata(AclKey(entitySet.id), SecurableObjectMetadata.fromEntitySet(entitySet))
         return entitySet.id
     }
@@ -359,6 +361,7 @@ class EntitySetService(
         aclKeyReservations.release(entitySet.id)
         dataSetService.deleteObjectMetadata(AclKey(entitySet.id))
         entitySets.delete(entitySet.id)
+        edmSnapshots.refreshEntitySets(setOf(entitySet.id))
         deletedEntitySets[entitySet.id] = DelegatedIntSet(entitySet.partitions)
     }
 
@@ -399,11 +402,11 @@ class EntitySetService(
     }
 
     override fun getEntitySet(entitySetId: UUID): EntitySet? {
-        return Util.getSafely(entitySets, entitySetId)
+        return edmSnapshots.getEntitySet(entitySetId)
     }
 
     override fun getEntitySet(entitySetName: String): EntitySet? {
-        val id = Util.getSafely(aclKeys, entitySetName)
+        val id = edmSnapshots.getEntitySetId(entitySetName) ?: Util.getSafely(aclKeys, entitySetName)
         return if (id == null) {
             null
         } else {
@@ -412,7 +415,7 @@ class EntitySetService(
     }
 
     override fun getEntitySetsAsMap(entitySetIds: Set<UUID>): Map<UUID, EntitySet> {
-        return entitySets.getAll(entitySetIds)
+        return edmSnapshots.getEntitySets(entitySetIds)
     }
 
     override fun getEntitySets(): Iterable<EntitySet> {
@@ -462,9 +465,8 @@ class EntitySetService(
         return edm.getEntityType(entityTypeId)
     }
 
-    @Suppress("UNCHECKED_CAST")
     override fun getEntityTypeIdsByEntitySetIds(entitySetIds: Set<UUID>): Map<UUID, UUID> {
-        return entitySets.executeOnKeys(entitySetIds, GetEntityTypeFromEntitySetEntryProcessor()) as Map<UUID, UUID>
+        return edmSnapshots.getEntitySets(entitySetIds).mapValues { it.value.entityTypeId }
     }
 
     override fun getAssociationTypeByEntitySetId(entitySetId: UUID): AssociationType {
@@ -552,20 +554,15 @@ class EntitySetService(
     }
 
     @Timed
-    override fun exists(entitySetId: UUID): Boolean = entitySets.containsKey(entitySetId)
+    override fun exists(entitySetId: UUID): Boolean = edmSnapshots.getEntitySet(entitySetId) != null
 
     @Timed
-    @Suppress("UNCHECKED_CAST")
     override fun getPropertyTypesForEntitySet(entitySetId: UUID): Map<UUID, PropertyType> {
-        val maybeEtId = entitySets.executeOnKey(entitySetId, GetEntityTypeFromEntitySetEntryProcessor())
-                as? UUID
-                ?: throw  ResourceNotFoundException("Entity set $entitySetId does not exist.")
-
-        val maybeEtProps = entityTypes.executeOnKey(maybeEtId, GetPropertiesFromEntityTypeEntryProcessor())
-                as? DelegatedUUIDSet
-                ?: throw  ResourceNotFoundException("Entity type $maybeEtId does not exist.")
+        val entityTypeId = edmSnapshots.getEntitySet(entitySetId)?.entityTypeId
+                ?: throw ResourceNotFoundException("Entity set $entitySetId does not exist.")
 
-        return propertyTypes.getAll(maybeEtProps)
+        return edmSnapshots.getPropertyTypesOfEntityType(entityTypeId)
+                ?: throw ResourceNotFoundException("Entity type $entityTypeId does not exist.")
     }
 
     @Timed
@@ -691,6 +688,7 @@ class EntitySetService(
                                 )
                         )
                 )
+                edmSnapshots.refreshEntitySets(auditEntitySetIds)
 
                 // If an entity set is being moved across organizations, its materialized entity set should be deleted
                 // from old organization assembly
@@ -705,7 +703,9 @@ class EntitySetService(
 
     @Timed
     override fun updateEntitySetMetadata(entitySetId: UUID, update: MetadataUpdate): EntitySet {
-        return entitySets.executeOnKey(entitySetId, UpdateEntitySetMetadataProcessor(update))
+        val entitySet = entitySets.executeOnKey(entitySetId, UpdateEntitySetMetadataProcessor(update))
+        edmSnapshots.refreshEntitySets(setOf(entitySetId))
+        return entitySet
     }
 
     @Timed
@@ -716,6 +716,7 @@ class EntitySetService(
                 entitySetId,
                 AddEntitySetsToLinkingEntitySetProcessor(linkedEntitySets)
         ) as EntitySet
+        edmSnapshots.refreshEntitySets(setOf(entitySetId))
 
         markMaterializedEntitySetDirtyWithEdmChanges(linkingEntitySet.id)
         eventBus.post(LinkedEntitySetAddedEvent(entitySetId))
@@ -731,6 +732,7 @@ class EntitySetService(
                 entitySetId,
                 RemoveEntitySetsFromLinkingEntitySetProcessor(linkedEntitySets)
         ) as EntitySet
+        edmSnapshots.refreshEntitySets(setOf(entitySetId))
 
         markMaterializedEntitySetDirtyWithEdmChanges(linkingEntitySet.id)
         eventBus.post(LinkedEntitySetRemovedEvent(entitySetId))
@@ -745,7 +747,7 @@ class EntitySetService(
     @Timed
     override fun getLinkedEntitySets(entitySetId: UUID): Set<EntitySet> {
         val linkedEntitySetIds = getEntitySet(entitySetId)!!.linkedEntitySets
-        return entitySets.getAll(linkedEntitySetIds).values.toSet()
+        return edmSnapshots.getEntitySets(linkedEntitySetIds).values.toSet()
     }
 
     override fun getLinkedEntitySetIds(entitySetId: UUID): Set<UUID> {
@@ -758,6 +760,7 @@ class EntitySetService(
 
     override fun removeDataExpirationPolicy(entitySetId: UUID) {
         entitySets.executeOnKey(entitySetId, RemoveDataExpirationPolicyProcessor())
+        edmSnapshots.refreshEntitySets(setOf(entitySetId))
     }
 
     override fun getAuditRecordEntitySetsManager(): AuditRecordEntitySetsManager {
@@ -0,0 +1,232 @@
+package com.openlattice.edm
+
+import com.openlattice.edm.type.EntityType
+import com.openlattice.edm.type.PropertyType
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import java.util.*
+
+/**
+ * Immutable view of the property types, entity types and entity sets of the entity data model along with lookups
+ * derived from them.
+ *
+ * Snapshots are never modified after they are built. Changes produce a new snapshot with the next [version] that
+ * shares nothing mutable with its predecessor, so a snapshot can be read from any thread without locking. The
+ * property types, entity types and entity sets themselves are shared between snapshots and callers, and must not be
+ * modified.
+ */
+class EdmSnapshot private constructor(
+        val version: Long,
+        val propertyTypes: Map<UUID, PropertyType>,
+        val entityTypes: Map<UUID, EntityType>,
+        val entitySets: Map<UUID, EntitySet>,
+        val propertyTypeIdsByFqn: Map<FullQualifiedName, UUID>,
+        val entityTypeIdsByFqn: Map<FullQualifiedName, UUID>,
+        val entitySetIdsByName: Map<String, UUID>,
+        private val propertyTypesByEntityType: Map<UUID, Map<UUID, PropertyType>>,
+        private val entityTypeIdsByPropertyType: Map<UUID, Set<UUID>>,
+        private val linkingEntitySetIdsByEntitySet: Map<UUID, Set<UUID>>
+) {
+    companion object {
+        @JvmStatic
+        fun of(
+                version: Long,
+                propertyTypes: Map<UUID, PropertyType>,
+                entityTypes: Map<UUID, EntityType>,
+                entitySets: Map<UUID, EntitySet>
+        ): EdmSnapshot {
+            val entityTypeIdsByPropertyType = mutableMapOf<UUID, MutableSet<UUID>>()
+            entityTypes.forEach { (entityTypeId, entityType) ->
+                entityType.properties.forEach {
+                    entityTypeIdsByPropertyType.getOrPut(it) { mutableSetOf() }.add(entityTypeId)
+                }
+            }
+
+            val linkingEntitySetIdsByEntitySet = mutableMapOf<UUID, MutableSet<UUID>>()
+            entitySets.forEach { (entitySetId, entitySet) ->
+                entitySet.linkedEntitySets.forEach {
+                    linkingEntitySetIdsByEntitySet.getOrPut(it) { mutableSetOf() }.add(entitySetId)
+                }
+            }
+
+            return EdmSnapshot(
+                    version,
+                    HashMap(propertyTypes),
+                    HashMap(entityTypes),
+                    HashMap(entitySets),
+                    propertyTypes.values.associate { it.type to it.id },
+                    entityTypes.values.associate { it.type to it.id },
+                    entitySets.values.associate { it.name to it.id },
+                    entityTypes.mapValues { (_, entityType) -> propertyTypesOf(entityType, propertyTypes) },
+                    entityTypeIdsByPropertyType,
+                    linkingEntitySetIdsByEntitySet
+            )
+        }
+
+        /**
+         * The property types of [entityType] in the order they are declared in. Property types missing from
+         * [propertyTypes] are left out.
+         */
+        private fun propertyTypesOf(
+                entityType: EntityType,
+                propertyTypes: Map<UUID, PropertyType>
+        ): Map<UUID, PropertyType> {
+            val entityTypePropertyTypes = LinkedHashMap<UUID, PropertyType>(entityType.properties.size)
+            entityType.properties.forEach { propertyTypeId ->
+                propertyTypes[propertyTypeId]?.let { entityTypePropertyTypes[propertyTypeId] = it }
+            }
+            return Collections.unmodifiableMap(entityTypePropertyTypes)
+        }
+    }
+
+    /**
+     * @return The property types of the entity type [entityTypeId] in declaration order, or null if the entity type
+     * or any of its property types are not part of this snapshot.
+     */
+    fun getPropertyTypesOfEntityType(entityTypeId: UUID): Map<UUID, PropertyType>? {
+        val entityType = entityTypes[entityTypeId] ?: return null
+        val entityTypePropertyTypes = propertyTypesByEntityType.getValue(entityTypeId)
+        return if (entityTypePropertyTypes.size == entityType.properties.size) entityTypePropertyTypes else null
+    }
+
+    /**
+     * @return The ids of the linking entity sets that link [entitySetId].
+     */
+    fun getLinkingEntitySetIds(entitySetId: UUID): Set<UUID> {
+        return linkingEntitySetIdsByEntitySet[entitySetId] ?: setOf()
+    }
+
+    /**
+     * @return A snapshot with [propertyType] stored under [propertyTypeId], or without [propertyTypeId] if
+     * [propertyType] is null.
+     */
+    fun withPropertyType(propertyTypeId: UUID, propertyType: PropertyType?): EdmSnapshot {
+        val nextPropertyTypes = HashMap(propertyTypes)
+        val nextPropertyTypeIdsByFqn = HashMap(propertyTypeIdsByFqn)
+        propertyTypes[propertyTypeId]?.let { nextPropertyTypeIdsByFqn.remove(it.type) }
+
+        if (propertyType == null) {
+            nextPropertyTypes.remove(propertyTypeId)
+        } else {
+            nextPropertyTypes[propertyTypeId] = propertyType
+            nextPropertyTypeIdsByFqn[propertyType.type] = propertyTypeId
+        }
+
+        val nextPropertyTypesByEntityType = HashMap(propertyTypesByEntityType)
+        entityTypeIdsByPropertyType[propertyTypeId]?.forEach { entityTypeId ->
+            nextPropertyTypesByEntityType[entityTypeId] = propertyTypesOf(
+                    entityTypes.getValue(entityTypeId),
+                    nextPropertyTypes
+            )
+        }
+
+        return EdmSnapshot(
+                version + 1,
+                nextPropertyTypes,
+                entityTypes,
+                entitySets,
+                nextPropertyTypeIdsByFqn,
+                entityTypeIdsByFqn,
+                entitySetIdsByName,
+                nextPropertyTypesByEntityType,
+                entityTypeIdsByPropertyType,
+                linkingEntitySetIdsByEntitySet
+        )
+    }
+
+    /**
+     * @return A snapshot with [entityType] stored under [entityTypeId], or without [entityTypeId] if [entityType] is
+     * null.
+     */
+    fun withEntityType(entityTypeId: UUID, entityType: EntityType?): EdmSnapshot {
+        val previous = entityTypes[entityTypeId]
+        val nextEntityTypes = HashMap(entityTypes)
+        val nextEntityTypeIdsByFqn = HashMap(entityTypeIdsByFqn)
+        val nextPropertyTypesByEntityType = HashMap(propertyTypesByEntityType)
+        val nextEntityTypeIdsByPropertyType = HashMap(entityTypeIdsByPropertyType)
+
+        if (previous != null) {
+            nextEntityTypeIdsByFqn.remove(previous.type)
+            previous.properties.forEach { propertyTypeId ->
+                val entityTypeIds = (nextEntityTypeIdsByPropertyType[propertyTypeId] ?: setOf()) - entityTypeId
+                if (entityTypeIds.isEmpty()) {
+                    nextEntityTypeIdsByPropertyType.remove(propertyTypeId)
+                } else {
+                    nextEntityTypeIdsByPropertyType[propertyTypeId] = entityTypeIds
+                }
+            }
+        }
+
+        if (entityType == null) {
+            nextEntityTypes.remove(entityTypeId)
+            nextPropertyTypesByEntityType.remove(entityTypeId)
+        } else {
+            nextEntityTypes[entityTypeId] = entityType
+            nextEntityTypeIdsByFqn[entityType.type] = entityTypeId
+            nextPropertyTypesByEntityType[entityTypeId] = propertyTypesOf(entityType, propertyTypes)
+            entityType.properties.forEach { propertyTypeId ->
+                nextEntityTypeIdsByPropertyType[propertyTypeId] =
+                        (nextEntityTypeIdsByPropertyType[propertyTypeId] ?: setOf()) + entityTypeId
+            }
+        }
+
+        return EdmSnapshot(
+                version + 1,
+                propertyTypes,
+                nextEntityTypes,
+                entitySets,
+                propertyTypeIdsByFqn,
+                nextEntityTypeIdsByFqn,
+                entitySetIdsByName,
+                nextPropertyTypesByEntityType,
+                nextEntityTypeIdsByPropertyType,
+                linkingEntitySetIdsByEntitySet
+        )
+    }
+
+    /**
+     * @return A snapshot with [entitySet] stored under [entitySetId], or without [entitySetId] if [entitySet] is null.
+     */
+    fun withEntitySet(entitySetId: UUID, entitySet: EntitySet?): EdmSnapshot {
+        val previous = entitySets[entitySetId]
+        val nextEntitySets = HashMap(entitySets)
+        val nextEntitySetIdsByName = HashMap(entitySetIdsByName)
+        val nextLinkingEntitySetIdsByEntitySet = HashMap(linkingEntitySetIdsByEntitySet)
+
+        if (previous != null) {
+            nextEntitySetIdsByName.remove(previous.name)
+            previous.linkedEntitySets.forEach { linkedEntitySetId ->
+                val linkingEntitySetIds = (nextLinkingEntitySetIdsByEntitySet[linkedEntitySetId] ?: setOf()) -
+                        entitySetId
+                if (linkingEntitySetIds.isEmpty()) {
+                    nextLinkingEntitySetIdsByEntitySet.remove(linkedEntitySetId)
+                } else {
+                    nextLinkingEntitySetIdsByEntitySet[linkedEntitySetId] = linkingEntitySetIds
+                }
+            }
+        }
+
+        if (entitySet == null) {
+            nextEntitySets.remove(entitySetId)
+        } else {
+            nextEntitySets[entitySetId] = entitySet
+            nextEntitySetIdsByName[entitySet.name] = entitySetId
+            entitySet.linkedEntitySets.forEach { linkedEntitySetId ->
+                nextLinkingEntitySetIdsByEntitySet[linkedEntitySetId] =
+                        (nextLinkingEntitySetIdsByEntitySet[linkedEntitySetId] ?: setOf()) + entitySetId
+            }
+        }
+
+        return EdmSnapshot(
+                version + 1,
+                propertyTypes,
+                entityTypes,
+                nextEntitySets,
+                propertyTypeIdsByFqn,
+                entityTypeIdsByFqn,
+                nextEntitySetIdsByName,
+                propertyTypesByEntityType,
+                entityTypeIdsByPropertyType,
+                nextLinkingEntitySetIdsByEntitySet
+        )
+    }
+}
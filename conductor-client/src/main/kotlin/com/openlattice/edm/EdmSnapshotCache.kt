@@ -0,0 +1,228 @@
+package com.openlattice.edm
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import com.hazelcast.map.IMap
+import com.openlattice.edm.listeners.EdmSnapshotListener
+import com.openlattice.edm.type.EntityType
+import com.openlattice.edm.type.PropertyType
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Node local, copy-on-write cache of the property types, entity types and entity sets of the entity data model.
+ *
+ * Reads go against the current [EdmSnapshot] without locking or deserializing anything. The snapshot is updated
+ * incrementally by [EdmSnapshotListener]s registered on the backing maps and by [refreshPropertyType],
+ * [refreshEntityType] and [refreshEntitySets], which local writes call so that they can read their own changes right
+ * away. The refreshes read the backing maps while holding the same lock as the listeners, so a newer value applied by
+ * a listener is never overwritten by an older one read by a refresh. Since map events are delivered at most once, the
+ * snapshot is also reloaded in the background once it is older than [maximumAgeMillis].
+ *
+ * Lookups that miss the snapshot fall back to the backing maps, so a change that has not reached this node yet is
+ * still visible.
+ */
+class EdmSnapshotCache(
+        private val propertyTypes: IMap<UUID, PropertyType>,
+        private val entityTypes: IMap<UUID, EntityType>,
+        private val entitySets: IMap<UUID, EntitySet>,
+        private val maximumAgeMillis: Long = DEFAULT_MAXIMUM_AGE_MILLIS
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(EdmSnapshotCache::class.java)
+        private val reloadExecutor = Executors.newSingleThreadExecutor(
+                ThreadFactoryBuilder().setDaemon(true).setNameFormat("edm-snapshot-reload-%d").build()
+        )
+
+        const val DEFAULT_MAXIMUM_AGE_MILLIS = 10L * 60L * 1000L
+    }
+
+    private val lock = Any()
+    private val reloading = AtomicBoolean()
+
+    @Volatile
+    private var snapshot = EdmSnapshot.of(0, mapOf(), mapOf(), mapOf())
+
+    @Volatile
+    private var loadedAt = 0L
+
+    /**
+     * Changes applied while a reload is in progress. They are replayed on top of the reloaded snapshot, since the
+     * reload may have read the maps before they happened. Guarded by [lock].
+     */
+    private var pendingChanges: MutableList<(EdmSnapshot) -> EdmSnapshot>? = null
+
+    init {
+        // Listeners are registered first so that no change made while loading is missed.
+        propertyTypes.addEntryListener(
+                EdmSnapshotListener<PropertyType>({ id, propertyType ->
+                    update { it.withPropertyType(id, propertyType) }
+                }, this::reloadAsync),
+                true
+        )
+        entityTypes.addEntryListener(
+                EdmSnapshotListener<EntityType>({ id, entityType ->
+                    update { it.withEntityType(id, entityType) }
+                }, this::reloadAsync),
+                true
+        )
+        entitySets.addEntryListener(
+                EdmSnapshotListener<EntitySet>({ id, entitySet ->
+                    update { it.withEntitySet(id, entitySet) }
+                }, this::reloadAsync),
+                true
+        )
+
+        reloading.set(true)
+        try {
+            reload()
+        } finally {
+            reloading.set(false)
+        }
+    }
+
+    /**
+     * @return The current snapshot. It is never modified, so several lookups against it are consistent with each
+     * other.
+     */
+    fun getSnapshot(): EdmSnapshot {
+        if (System.currentTimeMillis() - loadedAt > maximumAgeMillis) {
+            reloadAsync()
+        }
+        return snapshot
+    }
+
+    fun getPropertyType(propertyTypeId: UUID): PropertyType? {
+        return getSnapshot().propertyTypes[propertyTypeId] ?: propertyTypes[propertyTypeId]
+    }
+
+    /**
+     * @return The property types of [propertyTypeIds] that exist, in the order they were requested in.
+     */
+    fun getPropertyTypes(propertyTypeIds: Collection<UUID>): Map<UUID, PropertyType> {
+        return getAll(propertyTypeIds, getSnapshot().propertyTypes, propertyTypes)
+    }
+
+    fun getPropertyTypeId(fqn: FullQualifiedName): UUID? {
+        return getSnapshot().propertyTypeIdsByFqn[fqn]
+    }
+
+    fun getEntityType(entityTypeId: UUID): EntityType? {
+        return getSnapshot().entityTypes[entityTypeId] ?: entityTypes[entityTypeId]
+    }
+
+    fun getEntityTypes(entityTypeIds: Collection<UUID>): Map<UUID, EntityType> {
+        return getAll(entityTypeIds, getSnapshot().entityTypes, entityTypes)
+    }
+
+    /**
+     * @return The property types of [entityTypeId] in declaration order, or null if the entity type does not exist.
+     */
+    fun getPropertyTypesOfEntityType(entityTypeId: UUID): Map<UUID, PropertyType>? {
+        val current = getSnapshot()
+        return current.getPropertyTypesOfEntityType(entityTypeId)
+                ?: getEntityType(entityTypeId)?.let { getPropertyTypes(it.properties) }
+    }
+
+    fun getEntitySet(entitySetId: UUID): EntitySet? {
+        return getSnapshot().entitySets[entitySetId] ?: entitySets[entitySetId]
+    }
+
+    fun getEntitySetId(entitySetName: String): UUID? {
+        return getSnapshot().entitySetIdsByName[entitySetName]
+    }
+
+    fun getEntitySets(entitySetIds: Collection<UUID>): Map<UUID, EntitySet> {
+        return getAll(entitySetIds, getSnapshot().entitySets, entitySets)
+    }
+
+    /**
+     * @return The ids of the linking entity sets that link [entitySetId], or null if the entity set is not part of
+     * the current snapshot.
+     */
+    fun getLinkingEntitySetIds(entitySetId: UUID): Set<UUID>? {
+        val current = getSnapshot()
+        return if (current.entitySets.containsKey(entitySetId)) current.getLinkingEntitySetIds(entitySetId) else null
+    }
+
+    fun refreshPropertyType(propertyTypeId: UUID) {
+        update { it.withPropertyType(propertyTypeId, propertyTypes[propertyTypeId]) }
+    }
+
+    fun refreshEntityType(entityTypeId: UUID) {
+        update { it.withEntityType(entityTypeId, entityTypes[entityTypeId]) }
+    }
+
+    fun refreshEntitySets(entitySetIds: Set<UUID>) {
+        update { snapshot ->
+            val current = entitySets.getAll(entitySetIds)
+            entitySetIds.fold(snapshot) { next, entitySetId -> next.withEntitySet(entitySetId, current[entitySetId]) }
+        }
+    }
+
+    private fun <V> getAll(ids: Collection<UUID>, cached: Map<UUID, V>, backing: IMap<UUID, V>): Map<UUID, V> {
+        val missing = ids.filterNotTo(mutableSetOf()) { cached.containsKey(it) }
+        val loaded = if (missing.isEmpty()) mapOf() else backing.getAll(missing)
+
+        val values = LinkedHashMap<UUID, V>(ids.size)
+        ids.forEach { id ->
+            (cached[id] ?: loaded[id])?.let { values[id] = it }
+        }
+        return values
+    }
+
+    private fun update(change: (EdmSnapshot) -> EdmSnapshot) {
+        synchronized(lock) {
+            // a refresh that fails to read its map is not replayed
+            val next = change(snapshot)
+            pendingChanges?.add(change)
+            snapshot = next
+        }
+    }
+
+    private fun reloadAsync() {
+        if (reloading.compareAndSet(false, true)) {
+            reloadExecutor.execute {
+                try {
+                    reload()
+                } catch (e: Exception) {
+                    logger.error("Unable to reload entity data model snapshot.", e)
+                } finally {
+                    reloading.set(false)
+                }
+            }
+        }
+    }
+
+    private fun reload() {
+        synchronized(lock) {
+            pendingChanges = mutableListOf()
+        }
+
+        val loaded = try {
+            EdmSnapshot.of(snapshot.version + 1, propertyTypes.toMap(), entityTypes.toMap(), entitySets.toMap())
+        } catch (e: Exception) {
+            synchronized(lock) { pendingChanges = null }
+            throw e
+        }
+
+        synchronized(lock) {
+            try {
+                snapshot = pendingChanges!!.fold(loaded) { next, change -> change(next) }
+                loadedAt = System.currentTimeMillis()
+            } finally {
+                pendingChanges = null
+            }
+        }
+
+        logger.info(
+                "Loaded entity data model snapshot version {} with {} property types, {} entity types and {} entity sets.",
+                snapshot.version,
+                snapshot.propertyTypes.size,
+                snapshot.entityTypes.size,
+                snapshot.entitySets.size
+        )
+    }
+}
@@ -0,0 +1,60 @@
+package com.openlattice.edm.listeners
+
+import com.hazelcast.core.EntryEvent
+import com.hazelcast.map.MapEvent
+import com.hazelcast.map.listener.EntryAddedListener
+import com.hazelcast.map.listener.EntryEvictedListener
+import com.hazelcast.map.listener.EntryExpiredListener
+import com.hazelcast.map.listener.EntryRemovedListener
+import com.hazelcast.map.listener.EntryUpdatedListener
+import com.hazelcast.map.listener.MapClearedListener
+import com.hazelcast.map.listener.MapEvictedListener
+import com.openlattice.edm.EdmSnapshotCache
+import java.util.*
+
+/**
+ * Applies changes to one of the entity data model maps to the node local [EdmSnapshotCache] whenever they happen
+ * anywhere in the cluster. Must be registered with values included.
+ *
+ * @param update Called with the key and new value of a changed entry, or null if the entry is no longer in the map.
+ * @param reload Called when the whole map is cleared or evicted.
+ */
+class EdmSnapshotListener<V>(
+        private val update: (UUID, V?) -> Unit,
+        private val reload: () -> Unit
+) : EntryAddedListener<UUID, V>,
+    EntryRemovedListener<UUID, V>,
+    EntryUpdatedListener<UUID, V>,
+    EntryEvictedListener<UUID, V>,
+    EntryExpiredListener<UUID, V>,
+    MapClearedListener,
+    MapEvictedListener {
+
+    override fun entryAdded(event: EntryEvent<UUID, V>) {
+        update(event.key, event.value)
+    }
+
+    override fun entryRemoved(event: EntryEvent<UUID, V>) {
+        update(event.key, null)
+    }
+
+    override fun entryUpdated(event: EntryEvent<UUID, V>) {
+        update(event.key, event.value)
+    }
+
+    override fun entryEvicted(event: EntryEvent<UUID, V>) {
+        update(event.key, null)
+    }
+
+    override fun entryExpired(event: EntryEvent<UUID, V>) {
+        update(event.key, null)
+    }
+
+    override fun mapCleared(event: MapEvent) {
+        reload()
+    }
+
+    override fun mapEvicted(event: MapEvent) {
+        reload()
+    }
+}
@@ -25,6 +25,7 @@ import com.codahale.metrics.MetricRegistry
 import com.codahale.metrics.annotation.Timed
 import com.fasterxml.jackson.annotation.JsonIgnore
 import com.google.common.collect.ImmutableList
+import com.google.common.collect.Iterators
 import com.google.common.collect.Multimaps
 import com.google.common.collect.SetMultimap
 import com.openlattice.analysis.AuthorizedFilteredNeighborsRanking
@@ -55,6 +56,7 @@ import org.springframework.stereotype.Service
 import java.sql.PreparedStatement
 import java.util.*
 import java.util.stream.Stream
+import kotlin.streams.asStream
 
 /**
  *
@@ -238,11 +240,26 @@ class Graph(
             entitySetIds: Set<UUID>,
             pagedNeighborRequest: PagedNeighborRequest
     ): Stream<Edge> {
+        if (pagedNeighborRequest.pageSize > 0) {
+            return getPageOfEdges(entitySetIds, pagedNeighborRequest).stream()
+        }
 
-        val filter = pagedNeighborRequest.filter
+        /*
+         * Unpaged requests are read a page at a time, so that no cursor (and connection) is held open while callers
+         * process the edges of high degree vertices.
+         */
+        val unpagedRequest = pagedNeighborRequest.copy(pageSize = UNPAGED_NEIGHBOR_PAGE_SIZE)
+        return generateSequence({ getPageOfEdges(entitySetIds, unpagedRequest) }) { page ->
+            if (page.size < UNPAGED_NEIGHBOR_PAGE_SIZE) {
+                null
+            } else {
+                getPageOfEdges(entitySetIds, unpagedRequest.copy(bookmark = page.last().key))
+            }
+        }.flatMap { it.asSequence() }.asStream()
+    }
 
-        val srcEntitySetIds = filter.srcEntitySetIds.orElse(setOf())
-        val allEntitySetIds = srcEntitySetIds + entitySetIds
+    private fun getPageOfEdges(entitySetIds: Set<UUID>, pagedNeighborRequest: PagedNeighborRequest): List<Edge> {
+        val filter = pagedNeighborRequest.filter
 
         /**
          * There seems to be a weird thing here where entitySetIds for which to find neighbors for are specified
@@ -254,9 +271,9 @@ class Graph(
          * Another note here is that we could filter down each query to make it smaller, but it's a simpler code
          * change for now to repeat the full query on all nodes.
          */
-        val edges = entitySetIds
+        val pages = entitySetIds
                 .groupBy { dataSourceResolver.getDataSourceName(it) }
-                .flatMap { (dataSourceName, entitySetIdsForDataSource) ->
+                .map { (dataSourceName, entitySetIdsForDataSource) ->
                     BasePostgresIterable(
                             PreparedStatementHolderSupplier(
                                     dataSourceResolver.getDataSource(dataSourceName),
@@ -276,10 +293,9 @@ class Graph(
                     }.toList()
                 }
 
-        return edges.stream()
+        return mergePagesOfEdges(pages, pagedNeighborRequest.pageSize)
     }
 
-
     @Timed
     override fun getNeighborEntitySets(
             entitySetIds: Set<UUID>
@@ -633,6 +649,43 @@ private val BULK_NEIGHBORHOOD_SQL = "SELECT * FROM ${E.name} WHERE (($SRC_IDS_SQ
 private val BULK_NON_TOMBSTONED_NEIGHBORHOOD_SQL = "$BULK_NEIGHBORHOOD_SQL AND ${VERSION.name} > 0"
 
 
+/**
+ * Unpaged neighbor requests are read in pages of this many edges.
+ */
+private const val UNPAGED_NEIGHBOR_PAGE_SIZE = 10_000
+
+/**
+ * Orders uuids like postgres, which compares them as unsigned bytes. [UUID.compareTo] compares signed longs instead.
+ */
+internal val UNSIGNED_UUID_ORDER = Comparator<UUID> { a, b ->
+    val mostSignificant = java.lang.Long.compareUnsigned(a.mostSignificantBits, b.mostSignificantBits)
+    if (mostSignificant != 0) mostSignificant else java.lang.Long.compareUnsigned(
+            a.leastSignificantBits,
+            b.leastSignificantBits
+    )
+}
+
+/**
+ * Orders edges like [PAGED_NEIGHBOR_SEARCH_ORDER_COLS] in postgres, which compares uuids as unsigned bytes.
+ */
+internal val PAGED_NEIGHBOR_SEARCH_ORDER = compareBy<Edge, UUID>(UNSIGNED_UUID_ORDER) { it.src.entitySetId }
+        .thenBy(UNSIGNED_UUID_ORDER) { it.src.entityKeyId }
+        .thenBy(UNSIGNED_UUID_ORDER) { it.edge.entitySetId }
+        .thenBy(UNSIGNED_UUID_ORDER) { it.edge.entityKeyId }
+        .thenBy(UNSIGNED_UUID_ORDER) { it.dst.entitySetId }
+        .thenBy(UNSIGNED_UUID_ORDER) { it.dst.entityKeyId }
+
+/**
+ * Each data source returns at most one page, in keyset order. Merging them in the same order and keeping the first
+ * page worth of edges makes sure the last edge is a valid bookmark across data sources.
+ */
+internal fun mergePagesOfEdges(pages: List<List<Edge>>, pageSize: Int): List<Edge> {
+    return Iterators
+            .limit(Iterators.mergeSorted(pages.map { it.iterator() }, PAGED_NEIGHBOR_SEARCH_ORDER), pageSize)
+            .asSequence()
+            .toList()
+}
+
 private val PAGED_NEIGHBOR_SEARCH_ORDER_COLS = listOf(
         SRC_ENTITY_SET_ID,
         SRC_ENTITY_KEY_ID,
@@ -23,6 +23,7 @@ package com.openlattice.graph
 
 import com.codahale.metrics.annotation.Timed
 import com.google.common.base.Stopwatch
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.openlattice.analysis.requests.Filter
 import com.openlattice.data.DataEdgeKey
 import com.openlattice.data.EntityDataKey
@@ -40,20 +41,29 @@ import com.openlattice.postgres.PostgresTable.*
 import com.openlattice.postgres.ResultSetAdapters
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import com.geekbeast.postgres.streams.PreparedStatementHolderSupplier
-import com.geekbeast.postgres.streams.StatementHolder
 import com.zaxxer.hikari.HikariDataSource
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Service
-import java.sql.Connection
-import java.sql.Statement
-import java.time.OffsetDateTime
+import java.sql.PreparedStatement
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
-import java.util.function.Supplier
 
 private val logger = LoggerFactory.getLogger(PostgresGraphQueryService::class.java)
 
+/**
+ * Bounds the number of connections used by the neighbor selections of all concurrent neighborhood queries.
+ */
+private const val SELECTION_THREADS = 8
+
+private val selectionExecutor = Executors.newFixedThreadPool(
+        SELECTION_THREADS,
+        ThreadFactoryBuilder().setDaemon(true).setNameFormat("neighborhood-selections-%d").build()
+)
+
 /**
  *
  * @author Matthew Tamayo-Rios &lt;matthew@openlattice.com&gt;
@@ -87,9 +97,10 @@ class PostgresGraphQueryService(
          * While it would be more efficient to group by entity set type and query all at once, filters can vary
          * by element so instead we
          *
-         * (1) Create temporary view for each neighbor selection and filter selection.
-         * (2) Repeatedly inner join filter tables with view for neighbor selection to build final (src|dst, edge) neighborhood selection.
-         * (3)
+         * (1) Compile each neighbor selection into a single statement, with a common table expression for the edges
+         * and one for each entity and association filter.
+         * (2) Inner join filter expressions with the edges to build final (src|dst, edge) neighborhood selection.
+         * (3) Run the selections concurrently on a bounded pool, since they are independent of each other.
          * (4) Future to allow AND of neighbor selections just inner join each set of intermediate neighborhood selections to generate final neighbor selection.
          *
          *
@@ -97,230 +108,64 @@ class PostgresGraphQueryService(
 
         val authorizedPropertyTypes = authorizedPropertyTypesByEntitySet.mapValues { it.value.keys }
         val ids = query.ids
-        val queryId = "a" + UUID.randomUUID().toString().filter { it.isLetterOrDigit() }
 
         val entities = mutableMapOf<UUID, MutableMap<UUID, Map<UUID, Set<Any>>>>()
         val associations = mutableMapOf<UUID, MutableMap<UUID, MutableMap<UUID, NeighborIds>>>()
         val neighborhood = Neighborhood(entities, associations)
         val propertyTypeFqns = propertyTypes.mapValues { quote(it.value.type.fullQualifiedNameAsString) }
-        query.srcSelections.forEachIndexed { index, selection ->
-            val ssw = Stopwatch.createStarted()
-            val entityFilterDefinitions = getFilterDefinitions(
-                    selection.entityTypeIds,
-                    selection.entitySetIds,
-                    selection.entityFilters
-            )
 
-            val associationFilterDefinitions = getFilterDefinitions(
-                    selection.associationTypeIds,
-                    selection.associationEntitySetIds,
-                    selection.associationFilters
+        val selections = query.srcSelections.map { it to true } + query.dstSelections.map { it to false }
+        val selectEdges = { selection: NeighborhoodSelection, isSrc: Boolean ->
+            isSrc to getNeighborhoodEdges(
+                    ids,
+                    selection,
+                    isSrc,
+                    propertyTypes,
+                    authorizedPropertyTypes,
+                    propertyTypeFqns,
+                    filter
             )
-            val entitySetIds = entityFilterDefinitions.flatMap { it.entitySetIds }.toSet()
-            val associationEntitySetIds = associationFilterDefinitions.flatMap { it.entitySetIds }.toSet()
-
-            logger.info(
-                    "Neighborhood src query filter definition prep took {} ms for {}",
-                    ssw.elapsed(TimeUnit.MILLISECONDS)
-            )
-            if (entitySetIds.isEmpty() || associationEntitySetIds.isEmpty()) {
-                return@forEachIndexed
-            }
-            BasePostgresIterable<DataEdgeKey>(
-                    Supplier {
-                        val connection = hds.connection
-                        val stmt = connection.createStatement()
-
-                        val srcEdgeView = createSrcEdgesView(
-                                queryId,
-                                index,
-                                connection,
-                                ids,
-                                entitySetIds,
-                                associationEntitySetIds
-                        )
-
-                        val srcEntityFilteringViews = createSrcFilteringViews(
-                                queryId,
-                                index,
-                                connection,
-                                entityFilterDefinitions.filter { it.filters.isNotEmpty() },
-                                propertyTypes,
-                                authorizedPropertyTypes,
-                                propertyTypeFqns,
-                                filter
-                        )
-                        val srcEdgeFilteringView = createSrcEdgeFilteringViews(
-                                queryId,
-                                index,
-                                connection,
-                                associationFilterDefinitions.filter { it.filters.isNotEmpty() },
-                                propertyTypes,
-                                authorizedPropertyTypes,
-                                propertyTypeFqns,
-                                filter
-                        )
-                        val edgeJoins = srcEdgeFilteringView.keys.map { " (SELECT id as ${EDGE_COMP_2.name} FROM $it) as $it " }
-
-                        val srcEntityJoins = if (srcEntityFilteringViews.isEmpty()) {
-                            ""
-                        } else {
-                            "INNER JOIN " + srcEntityFilteringViews.keys.joinToString(
-                                    " USING (${ID_VALUE.name}) INNER JOIN "
-                            ) + " USING(${ID_VALUE.name}) "
-                        }
-
-                        val edgeJoinsSql = if (edgeJoins.isEmpty()) {
-                            ""
-                        } else {
-                            " INNER JOIN " + edgeJoins.joinToString(
-                                    " USING (${EDGE_COMP_2.name}) INNER JOIN "
-                            ) + " USING (${EDGE_COMP_2.name}) "
-                        }
-
-                        val sql = "SELECT * FROM ${srcEdgeView.first} $srcEntityJoins $edgeJoinsSql"
-                        logger.info("src filter sql: {} \nNeighborhood sql: {}", srcEdgeView.first, sql)
-                        val sw = Stopwatch.createStarted()
-                        val rs = stmt.executeQuery(sql)
-                        logger.info("Neighborhood query took {} ms", sw.elapsed(TimeUnit.MILLISECONDS))
-                        StatementHolder(connection, stmt, rs)
-                    }) {
-                val srcEs = it.getObject(SRC_ENTITY_SET_ID_FIELD, UUID::class.java)
-                val srcId = it.getObject(ID_VALUE.name, UUID::class.java)
-                val dstEs = it.getObject(DST_ENTITY_SET_ID_FIELD, UUID::class.java)
-                val dstId = it.getObject(EDGE_COMP_1_FIELD, UUID::class.java)
-                val edgeEs = it.getObject(EDGE_ENTITY_SET_ID_FIELD, UUID::class.java)
-                val edgeId = it.getObject(EDGE_COMP_2.name, UUID::class.java)
-                DataEdgeKey(EntityDataKey(srcEs, srcId), EntityDataKey(dstEs, dstId), EntityDataKey(edgeEs, edgeId))
-            }.forEach {
-                entities.getOrPut(it.src.entitySetId) { mutableMapOf() }.getOrPut(it.src.entityKeyId) { mutableMapOf() }
-                entities.getOrPut(it.dst.entitySetId) { mutableMapOf() }.getOrPut(it.dst.entityKeyId) { mutableMapOf() }
-                entities.getOrPut(it.edge.entitySetId) { mutableMapOf() }.getOrPut(
-                        it.edge.entityKeyId
-                ) { mutableMapOf() }
-                associations
-                        .getOrPut(it.dst.entityKeyId) { mutableMapOf() }
-                        .getOrPut(it.edge.entitySetId) { mutableMapOf() }[it.src.entitySetId] = NeighborIds(
-                        it.edge.entityKeyId,
-                        it.src.entityKeyId
-                )
-            }
-
-            logger.info("Neighborhood src selection took {} ms for {}", ssw.elapsed(TimeUnit.MILLISECONDS), selection)
         }
-
-        query.dstSelections.forEachIndexed { index, selection ->
-            val ssw = Stopwatch.createStarted()
-            val entityFilterDefinitions = getFilterDefinitions(
-                    selection.entityTypeIds,
-                    selection.entitySetIds,
-                    selection.entityFilters
-            )
-
-            val associationFilterDefinitions = getFilterDefinitions(
-                    selection.associationTypeIds,
-                    selection.associationEntitySetIds,
-                    selection.associationFilters
-            )
-
-
-            val entitySetIds = entityFilterDefinitions.flatMap { it.entitySetIds }.toSet()
-            val associationEntitySetIds = associationFilterDefinitions.flatMap { it.entitySetIds }.toSet()
-
-            logger.info(
-                    "Neighborhood query filter definition prep took {} ms for {}", ssw.elapsed(TimeUnit.MILLISECONDS)
-            )
-
-            if (entitySetIds.isEmpty() || associationEntitySetIds.isEmpty()) {
-                return@forEachIndexed
-            }
-
-
-            BasePostgresIterable<DataEdgeKey>(
-                    Supplier {
-                        val connection = hds.connection
-                        val stmt = connection.createStatement()
-
-                        val dstEdgeView = createDstEdgesView(
-                                queryId,
-                                index,
-                                connection,
-                                ids,
-                                entitySetIds,
-                                associationEntitySetIds
-                        )
-
-                        val dstEntityFilteringViews = createDstFilteringViews(
-                                queryId,
-                                index,
-                                connection,
-                                entityFilterDefinitions.filter { it.filters.isNotEmpty() },
-                                propertyTypes,
-                                authorizedPropertyTypes,
-                                propertyTypeFqns,
-                                filter
-                        )
-
-                        val dstEdgeFilteringView = createDstEdgeFilteringViews(
-                                queryId,
-                                index,
-                                connection,
-                                associationFilterDefinitions.filter { it.filters.isNotEmpty() },
-                                propertyTypes,
-                                authorizedPropertyTypes,
-                                propertyTypeFqns,
-                                filter
-                        )
-
-                        val edgeJoins = dstEdgeFilteringView.keys.map { " (SELECT id as ${EDGE_COMP_1.name} FROM $it) as $it " }
-                        val dstEntityJoins = if (dstEntityFilteringViews.isEmpty()) {
-                            ""
-                        } else {
-                            " INNER JOIN " + dstEntityFilteringViews.keys.joinToString(
-                                    " USING (${ID_VALUE.name}) INNER JOIN "
-                            ) + " USING(${ID_VALUE.name}) "
-                        }
-                        val edgeJoinsSql = if (edgeJoins.isEmpty()) {
-                            ""
-                        } else {
-                            " INNER JOIN " + edgeJoins.joinToString(
-                                    " USING (${EDGE_COMP_1.name}) INNER JOIN "
-                            ) + " USING (${EDGE_COMP_1.name}) "
+        val selectedEdges = if (selections.size == 1) {
+            selections.map { (selection, isSrc) -> selectEdges(selection, isSrc) }
+        } else {
+            selections
+                    .map { (selection, isSrc) -> selectionExecutor.submit(Callable { selectEdges(selection, isSrc) }) }
+                    .map { selected ->
+                        try {
+                            selected.get()
+                        } catch (ex: ExecutionException) {
+                            throw ex.cause ?: ex
                         }
+                    }
+        }
 
-                        val sql = "SELECT * FROM ${dstEdgeView.first} $dstEntityJoins $edgeJoinsSql"
-
-                        logger.info("dst filter sql: {} \nNeighborhood sql: {}", dstEdgeView.first, sql)
-                        val sw = Stopwatch.createStarted()
-                        val rs = stmt.executeQuery(sql)
-                        logger.info("Neighborhood query took {} ms", sw.elapsed(TimeUnit.MILLISECONDS))
-                        StatementHolder(connection, stmt, rs)
-                    }) {
-                val srcEs = it.getObject(SRC_ENTITY_SET_ID_FIELD, UUID::class.java)
-                val srcId = it.getObject(EDGE_COMP_2_FIELD, UUID::class.java)
-                val dstEs = it.getObject(DST_ENTITY_SET_ID_FIELD, UUID::class.java)
-                val dstId = it.getObject(ID_VALUE.name, UUID::class.java)
-                val edgeEs = it.getObject(EDGE_ENTITY_SET_ID_FIELD, UUID::class.java)
-                val edgeId = it.getObject(EDGE_COMP_1_FIELD, UUID::class.java)
-                DataEdgeKey(EntityDataKey(srcEs, srcId), EntityDataKey(dstEs, dstId), EntityDataKey(edgeEs, edgeId))
-            }.forEach {
+        selectedEdges.forEach { (isSrc, edges) ->
+            edges.forEach {
                 entities.getOrPut(it.src.entitySetId) { mutableMapOf() }.getOrPut(it.src.entityKeyId) { mutableMapOf() }
                 entities.getOrPut(it.dst.entitySetId) { mutableMapOf() }.getOrPut(it.dst.entityKeyId) { mutableMapOf() }
                 entities.getOrPut(it.edge.entitySetId) { mutableMapOf() }.getOrPut(
                         it.edge.entityKeyId
                 ) { mutableMapOf() }
-                associations
-                        .getOrPut(it.src.entityKeyId) { mutableMapOf() }
-                        .getOrPut(it.edge.entitySetId) { mutableMapOf() }[it.dst.entitySetId] = NeighborIds(
-                        it.edge.entityKeyId,
-                        it.dst.entityKeyId
-                )
+
+                if (isSrc) {
+                    associations
+                            .getOrPut(it.dst.entityKeyId) { mutableMapOf() }
+                            .getOrPut(it.edge.entitySetId) { mutableMapOf() }[it.src.entitySetId] = NeighborIds(
+                            it.edge.entityKeyId,
+                            it.src.entityKeyId
+                    )
+                } else {
+                    associations
+                            .getOrPut(it.src.entityKeyId) { mutableMapOf() }
+                            .getOrPut(it.edge.entitySetId) { mutableMapOf() }[it.dst.entitySetId] = NeighborIds(
+                            it.edge.entityKeyId,
+                            it.dst.entityKeyId
+                    )
+                }
             }
-            logger.info("Neighborhood dst selection took {} ms for {}", ssw.elapsed(TimeUnit.MILLISECONDS), selection)
         }
 
-
-
         entities.forEach { (entitySetId, data) ->
             val apt = authorizedPropertyTypes
                     .mapValues { (_, propertyTypeIds) ->
@@ -341,131 +186,85 @@ class PostgresGraphQueryService(
         return neighborhood
     }
 
-    private fun createDstEdgeFilteringViews(
-            queryId: String,
-            index: Int,
-            connection: Connection,
-            filterDefinitions: List<AssociationFilterDefinition>,
-            propertyTypes: Map<UUID, PropertyType>,
-            authorizedPropertyTypes: Map<UUID, Set<UUID>>,
-            propertyTypeFqns: Map<UUID, String>,
-            filter: Optional<Filter>
-    ): Map<String, Statement> {
-        //We're able to re-use SrcFiltering views with a simple table name change because it's just entity tables.
-        return filterDefinitions.mapIndexed { filterIndex, filterDefinition ->
-            val tableName = "${queryId}_dst_edge_${index}_$filterIndex"
-            dropViewIfExists(connection, tableName)
-            val stmt = connection.createStatement()
-            stmt.execute(
-                    createFilteringView(
-                            tableName,
-                            filterDefinition,
-                            propertyTypes,
-                            authorizedPropertyTypes,
-                            propertyTypeFqns,
-                            filter
-                    )
-            )
-            return@mapIndexed tableName to stmt
-        }.toMap()
-        return mapOf()
-    }
-
-    private fun createDstFilteringViews(
-            queryId: String,
-            index: Int,
-            connection: Connection,
-            filterDefinitions: List<AssociationFilterDefinition>,
+    /**
+     * Loads the edges of a single neighbor selection, where [isSrc] selects neighbors that are the source of edges to
+     * the queried ids, and destinations otherwise.
+     */
+    private fun getNeighborhoodEdges(
+            ids: Map<UUID, Optional<Set<UUID>>>,
+            selection: NeighborhoodSelection,
+            isSrc: Boolean,
             propertyTypes: Map<UUID, PropertyType>,
             authorizedPropertyTypes: Map<UUID, Set<UUID>>,
             propertyTypeFqns: Map<UUID, String>,
             filter: Optional<Filter>
-    ): Map<String, Statement> {
-        return filterDefinitions.mapIndexed { filterIndex, filterDefinition ->
-            val tableName = "${queryId}_dst_${index}_$filterIndex"
-            dropViewIfExists(connection, tableName)
-            val stmt = connection.createStatement()
-            stmt.execute(
-                    createFilteringView(
-                            tableName,
-                            filterDefinition,
-                            propertyTypes,
-                            authorizedPropertyTypes,
-                            propertyTypeFqns,
-                            filter
-                    )
-            )
-            return@mapIndexed tableName to stmt
-        }.toMap()
-    }
-
-    private fun createDstEdgesView(
-            queryId: String,
-            index: Int,
-            connection: Connection,
-            ids: Map<UUID, Optional<Set<UUID>>>,
-            entitySetIds: Set<UUID>,
-            associationEntitySetIds: Set<UUID>
-    ): Pair<String, Statement> {
-        val tableName = "${queryId}_dst_edges_$index"
-        dropViewIfExists(connection, tableName)
-        val tableSql = "CREATE TEMPORARY VIEW $tableName AS " + buildDstJoinSql(
-                ids, entitySetIds, associationEntitySetIds
+    ): List<DataEdgeKey> {
+        val direction = if (isSrc) "src" else "dst"
+        val ssw = Stopwatch.createStarted()
+        val entityFilterDefinitions = getFilterDefinitions(
+                selection.entityTypeIds,
+                selection.entitySetIds,
+                selection.entityFilters
         )
 
-        val stmt = connection.createStatement()
-        stmt.execute(tableSql)
-
-        return tableName to stmt
-    }
+        val associationFilterDefinitions = getFilterDefinitions(
+                selection.associationTypeIds,
+                selection.associationEntitySetIds,
+                selection.associationFilters
+        )
+        val entitySetIds = entityFilterDefinitions.flatMap { it.entitySetIds }.toSet()
+        val associationEntitySetIds = associationFilterDefinitions.flatMap { it.entitySetIds }.toSet()
 
-    private fun createSrcEdgesView(
-            queryId: String,
-            index: Int,
-            connection: Connection,
-            ids: Map<UUID, Optional<Set<UUID>>>,
-            entitySetIds: Set<UUID>,
-            associationEntitySetIds: Set<UUID>
-    ): Pair<String, Statement> {
-        val tableName = "${queryId}_src_edges_$index"
-        dropViewIfExists(connection, tableName)
-        val tableSql = "CREATE TEMPORARY VIEW $tableName AS " + buildSrcJoinSql(
-                ids, entitySetIds, associationEntitySetIds
+        logger.info(
+                "Neighborhood {} query filter definition prep took {} ms",
+                direction,
+                ssw.elapsed(TimeUnit.MILLISECONDS)
         )
+        if (entitySetIds.isEmpty() || associationEntitySetIds.isEmpty()) {
+            return listOf()
+        }
 
-        val stmt = connection.createStatement()
-        stmt.execute(tableSql)
+        val entityFilterSqls = entityFilterDefinitions
+                .filter { it.filters.isNotEmpty() }
+                .map { buildFilteringSql(it, propertyTypes, authorizedPropertyTypes, propertyTypeFqns, filter) }
+        val edgeFilterSqls = associationFilterDefinitions
+                .filter { it.filters.isNotEmpty() }
+                .map { buildFilteringSql(it, propertyTypes, authorizedPropertyTypes, propertyTypeFqns, filter) }
+
+        val sql = buildNeighborhoodSql(
+                if (isSrc) buildSrcJoinSql() else buildDstJoinSql(),
+                entityFilterSqls,
+                edgeFilterSqls,
+                if (isSrc) EDGE_COMP_2.name else EDGE_COMP_1.name
+        )
+        logger.info("Neighborhood {} sql: {}", direction, sql)
 
-        return tableName to stmt
-    }
+        val edges = BasePostgresIterable(PreparedStatementHolderSupplier(hds, sql) { ps ->
+            bindEdgesSql(ps, ids, entitySetIds, associationEntitySetIds)
+        }) {
+            val srcEs = it.getObject(SRC_ENTITY_SET_ID_FIELD, UUID::class.java)
+            val dstEs = it.getObject(DST_ENTITY_SET_ID_FIELD, UUID::class.java)
+            val edgeEs = it.getObject(EDGE_ENTITY_SET_ID_FIELD, UUID::class.java)
+            if (isSrc) {
+                val srcId = it.getObject(ID_VALUE.name, UUID::class.java)
+                val dstId = it.getObject(EDGE_COMP_1_FIELD, UUID::class.java)
+                val edgeId = it.getObject(EDGE_COMP_2.name, UUID::class.java)
+                DataEdgeKey(EntityDataKey(srcEs, srcId), EntityDataKey(dstEs, dstId), EntityDataKey(edgeEs, edgeId))
+            } else {
+                val srcId = it.getObject(EDGE_COMP_2_FIELD, UUID::class.java)
+                val dstId = it.getObject(ID_VALUE.name, UUID::class.java)
+                val edgeId = it.getObject(EDGE_COMP_1_FIELD, UUID::class.java)
+                DataEdgeKey(EntityDataKey(srcEs, srcId), EntityDataKey(dstEs, dstId), EntityDataKey(edgeEs, edgeId))
+            }
+        }.toList()
 
-    private fun createSrcEdgeFilteringViews(
-            queryId: String,
-            index: Int,
-            connection: Connection,
-            filterDefinitions: List<AssociationFilterDefinition>,
-            propertyTypes: Map<UUID, PropertyType>,
-            authorizedPropertyTypes: Map<UUID, Set<UUID>>,
-            propertyTypeFqns: Map<UUID, String>,
-            filter: Optional<Filter>
-    ): Map<String, Statement> {
-        //We're able to re-use SrcFiltering views with a simple table name change because it's just entity tables.
-        return filterDefinitions.mapIndexed { filterIndex, filterDefinition ->
-            val tableName = "${queryId}_src_edge_${index}_$filterIndex"
-            dropViewIfExists(connection, tableName)
-            val stmt = connection.createStatement()
-            stmt.execute(
-                    createFilteringView(
-                            tableName,
-                            filterDefinition,
-                            propertyTypes,
-                            authorizedPropertyTypes,
-                            propertyTypeFqns,
-                            filter
-                    )
-            )
-            return@mapIndexed tableName to stmt
-        }.toMap()
+        logger.info(
+                "Neighborhood {} selection took {} ms for {}",
+                direction,
+                ssw.elapsed(TimeUnit.MILLISECONDS),
+                selection
+        )
+        return edges
     }
 
     private fun getFilterDefinitions(
@@ -505,37 +304,7 @@ class PostgresGraphQueryService(
         return mergedFilters
     }
 
-    private fun createSrcFilteringViews(
-            queryId: String,
-            index: Int,
-            connection: Connection,
-            filterDefinitions: List<AssociationFilterDefinition>,
-            propertyTypes: Map<UUID, PropertyType>,
-            authorizedPropertyTypes: Map<UUID, Set<UUID>>,
-            propertyTypeFqns: Map<UUID, String>,
-            filter: Optional<Filter>
-    ): Map<String, Statement> {
-        return filterDefinitions
-                .mapIndexed { filterIndex, filterDefinition ->
-                    val tableName = "${queryId}_src_${index}_$filterIndex"
-                    dropViewIfExists(connection, tableName)
-                    val stmt = connection.createStatement()
-                    stmt.execute(
-                            createFilteringView(
-                                    tableName,
-                                    filterDefinition,
-                                    propertyTypes,
-                                    authorizedPropertyTypes,
-                                    propertyTypeFqns,
-                                    filter
-                            )
-                    )
-                    return@mapIndexed tableName to stmt
-                }.toMap()
-    }
-
-    private fun createFilteringView(
-            tableName: String,
+    private fun buildFilteringSql(
             filterDefinition: AssociationFilterDefinition,
             propertyTypes: Map<UUID, PropertyType>,
             authorizedPropertyTypes: Map<UUID, Set<UUID>>,
@@ -555,50 +324,7 @@ class PostgresGraphQueryService(
                         omitEntitySetId = true
                 )
 
-        val lowerbound = OffsetDateTime.now().minusDays(14)
-        val upperbound = OffsetDateTime.now().plusYears(100)
-        return "CREATE TEMPORARY VIEW $tableName AS $tableSql " + filter.map { "WHERE " + it.asSql("") }.orElse("")
-    }
-
-
-    private fun dropViewIfExists(
-            connection: Connection,
-            tableName: String
-    ) {
-        connection.createStatement().execute("DROP VIEW IF EXISTS $tableName")
-    }
-
-    /**
-     * Used to create unbound prepared statement for generating a edge table fragment useful for joining to source
-     * constraints.
-     */
-    private fun buildSrcJoinSql(
-            dataKeys: Map<UUID, Optional<Set<UUID>>>,
-            entitySetIds: Set<UUID>,
-            associationEntitySetIds: Set<UUID>
-    ): String {
-        val dataKeys = dataKeysClause(dataKeys, EDGE_COMP_1.name, DST_ENTITY_SET_ID.name)
-        val srcEntitySetIdsClause = "AND ${SRC_ENTITY_SET_ID.name} ${inClause(entitySetIds)}"
-        val associationEntitySetIdsClause = "AND ${EDGE_ENTITY_SET_ID.name} ${inClause(associationEntitySetIds)}"
-
-        //For this there is no dstEntitySet clause since the target is self.
-        return "SELECT * FROM ${E.name} WHERE $dataKeys $srcEntitySetIdsClause $associationEntitySetIdsClause"
-    }
-
-    /**
-     * Used to create unbound prepared statement for generating a edge table fragment useful for joining to destination
-     * constraints.
-     */
-    private fun buildDstJoinSql(
-            ids: Map<UUID, Optional<Set<UUID>>>,
-            entitySetIds: Set<UUID>,
-            associationEntitySetIds: Set<UUID>
-    ): String {
-        val idsClause = dataKeysClause(ids, EDGE_COMP_2.name, SRC_ENTITY_SET_ID.name)
-        val associationEntitySetIdsClause = "AND ${EDGE_ENTITY_SET_ID.name} ${inClause(associationEntitySetIds)}"
-        val dstEntitySetIdsClause = "AND ${DST_ENTITY_SET_ID.name} ${inClause(entitySetIds)}"
-
-        return "SELECT * FROM ${E.name} WHERE $idsClause $dstEntitySetIdsClause $associationEntitySetIdsClause"
+        return "$tableSql " + filter.map { "WHERE " + it.asSql("") }.orElse("")
     }
 
     /**
@@ -639,18 +365,6 @@ class PostgresGraphQueryService(
         return "IN (" + ids.joinToString(",") { "'$it'" } + ")"
     }
 
-    private fun dataKeysClause(
-            dataKeys: Map<UUID, Optional<Set<UUID>>>, idColumn: String, entitySetColumn: String
-    ): String {
-        check(dataKeys.isNotEmpty()) { "Ids must be provided." }
-
-        return "(" + dataKeys.map { (entitySetId, maybeIds) ->
-            "(" + maybeIds.map { ids -> "$idColumn IN (" + ids.joinToString(",") { "'$it'" } + ")" }
-                    .orElse("") + " $entitySetColumn = '$entitySetId')"
-        }.joinToString(" OR ") + ")"
-
-    }
-
     private fun getEntitySetsByEntityTypeIds(
             maybeEntityTypeIds: Optional<Set<UUID>>
     ): MutableMap<UUID, MutableSet<UUID>> {
@@ -669,6 +383,91 @@ class PostgresGraphQueryService(
     }
 }
 
+/**
+ * Joins the edges of a selection with every entity and association filter, each as its own common table
+ * expression, so that a neighborhood selection is a single statement instead of a set of temporary views.
+ *
+ * @param edgesSql The edge selection, bound by [bindEdgesSql].
+ * @param edgeColumn The edge column holding the association entity key id.
+ */
+internal fun buildNeighborhoodSql(
+        edgesSql: String,
+        entityFilterSqls: List<String>,
+        edgeFilterSqls: List<String>,
+        edgeColumn: String
+): String {
+    val ctes = listOf("$NEIGHBORHOOD_EDGES AS ($edgesSql)") +
+            entityFilterSqls.mapIndexed { index, sql -> "${NEIGHBORHOOD_ENTITIES}_$index AS ($sql)" } +
+            edgeFilterSqls.mapIndexed { index, sql -> "${NEIGHBORHOOD_ASSOCIATIONS}_$index AS ($sql)" }
+
+    val entityJoins = entityFilterSqls.indices.joinToString(" ") {
+        "INNER JOIN ${NEIGHBORHOOD_ENTITIES}_$it USING (${ID_VALUE.name})"
+    }
+    val edgeJoins = edgeFilterSqls.indices.joinToString(" ") {
+        "INNER JOIN (SELECT ${ID_VALUE.name} AS $edgeColumn FROM ${NEIGHBORHOOD_ASSOCIATIONS}_$it) " +
+                "AS ${NEIGHBORHOOD_ASSOCIATIONS}_ids_$it USING ($edgeColumn)"
+    }
+
+    return "WITH ${ctes.joinToString(", ")} " +
+            "SELECT $NEIGHBORHOOD_EDGES.* FROM $NEIGHBORHOOD_EDGES $entityJoins $edgeJoins"
+}
+
+/**
+ * Used to create unbound prepared statement for generating a edge table fragment useful for joining to source
+ * constraints.
+ */
+internal fun buildSrcJoinSql(): String {
+    val dataKeys = dataKeysClause(EDGE_COMP_1.name, DST_ENTITY_SET_ID.name)
+    val srcEntitySetIdsClause = "AND ${SRC_ENTITY_SET_ID.name} = ANY(?)"
+    val associationEntitySetIdsClause = "AND ${EDGE_ENTITY_SET_ID.name} = ANY(?)"
+
+    //For this there is no dstEntitySet clause since the target is self.
+    return "SELECT * FROM ${E.name} WHERE $dataKeys $srcEntitySetIdsClause $associationEntitySetIdsClause"
+}
+
+/**
+ * Used to create unbound prepared statement for generating a edge table fragment useful for joining to destination
+ * constraints.
+ */
+internal fun buildDstJoinSql(): String {
+    val idsClause = dataKeysClause(EDGE_COMP_2.name, SRC_ENTITY_SET_ID.name)
+    val dstEntitySetIdsClause = "AND ${DST_ENTITY_SET_ID.name} = ANY(?)"
+    val associationEntitySetIdsClause = "AND ${EDGE_ENTITY_SET_ID.name} = ANY(?)"
+
+    return "SELECT * FROM ${E.name} WHERE $idsClause $dstEntitySetIdsClause $associationEntitySetIdsClause"
+}
+
+/**
+ * Binds the parameters of [buildSrcJoinSql] or [buildDstJoinSql].
+ */
+internal fun bindEdgesSql(
+        ps: PreparedStatement,
+        dataKeys: Map<UUID, Optional<Set<UUID>>>,
+        entitySetIds: Set<UUID>,
+        associationEntitySetIds: Set<UUID>
+) {
+    check(dataKeys.isNotEmpty()) { "Ids must be provided." }
+    val (withIds, withoutIds) = dataKeys.entries.partition { it.value.isPresent }
+
+    ps.setArray(1, PostgresArrays.createUuidArray(ps.connection, withoutIds.map { it.key }))
+    ps.setArray(2, PostgresArrays.createUuidArray(ps.connection, withIds.map { it.key }))
+    ps.setArray(3, PostgresArrays.createUuidArray(ps.connection, withIds.flatMap { it.value.get() }))
+    ps.setArray(4, PostgresArrays.createUuidArray(ps.connection, entitySetIds))
+    ps.setArray(5, PostgresArrays.createUuidArray(ps.connection, associationEntitySetIds))
+}
+
+/**
+ * Matches whole entity sets, or specific entity key ids of entity sets. Entity key ids are unique across entity
+ * sets, so the ids of all entity sets with ids can be matched at once.
+ */
+internal fun dataKeysClause(idColumn: String, entitySetColumn: String): String {
+    return "($entitySetColumn = ANY(?) OR ($entitySetColumn = ANY(?) AND $idColumn = ANY(?)))"
+}
+
+private const val NEIGHBORHOOD_EDGES = "neighborhood_edges"
+private const val NEIGHBORHOOD_ENTITIES = "neighborhood_entities"
+private const val NEIGHBORHOOD_ASSOCIATIONS = "neighborhood_associations"
+
 private val idsClause = "${ID_VALUE.name} IN ("
 private val entitySetIdsClause = "${PostgresColumn.ENTITY_SET_ID.name} IN ("
 
@@ -1,16 +1,18 @@
 package com.openlattice.ids
 
 import com.geekbeast.hazelcast.IHazelcastClientProvider
-import com.google.common.collect.Queues
 import com.openlattice.hazelcast.HazelcastClient
 import com.openlattice.hazelcast.HazelcastMap
-import com.openlattice.hazelcast.HazelcastQueue
 import org.slf4j.LoggerFactory
 import java.util.*
-import java.util.concurrent.BlockingQueue
 import java.util.concurrent.Executors
+import java.util.concurrent.ThreadLocalRandom
 
 /**
+ * Generates ids by leasing contiguous blocks from the [Range]s in the [HazelcastMap.ID_GENERATION] map into a node
+ * local [LeasedIdPool]. Each lease is a single entry processor call on one randomly chosen range, so members never
+ * contend on a cluster wide lock.
+ *
  * @author Matthew Tamayo-Rios &lt;matthew@openlattice.com&gt;
  */
 class HazelcastIdGenerationService(clients: IHazelcastClientProvider) {
@@ -27,9 +29,11 @@ class HazelcastIdGenerationService(clients: IHazelcastClientProvider) {
      * This should be good enough until we scale past 65536 Hazelcast nodes.
      */
     companion object {
-        private const val PARTITION_SCROLL_SIZE = 5
         private const val MASK_LENGTH = 16
         const val NUM_PARTITIONS = 1 shl MASK_LENGTH //65536
+        const val BLOCK_SIZE = 4_096
+        const val LOW_WATERMARK = 4_096
+        const val HIGH_WATERMARK = 16_384
         private val logger = LoggerFactory.getLogger(HazelcastIdGenerationService::class.java)
         private val executor = Executors.newSingleThreadExecutor()
     }
@@ -39,8 +43,6 @@ class HazelcastIdGenerationService(clients: IHazelcastClientProvider) {
      */
     private val hazelcastInstance = clients.getClient(HazelcastClient.IDS.name)
     private val scrolls = HazelcastMap.ID_GENERATION.getMap(hazelcastInstance)
-    private val idsQueue = HazelcastQueue.ID_GENERATION.getQueue(hazelcastInstance)
-    private val localQueue = Queues.newArrayBlockingQueue<UUID>(NUM_PARTITIONS) as BlockingQueue<UUID>
 
     init {
         if (scrolls.isEmpty) {
@@ -49,24 +51,26 @@ class HazelcastIdGenerationService(clients: IHazelcastClientProvider) {
         }
     }
 
-    private val enqueueJob = executor.execute {
+    private val pool = LeasedIdPool(BLOCK_SIZE, LOW_WATERMARK, HIGH_WATERMARK, executor, this::leaseIds)
+
+    /**
+     * Leases up to [count] contiguous ids from a single randomly chosen range.
+     */
+    private fun leaseIds(count: Int): List<UUID> {
         if (random) {
-            generateSequence { UUID.randomUUID() }.forEach { idsQueue.put(it) }
+            return List(count) { UUID.randomUUID() }
         }
-        while (true) {
-            val ids = try {
-                //Use the 0 key a fence around the entire map.
-                scrolls.lock(0L)
-                //TODO: Handle exhaustion of partition.
-                scrolls.executeOnEntries(IdsGeneratingEntryProcessor(PARTITION_SCROLL_SIZE)) as Map<Long, List<UUID>>
-            } finally {
-                scrolls.unlock(0L)
-            }
 
-            ids.values.asSequence().flatten().forEach { idsQueue.put(it) }
+        val partition = ThreadLocalRandom.current().nextLong(NUM_PARTITIONS.toLong())
+        val ids = scrolls.executeOnKey(partition, IdsGeneratingEntryProcessor(count)) as List<UUID?>
 
-            logger.debug("Added $NUM_PARTITIONS ids to queue")
+        //Exhausted ranges return null ids.
+        val leased = ids.filterNotNull()
+        if (leased.size < count) {
+            logger.warn("Range {} only had {} of {} requested ids available.", partition, leased.size, count)
         }
+
+        return leased
     }
 
     /**
@@ -74,18 +78,18 @@ class HazelcastIdGenerationService(clients: IHazelcastClientProvider) {
      * @param id to return to the pool
      */
     fun returnId(id: UUID) {
-        localQueue.offer(id)
+        pool.returnIds(listOf(id))
     }
 
     fun returnIds(ids: Collection<UUID>) {
-        ids.forEach(::returnId)
+        pool.returnIds(ids)
     }
 
     fun getNextIds(count: Int): Set<UUID> {
-        return generateSequence { getNextId() }.take(count).toSet()
+        return pool.take(count).toSet()
     }
 
     fun getNextId(): UUID {
-        return localQueue.poll() ?: idsQueue.take()
+        return pool.take(1).first()
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,6 @@
 package com.openlattice.ids
 
-import com.geekbeast.hazelcast.HazelcastClientProvider
+import com.geekbeast.hazelcast.IHazelcastClientProvider
 import com.openlattice.hazelcast.HazelcastClient
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.ids.processors.LongIdsGeneratingProcessor
@@ -9,7 +9,7 @@ import com.openlattice.ids.processors.LongIdsGeneratingProcessor
  * Used for generating scoped long ids.
  * @author Matthew Tamayo-Rios &lt;matthew@openlattice.com&gt;
  */
-class HazelcastLongIdService(hazelcastClientProvider: HazelcastClientProvider) {
+class HazelcastLongIdService(hazelcastClientProvider: IHazelcastClientProvider) {
     private val counters = HazelcastMap.LONG_IDS.getMap(
             hazelcastClientProvider
                     .getClient(HazelcastClient.IDS.name)
@@ -0,0 +1,97 @@
+package com.openlattice.ids
+
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Node local pool of ids that are leased in contiguous blocks.
+ *
+ * Whenever the number of buffered ids drops below [lowWatermark] a refill is scheduled on [executor], which leases
+ * blocks of [blockSize] ids until at least [highWatermark] ids are buffered. Requests larger than what is buffered
+ * lease the remainder directly as a single block instead of waiting for the refill.
+ *
+ * @param lease Leases up to the requested number of ids. It may return fewer ids if the backing range is exhausted.
+ */
+class LeasedIdPool(
+        private val blockSize: Int,
+        private val lowWatermark: Int,
+        private val highWatermark: Int,
+        private val executor: Executor,
+        private val lease: (Int) -> List<UUID>
+) {
+    companion object {
+        private val logger = LoggerFactory.getLogger(LeasedIdPool::class.java)
+    }
+
+    private val buffer = ConcurrentLinkedQueue<UUID>()
+    private val available = AtomicInteger()
+    private val refilling = AtomicBoolean(false)
+
+    init {
+        check(blockSize > 0) { "Block size must be positive." }
+        check(lowWatermark <= highWatermark) { "Low watermark must not exceed high watermark." }
+    }
+
+    /**
+     * @return The number of ids currently buffered on this node.
+     */
+    fun size(): Int = available.get()
+
+    /**
+     * Returns ids to the pool for later use.
+     */
+    fun returnIds(ids: Collection<UUID>) {
+        buffer.addAll(ids)
+        available.addAndGet(ids.size)
+    }
+
+    /**
+     * Takes [count] ids, draining the local buffer first and leasing the remainder directly.
+     */
+    fun take(count: Int): List<UUID> {
+        val ids = ArrayList<UUID>(count)
+
+        while (ids.size < count) {
+            val id = buffer.poll() ?: break
+            available.decrementAndGet()
+            ids.add(id)
+        }
+
+        while (ids.size < count) {
+            val block = lease(count - ids.size)
+            check(block.isNotEmpty()) { "Unable to lease ids." }
+            ids.addAll(block)
+        }
+
+        refillIfNeeded()
+
+        return ids
+    }
+
+    private fun refillIfNeeded() {
+        if (available.get() >= lowWatermark || !refilling.compareAndSet(false, true)) {
+            return
+        }
+
+        executor.execute {
+            try {
+                while (available.get() < highWatermark) {
+                    val block = lease(blockSize)
+                    if (block.isEmpty()) {
+                        logger.error("Unable to lease a block of {} ids.", blockSize)
+                        break
+                    }
+                    returnIds(block)
+                }
+            } catch (ex: Exception) {
+                logger.error("Unable to refill local id pool.", ex)
+            } finally {
+                refilling.set(false)
+            }
+        }
+    }
+}
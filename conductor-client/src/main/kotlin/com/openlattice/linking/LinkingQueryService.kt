@@ -65,8 +65,40 @@ interface LinkingQueryService {
             doWork: ( clusters: Map<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>>  ) -> Triple<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>, Boolean>
     ): Triple<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>, Boolean>
 
+    /**
+     * Batch version of [lockClustersDoWorkAndCommit], which locks the clusters of all candidates in a single
+     * transaction, invokes doWork for each candidate in order and commits the match scores of all candidates together.
+     *
+     * Clusters passed to doWork reflect the results of the candidates processed before it in the same batch.
+     *
+     * @param candidates The data keys of the entities blocked with each candidate, mapped by candidate.
+     * @param doWork A function that takes a candidate and the locked clusters containing any of its blocked entities,
+     *  returning the final cluster as well as whether it was newly created
+     * @return For each candidate, a triple consisting of the final cluster after all candidates have been processed
+     *  (first + second) and whether it was newly created (third)
+     */
+    fun lockClustersDoWorkAndCommitAll(
+            candidates: Map<EntityDataKey, Set<EntityDataKey>>,
+            doWork: (
+                    candidate: EntityDataKey,
+                    clusters: Map<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>>
+            ) -> Triple<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>, Boolean>
+    ): Map<EntityDataKey, Triple<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>, Boolean>>
+
     fun updateLinkingInformation(linkingId: UUID, newMember: EntityDataKey, cluster: Map<UUID, LinkedHashSet<UUID>>)
 
+    /**
+     * Batch version of [updateLinkingInformation] that updates the linking ids of several clusters over a single
+     * connection.
+     *
+     * @param newMembers The newly linked members of each cluster mapped by linking id.
+     * @param clusters The members of each cluster as entity key ids mapped by entity set id, mapped by linking id.
+     */
+    fun updateLinkingInformation(
+            newMembers: Map<UUID, Set<EntityDataKey>>,
+            clusters: Map<UUID, Map<UUID, Set<UUID>>>
+    )
+
     fun createLinks(linkingId: UUID, toAdd: Set<EntityDataKey>): Int
 
     fun tombstoneLinks(linkingId: UUID, toRemove: Set<EntityDataKey>): Int
@@ -75,6 +107,11 @@ interface LinkingQueryService {
 
     fun deleteNeighborhood(entity: EntityDataKey, positiveFeedbacks: Collection<EntityKeyPair>): Int
 
+    /**
+     * Deletes the neighborhoods of several entities, issuing one statement per entity set.
+     */
+    fun deleteNeighborhoods(entities: Collection<EntityDataKey>): Int
+
     /**
      * Retrieve several clusters.
      * @param dataKeys The ids for the clusters to load.
@@ -86,6 +123,27 @@ interface LinkingQueryService {
 
     fun getEntitiesNeedingLinking(entitySetId: UUID, limit: Int = 10_000): BasePostgresIterable<EntityDataKey>
 
+    /**
+     * Retrieves entities needing linking in (version, id) order, starting after the given cursor position.
+     *
+     * @param entitySetId The entity set to retrieve entities from.
+     * @param version The version of the last entity retrieved by the previous call.
+     * @param id The id of the last entity retrieved by the previous call.
+     * @param limit The maximum number of entities to retrieve.
+     * @return The version of each entity paired with its data key.
+     */
+    fun getEntitiesNeedingLinking(
+            entitySetId: UUID,
+            version: Long,
+            id: UUID,
+            limit: Int
+    ): List<Pair<Long, EntityDataKey>>
+
+    /**
+     * Counts the entities of an entity set that still need linking.
+     */
+    fun countEntitiesNeedingLinking(entitySetId: UUID): Long
+
     fun getEntitiesNotLinked(entitySetIds: Set<UUID>, limit: Int = 10_000): BasePostgresIterable<Pair<UUID, UUID>>
 
     fun getLinkableEntitySets(
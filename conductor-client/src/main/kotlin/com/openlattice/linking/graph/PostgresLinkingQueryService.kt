@@ -31,6 +31,7 @@ import com.openlattice.postgres.DataTables.LAST_INDEX
 import com.openlattice.postgres.DataTables.LAST_LINK
 import com.openlattice.postgres.DataTables.LAST_WRITE
 import com.geekbeast.postgres.PostgresArrays
+import com.openlattice.postgres.PostgresColumn.COUNT
 import com.openlattice.postgres.PostgresColumn.DST_ENTITY_KEY_ID
 import com.openlattice.postgres.PostgresColumn.DST_ENTITY_SET_ID
 import com.openlattice.postgres.PostgresColumn.ENTITY_KEY_IDS_COL
@@ -118,6 +119,37 @@ class PostgresLinkingQueryService(
         }
     }
 
+    override fun lockClustersDoWorkAndCommitAll(
+            candidates: Map<EntityDataKey, Set<EntityDataKey>>,
+            doWork: (
+                    candidate: EntityDataKey,
+                    clusters: Map<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>>
+            ) -> Triple<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>, Boolean>
+    ): Map<EntityDataKey, Triple<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>, Boolean>> {
+        val clusters = getClustersForIds(candidates.values.flatMapTo(mutableSetOf()) { it }).toMutableMap()
+
+        lockClustersForUpdates(clusters.keys).use { conn ->
+            try {
+                val results = candidates.mapValues { (candidate, dataKeys) ->
+                    val candidateClusters = clusters.filterValues { cluster ->
+                        cluster.any { (src, dsts) -> dataKeys.contains(src) || dsts.keys.any(dataKeys::contains) }
+                    }
+                    val result = doWork(candidate, candidateClusters)
+                    clusters[result.first] = result.second
+                    result
+                }
+                val linkingIds = results.values.mapTo(mutableSetOf()) { it.first }
+                insertMatchScores(conn, linkingIds.associateWith { clusters.getValue(it) })
+                return results.mapValues { (_, result) ->
+                    Triple(result.first, clusters.getValue(result.first), result.third)
+                }
+            } catch (ex: Exception) {
+                conn.rollback()
+                throw ex
+            }
+        }
+    }
+
     override fun getLinkableEntitySets(
             linkableEntityTypeIds: Set<UUID>,
             entitySetBlacklist: Set<UUID>,
@@ -140,6 +172,28 @@ class PostgresLinkingQueryService(
         }) { EntityDataKey(ResultSetAdapters.entitySetId(it), ResultSetAdapters.id(it)) }
     }
 
+    override fun getEntitiesNeedingLinking(
+            entitySetId: UUID,
+            version: Long,
+            id: UUID,
+            limit: Int
+    ): List<Pair<Long, EntityDataKey>> {
+        return BasePostgresIterable(PreparedStatementHolderSupplier(hds, ENTITY_KEY_IDS_NEEDING_LINKING_AFTER) { ps ->
+            ps.setObject(1, entitySetId)
+            ps.setLong(2, version)
+            ps.setObject(3, id)
+            ps.setInt(4, limit)
+        }) {
+            ResultSetAdapters.version(it) to EntityDataKey(ResultSetAdapters.entitySetId(it), ResultSetAdapters.id(it))
+        }.toList()
+    }
+
+    override fun countEntitiesNeedingLinking(entitySetId: UUID): Long {
+        return BasePostgresIterable(PreparedStatementHolderSupplier(hds, COUNT_ENTITY_KEY_IDS_NEEDING_LINKING) { ps ->
+            ps.setObject(1, entitySetId)
+        }) { ResultSetAdapters.count(it) }.first()
+    }
+
     override fun getEntitiesNotLinked(entitySetIds: Set<UUID>, limit: Int): BasePostgresIterable<Pair<UUID, UUID>> {
         return BasePostgresIterable(PreparedStatementHolderSupplier(hds, ENTITY_KEY_IDS_NOT_LINKED) { ps ->
             val arr = PostgresArrays.createUuidArray(ps.connection, entitySetIds)
@@ -244,6 +298,38 @@ class PostgresLinkingQueryService(
         }
     }
 
+    override fun updateLinkingInformation(
+            newMembers: Map<UUID, Set<EntityDataKey>>,
+            clusters: Map<UUID, Map<UUID, Set<UUID>>>
+    ) {
+        hds.connection.use { connection ->
+            connection.prepareStatement(updateLinkingId()).use { dataPs ->
+                clusters.forEach { (linkingId, cluster) ->
+                    cluster.forEach { (esid, ekids) ->
+                        ekids.forEach { ekid ->
+                            dataPs.setObject(1, linkingId)
+                            dataPs.setObject(2, esid)
+                            dataPs.setObject(3, ekid)
+                            dataPs.addBatch()
+                        }
+                    }
+                }
+                dataPs.executeBatch()
+            }
+            connection.prepareStatement(UPDATE_LINKED_ENTITIES_SQL).use { idsPs ->
+                newMembers.forEach { (linkingId, members) ->
+                    members.forEach { newMember ->
+                        idsPs.setObject(1, linkingId)
+                        idsPs.setObject(2, newMember.entitySetId)
+                        idsPs.setObject(3, newMember.entityKeyId)
+                        idsPs.addBatch()
+                    }
+                }
+                idsPs.executeBatch()
+            }
+        }
+    }
+
     override fun tombstoneLinks(linkingId: UUID, toRemove: Set<EntityDataKey>): Int {
         hds.connection.use { connection ->
             connection.prepareStatement(tombstoneLinkForEntity).use { ps ->
@@ -281,18 +367,30 @@ class PostgresLinkingQueryService(
             connection: Connection,
             clusterId: UUID,
             scores: Map<EntityDataKey, Map<EntityDataKey, Double>>
+    ): Int {
+        return insertMatchScores(connection, mapOf(clusterId to scores))
+    }
+
+    /**
+     * Inserts the scores of several clusters and commits the transaction.
+     */
+    private fun insertMatchScores(
+            connection: Connection,
+            clusters: Map<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>>
     ): Int {
         connection.use { conn ->
             conn.prepareStatement(INSERT_SQL).use { ps ->
-                scores.forEach { (srcEntityDataKey, dst) ->
-                    dst.forEach { (dstEntityDataKey, score) ->
-                        ps.setObject(1, clusterId)
-                        ps.setObject(2, srcEntityDataKey.entitySetId)
-                        ps.setObject(3, srcEntityDataKey.entityKeyId)
-                        ps.setObject(4, dstEntityDataKey.entitySetId)
-                        ps.setObject(5, dstEntityDataKey.entityKeyId)
-                        ps.setDouble(6, score)
-                        ps.addBatch()
+                clusters.forEach { (clusterId, scores) ->
+                    scores.forEach { (srcEntityDataKey, dst) ->
+                        dst.forEach { (dstEntityDataKey, score) ->
+                            ps.setObject(1, clusterId)
+                            ps.setObject(2, srcEntityDataKey.entitySetId)
+                            ps.setObject(3, srcEntityDataKey.entityKeyId)
+                            ps.setObject(4, dstEntityDataKey.entitySetId)
+                            ps.setObject(5, dstEntityDataKey.entityKeyId)
+                            ps.setDouble(6, score)
+                            ps.addBatch()
+                        }
                     }
                 }
                 val insertCount = ps.executeBatch().sum()
@@ -320,6 +418,13 @@ class PostgresLinkingQueryService(
         }
     }
 
+    override fun deleteNeighborhoods(entities: Collection<EntityDataKey>): Int {
+        return entities
+                .groupBy({ it.entitySetId }, { it.entityKeyId })
+                .map { (entitySetId, entityKeyIds) -> deleteNeighborhoods(hds, entitySetId, entityKeyIds.toSet()) }
+                .sum()
+    }
+
     override fun getEntityKeyIdsOfLinkingIds(
             linkingIds: Set<UUID>,
             normalEntitySetIds: Set<UUID>
@@ -434,6 +539,36 @@ private val ENTITY_KEY_IDS_NEEDING_LINKING = """
         LIMIT ?
         """.trimIndent()
 
+private val NEEDS_LINKING_CLAUSE = "${LAST_LINK.name} < ${LAST_WRITE.name} " +
+        "AND ( ${LAST_INDEX.name} >= ${LAST_WRITE.name} ) " +
+        "AND ( ${LAST_INDEX.name} > '-infinity'::timestamptz ) " +
+        "AND ${VERSION.name} > 0"
+
+/**
+ * Keyset paginated version of [ENTITY_KEY_IDS_NEEDING_LINKING]. Bind order is as follows:
+ *
+ * 1. entity set id
+ * 2. version of the last retrieved entity
+ * 3. id of the last retrieved entity
+ * 4. limit
+ */
+private val ENTITY_KEY_IDS_NEEDING_LINKING_AFTER = """
+        SELECT ${ENTITY_SET_ID.name},${ID.name},${VERSION.name}
+        FROM ${IDS.name}
+        WHERE ${ENTITY_SET_ID.name} = ?
+            AND $NEEDS_LINKING_CLAUSE
+            AND (${VERSION.name},${ID.name}) > (?,?)
+        ORDER BY ${VERSION.name} ASC, ${ID.name} ASC
+        LIMIT ?
+        """.trimIndent()
+
+private val COUNT_ENTITY_KEY_IDS_NEEDING_LINKING = """
+        SELECT count(*) AS ${COUNT}
+        FROM ${IDS.name}
+        WHERE ${ENTITY_SET_ID.name} = ?
+            AND $NEEDS_LINKING_CLAUSE
+        """.trimIndent()
+
 private val ENTITY_KEY_IDS_NOT_LINKED = "SELECT ${ENTITY_SET_ID.name},${ID.name} " +
         "FROM ${IDS.name} " +
         "WHERE ${ENTITY_SET_ID.name} = ANY(?) " +
@@ -282,7 +282,7 @@ class ExternalDatabaseManagementService(
                 FETCH_SIZE
         )
         ) { rs ->
-            TableInfo(oid(rs), name(rs), schemaName(rs), columnNames(rs))
+            TableInfo(oid(rs), name(rs), schemaName(rs), columnNames(rs), catalogFingerprint(rs))
         }.toList()
     }
 
@@ -746,6 +746,8 @@ class ExternalDatabaseManagementService(
      * - name: table name
      * - schema_name: the table's schema
      * - column_names: array of the table's columnds
+     * - catalog_fingerprint: hash of the table's catalog entries (name, columns, primary key and privileges), which
+     *   changes whenever any of them do
      */
     private fun getCurrentTableAndColumnNamesSql(): String {
         return """
@@ -757,7 +759,8 @@ class ExternalDatabaseManagementService(
                 SELECT '{}' || array_agg(col_name::text)
                 FROM UNNEST(array_agg(information_schema.columns.column_name)) col_name
                 WHERE col_name IS NOT NULL
-              ) AS $COLUMN_NAMES_FIELD
+              ) AS $COLUMN_NAMES_FIELD,
+              $catalogFingerprintOfTable
             $fromExpression $leftJoinColumnsExpression
             WHERE
               information_schema.tables.table_schema=ANY('{$OPENLATTICE_SCHEMA,$STAGING_SCHEMA,$INTEGRATIONS_SCHEMA}')
@@ -766,7 +769,31 @@ class ExternalDatabaseManagementService(
         """.trimIndent()
     }
 
-    private val oidFromPgTables = "(information_schema.tables.table_schema || '.' || quote_ident(information_schema.tables.table_name))::regclass::oid AS ${OID.name}"
+    private val regclassOfTable = "(information_schema.tables.table_schema || '.' || quote_ident(information_schema.tables.table_name))::regclass"
+
+    private val oidFromPgTables = "$regclassOfTable::oid AS ${OID.name}"
+
+    private val catalogFingerprintOfTable = """
+        (
+          SELECT md5(
+            pg_class.relnamespace::regnamespace::text || '.' || pg_class.relname
+            || ';' || coalesce(pg_class.relacl::text, '')
+            || ';' || coalesce((
+              SELECT string_agg(
+                attnum || ':' || attname || ':' || format_type(atttypid, atttypmod) || ':' || coalesce(attacl::text, ''),
+                ',' ORDER BY attnum
+              )
+              FROM pg_attribute
+              WHERE attrelid = pg_class.oid AND attnum > 0 AND NOT attisdropped
+            ), '')
+            || ';' || coalesce((
+              SELECT indkey::text FROM pg_index WHERE indrelid = pg_class.oid AND indisprimary
+            ), '')
+          )
+          FROM pg_class
+          WHERE pg_class.oid = $regclassOfTable
+        ) AS $CATALOG_FINGERPRINT_FIELD
+    """.trimIndent()
 
     private fun getColumnMetadataSql(tableSchema: String, tableName: String): String {
         return """
@@ -865,5 +892,6 @@ data class TableInfo(
     val oid: Long,
     val tableName: String,
     val schemaName: String,
-    val columnNames: List<String>
+    val columnNames: List<String>,
+    val catalogFingerprint: String
 )
@@ -4,9 +4,11 @@ import com.geekbeast.mappers.mappers.ObjectMappers
 import com.fasterxml.jackson.module.kotlin.readValue
 import com.openlattice.IdConstants.LAST_WRITE_ID
 import com.openlattice.data.storage.ByteBlobDataManager
+import com.openlattice.data.storage.DataReadMode
 import com.openlattice.data.storage.MetadataOption
 import com.openlattice.data.storage.postgres.PROPERTIES
 import com.openlattice.data.storage.postgres.VALUE
+import com.openlattice.data.storage.postgres.buildPreparableTypedRowsSql
 import com.openlattice.edm.EdmConstants.Companion.ID_FQN
 import com.openlattice.edm.EdmConstants.Companion.LAST_WRITE_FQN
 import com.openlattice.edm.type.PropertyType
@@ -17,6 +19,7 @@ import org.slf4j.LoggerFactory
 import java.sql.*
 import java.sql.Date
 import java.time.Instant
+import java.time.LocalDate
 import java.time.OffsetDateTime
 import java.time.ZoneId
 import java.util.*
@@ -213,6 +216,128 @@ fun readJsonDataColumnsWithId(
     return entities
 }
 
+/**
+ * A single property value as read by [DataReadMode.TYPED_ROWS] queries.
+ *
+ * @param value The decoded value or null if the property type isn't authorized for [entitySetId].
+ * @param lastWrite The last write of the value, only present if [MetadataOption.LAST_WRITE] was requested.
+ */
+data class TypedDataRow(
+        val entitySetId: UUID,
+        val id: UUID,
+        val propertyTypeId: UUID,
+        val value: Any?,
+        val lastWrite: OffsetDateTime?
+)
+
+@Throws(SQLException::class)
+fun readTypedDataRow(
+        rs: ResultSet,
+        authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
+        metadataOptions: Set<MetadataOption>
+): TypedDataRow {
+    val entitySetId = entitySetId(rs)
+    val propertyTypeId = propertyTypeId(rs)
+    val value = authorizedPropertyTypes.getValue(entitySetId)[propertyTypeId]?.let { typedValue(rs, it) }
+    val lastWrite = if (metadataOptions.contains(MetadataOption.LAST_WRITE)) lastWriteTyped(rs) else null
+
+    return TypedDataRow(entitySetId, id(rs), propertyTypeId, value, lastWrite)
+}
+
+/**
+ * Groups adjacent [TypedDataRow]s of the same entity into a map of property type id to values, equivalent to what
+ * [readJsonDataColumns] returns for the json read path. Relies on the rows being ordered by entity, as returned by
+ * [buildPreparableTypedRowsSql].
+ *
+ * @return A sequence of entity key id to entity set id and entity.
+ */
+fun groupTypedDataRows(
+        rows: Sequence<TypedDataRow>,
+        authorizedPropertyTypes: Map<UUID, Map<UUID, PropertyType>>,
+        byteBlobDataManager: ByteBlobDataManager
+): Sequence<Pair<UUID, Pair<UUID, MutableMap<UUID, MutableSet<Any>>>>> = sequence {
+    var current: TypedDataRow? = null
+    var entity = mutableMapOf<UUID, MutableSet<Any>>()
+    var lastWrite: OffsetDateTime? = null
+
+    for (row in rows) {
+        val head = current
+        if (head == null || head.id != row.id || head.entitySetId != row.entitySetId) {
+            if (head != null) {
+                yield(head.id to (head.entitySetId to finishTypedEntity(
+                        entity, lastWrite, authorizedPropertyTypes.getValue(head.entitySetId), byteBlobDataManager
+                )))
+            }
+            current = row
+            entity = mutableMapOf()
+            lastWrite = null
+        }
+
+        if (row.value != null) {
+            entity.getOrPut(row.propertyTypeId) { mutableSetOf() }.add(row.value)
+        }
+        if (row.lastWrite != null && (lastWrite == null || row.lastWrite > lastWrite)) {
+            lastWrite = row.lastWrite
+        }
+    }
+
+    val last = current
+    if (last != null) {
+        yield(last.id to (last.entitySetId to finishTypedEntity(
+                entity, lastWrite, authorizedPropertyTypes.getValue(last.entitySetId), byteBlobDataManager
+        )))
+    }
+}
+
+private fun finishTypedEntity(
+        entity: MutableMap<UUID, MutableSet<Any>>,
+        lastWrite: OffsetDateTime?,
+        propertyTypes: Map<UUID, PropertyType>,
+        byteBlobDataManager: ByteBlobDataManager
+): MutableMap<UUID, MutableSet<Any>> {
+    entity.keys.filter { propertyTypes.getValue(it).datatype == EdmPrimitiveTypeKind.Binary }.forEach { id ->
+        entity[id] = byteBlobDataManager.getObjects(entity.getValue(id)).toMutableSet()
+    }
+
+    if (lastWrite != null) {
+        entity[LAST_WRITE_ID.id] = mutableSetOf<Any>(lastWrite)
+    }
+
+    return entity
+}
+
+/**
+ * Reads the single value of a row of the data table from the value column of [propertyType].
+ */
+@Throws(SQLException::class)
+private fun typedValue(rs: ResultSet, propertyType: PropertyType): Any? {
+    val col = PostgresDataTables.getSourceDataColumnName(propertyType)
+
+    val value: Any? = when (propertyType.datatype) {
+        EdmPrimitiveTypeKind.String,
+        EdmPrimitiveTypeKind.GeographyPoint,
+        EdmPrimitiveTypeKind.Byte,
+        EdmPrimitiveTypeKind.SByte,
+        EdmPrimitiveTypeKind.Binary -> rs.getString(col)
+        EdmPrimitiveTypeKind.Guid -> rs.getObject(col, UUID::class.java)
+        EdmPrimitiveTypeKind.Int16 -> rs.getShort(col)
+        EdmPrimitiveTypeKind.Int32 -> rs.getInt(col)
+        EdmPrimitiveTypeKind.Duration, EdmPrimitiveTypeKind.Int64 -> rs.getLong(col)
+        EdmPrimitiveTypeKind.Date -> rs.getObject(col, LocalDate::class.java)
+        EdmPrimitiveTypeKind.TimeOfDay -> rs.getTime(col)?.toLocalTime()
+        EdmPrimitiveTypeKind.DateTimeOffset -> rs.getObject(col, OffsetDateTime::class.java)
+        EdmPrimitiveTypeKind.Double -> rs.getDouble(col)
+        EdmPrimitiveTypeKind.Boolean -> rs.getBoolean(col)
+        else -> {
+            logger.error("Unable to read property type {}.", propertyType.id)
+            null
+        }
+    }
+
+    // primitive getters return a default value for sql nulls
+    return if (rs.wasNull()) null else value
+}
+
 
 //TODO: If we are getting NPEs on read we may have to do better filtering here.
 @Throws(SQLException::class)
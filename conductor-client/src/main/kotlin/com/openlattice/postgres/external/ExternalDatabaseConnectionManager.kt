@@ -1,8 +1,11 @@
 package com.openlattice.postgres.external
 
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
 import com.google.common.cache.CacheBuilder
 import com.google.common.cache.CacheLoader
 import com.google.common.cache.LoadingCache
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.hazelcast.core.HazelcastInstance
 import com.openlattice.assembler.AssemblerConfiguration
 import com.openlattice.hazelcast.HazelcastMap
@@ -11,27 +14,155 @@ import com.zaxxer.hikari.HikariDataSource
 import org.slf4j.LoggerFactory
 import java.time.Duration
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.math.ceil
+import kotlin.math.max
+import kotlin.math.min
 
 /**
+ * Hands out connection pools for the organization databases on the assembler server.
+ *
+ * The pools of all databases share a budget of [AssemblerConfiguration.connectionBudget] connections. The budget is
+ * per instance: every instance that connects to the organization databases has a budget of its own, so it should be
+ * set to the connections the assembler server allows divided by the number of such instances. Pools keep no idle
+ * connections around and are resized every [REBALANCE_INTERVAL_MILLIS] according to their recent demand, see
+ * [allocateConnections]. Requests to a pool that is at its size wait for a connection, which counts as demand for the
+ * next rebalance. Since every pool holds at least one connection, there can't be more pools than the budget, so pools
+ * that have been idle for [IDLE_TIMEOUT_MILLIS] are closed when there are. Each pool reports its wait time and
+ * active, idle and pending connections to the metric registry under its database name.
+ *
  * @author Drew Bailey &lt;drew@openlattice.com&gt;
  */
 class ExternalDatabaseConnectionManager(
         private val assemblerConfiguration: AssemblerConfiguration,
-        hazelcastInstance: HazelcastInstance
+        hazelcastInstance: HazelcastInstance,
+        private val metricRegistry: MetricRegistry
 ) {
     private val organizationDatabases = HazelcastMap.ORGANIZATION_DATABASES.getMap(hazelcastInstance)
 
     companion object {
         private val logger = LoggerFactory.getLogger(ExternalDatabaseConnectionManager::class.java)
+
+        const val MINIMUM_POOL_SIZE = 2
+        const val DEFAULT_MAXIMUM_POOL_SIZE = 10
+        const val REBALANCE_INTERVAL_MILLIS = 5_000L
+        const val IDLE_TIMEOUT_MILLIS = 30_000L
+
+        /**
+         * Share of its previous demand a pool keeps at each rebalance when its current demand is lower.
+         */
+        const val DEMAND_DECAY = 0.8
+
+        /**
+         * Connections a pool is allowed above its demand, so that growing demand can be observed.
+         */
+        private const val HEADROOM = 1
+
+        /**
+         * Demand under which a pool is considered idle once its earlier demand has decayed.
+         */
+        const val IDLE_DEMAND = 0.5
+
+        /**
+         * Splits [budget] connections between pools by their [demands].
+         *
+         * Hikari pools can't be sized below one connection, so every pool is given one out of the budget before
+         * anything else is split. That is the only way more than [budget] connections are handed out, when there are
+         * more pools than that. Every pool with demand is then topped up to [minimumPoolSize] connections, or by an
+         * equal part of what is left if it is too small for that. The rest is split max-min fairly: pools wanting less
+         * than an equal share of what is left get what they want, and what they leave is split equally between the
+         * busier pools. No pool gets more than [maximumPoolSize], which is at least one.
+         */
+        @JvmStatic
+        fun allocateConnections(
+                demands: Map<String, Double>,
+                budget: Int,
+                minimumPoolSize: Int,
+                maximumPoolSize: Int
+        ): Map<String, Int> {
+            val allocations = demands.keys.associateWithTo(mutableMapOf()) { 1 }
+            val busy = demands.filterValues { it > 0.0 }
+            var remaining = budget - demands.size
+
+            if (busy.isNotEmpty() && remaining > 0) {
+                val guaranteed = 1 + max(0, min(min(minimumPoolSize, maximumPoolSize) - 1, remaining / busy.size))
+                busy.keys.forEach { allocations[it] = guaranteed }
+                remaining -= (guaranteed - 1) * busy.size
+
+                val wants = busy
+                        .mapValues { (_, demand) -> min(ceil(demand).toInt() + HEADROOM, maximumPoolSize) - guaranteed }
+                        .filterValues { it > 0 }
+                        .entries
+                        .sortedBy { it.value }
+
+                for ((i, entry) in wants.withIndex()) {
+                    if (remaining <= 0) {
+                        break
+                    }
+                    val granted = min(entry.value, max(1, remaining / (wants.size - i)))
+                    allocations[entry.key] = allocations.getValue(entry.key) + granted
+                    remaining -= granted
+                }
+            }
+
+            return allocations
+        }
     }
 
+    private val poolScheduler = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryBuilder().setDaemon(true).setNameFormat("external-database-pools-%d").build()
+    )
+
+    private val maximumPoolSize = assemblerConfiguration.server.getProperty("maximumPoolSize")?.toInt()
+            ?: DEFAULT_MAXIMUM_POOL_SIZE
+
+    /**
+     * Recent demand of each pool, by database name. Only accessed from [poolScheduler].
+     */
+    private val demands = mutableMapOf<String, Double>()
+
+    /**
+     * When each pool without demand last had some, by database name. Only accessed from [poolScheduler].
+     */
+    private val idleSince = mutableMapOf<String, Long>()
+
+    private val allocations = ConcurrentHashMap<String, Int>()
+
     private val perDbCache: LoadingCache<String, HikariDataSource> = CacheBuilder
             .newBuilder()
-            .expireAfterAccess(Duration.ofHours(1))
+            .expireAfterAccess(Duration.ofDays(1))
             .removalListener<String, HikariDataSource> { it.value.close() }
             .build(cacheLoader())
 
+    init {
+        metricRegistry.register(
+                MetricRegistry.name(ExternalDatabaseConnectionManager::class.java, "connectionBudget"),
+                Gauge { assemblerConfiguration.connectionBudget }
+        )
+        metricRegistry.register(
+                MetricRegistry.name(ExternalDatabaseConnectionManager::class.java, "allocatedConnections"),
+                Gauge { allocations.values.sum() }
+        )
+        metricRegistry.register(
+                MetricRegistry.name(ExternalDatabaseConnectionManager::class.java, "pools"),
+                Gauge { perDbCache.size() }
+        )
+
+        poolScheduler.scheduleWithFixedDelay(
+                this::rebalance,
+                REBALANCE_INTERVAL_MILLIS,
+                REBALANCE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS
+        )
+    }
+
     fun createDataSource(dbName: String, config: Properties, useSsl: Boolean): HikariDataSource {
+        return HikariDataSource(createHikariConfig(dbName, config, useSsl))
+    }
+
+    private fun createHikariConfig(dbName: String, config: Properties, useSsl: Boolean): HikariConfig {
         val jdbcUrl = config.getProperty("jdbcUrl")
                 ?: throw Exception("No JDBC URL specified in configuration $config")
 
@@ -41,16 +172,76 @@ class ExternalDatabaseConnectionManager(
         } else {
             ""
         }
-        return HikariDataSource(HikariConfig(newProps))
+        return HikariConfig(newProps)
     }
 
     private fun cacheLoader(): CacheLoader<String, HikariDataSource> {
         return CacheLoader.from { dbName ->
-            createDataSource(
-                    dbName!!,
-                    assemblerConfiguration.server,
-                    assemblerConfiguration.ssl
-            )
+            val config = createHikariConfig(dbName!!, assemblerConfiguration.server, assemblerConfiguration.ssl)
+            config.poolName = dbName
+            config.minimumIdle = 0
+            config.idleTimeout = IDLE_TIMEOUT_MILLIS
+            config.maximumPoolSize = min(MINIMUM_POOL_SIZE, maximumPoolSize)
+            config.metricRegistry = metricRegistry
+            // metrics of a closed pool for the same database may not have been removed yet
+            metricRegistry.removeMatching { name, _ -> name.startsWith("$dbName.pool.") }
+            config.scheduledExecutor = poolScheduler
+
+            val dataSource = HikariDataSource(config)
+            poolScheduler.execute(this::rebalance)
+            dataSource
+        }
+    }
+
+    /**
+     * Resizes every pool to its share of the connection budget. Pools that shrink close their excess connections as
+     * they become idle. When there are more pools than the budget, the pools that have been idle the longest are
+     * closed first.
+     */
+    private fun rebalance() {
+        try {
+            val budget = assemblerConfiguration.connectionBudget
+            val now = System.currentTimeMillis()
+            val pools = perDbCache.asMap().toMutableMap()
+            demands.keys.retainAll(pools.keys)
+            idleSince.keys.retainAll(pools.keys)
+
+            pools.forEach { (dbName, pool) ->
+                val poolMXBean = pool.hikariPoolMXBean ?: return@forEach
+                val demand = (poolMXBean.activeConnections + poolMXBean.threadsAwaitingConnection).toDouble()
+                val decayedDemand = max(demand, (demands[dbName] ?: 0.0) * DEMAND_DECAY)
+                demands[dbName] = if (decayedDemand < IDLE_DEMAND) 0.0 else decayedDemand
+                if (demands.getValue(dbName) > 0.0) {
+                    idleSince.remove(dbName)
+                } else {
+                    idleSince.putIfAbsent(dbName, now)
+                }
+            }
+
+            idleSince.entries
+                    .filter { now - it.value >= IDLE_TIMEOUT_MILLIS }
+                    .sortedBy { it.value }
+                    .take(max(0, pools.size - budget))
+                    .forEach { (dbName, _) ->
+                        logger.info("Closing idle connection pool of database {} to stay within budget.", dbName)
+                        perDbCache.invalidate(dbName)
+                        pools.remove(dbName)
+                        demands.remove(dbName)
+                    }
+            idleSince.keys.retainAll(pools.keys)
+            allocations.keys.retainAll(pools.keys)
+
+            allocateConnections(demands, budget, MINIMUM_POOL_SIZE, maximumPoolSize).forEach { (dbName, poolSize) ->
+                // a pool without demand keeps its connection idle for no longer than the idle timeout, and opens one
+                // only when asked for it, which shows up as demand at the next rebalance
+                val poolConfig = pools.getValue(dbName).hikariConfigMXBean
+                if (poolConfig.maximumPoolSize != poolSize) {
+                    poolConfig.maximumPoolSize = poolSize
+                }
+                allocations[dbName] = poolSize
+            }
+        } catch (e: Exception) {
+            logger.error("Unable to rebalance external database connection pools.", e)
         }
     }
 
@@ -1,5 +1,6 @@
 package com.openlattice.postgres.pods
 
+import com.codahale.metrics.MetricRegistry
 import com.hazelcast.core.HazelcastInstance
 import com.openlattice.assembler.AssemblerConfiguration
 import com.openlattice.postgres.external.ExternalDatabaseConnectionManager
@@ -20,9 +21,12 @@ class ExternalDatabaseConnectionManagerPod {
     @Inject
     private lateinit var hazelcastInstance: HazelcastInstance
 
+    @Inject
+    private lateinit var metricRegistry: MetricRegistry
+
     @Bean
     fun externalDatabaseConnectionManager(): ExternalDatabaseConnectionManager {
         LoggerFactory.getLogger(ExternalDatabaseConnectionManagerPod::class.java).info("Constructing ExternalDatabaseConnectionManager")
-        return ExternalDatabaseConnectionManager(assemblerConfiguration, hazelcastInstance)
+        return ExternalDatabaseConnectionManager(assemblerConfiguration, hazelcastInstance, metricRegistry)
     }
 }
@@ -0,0 +1,238 @@
+package com.openlattice.search
+
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.SerializationFeature
+import com.openlattice.IdConstants
+import com.openlattice.conductor.rpc.ConductorElasticsearchApi
+import org.elasticsearch.common.bytes.BytesArray
+import org.elasticsearch.common.bytes.BytesReference
+import java.io.ByteArrayOutputStream
+import java.util.*
+
+/**
+ * Writes entity documents directly into an elasticsearch bulk request body using a [JsonGenerator], without building
+ * intermediate maps or serializing each document into its own byte array.
+ *
+ * The underlying buffer is reused between bulk requests, so a writer must only be used by a single thread and
+ * [bytes] must not be referenced after [reset] is called.
+ */
+class EntityDocumentWriter @JvmOverloads constructor(
+        mapper: ObjectMapper,
+        private val initialCapacity: Int = DEFAULT_INITIAL_CAPACITY,
+        private val maximumRetainedCapacity: Int = DEFAULT_MAXIMUM_RETAINED_CAPACITY
+) {
+    companion object {
+        const val DEFAULT_INITIAL_CAPACITY = 1 shl 16
+        const val DEFAULT_MAXIMUM_RETAINED_CAPACITY = 1 shl 24
+
+        private const val UPDATE_RETRIES_ON_CONFLICT = 3
+        private const val ADDED_PARAM = "added"
+        private const val REPLACED_PARAM = "replaced"
+
+        /**
+         * Adds the values of [ADDED_PARAM] that aren't indexed yet and overwrites the values of [REPLACED_PARAM].
+         */
+        private val UPDATE_ENTITY_SCRIPT = """
+            def entity = ctx._source.${ConductorElasticsearchApi.ENTITY};
+            for (def property : params.$ADDED_PARAM.entrySet()) {
+              def values = entity.get(property.getKey());
+              if (values == null) {
+                entity.put(property.getKey(), property.getValue());
+              } else {
+                for (def value : property.getValue()) {
+                  if (!values.contains(value)) { values.add(value); }
+                }
+              }
+            }
+            entity.putAll(params.$REPLACED_PARAM);
+        """.trimIndent()
+
+        private val ID_FIELD = IdConstants.ID_ID.id.toString()
+        private val ENTITY_SET_ID_KEY_FIELD = IdConstants.ENTITY_SET_ID_KEY_ID.id.toString()
+        private val LAST_WRITE_ID = IdConstants.LAST_WRITE_ID.id
+    }
+
+    private val writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+    private val jsonFactory = mapper.factory
+
+    private var buffer = BulkBodyBuffer(initialCapacity)
+    private var generator = newGenerator()
+
+    /**
+     * Number of documents written since the last [reset].
+     */
+    var documentCount = 0
+        private set
+
+    /**
+     * Appends an index action and the document of a plain entity.
+     */
+    fun writeEntity(index: String, type: String, entityKeyId: UUID, entitySetId: UUID, entity: Map<UUID, Set<Any?>>) {
+        writeIndexAction(index, type, entityKeyId)
+
+        generator.writeStartObject()
+        generator.writeFieldName(ConductorElasticsearchApi.ENTITY)
+        generator.writeStartObject()
+        writeProperties(entity)
+        generator.writeStringField(ENTITY_SET_ID_KEY_FIELD, entitySetId.toString())
+        generator.writeEndObject()
+        generator.writeStringField(ConductorElasticsearchApi.ENTITY_SET_ID_FIELD, entitySetId.toString())
+        generator.writeEndObject()
+        endLine()
+        documentCount++
+    }
+
+    /**
+     * Appends an update action that applies the written properties of a plain entity to its indexed document.
+     * Properties missing from [entity] are left as is. The written properties alone don't make a complete document, so
+     * the update fails instead of creating one if the entity isn't indexed yet.
+     *
+     * @param merge If true, the values of [entity] are added to the indexed values of each property. Otherwise they
+     * replace them. The last write of the entity is always replaced.
+     */
+    fun writeEntityUpdate(
+            index: String,
+            type: String,
+            entityKeyId: UUID,
+            entity: Map<UUID, Set<Any?>>,
+            merge: Boolean
+    ) {
+        generator.writeStartObject()
+        generator.writeObjectFieldStart("update")
+        generator.writeStringField("_index", index)
+        generator.writeStringField("_type", type)
+        generator.writeStringField("_id", entityKeyId.toString())
+        generator.writeNumberField("retry_on_conflict", UPDATE_RETRIES_ON_CONFLICT)
+        generator.writeEndObject()
+        generator.writeEndObject()
+        endLine()
+
+        val (added, replaced) = if (merge) {
+            entity.filterKeys { it != LAST_WRITE_ID } to entity.filterKeys { it == LAST_WRITE_ID }
+        } else {
+            emptyMap<UUID, Set<Any?>>() to entity
+        }
+
+        generator.writeStartObject()
+        generator.writeObjectFieldStart("script")
+        generator.writeStringField("source", UPDATE_ENTITY_SCRIPT)
+        generator.writeStringField("lang", "painless")
+        generator.writeObjectFieldStart("params")
+        generator.writeObjectFieldStart(ADDED_PARAM)
+        writeProperties(added)
+        generator.writeEndObject()
+        generator.writeObjectFieldStart(REPLACED_PARAM)
+        writeProperties(replaced)
+        generator.writeEndObject()
+        generator.writeEndObject()
+        generator.writeEndObject()
+        generator.writeEndObject()
+        endLine()
+        documentCount++
+    }
+
+    /**
+     * Appends an index action and the document of a linked entity.
+     *
+     * @param entityValues Property values of a linked entity mapped by the normal entity set id, normal entity key id
+     * and property type ids respectively.
+     */
+    fun writeLinkedEntity(
+            index: String,
+            type: String,
+            linkingId: UUID,
+            entityValues: Map<UUID, Map<UUID, Map<UUID, Set<Any?>>>>
+    ) {
+        writeIndexAction(index, type, linkingId)
+
+        generator.writeStartObject()
+        generator.writeArrayFieldStart(ConductorElasticsearchApi.ENTITY)
+        entityValues.forEach { (entitySetId, entities) ->
+            entities.forEach { (entityKeyId, propertyValues) ->
+                generator.writeStartObject()
+                writeProperties(propertyValues)
+                generator.writeStringField(ID_FIELD, entityKeyId.toString())
+                generator.writeStringField(ENTITY_SET_ID_KEY_FIELD, entitySetId.toString())
+                generator.writeEndObject()
+            }
+        }
+        generator.writeEndArray()
+        generator.writeEndObject()
+        endLine()
+        documentCount++
+    }
+
+    /**
+     * @return The bulk request body written since the last [reset]. The returned reference is backed by this writer's
+     * buffer.
+     */
+    fun bytes(): BytesReference {
+        generator.flush()
+        return BytesArray(buffer.array(), 0, buffer.size())
+    }
+
+    /**
+     * Clears the written bulk request body, keeping the buffer unless it grew past the maximum retained capacity.
+     *
+     * A write that failed part way through a document leaves the generator inside that document, so in that case the
+     * generator is discarded along with its state and the next bulk request body starts from a fresh one.
+     */
+    fun reset() {
+        val interrupted = !generator.outputContext.inRoot()
+        if (interrupted) {
+            try {
+                generator.close()
+            } catch (ex: Exception) {
+                // the generator is being discarded, so whatever it failed to write doesn't matter
+            }
+        } else {
+            generator.flush()
+        }
+
+        if (buffer.capacity() > maximumRetainedCapacity) {
+            buffer = BulkBodyBuffer(initialCapacity)
+            generator = newGenerator()
+        } else {
+            buffer.reset()
+            if (interrupted) {
+                generator = newGenerator()
+            }
+        }
+        documentCount = 0
+    }
+
+    private fun writeIndexAction(index: String, type: String, id: UUID) {
+        generator.writeStartObject()
+        generator.writeObjectFieldStart("index")
+        generator.writeStringField("_index", index)
+        generator.writeStringField("_type", type)
+        generator.writeStringField("_id", id.toString())
+        generator.writeEndObject()
+        generator.writeEndObject()
+        endLine()
+    }
+
+    private fun writeProperties(propertyValues: Map<UUID, Set<Any?>>) {
+        propertyValues.forEach { (propertyTypeId, values) ->
+            generator.writeArrayFieldStart(propertyTypeId.toString())
+            values.forEach { writer.writeValue(generator, it) }
+            generator.writeEndArray()
+        }
+    }
+
+    private fun endLine() {
+        generator.writeRaw('\n')
+    }
+
+    private fun newGenerator(): JsonGenerator {
+        return jsonFactory.createGenerator(buffer)
+                .setRootValueSeparator(null)
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+    }
+
+    private class BulkBodyBuffer(size: Int) : ByteArrayOutputStream(size) {
+        fun array(): ByteArray = buf
+        fun capacity(): Int = buf.size
+    }
+}
@@ -16,9 +16,11 @@ import com.openlattice.data.DeleteType
 import com.openlattice.data.EntityDataKey
 import com.openlattice.data.events.EntitiesDeletedEvent
 import com.openlattice.data.events.EntitiesUpsertedEvent
+import com.openlattice.data.events.EntityIndexUpdate
 import com.openlattice.data.requests.NeighborEntityDetails
 import com.openlattice.data.requests.NeighborEntityIds
 import com.openlattice.data.storage.EntityDatastore
+import com.openlattice.data.storage.IndexingChangeFeed
 import com.openlattice.data.storage.IndexingMetadataManager
 import com.openlattice.data.storage.MetadataOption
 import com.openlattice.datasets.DataSetService
@@ -63,12 +65,15 @@ class SearchService(
     val graphService: GraphService,
     val dataManager: EntityDatastore,
     val indexingMetadataManager: IndexingMetadataManager,
+    val indexingChangeFeed: IndexingChangeFeed,
     val dataSetService: DataSetService
 ) {
 
     companion object {
         private val logger = LoggerFactory.getLogger(SearchService::class.java)
 
+        private const val NEIGHBOR_HYDRATION_BATCH_SIZE = 1_000
+
         @JvmStatic
         fun getEntityKeyId(entity: Map<FullQualifiedName, Set<Any>>): UUID {
             return UUID.fromString(entity.getValue(EdmConstants.ID_FQN).first().toString())
@@ -356,18 +361,34 @@ class SearchService(
     /**
      * Handles when entities are created or updated.
      * In both cases it is enough to re-index the document, ElasticSearch will mark the old document as deleted.
+     * Events that only carry the written properties are applied as partial updates of the indexed documents, and only
+     * the entities whose documents were updated are marked as indexed. Entities that have no document yet, like newly
+     * created ones, are published to the [IndexingChangeFeed] so that the indexer reads them back and indexes them in
+     * full.
      */
     @Subscribe
     fun indexEntities(event: EntitiesUpsertedEvent) {
         val indexEntitiesContext = indexEntitiesTimer.time()
         val entityTypeId = entitySetService.getEntityTypeByEntitySetId(event.entitySetId).id
-        val entitiesIndexed = elasticsearchApi
-                .createBulkEntityData(entityTypeId, event.entitySetId, event.entities)
+        val indexedEntityKeyIds = when (event.update) {
+            EntityIndexUpdate.INDEX -> {
+                val indexed = elasticsearchApi.createBulkEntityData(entityTypeId, event.entitySetId, event.entities)
+                if (indexed) event.entities.keys else setOf()
+            }
+            EntityIndexUpdate.REPLACE_PROPERTIES -> elasticsearchApi
+                    .updateBulkEntityData(entityTypeId, event.entitySetId, event.entities, false)
+            EntityIndexUpdate.MERGE_PROPERTIES -> elasticsearchApi
+                    .updateBulkEntityData(entityTypeId, event.entitySetId, event.entities, true)
+        }
         indexEntitiesContext.stop()
 
-        if (entitiesIndexed) {
+        if (event.update != EntityIndexUpdate.INDEX) {
+            indexingChangeFeed.publish(event.entitySetId, event.entities.keys - indexedEntityKeyIds)
+        }
+
+        if (indexedEntityKeyIds.isNotEmpty()) {
             val markAsIndexedContext = markAsIndexedTimer.time()
-            val lastWrites = event.entities.mapValues {
+            val lastWrites = event.entities.filterKeys { it in indexedEntityKeyIds }.mapValues {
                 it.value.getValue(IdConstants.LAST_WRITE_ID.id).first() as OffsetDateTime
             }
             // mark them as indexed
@@ -684,13 +705,67 @@ class SearchService(
         val entityKeyIds = getEntityKeyIdsToQueryFor(entityKeyIdsByLinkingId, filter.entityKeyIds)
 
 
-        /* Load authorized edges and their corresponding neighbor data */
+        /*
+         * Load authorized edges and their corresponding neighbor data. Edges are streamed and hydrated in batches, so
+         * only one batch of neighbor entities is held at a time regardless of how many neighbors a vertex has.
+         */
+
+        val entityNeighbors = Maps.newLinkedHashMap<UUID, MutableList<NeighborEntityDetails>>()
+        val authorizedPropertyTypesByEntitySet = mutableMapOf<UUID, Map<UUID, PropertyType>>()
+        var lastEdge: DataEdgeKey? = null
+
+        graphService.getEdgesAndNeighborsForVertices(allBaseEntitySetIds, authorizedPagedNeighborRequest).use {
+            it.iterator()
+                    .asSequence()
+                    .chunked(NEIGHBOR_HYDRATION_BATCH_SIZE)
+                    .forEach { edges ->
+                        addNeighborEntityDetails(
+                                edges,
+                                entityKeyIds,
+                                entitySetsById,
+                                authorizedPropertyTypesByEntitySet,
+                                principals,
+                                entityNeighbors
+                        )
+                        lastEdge = edges.last().key
+                    }
+        }
+
+        /* Map linkingIds to the collection of neighbors for all entityKeyIds in the cluster */
+        entityKeyIdsByLinkingId.forEach { (linkingId, normalEntityKeyIds) ->
+            entityNeighbors[linkingId] = normalEntityKeyIds
+                    .flatMap { entityKeyId ->
+                        entityNeighbors.getOrDefault(entityKeyId, arrayListOf())
+                    }.toMutableList()
+
+        }
 
-        val edges = graphService.getEdgesAndNeighborsForVertices(allBaseEntitySetIds, authorizedPagedNeighborRequest).toList()
+        return NeighborPage(entityNeighbors, lastEdge)
+    }
 
+    /**
+     * Loads the neighbor and association entities of a batch of [edges] and adds their details to [entityNeighbors],
+     * in edge order.
+     */
+    private fun addNeighborEntityDetails(
+            edges: List<Edge>,
+            entityKeyIds: Set<UUID>,
+            entitySetsById: Map<UUID, EntitySet>,
+            authorizedPropertyTypesByEntitySet: MutableMap<UUID, Map<UUID, PropertyType>>,
+            principals: Set<Principal>,
+            entityNeighbors: MutableMap<UUID, MutableList<NeighborEntityDetails>>
+    ) {
         val entitySetIdToEntityKeyId = getNeighborEntitySetIdToEntityKeyIdForEdges(edges, entityKeyIds)
 
-        val entitySetsIdsToAuthorizedProps = getAuthorizedPropertyTypesOfEntitySets(entitySetIdToEntityKeyId.keySet(), principals)
+        val missingEntitySetIds = entitySetIdToEntityKeyId.keySet() - authorizedPropertyTypesByEntitySet.keys
+        if (missingEntitySetIds.isNotEmpty()) {
+            authorizedPropertyTypesByEntitySet.putAll(
+                    getAuthorizedPropertyTypesOfEntitySets(missingEntitySetIds, principals)
+            )
+        }
+        val entitySetsIdsToAuthorizedProps = authorizedPropertyTypesByEntitySet.filterKeys {
+            entitySetIdToEntityKeyId.containsKey(it)
+        }
 
         val entitiesByEntitySetId = dataManager
                 .getEntitiesAcrossEntitySets(entitySetIdToEntityKeyId, entitySetsIdsToAuthorizedProps)
@@ -703,8 +778,6 @@ class SearchService(
         }
 
         /* Format neighbor data into the expected return format */
-        val entityNeighbors = Maps.newLinkedHashMap<UUID, MutableList<NeighborEntityDetails>>()
-
         edges.forEach { edge ->
 
             mapOf(
@@ -722,28 +795,12 @@ class SearchService(
                 )
 
                 if (entityKeyIds.contains(directedEdge.src.entityKeyId) && neighborDetails != null) {
-
-                    if (!entityNeighbors.containsKey(vertexEntityKeyId)) {
-                        entityNeighbors[vertexEntityKeyId] = mutableListOf()
-                    }
-
-                    entityNeighbors.getValue(vertexEntityKeyId).add(neighborDetails)
+                    entityNeighbors.getOrPut(vertexEntityKeyId) { mutableListOf() }.add(neighborDetails)
                 }
 
             }
 
         }
-
-        /* Map linkingIds to the collection of neighbors for all entityKeyIds in the cluster */
-        entityKeyIdsByLinkingId.forEach { (linkingId, normalEntityKeyIds) ->
-            entityNeighbors[linkingId] = normalEntityKeyIds
-                    .flatMap { entityKeyId ->
-                        entityNeighbors.getOrDefault(entityKeyId, arrayListOf())
-                    }.toMutableList()
-
-        }
-
-        return NeighborPage(entityNeighbors, edges.lastOrNull()?.key)
     }
 
     private fun getNeighborEntityDetails(
@@ -840,23 +897,25 @@ class SearchService(
 
         val neighbors = mutableMapOf<UUID, MutableMap<UUID, SetMultimap<UUID, NeighborEntityIds>>>()
 
-        graphService.getEdgesAndNeighborsForVertices(entitySetIds, PagedNeighborRequest(filter)).forEach { edge ->
+        graphService.getEdgesAndNeighborsForVertices(entitySetIds, PagedNeighborRequest(filter)).use { edges ->
+            edges.forEach { edge ->
 
-            val isSrc = entityKeyIds.contains(edge.src.entityKeyId)
-            val entityKeyId = if (isSrc) edge.src.entityKeyId else edge.dst.entityKeyId
-            val neighborEntityDataKey = if (isSrc) edge.dst else edge.src
+                val isSrc = entityKeyIds.contains(edge.src.entityKeyId)
+                val entityKeyId = if (isSrc) edge.src.entityKeyId else edge.dst.entityKeyId
+                val neighborEntityDataKey = if (isSrc) edge.dst else edge.src
 
-            val neighborEntityIds = NeighborEntityIds(
-                    edge.edge.entityKeyId,
-                    neighborEntityDataKey.entityKeyId,
-                    isSrc
-            )
+                val neighborEntityIds = NeighborEntityIds(
+                        edge.edge.entityKeyId,
+                        neighborEntityDataKey.entityKeyId,
+                        isSrc
+                )
 
-            neighbors
-                    .getOrPut(entityKeyId) { mutableMapOf() }
-                    .getOrPut(edge.edge.entitySetId) { HashMultimap.create<UUID, NeighborEntityIds>() }
-                    .put(neighborEntityDataKey.entitySetId, neighborEntityIds)
+                neighbors
+                        .getOrPut(entityKeyId) { mutableMapOf() }
+                        .getOrPut(edge.edge.entitySetId) { HashMultimap.create<UUID, NeighborEntityIds>() }
+                        .put(neighborEntityDataKey.entitySetId, neighborEntityIds)
 
+            }
         }
 
         return neighbors
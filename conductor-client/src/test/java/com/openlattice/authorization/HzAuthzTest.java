@@ -20,6 +20,7 @@
 
 package com.openlattice.authorization;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -391,7 +392,8 @@ public class HzAuthzTest extends TestServer {
         hzAuthz = new HazelcastAuthorizationService(
                 hazelcastInstance,
                 testServer.getContext().getBean( EventBus.class ),
-                principalsMapManager );
+                principalsMapManager,
+                new MetricRegistry() );
 
         spm = new HazelcastPrincipalService(
                 hazelcastInstance,
@@ -0,0 +1,66 @@
+package com.openlattice.scrunchie.search;
+
+import com.openlattice.conductor.rpc.ConductorElasticsearchApi;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.text.Text;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Checks how the responses of a batch of blocking searches are turned into blocking results.
+ */
+public class BlockingSearchResultsTest {
+
+    @Test
+    public void testBatchResults() {
+        UUID entitySetId = UUID.randomUUID();
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        List<Map<UUID, Set<UUID>>> results = ConductorElasticsearchImpl.getBlockingSearchResults( response(
+                new MultiSearchResponse.Item( searchResponse( entitySetId, first, second ), null ),
+                new MultiSearchResponse.Item( searchResponse( entitySetId ), null )
+        ) );
+
+        Assert.assertEquals( List.of( Map.of( entitySetId, Set.of( first, second ) ), Map.of() ), results );
+    }
+
+    @Test( expected = IllegalStateException.class )
+    public void testFailedSearchFailsBatch() {
+        UUID entitySetId = UUID.randomUUID();
+
+        ConductorElasticsearchImpl.getBlockingSearchResults( response(
+                new MultiSearchResponse.Item( searchResponse( entitySetId, UUID.randomUUID() ), null ),
+                new MultiSearchResponse.Item( null, new IllegalArgumentException( "Search failed." ) ),
+                new MultiSearchResponse.Item( searchResponse( entitySetId, UUID.randomUUID() ), null )
+        ) );
+    }
+
+    private static MultiSearchResponse response( MultiSearchResponse.Item... items ) {
+        return new MultiSearchResponse( items, 1L );
+    }
+
+    private static SearchResponse searchResponse( UUID entitySetId, UUID... entityKeyIds ) {
+        SearchHit[] hits = new SearchHit[ entityKeyIds.length ];
+        for ( int i = 0; i < entityKeyIds.length; i++ ) {
+            hits[ i ] = new SearchHit( i, entityKeyIds[ i ].toString(), new Text( "_doc" ), Map.of() )
+                    .sourceRef( new BytesArray( "{\"" + ConductorElasticsearchApi.ENTITY_SET_ID_FIELD + "\":\""
+                            + entitySetId + "\"}" ) );
+        }
+
+        SearchResponse response = Mockito.mock( SearchResponse.class );
+        Mockito.when( response.getHits() )
+                .thenReturn( new SearchHits( hits, new TotalHits( hits.length, TotalHits.Relation.EQUAL_TO ), 1F ) );
+        return response;
+    }
+}
@@ -0,0 +1,80 @@
+package com.openlattice.scrunchie.search;
+
+import java.util.Set;
+import java.util.UUID;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks which entities of a bulk update of written properties are reported as indexed, and so get their last index
+ * advanced.
+ */
+public class EntityUpdateResultsTest {
+    private static final ShardId SHARD_ID = new ShardId( "index", "index-uuid", 0 );
+
+    @Test
+    public void testMissingDocumentsAreNotUpdated() {
+        UUID indexed = UUID.randomUUID();
+        UUID notYetIndexed = UUID.randomUUID();
+
+        BulkItemResponse missing = missing( 1, notYetIndexed );
+        Assert.assertEquals( RestStatus.NOT_FOUND, missing.status() );
+
+        Set<UUID> updated = ConductorElasticsearchImpl.getUpdatedEntityKeyIds( new BulkResponse(
+                new BulkItemResponse[] { updated( 0, indexed ), missing },
+                1L
+        ) );
+
+        Assert.assertEquals( Set.of( indexed ), updated );
+    }
+
+    @Test
+    public void testFailedUpdatesAreNotUpdated() {
+        UUID indexed = UUID.randomUUID();
+        UUID failed = UUID.randomUUID();
+
+        Set<UUID> updated = ConductorElasticsearchImpl.getUpdatedEntityKeyIds( new BulkResponse(
+                new BulkItemResponse[] {
+                        BulkItemResponse.failure( 0,
+                                DocWriteRequest.OpType.UPDATE,
+                                new BulkItemResponse.Failure( "index",
+                                        "_doc",
+                                        failed.toString(),
+                                        new IllegalArgumentException( "Script failed." ) ) ),
+                        updated( 1, indexed )
+                },
+                1L
+        ) );
+
+        Assert.assertEquals( Set.of( indexed ), updated );
+    }
+
+    private static BulkItemResponse updated( int position, UUID entityKeyId ) {
+        return BulkItemResponse.success( position,
+                DocWriteRequest.OpType.UPDATE,
+                new UpdateResponse( SHARD_ID,
+                        "_doc",
+                        entityKeyId.toString(),
+                        1L,
+                        1L,
+                        2L,
+                        DocWriteResponse.Result.UPDATED ) );
+    }
+
+    private static BulkItemResponse missing( int position, UUID entityKeyId ) {
+        return BulkItemResponse.failure( position,
+                DocWriteRequest.OpType.UPDATE,
+                new BulkItemResponse.Failure( "index",
+                        "_doc",
+                        entityKeyId.toString(),
+                        new DocumentMissingException( SHARD_ID, "_doc", entityKeyId.toString() ) ) );
+    }
+}
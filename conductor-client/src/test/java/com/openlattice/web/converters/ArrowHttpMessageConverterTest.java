@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.web.converters;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.openlattice.data.EntitySetData;
+import com.openlattice.edm.EdmConstants;
+import com.openlattice.edm.type.PropertyType;
+import com.openlattice.mapstores.TestDataFactory;
+import com.openlattice.web.mediatypes.CustomMediaType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+
+public class ArrowHttpMessageConverterTest {
+
+    @Test
+    public void testTypedColumnsRoundTrip() throws IOException {
+        PropertyType count = TestDataFactory.propertyType( EdmPrimitiveTypeKind.Int64 );
+        String title = count.getType().getFullQualifiedNameAsString();
+        FullQualifiedName fqn = count.getType();
+        UUID id = UUID.randomUUID();
+
+        List<Map<FullQualifiedName, Set<Object>>> entities = List.of(
+                ImmutableMap.of( fqn, ImmutableSet.of( 1, 2L ), EdmConstants.ID_FQN, ImmutableSet.of( id ) ),
+                ImmutableMap.of()
+        );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ArrowHttpMessageConverter().write(
+                new EntitySetData<>( new LinkedHashSet<>( List.of( title ) ), Map.of( title, count ), entities ),
+                CustomMediaType.APPLICATION_ARROW_STREAM,
+                outputMessage( out ) );
+
+        try ( RootAllocator allocator = new RootAllocator( Long.MAX_VALUE );
+                ArrowStreamReader reader = new ArrowStreamReader(
+                        new ByteArrayInputStream( out.toByteArray() ), allocator ) ) {
+            Assert.assertTrue( reader.loadNextBatch() );
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            Assert.assertEquals( 2, root.getRowCount() );
+
+            ListVector counts = (ListVector) root.getVector( title );
+            Assert.assertEquals( new ArrowType.Int( 64, true ), counts.getDataVector().getField().getType() );
+            Assert.assertEquals( List.of( 1L, 2L ), counts.getObject( 0 ) );
+            Assert.assertTrue( counts.isNull( 1 ) );
+
+            Assert.assertEquals(
+                    id.toString(),
+                    root.getVector( EdmConstants.ID_FQN.getFullQualifiedNameAsString() ).getObject( 0 ).toString() );
+            Assert.assertFalse( reader.loadNextBatch() );
+        }
+    }
+
+    private static HttpOutputMessage outputMessage( OutputStream out ) {
+        HttpHeaders headers = new HttpHeaders();
+        return new HttpOutputMessage() {
+            @Override public OutputStream getBody() {
+                return out;
+            }
+
+            @Override public HttpHeaders getHeaders() {
+                return headers;
+            }
+        };
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ */
+
+package com.openlattice.web.converters;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.openlattice.data.EntitySetData;
+import com.openlattice.edm.EdmConstants;
+import com.openlattice.web.mediatypes.CustomMediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.apache.olingo.commons.api.edm.FullQualifiedName;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+
+public class CsvHttpMessageConverterTest {
+    private static final Logger logger = LoggerFactory.getLogger( CsvHttpMessageConverterTest.class );
+
+    private static final FullQualifiedName NAME     = new FullQualifiedName( "general.name" );
+    private static final FullQualifiedName NICKNAME = new FullQualifiedName( "general.nickname" );
+
+    private static final int BENCHMARK_ROWS = 2_000_000;
+
+    @Test
+    public void testColumnsComeFromColumnTitles() throws IOException {
+        LinkedHashSet<String> titles = new LinkedHashSet<>( List.of( NAME.toString(), NICKNAME.toString() ) );
+        UUID id = UUID.randomUUID();
+        List<Map<FullQualifiedName, Set<Object>>> entities = List.of(
+                ImmutableMap.of( NAME, ImmutableSet.of( "Jane" ), EdmConstants.ID_FQN, ImmutableSet.of( id ) ),
+                ImmutableMap.of( NAME, ImmutableSet.of( "John" ), NICKNAME, ImmutableSet.of( "Jack" ) )
+        );
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CsvHttpMessageConverter().write(
+                new EntitySetData<>( titles, entities ),
+                CustomMediaType.TEXT_CSV,
+                outputMessage( out ) );
+
+        List<String> lines = out.toString().lines().collect( Collectors.toList() );
+        Assert.assertEquals( 3, lines.size() );
+        Assert.assertEquals( "general.name,general.nickname,openlattice.@id", lines.get( 0 ) );
+        Assert.assertEquals( "Jane,," + id, lines.get( 1 ) );
+        Assert.assertEquals( "John,Jack,", lines.get( 2 ) );
+    }
+
+    @Test
+    @Ignore
+    public void benchmarkCsvExport() throws IOException {
+        LinkedHashSet<String> titles = new LinkedHashSet<>( List.of( NAME.toString(), NICKNAME.toString() ) );
+        Iterable<Map<FullQualifiedName, Set<Object>>> entities = () -> IntStream.range( 0, BENCHMARK_ROWS )
+                .mapToObj( i -> (Map<FullQualifiedName, Set<Object>>) ImmutableMap.<FullQualifiedName, Set<Object>>of(
+                        NAME, ImmutableSet.of( "name " + i ),
+                        NICKNAME, ImmutableSet.of( "nickname " + i, "alias " + i ),
+                        EdmConstants.ID_FQN, ImmutableSet.of( new UUID( 0, i ) ) ) )
+                .iterator();
+
+        Stopwatch sw = Stopwatch.createStarted();
+        new CsvHttpMessageConverter().write(
+                new EntitySetData<>( titles, entities ),
+                CustomMediaType.TEXT_CSV,
+                outputMessage( OutputStream.nullOutputStream() ) );
+        long millis = sw.elapsed( TimeUnit.MILLISECONDS );
+
+        logger.info( "Exported {} rows in {} ms ({} rows/s)", BENCHMARK_ROWS, millis, BENCHMARK_ROWS * 1000L / millis );
+    }
+
+    private static HttpOutputMessage outputMessage( OutputStream out ) {
+        HttpHeaders headers = new HttpHeaders();
+        return new HttpOutputMessage() {
+            @Override public OutputStream getBody() {
+                return out;
+            }
+
+            @Override public HttpHeaders getHeaders() {
+                return headers;
+            }
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.openlattice.auditing
+
+import com.codahale.metrics.MetricRegistry
+import com.openlattice.authorization.AclKey
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
+
+class AuditEventBufferTest {
+
+    @Test
+    fun testBatchesAreBoundedAndFlushedOnClose() {
+        val batches = CopyOnWriteArrayList<List<AuditableEvent>>()
+        val buffer = AuditEventBuffer("test", MetricRegistry(), 1_000, 10, 60_000) { batches.add(it) }
+
+        buffer.addAll((0 until 25).map { event() })
+        buffer.close()
+
+        Assert.assertEquals(25, batches.sumOf { it.size })
+        Assert.assertTrue(batches.all { it.size <= 10 })
+    }
+
+    @Test
+    fun testFailedFlushIsRetried() {
+        val batches = CopyOnWriteArrayList<List<AuditableEvent>>()
+        var failures = 0
+        val buffer = AuditEventBuffer("retry", MetricRegistry(), 1_000, 10, 10) {
+            if (failures++ == 0) {
+                throw IllegalStateException("Unavailable")
+            }
+            batches.add(it)
+        }
+
+        buffer.addAll(listOf(event()))
+        buffer.close()
+
+        Assert.assertEquals(1, batches.sumOf { it.size })
+    }
+
+    @Test
+    fun testEventsAddedAfterCloseAreFlushed() {
+        val batches = CopyOnWriteArrayList<List<AuditableEvent>>()
+        val buffer = AuditEventBuffer("closed", MetricRegistry(), 1_000, 10, 60_000) { batches.add(it) }
+
+        buffer.close()
+        buffer.addAll((0 until 15).map { event() })
+
+        Assert.assertEquals(15, batches.sumOf { it.size })
+        Assert.assertTrue(batches.all { it.size <= 10 })
+    }
+
+    @Test
+    fun testEventsAddedWhileClosingAreFlushed() {
+        val batches = CopyOnWriteArrayList<List<AuditableEvent>>()
+        val buffer = AuditEventBuffer("closing", MetricRegistry(), 1_000, 10, 10) { batches.add(it) }
+
+        val writer = Thread {
+            repeat(100) { buffer.addAll(listOf(event())) }
+        }
+        writer.start()
+        buffer.close()
+        writer.join()
+
+        Assert.assertEquals(100, batches.sumOf { it.size })
+    }
+
+    private fun event(): AuditableEvent {
+        return AuditableEvent(
+                UUID.randomUUID(),
+                AclKey(UUID.randomUUID()),
+                AuditEventType.READ_ENTITIES,
+                "test",
+                Optional.empty(),
+                mapOf()
+        )
+    }
+}
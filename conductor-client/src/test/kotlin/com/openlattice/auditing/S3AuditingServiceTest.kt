@@ -0,0 +1,205 @@
+package com.openlattice.auditing
+
+import com.amazonaws.services.s3.AmazonS3
+import com.amazonaws.services.s3.model.ListObjectsV2Request
+import com.amazonaws.services.s3.model.ListObjectsV2Result
+import com.amazonaws.services.s3.model.PutObjectRequest
+import com.amazonaws.services.s3.model.PutObjectResult
+import com.amazonaws.services.s3.model.S3Object
+import com.amazonaws.services.s3.model.S3ObjectSummary
+import com.codahale.metrics.MetricRegistry
+import com.geekbeast.aws.AwsS3ClientConfiguration
+import com.geekbeast.hazelcast.IHazelcastClientProvider
+import com.geekbeast.mappers.mappers.ObjectMappers
+import com.hazelcast.core.HazelcastInstance
+import com.hazelcast.map.IMap
+import com.openlattice.authorization.AclKey
+import com.openlattice.hazelcast.HazelcastMap
+import com.openlattice.ids.HazelcastLongIdService
+import com.openlattice.ids.IdScopes
+import com.openlattice.ids.processors.LongIdsGeneratingProcessor
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.Matchers
+import org.mockito.Mockito
+import java.util.*
+import java.util.concurrent.ConcurrentSkipListMap
+
+private const val PARTITIONS = 7
+private const val FLUSH_BATCH_SIZE = 10
+
+/**
+ * Checks segment encoding and runs [S3AuditingService] against an in memory stand-in for S3 and for the long id
+ * counters.
+ */
+class S3AuditingServiceTest {
+    private val mapper = ObjectMappers.getJsonMapper()
+    private val idLeases = mutableListOf<Long>()
+    private var nextId = 0L
+
+    @Suppress("UNCHECKED_CAST")
+    private val counters = (Mockito.mock(IMap::class.java) as IMap<String, Long>).also {
+        Mockito.`when`(
+                it.executeOnKey(
+                        Matchers.eq(IdScopes.AUDITING.name),
+                        Matchers.any(LongIdsGeneratingProcessor::class.java)
+                )
+        ).thenAnswer { invocation ->
+            val count = (invocation.arguments[1] as LongIdsGeneratingProcessor).count
+            val base = nextId
+            nextId += count
+            idLeases.add(count)
+            base
+        }
+    }
+
+    private val longIdService = HazelcastLongIdService(object : IHazelcastClientProvider {
+        override fun getClient(name: String): HazelcastInstance {
+            return Mockito.mock(HazelcastInstance::class.java).also {
+                Mockito.`when`(it.getMap<String, Long>(HazelcastMap.LONG_IDS.name)).thenReturn(counters)
+            }
+        }
+    })
+
+    private val configuration = AuditingConfiguration(
+            "ol.audit",
+            "ol.audited",
+            mapOf(AuditProperty.ID to "ol.id"),
+            Optional.of(AwsS3ClientConfiguration("audit", "us-gov-east-1", "key", "secret")),
+            partitions = PARTITIONS,
+            flushBatchSize = FLUSH_BATCH_SIZE,
+            flushIntervalMillis = 60_000
+    )
+    private val bucket = configuration.awsS3ClientConfiguration.get().bucket
+    private val s3 = LocalS3(pageSize = 2)
+
+    @Test
+    fun testSegmentRoundTrip() {
+        val events = events(10)
+
+        val segment = S3AuditingService.writeSegment(mapper, events)
+        val read = S3AuditingService.readSegment(mapper, segment.inputStream())
+
+        Assert.assertEquals(events.map { it.aclKey }, read.map { it.aclKey })
+        Assert.assertEquals(events.map { it.description }, read.map { it.description })
+    }
+
+    @Test
+    fun testEventsAreUploadedInBatches() {
+        val events = events(25)
+
+        newService().use { service ->
+            Assert.assertEquals(events.size, service.recordEvents(events))
+        }
+
+        val segments = s3.objects.values.map { S3AuditingService.readSegment(mapper, it.inputStream()) }
+        Assert.assertEquals(3, segments.size)
+        Assert.assertTrue(segments.all { it.size <= FLUSH_BATCH_SIZE })
+        Assert.assertEquals(events.map { it.description }.toSet(), segments.flatten().map { it.description }.toSet())
+
+        s3.objects.keys.forEach { key ->
+            val match = Regex("""(\d+)/\d+/events-(\d+)\.ndjson\.gz""").matchEntire(key)
+            Assert.assertNotNull("Unexpected segment key $key", match)
+            val (partition, id) = match!!.destructured
+            Assert.assertEquals(id.toLong() % PARTITIONS, partition.toLong())
+        }
+    }
+
+    @Test
+    fun testGetRecordedEvents() {
+        val events = events(25)
+        val legacyEvents = events(2)
+        s3.objects["legacy/events.json"] = mapper.writeValueAsBytes(legacyEvents)
+
+        newService().use { service ->
+            service.recordEvents(events)
+        }
+
+        // the stand-in lists two objects per page, so all four objects are only read if the listing is paged through
+        val recorded = newService().use { it.getRecordedEvents() }
+        Assert.assertEquals(
+                (events + legacyEvents).map { it.description }.sorted(),
+                recorded.map { it.description }.sorted()
+        )
+    }
+
+    @Test
+    fun testIdsAreLeasedInBlocks() {
+        newService().use { service ->
+            (0 until 3).forEach { _ -> service.recordEvents(events(FLUSH_BATCH_SIZE)) }
+        }
+        newService().use { service ->
+            service.recordEvents(events(1))
+        }
+
+        val ids = s3.objects.keys.map { it.substringAfter("events-").removeSuffix(".ndjson.gz").toLong() }.sorted()
+        Assert.assertEquals(listOf(256L, 256L), idLeases)
+        Assert.assertEquals(listOf(0L, 1L, 2L, 256L), ids)
+    }
+
+    private fun newService(): S3AuditingService {
+        return S3AuditingService(configuration, longIdService, mapper, MetricRegistry(), s3.client)
+    }
+
+    private fun events(count: Int): List<AuditableEvent> {
+        return (0 until count).map {
+            AuditableEvent(
+                    UUID.randomUUID(),
+                    AclKey(UUID.randomUUID(), UUID.randomUUID()),
+                    AuditEventType.READ_ENTITIES,
+                    "event ${UUID.randomUUID()}",
+                    Optional.of(mutableSetOf(UUID.randomUUID())),
+                    mapOf("index" to it)
+            )
+        }
+    }
+
+    /**
+     * Keeps the objects of a single bucket in memory, listing them in key order [pageSize] keys at a time.
+     */
+    private inner class LocalS3(private val pageSize: Int) {
+        val objects = ConcurrentSkipListMap<String, ByteArray>()
+
+        val client: AmazonS3 = Mockito.mock(AmazonS3::class.java).also {
+            Mockito.`when`(it.putObject(Matchers.any(PutObjectRequest::class.java))).thenAnswer { invocation ->
+                val request = invocation.arguments[0] as PutObjectRequest
+                Assert.assertEquals(bucket, request.bucketName)
+                objects[request.key] = request.inputStream.readBytes()
+                PutObjectResult()
+            }
+            Mockito.`when`(it.listObjectsV2(Matchers.any(ListObjectsV2Request::class.java))).thenAnswer { invocation ->
+                val request = invocation.arguments[0] as ListObjectsV2Request
+                Assert.assertEquals(bucket, request.bucketName)
+                list(request.continuationToken)
+            }
+            Mockito.`when`(it.getObject(Matchers.eq(bucket), Matchers.anyString())).thenAnswer { invocation ->
+                val key = invocation.arguments[1] as String
+                S3Object().apply {
+                    bucketName = bucket
+                    this.key = key
+                    setObjectContent(objects.getValue(key).inputStream())
+                }
+            }
+        }
+
+        private fun list(continuationToken: String?): ListObjectsV2Result {
+            val remaining = if (continuationToken == null) objects else objects.tailMap(continuationToken, true)
+            val page = remaining.entries.take(pageSize)
+            val next = remaining.keys.drop(pageSize).firstOrNull()
+
+            return ListObjectsV2Result().apply {
+                bucketName = bucket
+                keyCount = page.size
+                isTruncated = next != null
+                nextContinuationToken = next
+                page.forEach { (key, value) ->
+                    objectSummaries.add(S3ObjectSummary().apply {
+                        bucketName = bucket
+                        this.key = key
+                        size = value.size.toLong()
+                    })
+                }
+            }
+        }
+    }
+}
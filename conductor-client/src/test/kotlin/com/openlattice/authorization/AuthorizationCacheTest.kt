@@ -0,0 +1,65 @@
+package com.openlattice.authorization
+
+import com.codahale.metrics.MetricRegistry
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+class AuthorizationCacheTest {
+    private val principals = setOf(
+            Principal(PrincipalType.USER, "user"),
+            Principal(PrincipalType.ROLE, "role")
+    )
+
+    @Test
+    fun testCachedUntilInvalidated() {
+        val cache = AuthorizationCache(MetricRegistry())
+        val aclKey = AclKey(UUID.randomUUID())
+        var loads = 0
+        val load = { aclKeys: Set<AclKey> ->
+            loads++
+            aclKeys.associateWith { EnumSet.of(Permission.READ) }
+        }
+
+        Assert.assertEquals(EnumSet.of(Permission.READ), cache.getAll(setOf(aclKey), principals, load)[aclKey])
+        Assert.assertEquals(EnumSet.of(Permission.READ), cache.getAll(setOf(aclKey), principals, load)[aclKey])
+        Assert.assertEquals(1, loads)
+
+        cache.invalidate(aclKey)
+        cache.getAll(setOf(aclKey), principals, load)
+        Assert.assertEquals(2, loads)
+    }
+
+    @Test
+    fun testMissingAclKeysHaveNoPermissions() {
+        val cache = AuthorizationCache(MetricRegistry())
+        val aclKey = AclKey(UUID.randomUUID())
+
+        val permissions = cache.getAll(setOf(aclKey), principals) { mapOf() }
+        Assert.assertTrue(permissions.getValue(aclKey).isEmpty())
+    }
+
+    @Test
+    fun testPrincipalSetsAreCachedSeparately() {
+        val cache = AuthorizationCache(MetricRegistry())
+        val aclKey = AclKey(UUID.randomUUID())
+
+        cache.getAll(setOf(aclKey), principals) { aclKeys -> aclKeys.associateWith { EnumSet.of(Permission.READ) } }
+        val permissions = cache.getAll(setOf(aclKey), principals.take(1).toSet()) { mapOf() }
+        Assert.assertTrue(permissions.getValue(aclKey).isEmpty())
+    }
+
+    @Test
+    fun testLoadRacingInvalidationIsNotCached() {
+        val cache = AuthorizationCache(MetricRegistry())
+        val aclKey = AclKey(UUID.randomUUID())
+
+        cache.getAll(setOf(aclKey), principals) { aclKeys ->
+            cache.invalidate(aclKey)
+            aclKeys.associateWith { EnumSet.of(Permission.READ) }
+        }
+
+        val permissions = cache.getAll(setOf(aclKey), principals) { mapOf() }
+        Assert.assertTrue(permissions.getValue(aclKey).isEmpty())
+    }
+}
@@ -0,0 +1,179 @@
+package com.openlattice.authorization
+
+import com.hazelcast.map.IMap
+import com.hazelcast.query.Predicate
+import com.openlattice.authorization.listeners.PrincipalPermissionIndexListener
+import com.openlattice.authorization.securable.SecurableObjectType
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.Matchers
+import org.mockito.Mockito
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Checks that [PrincipalPermissionIndex] stays consistent with the permissions map across changes, bulk removals and
+ * rebuilds.
+ */
+class PrincipalPermissionIndexTest {
+    private val user = Principal(PrincipalType.USER, "user")
+    private val role = Principal(PrincipalType.ROLE, "role")
+    private val entitySetId = UUID.randomUUID()
+    private val entitySet = AclKey(entitySetId)
+    private val propertyType = AclKey(entitySetId, UUID.randomUUID())
+
+    private val stored = mutableMapOf<AceKey, AceValue>()
+
+    /**
+     * Runs while the permissions map is being read by a rebuild, before the read values are returned.
+     */
+    private var duringRead: () -> Unit = {}
+    private var reads = 0
+
+    @Suppress("UNCHECKED_CAST")
+    private val aces = (Mockito.mock(IMap::class.java) as IMap<AceKey, AceValue>).also {
+        Mockito.`when`(it.entrySet(Matchers.any<Predicate<AceKey, AceValue>>())).thenAnswer {
+            // every securable object type is read separately, so only the first read of a rebuild returns the aces
+            if (reads++ % SecurableObjectType.values().size != 0) {
+                setOf<Map.Entry<AceKey, AceValue>>()
+            } else {
+                val entries = stored.map { (key, value) -> java.util.AbstractMap.SimpleImmutableEntry(key, value) }
+                        .toSet()
+                duringRead()
+                entries
+            }
+        }
+        Mockito.`when`(it.getAll(Matchers.anySetOf(AceKey::class.java))).thenAnswer { invocation ->
+            (invocation.arguments[0] as Set<*>).mapNotNull { key -> stored[key]?.let { value -> key to value } }
+                    .toMap()
+        }
+        Mockito.`when`(it.size).thenAnswer { stored.size }
+    }
+
+    private val index = PrincipalPermissionIndex(aces)
+
+    @Test
+    fun testRebuild() {
+        store(AceKey(entitySet, user), ace(SecurableObjectType.EntitySet, Permission.READ))
+        store(
+                AceKey(propertyType, role),
+                ace(SecurableObjectType.PropertyTypeInEntitySet, Permission.READ, Permission.WRITE)
+        )
+
+        index.rebuild()
+
+        Assert.assertEquals(setOf(entitySet), lookup(setOf(user, role), Permission.READ))
+        Assert.assertEquals(setOf(propertyType), lookup(setOf(user, role), Permission.WRITE))
+        Assert.assertEquals(setOf<AclKey>(), lookup(setOf(user), Permission.WRITE))
+        Assert.assertTrue(index.isInSync())
+    }
+
+    @Test
+    fun testUpdates() {
+        val aceKey = AceKey(entitySet, user)
+        val read = ace(SecurableObjectType.EntitySet, Permission.READ)
+        val write = ace(SecurableObjectType.EntitySet, Permission.WRITE)
+        index.rebuild()
+
+        index.update(aceKey, null, read)
+        Assert.assertEquals(setOf(entitySet), lookup(setOf(user), Permission.READ))
+
+        index.update(aceKey, read, write)
+        Assert.assertEquals(setOf<AclKey>(), lookup(setOf(user), Permission.READ))
+        Assert.assertEquals(setOf(entitySet), lookup(setOf(user), Permission.WRITE))
+
+        index.update(aceKey, write, null)
+        Assert.assertEquals(setOf<AclKey>(), lookup(setOf(user), Permission.WRITE))
+    }
+
+    @Test
+    fun testRemoveAndClear() {
+        store(AceKey(entitySet, user), ace(SecurableObjectType.EntitySet, Permission.READ))
+        store(AceKey(entitySet, role), ace(SecurableObjectType.EntitySet, Permission.READ))
+        store(AceKey(propertyType, user), ace(SecurableObjectType.PropertyTypeInEntitySet, Permission.READ))
+        index.rebuild()
+
+        index.remove(entitySet)
+        Assert.assertEquals(setOf(propertyType), lookup(setOf(user, role), Permission.READ))
+
+        index.clear()
+        Assert.assertEquals(setOf<AclKey>(), lookup(setOf(user, role), Permission.READ))
+    }
+
+    @Test
+    fun testRefresh() {
+        val aceKey = AceKey(entitySet, user)
+        index.rebuild()
+
+        store(aceKey, ace(SecurableObjectType.EntitySet, Permission.OWNER))
+        index.refresh(setOf(aceKey))
+        Assert.assertEquals(setOf(entitySet), lookup(setOf(user), Permission.OWNER))
+
+        stored.remove(aceKey)
+        index.refresh(setOf(aceKey))
+        Assert.assertEquals(setOf<AclKey>(), lookup(setOf(user), Permission.OWNER))
+    }
+
+    @Test
+    fun testChangesDuringRebuildAreKept() {
+        val deleted = AceKey(entitySet, user)
+        val deletedValue = ace(SecurableObjectType.EntitySet, Permission.READ)
+        val added = AceKey(entitySet, role)
+        store(deleted, deletedValue)
+        store(AceKey(propertyType, user), ace(SecurableObjectType.PropertyTypeInEntitySet, Permission.READ))
+
+        duringRead = {
+            stored.remove(deleted)
+            index.update(deleted, deletedValue, null)
+            index.remove(propertyType)
+            index.update(added, null, ace(SecurableObjectType.EntitySet, Permission.READ))
+        }
+        index.rebuild()
+
+        Assert.assertEquals(setOf<AclKey>(), lookup(setOf(user), Permission.READ))
+        Assert.assertEquals(setOf(entitySet), lookup(setOf(role), Permission.READ))
+    }
+
+    @Test
+    fun testLostEventsAreDetected() {
+        store(AceKey(entitySet, user), ace(SecurableObjectType.EntitySet, Permission.READ))
+        index.rebuild()
+        Assert.assertTrue(index.isInSync())
+
+        store(AceKey(entitySet, role), ace(SecurableObjectType.EntitySet, Permission.READ))
+        Assert.assertFalse(index.isInSync())
+    }
+
+    @Test
+    fun testBuiltOnFirstUse() {
+        store(AceKey(entitySet, user), ace(SecurableObjectType.EntitySet, Permission.READ))
+
+        Assert.assertNull(lookup(setOf(user), Permission.READ))
+
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10)
+        while (lookup(setOf(user), Permission.READ) == null && System.nanoTime() < deadline) {
+            Thread.sleep(10)
+        }
+        Assert.assertEquals(setOf(entitySet), lookup(setOf(user), Permission.READ))
+        Mockito.verify(aces).addEntryListener(
+                Matchers.any(PrincipalPermissionIndexListener::class.java),
+                Matchers.eq(true)
+        )
+    }
+
+    private fun store(aceKey: AceKey, aceValue: AceValue) {
+        stored[aceKey] = aceValue
+    }
+
+    private fun ace(objectType: SecurableObjectType, vararg permissions: Permission): AceValue {
+        return AceValue(EnumSet.copyOf(permissions.toList()), objectType)
+    }
+
+    private fun lookup(principals: Set<Principal>, permission: Permission): Set<AclKey>? {
+        return index.getAuthorizedObjects(
+                principals,
+                listOf(SecurableObjectType.EntitySet, SecurableObjectType.PropertyTypeInEntitySet),
+                EnumSet.of(permission)
+        )
+    }
+}
@@ -23,10 +23,19 @@ package com.openlattice.data
 
 import com.openlattice.data.storage.*
 import com.openlattice.data.storage.postgres.buildPreparableFiltersSql
+import com.openlattice.data.storage.postgres.UPSERT_STAGING_TABLE
+import com.openlattice.data.storage.postgres.mergeUpsertStagingTableSql
+import com.openlattice.data.storage.postgres.primaryKeyColumnNamesAsString
+import com.openlattice.postgres.PostgresColumn.LAST_WRITE
+import com.openlattice.postgres.PostgresColumn.ORIGIN_ID
+import com.openlattice.postgres.PostgresColumn.VERSION
+import com.openlattice.postgres.PostgresColumn.VERSIONS
 import com.openlattice.edm.type.PropertyType
 import com.openlattice.postgres.PostgresTable
+import com.openlattice.postgres.PostgresTable.DATA
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
 import org.apache.olingo.commons.api.edm.FullQualifiedName
+import org.junit.Assert
 import org.junit.Test
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -92,4 +101,43 @@ class PostgresEntityDataQueryServiceTest {
                 ).first
         )
     }
+
+    @Test
+    fun testMergeUpsertStagingTableQuery() {
+        val versioned = normalizeWhitespace(mergeUpsertStagingTableSql(PropertyUpdateType.Versioned))
+        val unversioned = normalizeWhitespace(mergeUpsertStagingTableSql(PropertyUpdateType.Unversioned))
+
+        listOf(versioned, unversioned).forEach { sql ->
+            Assert.assertTrue(sql, sql.startsWith("INSERT INTO ${DATA.name} "))
+            Assert.assertTrue(sql, sql.contains("FROM $UPSERT_STAGING_TABLE ORDER BY $primaryKeyColumnNamesAsString "))
+            Assert.assertTrue(sql, sql.contains("ON CONFLICT ($primaryKeyColumnNamesAsString) DO UPDATE SET "))
+            Assert.assertTrue(
+                    sql,
+                    sql.contains("${VERSIONS.name} = ${DATA.name}.${VERSIONS.name} || EXCLUDED.${VERSIONS.name},")
+            )
+            Assert.assertTrue(
+                    sql,
+                    sql.contains(
+                            "${LAST_WRITE.name} = GREATEST(${DATA.name}.${LAST_WRITE.name},EXCLUDED.${LAST_WRITE.name}),"
+                    )
+            )
+            Assert.assertTrue(sql, sql.contains("${ORIGIN_ID.name} = EXCLUDED.${ORIGIN_ID.name},"))
+            Assert.assertTrue(
+                    sql,
+                    sql.contains(
+                            "${VERSION.name} = CASE WHEN abs(${DATA.name}.${VERSION.name}) <= EXCLUDED.${VERSION.name} " +
+                                    "THEN EXCLUDED.${VERSION.name} ELSE ${DATA.name}.${VERSION.name} END"
+                    )
+            )
+            // only the version and versions are bound, every other value comes from the staging table
+            Assert.assertEquals(sql, 2, sql.count { it == '?' })
+        }
+
+        Assert.assertTrue(versioned, versioned.endsWith("END"))
+        Assert.assertTrue(unversioned, unversioned.endsWith("END WHERE ${DATA.name}.${VERSION.name} < 0"))
+    }
+
+    private fun normalizeWhitespace(sql: String): String {
+        return sql.trim().replace(Regex("\\s+"), " ")
+    }
 }
@@ -21,13 +21,23 @@
 
 package com.openlattice.data.ids
 
+import com.codahale.metrics.MetricRegistry
 import com.geekbeast.hazelcast.IHazelcastClientProvider
 import com.hazelcast.core.HazelcastInstance
+import com.openlattice.IdConstants
 import com.openlattice.TestServer
 import com.openlattice.data.EntityKey
 import com.openlattice.data.storage.postgres.upsertEntitiesSql
+import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.ids.HazelcastIdGenerationService
 import com.geekbeast.postgres.PostgresArrays
+import com.openlattice.postgres.PostgresColumn.ENTITY_SET_ID
+import com.openlattice.postgres.PostgresColumn.ID
+import com.openlattice.postgres.PostgresColumn.PROPERTY_TYPE_ID
+import com.openlattice.postgres.PostgresColumn.VERSION
+import com.openlattice.postgres.PostgresTable.DATA
+import com.openlattice.postgres.PostgresTable.IDS
+import com.openlattice.postgres.PostgresTable.SYNC_IDS
 import com.openlattice.postgres.lockIdsAndExecute
 import org.apache.commons.lang3.RandomStringUtils
 import org.junit.Assert
@@ -52,6 +62,7 @@ class PostgresEntityKeyIdServiceTest : TestServer() {
         private lateinit var idGenService: HazelcastIdGenerationService
         private val logger = LoggerFactory.getLogger(PostgresEntityKeyIdServiceTest::class.java)
         private val executor = Executors.newFixedThreadPool(NUM_THREADS)
+        private val metricRegistry = MetricRegistry()
 
         @BeforeClass
         @JvmStatic
@@ -67,7 +78,9 @@ class PostgresEntityKeyIdServiceTest : TestServer() {
             idGenService = HazelcastIdGenerationService(hzClientProvider, true)
             postgresEntityKeyIdService = PostgresEntityKeyIdService(
                     dsr,
-                    idGenService
+                    idGenService,
+                    hazelcastInstance,
+                    metricRegistry
             )
 
         }
@@ -254,4 +267,86 @@ class PostgresEntityKeyIdServiceTest : TestServer() {
         Assert.assertEquals("Number of keys do not match.", expectedCount, actualCount)
     }
 
-}
\ No newline at end of file
+    @Test
+    fun testCachedEntityKeyIds() {
+        val entitySetId = UUID.randomUUID()
+        val entityKeys = (0 until 16).map { EntityKey(entitySetId, RandomStringUtils.randomAlphanumeric(10)) }.toSet()
+        val hits = metricRegistry.meter(MetricRegistry.name(EntityKeyIdCache::class.java, "hits"))
+
+        val assigned = postgresEntityKeyIdService.getEntityKeyIds(entityKeys)
+        val hitsAfterMiss = hits.count
+
+        Assert.assertEquals(assigned, postgresEntityKeyIdService.getEntityKeyIds(entityKeys))
+        Assert.assertEquals(hitsAfterMiss + entityKeys.size, hits.count)
+
+        val entityKey = entityKeys.first()
+        Assert.assertEquals(assigned.getValue(entityKey), postgresEntityKeyIdService.getEntityKeyId(entityKey))
+        Assert.assertEquals(hitsAfterMiss + entityKeys.size + 1, hits.count)
+        Assert.assertEquals(assigned.values.toSet(), postgresEntityKeyIdService.reserveEntityKeyIds(entityKeys))
+    }
+
+    @Test
+    fun testRewriteAfterDataDeletion() {
+        val entitySetId = UUID.randomUUID()
+        val entityKey = EntityKey(entitySetId, RandomStringUtils.randomAlphanumeric(10))
+        val entityKeyId = postgresEntityKeyIdService.getEntityKeyIds(setOf(entityKey)).getValue(entityKey)
+
+        // hard delete by the data deletion job, which keeps ids and sync ids
+        dsr.resolve(entitySetId).connection.use { connection ->
+            connection.createStatement().use { stmt ->
+                stmt.executeUpdate("DELETE FROM ${DATA.name} WHERE ${ENTITY_SET_ID.name} = '$entitySetId'")
+                stmt.executeUpdate(
+                        "UPDATE ${IDS.name} SET ${VERSION.name} = 0 WHERE ${ENTITY_SET_ID.name} = '$entitySetId'"
+                )
+            }
+        }
+        EntityKeyIdCache.invalidate(HazelcastMap.ENTITY_KEY_ID_EPOCHS.getMap(hazelcastInstance), listOf(entitySetId))
+
+        val rewrittenEntityKeyIds = postgresEntityKeyIdService.getEntityKeyIds(setOf(entityKey))
+        Assert.assertEquals(entityKeyId, rewrittenEntityKeyIds.getValue(entityKey))
+        assertIdsWritten(entitySetId, entityKeyId)
+    }
+
+    @Test
+    fun testRewriteAfterIdsDeletion() {
+        val entitySetId = UUID.randomUUID()
+        val entityKey = EntityKey(entitySetId, RandomStringUtils.randomAlphanumeric(10))
+        val entityKeyId = postgresEntityKeyIdService.getEntityKeyIds(setOf(entityKey)).getValue(entityKey)
+        Assert.assertEquals(entityKeyId, postgresEntityKeyIdService.getEntityKeyId(entityKey))
+
+        // removal of indexed, hard deleted entities by the indexer
+        dsr.resolve(entitySetId).connection.use { connection ->
+            connection.createStatement().use { stmt ->
+                listOf(DATA, IDS, SYNC_IDS).forEach { table ->
+                    stmt.executeUpdate("DELETE FROM ${table.name} WHERE ${ENTITY_SET_ID.name} = '$entitySetId'")
+                }
+            }
+        }
+        EntityKeyIdCache.invalidate(HazelcastMap.ENTITY_KEY_ID_EPOCHS.getMap(hazelcastInstance), listOf(entitySetId))
+
+        val rewrittenEntityKeyId = postgresEntityKeyIdService.getEntityKeyIds(setOf(entityKey)).getValue(entityKey)
+        Assert.assertNotEquals(entityKeyId, rewrittenEntityKeyId)
+        Assert.assertEquals(rewrittenEntityKeyId, postgresEntityKeyIdService.getEntityKeyId(entityKey))
+        assertIdsWritten(entitySetId, rewrittenEntityKeyId)
+    }
+
+    private fun assertIdsWritten(entitySetId: UUID, entityKeyId: UUID) {
+        dsr.resolve(entitySetId).connection.use { connection ->
+            connection.createStatement().use { stmt ->
+                val ids = stmt.executeQuery(
+                        "SELECT count(*) FROM ${IDS.name} WHERE ${ID.name} = '$entityKeyId'"
+                )
+                ids.next()
+                Assert.assertEquals(1, ids.getInt(1))
+
+                val idData = stmt.executeQuery(
+                        "SELECT count(*) FROM ${DATA.name} " +
+                                "WHERE ${ID.name} = '$entityKeyId' " +
+                                "AND ${PROPERTY_TYPE_ID.name} = '${IdConstants.ID_ID.id}'"
+                )
+                idData.next()
+                Assert.assertEquals(1, idData.getInt(1))
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.openlattice.data.jobs
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+class DataDeletionJobTest {
+
+    @Test
+    fun testIdSlicesCoverAllIdsWithoutOverlap() {
+        val slices = (0 until 16).map { DataDeletionJob.idSliceBounds(it) }
+
+        Assert.assertEquals(UUID(0L, 0L), slices.first().first)
+        Assert.assertEquals(UUID(-1L, -1L), slices.last().second)
+
+        slices.zipWithNext().forEach { (current, next) ->
+            val upper = current.second
+            val lower = next.first
+            // the next slice starts right after the current one ends, comparing as unsigned bytes like postgres
+            Assert.assertEquals(-1L, upper.leastSignificantBits)
+            Assert.assertEquals(upper.mostSignificantBits + 1, lower.mostSignificantBits)
+            Assert.assertEquals(0L, lower.leastSignificantBits)
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.openlattice.data.storage
+
+import com.hazelcast.collection.IQueue
+import com.hazelcast.core.HazelcastInstance
+import com.openlattice.data.EntityDataKey
+import com.openlattice.hazelcast.HazelcastQueue
+import org.junit.Test
+import org.mockito.Matchers
+import org.mockito.Mockito
+import java.util.*
+
+/**
+ * Checks that [IndexingChangeFeed] publishes whole writes or leaves them to the background scan, and never fails the
+ * write that published them.
+ */
+class IndexingChangeFeedTest {
+    private val entitySetId = UUID.randomUUID()
+    private val entityKeyIds = (0 until 10).map { UUID.randomUUID() }.toSet()
+
+    @Suppress("UNCHECKED_CAST")
+    private val queue = Mockito.mock(IQueue::class.java) as IQueue<EntityDataKey>
+
+    private val changeFeed = IndexingChangeFeed(Mockito.mock(HazelcastInstance::class.java).also {
+        Mockito.`when`(it.getQueue<EntityDataKey>(HazelcastQueue.INDEXING_CHANGES.name)).thenReturn(queue)
+    })
+
+    @Test
+    fun testPublish() {
+        Mockito.`when`(queue.remainingCapacity()).thenReturn(entityKeyIds.size)
+
+        changeFeed.publish(entitySetId, entityKeyIds)
+
+        Mockito.verify(queue).addAll(entityKeyIds.map { EntityDataKey(entitySetId, it) })
+    }
+
+    @Test
+    fun testEmptyWritesAreNotPublished() {
+        changeFeed.publish(entitySetId, setOf())
+
+        Mockito.verifyZeroInteractions(queue)
+    }
+
+    @Test
+    fun testFullQueueIsLeftToScan() {
+        Mockito.`when`(queue.remainingCapacity()).thenReturn(entityKeyIds.size - 1)
+
+        changeFeed.publish(entitySetId, entityKeyIds)
+
+        Mockito.verify(queue, Mockito.never()).addAll(Matchers.anyCollection())
+    }
+
+    @Test
+    fun testQueueFilledConcurrentlyIsLeftToScan() {
+        Mockito.`when`(queue.remainingCapacity()).thenReturn(entityKeyIds.size)
+        Mockito.`when`(queue.addAll(Matchers.anyCollection())).thenThrow(IllegalStateException("Queue full"))
+
+        changeFeed.publish(entitySetId, entityKeyIds)
+    }
+}
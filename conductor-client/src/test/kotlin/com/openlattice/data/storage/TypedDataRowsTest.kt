@@ -0,0 +1,121 @@
+package com.openlattice.data.storage
+
+import com.google.common.base.Stopwatch
+import com.openlattice.IdConstants
+import com.openlattice.TestServer
+import com.openlattice.data.PropertyUpdateType
+import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.postgres.TypedDataRow
+import com.openlattice.postgres.groupTypedDataRows
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+import org.mockito.Mockito
+import org.slf4j.LoggerFactory
+import java.time.OffsetDateTime
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Checks how typed rows are grouped into entities, and benchmarks reading them against the json read mode.
+ */
+class TypedDataRowsTest {
+    companion object {
+        private val logger = LoggerFactory.getLogger(TypedDataRowsTest::class.java)
+
+        private const val BENCHMARK_ENTITIES = 100_000
+        private const val BENCHMARK_BATCH_SIZE = 10_000
+        private const val BENCHMARK_RUNS = 5
+    }
+
+    private val name = propertyType("test.name", EdmPrimitiveTypeKind.String)
+    private val count = propertyType("test.count", EdmPrimitiveTypeKind.Int64)
+
+    @Test
+    fun testGroupAdjacentRows() {
+        val entitySetId = UUID.randomUUID()
+        val a = UUID.randomUUID()
+        val b = UUID.randomUUID()
+        val earlier = OffsetDateTime.now().minusDays(1)
+        val later = OffsetDateTime.now()
+        val authorizedPropertyTypes = mapOf(entitySetId to mapOf(name.id to name, count.id to count))
+
+        val rows = sequenceOf(
+                TypedDataRow(entitySetId, a, name.id, "first", earlier),
+                TypedDataRow(entitySetId, a, name.id, "second", later),
+                TypedDataRow(entitySetId, a, count.id, 1L, earlier),
+                TypedDataRow(entitySetId, b, UUID.randomUUID(), null, later)
+        )
+
+        val entities = groupTypedDataRows(rows, authorizedPropertyTypes, Mockito.mock(ByteBlobDataManager::class.java))
+                .toList()
+
+        Assert.assertEquals(listOf(a, b), entities.map { it.first })
+        Assert.assertEquals(
+                mapOf(
+                        name.id to setOf("first", "second"),
+                        count.id to setOf(1L),
+                        IdConstants.LAST_WRITE_ID.id to setOf(later)
+                ),
+                entities[0].second.second
+        )
+        // unauthorized values are dropped, but the entity is still returned
+        Assert.assertEquals(mapOf(IdConstants.LAST_WRITE_ID.id to setOf(later)), entities[1].second.second)
+    }
+
+    @Test
+    @Ignore
+    fun benchmarkReadModes() {
+        val dataQueryService = PostgresEntityDataQueryService(
+                TestServer.dsr,
+                Mockito.mock(ByteBlobDataManager::class.java)
+        )
+        val entitySetId = UUID.randomUUID()
+        val propertyTypes = mapOf(name.id to name, count.id to count)
+        val authorizedPropertyTypes = mapOf(entitySetId to propertyTypes)
+
+        (0 until BENCHMARK_ENTITIES).chunked(BENCHMARK_BATCH_SIZE).forEach { batch ->
+            val entities = batch.associate { i ->
+                UUID.randomUUID() to mapOf<UUID, Set<Any>>(
+                        name.id to setOf("name $i", "alias $i"),
+                        count.id to setOf(i.toLong())
+                )
+            }
+            dataQueryService.upsertEntities(
+                    entitySetId,
+                    entities,
+                    propertyTypes,
+                    propertyUpdateType = PropertyUpdateType.Versioned
+            )
+        }
+
+        DataReadMode.values().forEach { readMode ->
+            repeat(BENCHMARK_RUNS) {
+                val sw = Stopwatch.createStarted()
+                val read = dataQueryService.getEntitiesWithPropertyTypeFqnsIterable(
+                        mapOf(entitySetId to Optional.empty()),
+                        authorizedPropertyTypes,
+                        readMode = readMode
+                ).count()
+                val millis = sw.elapsed(TimeUnit.MILLISECONDS)
+
+                Assert.assertEquals(BENCHMARK_ENTITIES, read)
+                logger.info("Read {} entities with {} in {} ms", read, readMode, millis)
+            }
+        }
+    }
+
+    private fun propertyType(fqn: String, datatype: EdmPrimitiveTypeKind): PropertyType {
+        return PropertyType(
+                UUID.randomUUID(),
+                FullQualifiedName(fqn),
+                fqn,
+                Optional.empty<String>(),
+                setOf(),
+                datatype
+        )
+    }
+}
@@ -0,0 +1,125 @@
+package com.openlattice.data.storage.postgres
+
+import com.fasterxml.jackson.dataformat.csv.CsvMapper
+import com.fasterxml.jackson.dataformat.csv.CsvParser
+import com.openlattice.data.PropertyUpdateType
+import org.junit.Assert
+import org.junit.Test
+import java.time.LocalDate
+import java.time.LocalTime
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import java.util.*
+
+/**
+ * Checks the csv rows streamed into the staging table by COPY based upserts and the ordering of the statements that
+ * merge them.
+ */
+class CopyUpsertRowTest {
+    companion object {
+        private val reader = CsvMapper()
+                .enable(CsvParser.Feature.WRAP_AS_ARRAY)
+                .readerFor(Array<String>::class.java)
+    }
+
+    private val entitySetId = UUID.randomUUID()
+    private val entityKeyId = UUID.randomUUID()
+    private val propertyTypeId = UUID.randomUUID()
+    private val hash = byteArrayOf(0, 1, 127, -1)
+
+    @Test
+    fun testSpecialCharacters() {
+        listOf(
+                "plain",
+                "with,comma",
+                "with \"quotes\"",
+                "\"",
+                "multi\nline\r\nvalue",
+                "\\.",
+                "{1,2,3}",
+                "tab\tand \\ backslash",
+                "ünïcødé ✓"
+        ).forEach { value ->
+            Assert.assertEquals(value, parse(row(value))[upsertStagingValueColumnsOffset])
+        }
+    }
+
+    @Test
+    fun testUnsetColumnsAreNull() {
+        val valueColumnIndex = upsertStagingValueColumnsOffset + 1
+        val line = row("", valueColumnIndex).removeSuffix("\n")
+        val fields = line.split(',')
+
+        Assert.assertEquals(upsertStagingColumns.size, fields.size)
+        fields.drop(upsertStagingValueColumnsOffset).forEachIndexed { i, field ->
+            if (i + upsertStagingValueColumnsOffset == valueColumnIndex) {
+                // quoted, so COPY reads an empty string rather than null
+                Assert.assertEquals("\"\"", field)
+            } else {
+                Assert.assertEquals("", field)
+            }
+        }
+    }
+
+    @Test
+    fun testKeyColumns() {
+        val fields = parse(row("value"))
+
+        Assert.assertEquals(entitySetId.toString(), fields[0])
+        Assert.assertEquals(entityKeyId.toString(), fields[1])
+        Assert.assertEquals(propertyTypeId.toString(), fields[2])
+        Assert.assertEquals("\\x00017fff", fields[3])
+    }
+
+    @Test
+    fun testTypedValues() {
+        val uuid = UUID.randomUUID()
+        Assert.assertEquals(uuid.toString(), copyValue(uuid))
+        Assert.assertEquals("true", copyValue(true))
+        Assert.assertEquals("-3", copyValue((-3).toByte()))
+        Assert.assertEquals("12", copyValue(12.toShort()))
+        Assert.assertEquals("42", copyValue(42))
+        Assert.assertEquals("1234567890123", copyValue(1234567890123L))
+        Assert.assertEquals("1.0E-10", copyValue(1.0E-10))
+        Assert.assertEquals("NaN", copyValue(Double.NaN))
+        Assert.assertEquals("2020-02-29", copyValue(LocalDate.of(2020, 2, 29)))
+        Assert.assertEquals("23:59:58.123", copyValue(LocalTime.of(23, 59, 58, 123_000_000)))
+        Assert.assertEquals(
+                "2020-02-29T10:15:30.000001-07:00",
+                copyValue(OffsetDateTime.of(2020, 2, 29, 10, 15, 30, 1_000, ZoneOffset.ofHours(-7)))
+        )
+        // binary values are written by their s3 key
+        Assert.assertEquals("a/b/c/0f", parse(row("a/b/c/0f"))[upsertStagingValueColumnsOffset])
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testArraysAreRejected() {
+        copyValue(byteArrayOf(1, 2))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testCollectionsAreRejected() {
+        copyValue(listOf("a", "b"))
+    }
+
+    @Test
+    fun testMergeLocksInKeyOrder() {
+        PropertyUpdateType.values().forEach { updateType ->
+            val sql = mergeUpsertStagingTableSql(updateType)
+            val orderBy = sql.indexOf("ORDER BY $primaryKeyColumnNamesAsString")
+            Assert.assertTrue(orderBy > sql.indexOf("FROM $UPSERT_STAGING_TABLE"))
+            Assert.assertTrue(orderBy < sql.indexOf("ON CONFLICT"))
+        }
+        Assert.assertTrue(lockEntitiesInIdsTableInOrder.endsWith("ORDER BY id FOR UPDATE"))
+    }
+
+    private fun row(value: Any, valueColumnIndex: Int = upsertStagingValueColumnsOffset): String {
+        val buffer = StringBuilder()
+        appendCopyRow(buffer, entitySetId, entityKeyId, propertyTypeId, hash, valueColumnIndex, value)
+        return buffer.toString()
+    }
+
+    private fun parse(row: String): Array<String> {
+        return reader.readValue(row)
+    }
+}
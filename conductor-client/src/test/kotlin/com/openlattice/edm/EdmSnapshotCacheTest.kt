@@ -0,0 +1,192 @@
+package com.openlattice.edm
+
+import com.hazelcast.core.EntryEvent
+import com.hazelcast.core.EntryEventType
+import com.hazelcast.map.IMap
+import com.hazelcast.map.listener.MapListener
+import com.openlattice.edm.listeners.EdmSnapshotListener
+import com.openlattice.edm.type.EntityType
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.mapstores.TestDataFactory
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.AdditionalAnswers
+import org.mockito.Matchers
+import org.mockito.Mockito
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Checks that [EdmSnapshotCache] follows the changes of its backing maps, including the ones made while it reloads,
+ * and falls back to the maps for changes it has not seen.
+ */
+class EdmSnapshotCacheTest {
+    private val key = TestDataFactory.propertyType()
+    private val other = TestDataFactory.propertyType()
+    private val entityType = TestDataFactory.entityTypesFromKeyAndTypes(key, other)
+    private val entitySet = TestDataFactory.entitySetWithType(entityType.id)
+
+    private val propertyTypes = BackingMap<PropertyType>().apply {
+        put(key.id, key)
+        put(other.id, other)
+    }
+    private val entityTypes = BackingMap<EntityType>().apply { put(entityType.id, entityType) }
+    private val entitySets = BackingMap<EntitySet>().apply { put(entitySet.id, entitySet) }
+
+    @Test
+    fun testLoadsMaps() {
+        val cache = newCache()
+
+        Assert.assertEquals(key, cache.getPropertyType(key.id))
+        Assert.assertEquals(other.id, cache.getPropertyTypeId(other.type))
+        Assert.assertEquals(listOf(key.id, other.id), cache.getPropertyTypesOfEntityType(entityType.id)!!.keys.toList())
+        Assert.assertEquals(entitySet.id, cache.getEntitySetId(entitySet.name))
+    }
+
+    @Test
+    fun testListenerUpdates() {
+        val cache = newCache()
+        val added = TestDataFactory.entitySetWithType(entityType.id)
+        val updated = TestDataFactory.entitySetWithType(entityType.id)
+
+        entitySets.fire(EntryEventType.ADDED, added.id, added)
+        Assert.assertEquals(added.id, cache.getEntitySetId(added.name))
+
+        entitySets.fire(EntryEventType.UPDATED, added.id, updated)
+        Assert.assertEquals(added.id, cache.getEntitySetId(updated.name))
+        Assert.assertNull(cache.getEntitySetId(added.name))
+
+        entitySets.fire(EntryEventType.REMOVED, added.id, null)
+        Assert.assertNull(cache.getSnapshot().entitySets[added.id])
+        Assert.assertNull(cache.getEntitySetId(updated.name))
+
+        propertyTypes.fire(EntryEventType.REMOVED, other.id, null)
+        Assert.assertNull(cache.getPropertyTypeId(other.type))
+    }
+
+    @Test
+    fun testChangesDuringReloadAreReplayed() {
+        val added = TestDataFactory.propertyType()
+
+        // the property types are read before the entity sets, so these changes are missed by the reload itself
+        entitySets.onRead = {
+            propertyTypes.remove(other.id)
+            propertyTypes.fire(EntryEventType.REMOVED, other.id, null)
+            propertyTypes[added.id] = added
+            propertyTypes.fire(EntryEventType.ADDED, added.id, added)
+        }
+        val cache = newCache()
+
+        val snapshot = cache.getSnapshot()
+        Assert.assertEquals(added, snapshot.propertyTypes[added.id])
+        Assert.assertFalse(snapshot.propertyTypes.containsKey(other.id))
+        Assert.assertEquals(added.id, snapshot.propertyTypeIdsByFqn[added.type])
+    }
+
+    @Test
+    fun testMissedChangesFallBackToMaps() {
+        val cache = newCache()
+        val missedPropertyType = TestDataFactory.propertyType()
+        val missedEntitySet = TestDataFactory.entitySetWithType(entityType.id)
+        propertyTypes[missedPropertyType.id] = missedPropertyType
+        entitySets[missedEntitySet.id] = missedEntitySet
+
+        Assert.assertNull(cache.getSnapshot().propertyTypes[missedPropertyType.id])
+        Assert.assertEquals(missedPropertyType, cache.getPropertyType(missedPropertyType.id))
+        Assert.assertEquals(
+                listOf(missedPropertyType.id, key.id),
+                cache.getPropertyTypes(listOf(missedPropertyType.id, UUID.randomUUID(), key.id)).keys.toList()
+        )
+        Assert.assertEquals(missedEntitySet, cache.getEntitySet(missedEntitySet.id))
+        Assert.assertEquals(
+                setOf(entitySet.id, missedEntitySet.id),
+                cache.getEntitySets(setOf(entitySet.id, missedEntitySet.id)).keys
+        )
+        Assert.assertNull(cache.getEntityType(UUID.randomUUID()))
+
+        // local writes refresh the snapshot right away
+        cache.refreshPropertyType(missedPropertyType.id)
+        Assert.assertEquals(missedPropertyType.id, cache.getPropertyTypeId(missedPropertyType.type))
+    }
+
+    @Test
+    fun testRefreshDoesNotOverwriteNewerChange() {
+        val cache = newCache()
+        val updated = TestDataFactory.propertyType()
+        lateinit var writer: Thread
+
+        // another node updates the property type while the refresh is reading it
+        propertyTypes.onGet = {
+            writer = Thread {
+                propertyTypes[key.id] = updated
+                propertyTypes.fire(EntryEventType.UPDATED, key.id, updated)
+            }
+            writer.start()
+            writer.join(100)
+        }
+        cache.refreshPropertyType(key.id)
+        writer.join()
+
+        Assert.assertEquals(updated, cache.getSnapshot().propertyTypes[key.id])
+    }
+
+    private fun newCache(): EdmSnapshotCache {
+        return EdmSnapshotCache(propertyTypes.map, entityTypes.map, entitySets.map)
+    }
+
+    /**
+     * Stands in for a hazelcast map, capturing the listener registered on it.
+     */
+    @Suppress("UNCHECKED_CAST")
+    private class BackingMap<V> : ConcurrentHashMap<UUID, V>() {
+        /**
+         * Runs once, the next time the map is read in full.
+         */
+        var onRead: () -> Unit = {}
+
+        /**
+         * Runs once, the next time a single value is read, after the value is read but before it is returned.
+         */
+        var onGet: () -> Unit = {}
+        private var listener: EdmSnapshotListener<V>? = null
+
+        val map = Mockito.mock(IMap::class.java, AdditionalAnswers.delegatesTo<Any>(this)) as IMap<UUID, V>
+
+        init {
+            Mockito.doAnswer { invocation ->
+                listener = invocation.arguments[0] as EdmSnapshotListener<V>
+                UUID.randomUUID()
+            }.`when`(map).addEntryListener(Matchers.any(MapListener::class.java), Matchers.anyBoolean())
+            Mockito.doAnswer { invocation ->
+                (invocation.arguments[0] as Set<*>).map { it as UUID }.mapNotNull { id -> get(id)?.let { id to it } }
+                        .toMap()
+            }.`when`(map).getAll(Matchers.anySetOf(UUID::class.java))
+        }
+
+        override val size: Int
+            get() {
+                val read = onRead
+                onRead = {}
+                read()
+                return super.size
+            }
+
+        override fun get(key: UUID): V? {
+            val value = super.get(key)
+            val read = onGet
+            onGet = {}
+            read()
+            return value
+        }
+
+        fun fire(type: EntryEventType, id: UUID, value: V?) {
+            val event = EntryEvent<UUID, V>("map", null, type.type, id, value)
+            when (type) {
+                EntryEventType.ADDED -> listener!!.entryAdded(event)
+                EntryEventType.UPDATED -> listener!!.entryUpdated(event)
+                EntryEventType.REMOVED -> listener!!.entryRemoved(event)
+                else -> throw IllegalArgumentException("Unsupported event type $type")
+            }
+        }
+    }
+}
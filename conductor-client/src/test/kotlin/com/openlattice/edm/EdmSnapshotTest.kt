@@ -0,0 +1,56 @@
+package com.openlattice.edm
+
+import com.openlattice.mapstores.TestDataFactory
+import org.junit.Assert
+import org.junit.Test
+
+/**
+ * Checks that the lookups derived by [EdmSnapshot] stay consistent with its base maps through incremental updates.
+ */
+class EdmSnapshotTest {
+
+    @Test
+    fun testIncrementalUpdates() {
+        val key = TestDataFactory.propertyType()
+        val other = TestDataFactory.propertyType()
+        val entityType = TestDataFactory.entityTypesFromKeyAndTypes(key, other)
+        val entitySet = TestDataFactory.entitySetWithType(entityType.id)
+        val linkingEntitySet = TestDataFactory.entitySetWithType(entityType.id)
+        linkingEntitySet.linkedEntitySets.add(entitySet.id)
+
+        val initial = EdmSnapshot.of(
+                0,
+                mapOf(key.id to key),
+                mapOf(entityType.id to entityType),
+                mapOf(entitySet.id to entitySet)
+        )
+        // the entity type is missing a property type, so its view is not usable yet
+        Assert.assertNull(initial.getPropertyTypesOfEntityType(entityType.id))
+
+        val snapshot = initial
+                .withPropertyType(other.id, other)
+                .withEntitySet(linkingEntitySet.id, linkingEntitySet)
+
+        Assert.assertEquals(2, snapshot.version)
+        Assert.assertEquals(
+                listOf(key.id, other.id),
+                snapshot.getPropertyTypesOfEntityType(entityType.id)!!.keys.toList()
+        )
+        Assert.assertEquals(other.id, snapshot.propertyTypeIdsByFqn[other.type])
+        Assert.assertEquals(entityType.id, snapshot.entityTypeIdsByFqn[entityType.type])
+        Assert.assertEquals(linkingEntitySet.id, snapshot.entitySetIdsByName[linkingEntitySet.name])
+        Assert.assertEquals(setOf(linkingEntitySet.id), snapshot.getLinkingEntitySetIds(entitySet.id))
+
+        val removed = snapshot
+                .withEntitySet(linkingEntitySet.id, null)
+                .withPropertyType(other.id, null)
+
+        Assert.assertTrue(removed.getLinkingEntitySetIds(entitySet.id).isEmpty())
+        Assert.assertNull(removed.propertyTypeIdsByFqn[other.type])
+        Assert.assertNull(removed.getPropertyTypesOfEntityType(entityType.id))
+
+        // earlier snapshots are unaffected by later changes
+        Assert.assertEquals(setOf(linkingEntitySet.id), snapshot.getLinkingEntitySetIds(entitySet.id))
+        Assert.assertEquals(other, snapshot.propertyTypes[other.id])
+    }
+}
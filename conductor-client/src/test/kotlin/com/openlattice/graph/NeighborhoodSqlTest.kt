@@ -0,0 +1,137 @@
+package com.openlattice.graph
+
+import com.openlattice.postgres.PostgresColumn.DST_ENTITY_SET_ID
+import com.openlattice.postgres.PostgresColumn.EDGE_COMP_1
+import com.openlattice.postgres.PostgresColumn.EDGE_COMP_2
+import com.openlattice.postgres.PostgresColumn.EDGE_ENTITY_SET_ID
+import com.openlattice.postgres.PostgresColumn.ID_VALUE
+import com.openlattice.postgres.PostgresColumn.SRC_ENTITY_SET_ID
+import com.openlattice.postgres.PostgresTable.E
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.ArgumentCaptor
+import org.mockito.Matchers
+import org.mockito.Mockito
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.util.*
+
+/**
+ * Checks the statements and bindings used to select the edges of a neighborhood.
+ */
+class NeighborhoodSqlTest {
+
+    @Test
+    fun testSrcJoinSql() {
+        Assert.assertEquals(
+                "SELECT * FROM ${E.name} WHERE (${DST_ENTITY_SET_ID.name} = ANY(?) OR " +
+                        "(${DST_ENTITY_SET_ID.name} = ANY(?) AND ${EDGE_COMP_1.name} = ANY(?))) " +
+                        "AND ${SRC_ENTITY_SET_ID.name} = ANY(?) AND ${EDGE_ENTITY_SET_ID.name} = ANY(?)",
+                buildSrcJoinSql()
+        )
+    }
+
+    @Test
+    fun testDstJoinSql() {
+        Assert.assertEquals(
+                "SELECT * FROM ${E.name} WHERE (${SRC_ENTITY_SET_ID.name} = ANY(?) OR " +
+                        "(${SRC_ENTITY_SET_ID.name} = ANY(?) AND ${EDGE_COMP_2.name} = ANY(?))) " +
+                        "AND ${DST_ENTITY_SET_ID.name} = ANY(?) AND ${EDGE_ENTITY_SET_ID.name} = ANY(?)",
+                buildDstJoinSql()
+        )
+    }
+
+    @Test
+    fun testNeighborhoodSqlWithoutFilters() {
+        Assert.assertEquals(
+                "WITH neighborhood_edges AS (edges) SELECT neighborhood_edges.* FROM neighborhood_edges  ",
+                buildNeighborhoodSql("edges", listOf(), listOf(), EDGE_COMP_1.name)
+        )
+    }
+
+    @Test
+    fun testNeighborhoodSqlJoinsEveryFilter() {
+        val sql = buildNeighborhoodSql(
+                "edges",
+                listOf("entities 0", "entities 1"),
+                listOf("associations 0"),
+                EDGE_COMP_1.name
+        )
+
+        Assert.assertEquals(
+                "WITH neighborhood_edges AS (edges), " +
+                        "neighborhood_entities_0 AS (entities 0), " +
+                        "neighborhood_entities_1 AS (entities 1), " +
+                        "neighborhood_associations_0 AS (associations 0) " +
+                        "SELECT neighborhood_edges.* FROM neighborhood_edges " +
+                        "INNER JOIN neighborhood_entities_0 USING (${ID_VALUE.name}) " +
+                        "INNER JOIN neighborhood_entities_1 USING (${ID_VALUE.name}) " +
+                        "INNER JOIN (SELECT ${ID_VALUE.name} AS ${EDGE_COMP_1.name} FROM neighborhood_associations_0) " +
+                        "AS neighborhood_associations_ids_0 USING (${EDGE_COMP_1.name})",
+                sql
+        )
+    }
+
+    @Test
+    fun testBindEdgesSql() {
+        val wholeEntitySetId = UUID.randomUUID()
+        val entitySetId = UUID.randomUUID()
+        val otherEntitySetId = UUID.randomUUID()
+        val entityKeyIds = setOf(UUID.randomUUID(), UUID.randomUUID())
+        val otherEntityKeyIds = setOf(UUID.randomUUID())
+        val entitySetIds = setOf(UUID.randomUUID())
+        val associationEntitySetIds = setOf(UUID.randomUUID(), UUID.randomUUID())
+        val ps = preparedStatement()
+
+        bindEdgesSql(
+                ps,
+                mapOf(
+                        wholeEntitySetId to Optional.empty(),
+                        entitySetId to Optional.of(entityKeyIds),
+                        otherEntitySetId to Optional.of(otherEntityKeyIds)
+                ),
+                entitySetIds,
+                associationEntitySetIds
+        )
+
+        val bound = bound(ps)
+        Assert.assertEquals(5, bound.size)
+        Assert.assertEquals(setOf(wholeEntitySetId), bound[0])
+        Assert.assertEquals(setOf(entitySetId, otherEntitySetId), bound[1])
+        Assert.assertEquals(entityKeyIds + otherEntityKeyIds, bound[2])
+        Assert.assertEquals(entitySetIds, bound[3])
+        Assert.assertEquals(associationEntitySetIds, bound[4])
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun testBindEdgesSqlRequiresIds() {
+        bindEdgesSql(preparedStatement(), mapOf(), setOf(UUID.randomUUID()), setOf(UUID.randomUUID()))
+    }
+
+    private fun preparedStatement(): PreparedStatement {
+        val connection = Mockito.mock(Connection::class.java)
+        Mockito.`when`(connection.createArrayOf(Matchers.anyString(), Matchers.any<Array<Any>>())).thenAnswer {
+            val elements = it.arguments[1] as Array<*>
+            Mockito.mock(java.sql.Array::class.java).also { array ->
+                Mockito.`when`(array.array).thenReturn(elements)
+            }
+        }
+
+        val ps = Mockito.mock(PreparedStatement::class.java)
+        Mockito.`when`(ps.connection).thenReturn(connection)
+        return ps
+    }
+
+    /**
+     * Returns the elements bound to each parameter, in parameter order.
+     */
+    private fun bound(ps: PreparedStatement): List<Set<Any?>> {
+        val indices = ArgumentCaptor.forClass(Int::class.java)
+        val arrays = ArgumentCaptor.forClass(java.sql.Array::class.java)
+        Mockito.verify(ps, Mockito.atLeastOnce()).setArray(indices.capture(), arrays.capture())
+
+        return indices.allValues.zip(arrays.allValues)
+                .sortedBy { it.first }
+                .map { (_, array) -> (array.array as Array<*>).toSet() }
+    }
+}
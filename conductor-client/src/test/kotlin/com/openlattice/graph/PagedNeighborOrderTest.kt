@@ -0,0 +1,150 @@
+package com.openlattice.graph
+
+import com.openlattice.data.DataEdgeKey
+import com.openlattice.data.EntityDataKey
+import com.openlattice.graph.edge.Edge
+import org.junit.Assert
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.*
+
+/**
+ * Checks that pages of neighbor edges are ordered and merged across data sources like postgres orders them, so that
+ * the last edge of a page is a valid bookmark for the next one.
+ */
+class PagedNeighborOrderTest {
+    private val random = Random(42)
+
+    /**
+     * Postgres compares uuids with memcmp, and rows column by column, so the row order of an edge is the unsigned
+     * byte order of its uuids laid end to end.
+     */
+    private val postgresOrder = Comparator<Edge> { a, b -> compareUnsigned(bytes(a), bytes(b)) }
+
+    @Test
+    fun testUnsignedUuidOrder() {
+        val low = UUID.fromString("00000000-0000-0000-0000-000000000000")
+        val high = UUID.fromString("ffffffff-ffff-ffff-ffff-ffffffffffff")
+        val midLow = UUID.fromString("7fffffff-ffff-ffff-ffff-ffffffffffff")
+        val midHigh = UUID.fromString("80000000-0000-0000-0000-000000000000")
+
+        // UUID.compareTo compares signed longs, which disagrees with postgres once the high bit is set
+        Assert.assertTrue(high < low)
+        Assert.assertTrue(UNSIGNED_UUID_ORDER.compare(low, high) < 0)
+        Assert.assertTrue(UNSIGNED_UUID_ORDER.compare(midLow, midHigh) < 0)
+        Assert.assertTrue(
+                UNSIGNED_UUID_ORDER.compare(
+                        UUID.fromString("00000000-0000-0000-0000-000000000000"),
+                        UUID.fromString("00000000-0000-0000-8000-000000000000")
+                ) < 0
+        )
+        Assert.assertEquals(0, UNSIGNED_UUID_ORDER.compare(midHigh, UUID.fromString(midHigh.toString())))
+
+        repeat(1_000) {
+            val a = UUID(random.nextLong(), random.nextLong())
+            val b = UUID(random.nextLong(), random.nextLong())
+            Assert.assertEquals(
+                    Integer.signum(compareUnsigned(bytes(a), bytes(b))),
+                    Integer.signum(UNSIGNED_UUID_ORDER.compare(a, b))
+            )
+        }
+    }
+
+    @Test
+    fun testPagedNeighborSearchOrder() {
+        val entitySetIds = (0 until 3).map { randomUuid() }
+        val edges = (0 until 500).map {
+            // shared entity set ids make sure later columns break ties
+            edge(entitySetIds[random.nextInt(3)], entitySetIds[random.nextInt(3)], entitySetIds[random.nextInt(3)])
+        }
+
+        Assert.assertEquals(edges.sortedWith(postgresOrder), edges.sortedWith(PAGED_NEIGHBOR_SEARCH_ORDER))
+    }
+
+    @Test
+    fun testMergedPageIsFirstPageOfAllDataSources() {
+        val dataSources = (0 until 3).map { (0 until 20).map { edge() } }
+        val pages = dataSources.map { edges -> edges.sortedWith(postgresOrder).take(10) }
+
+        Assert.assertEquals(
+                dataSources.flatten().sortedWith(postgresOrder).take(10),
+                mergePagesOfEdges(pages, 10)
+        )
+    }
+
+    @Test
+    fun testPagingAcrossDataSourcesReturnsEveryEdgeOnce() {
+        val pageSize = 7
+        val dataSources = listOf(
+                (0 until 40).map { edge() },
+                (0 until 3).map { edge() },
+                listOf(),
+                (0 until 25).map { edge() }
+        )
+
+        val paged = mutableListOf<Edge>()
+        var bookmark: Edge? = null
+        do {
+            // each data source applies the bookmark and limit on its own, like the filtered neighborhood sql
+            val after = bookmark
+            val pages = dataSources.map { edges ->
+                edges.filter { after == null || postgresOrder.compare(it, after) > 0 }
+                        .sortedWith(postgresOrder)
+                        .take(pageSize)
+            }
+            val page = mergePagesOfEdges(pages, pageSize)
+            Assert.assertTrue(page.size <= pageSize)
+            paged.addAll(page)
+            bookmark = page.lastOrNull()
+        } while (page.size == pageSize)
+
+        Assert.assertEquals(dataSources.flatten().sortedWith(postgresOrder), paged)
+    }
+
+    private fun edge(
+            srcEntitySetId: UUID = randomUuid(),
+            edgeEntitySetId: UUID = randomUuid(),
+            dstEntitySetId: UUID = randomUuid()
+    ): Edge {
+        return Edge(
+                DataEdgeKey(
+                        EntityDataKey(srcEntitySetId, randomUuid()),
+                        EntityDataKey(dstEntitySetId, randomUuid()),
+                        EntityDataKey(edgeEntitySetId, randomUuid())
+                ),
+                0L,
+                listOf()
+        )
+    }
+
+    private fun randomUuid(): UUID {
+        return UUID(random.nextLong(), random.nextLong())
+    }
+
+    private fun bytes(vararg uuids: UUID): ByteArray {
+        val buffer = ByteBuffer.allocate(16 * uuids.size)
+        uuids.forEach { buffer.putLong(it.mostSignificantBits).putLong(it.leastSignificantBits) }
+        return buffer.array()
+    }
+
+    private fun bytes(edge: Edge): ByteArray {
+        return bytes(
+                edge.src.entitySetId,
+                edge.src.entityKeyId,
+                edge.edge.entitySetId,
+                edge.edge.entityKeyId,
+                edge.dst.entitySetId,
+                edge.dst.entityKeyId
+        )
+    }
+
+    private fun compareUnsigned(a: ByteArray, b: ByteArray): Int {
+        a.indices.forEach { i ->
+            val compared = java.lang.Byte.toUnsignedInt(a[i]).compareTo(java.lang.Byte.toUnsignedInt(b[i]))
+            if (compared != 0) {
+                return compared
+            }
+        }
+        return a.size.compareTo(b.size)
+    }
+}
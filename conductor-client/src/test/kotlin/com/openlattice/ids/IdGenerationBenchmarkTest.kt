@@ -0,0 +1,105 @@
+package com.openlattice.ids
+
+import com.google.common.base.Stopwatch
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+private const val NUM_RANGES = 1_024
+private const val REQUEST_SIZE = 10_000
+private const val NUM_REQUESTS = 200
+
+/**
+ * Compares id assignment through the old single producer queue against the block leasing [LeasedIdPool]. Both use
+ * local [Range]s so that only the allocation path itself is measured.
+ */
+class IdGenerationBenchmarkTest {
+    private val logger: Logger = LoggerFactory.getLogger(IdGenerationBenchmarkTest::class.java)
+
+    @Test
+    fun testLeasedIdPoolReturnsUniqueIds() {
+        val pool = LeasedIdPool(128, 128, 512, Executors.newSingleThreadExecutor(), rangeLease())
+        val ids = (0 until 100).flatMap { pool.take(37) }
+
+        Assert.assertEquals(3_700, ids.size)
+        Assert.assertEquals(ids.size, ids.toSet().size)
+    }
+
+    @Test
+    @Ignore
+    fun benchmarkQueueVsLeasedIdPool() {
+        val queueMillis = benchmarkQueue()
+        val poolMillis = benchmarkPool()
+
+        logger.info(
+                "Assigned {} ids in {} ms using the queue and {} ms using leased blocks.",
+                REQUEST_SIZE * NUM_REQUESTS,
+                queueMillis,
+                poolMillis
+        )
+    }
+
+    private fun benchmarkQueue(): Long {
+        val ranges = (0L until NUM_RANGES).map { Range(it shl 48) }
+        val queue = LinkedBlockingQueue<UUID>(HazelcastIdGenerationService.NUM_PARTITIONS)
+        val ep = IdsGeneratingEntryProcessor(5)
+        val producer = Executors.newSingleThreadExecutor()
+
+        producer.execute {
+            try {
+                while (!Thread.currentThread().isInterrupted) {
+                    ranges.forEach { range -> ep.getIds(range).forEach { queue.put(it) } }
+                }
+            } catch (ex: InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+        }
+
+        val sw = Stopwatch.createStarted()
+        repeat(NUM_REQUESTS) {
+            val ids = generateSequence { queue.take() }.take(REQUEST_SIZE).toSet()
+            Assert.assertEquals(REQUEST_SIZE, ids.size)
+        }
+        val elapsed = sw.elapsed(TimeUnit.MILLISECONDS)
+
+        producer.shutdownNow()
+        return elapsed
+    }
+
+    private fun benchmarkPool(): Long {
+        val executor = Executors.newSingleThreadExecutor()
+        val pool = LeasedIdPool(
+                HazelcastIdGenerationService.BLOCK_SIZE,
+                HazelcastIdGenerationService.LOW_WATERMARK,
+                HazelcastIdGenerationService.HIGH_WATERMARK,
+                executor,
+                rangeLease()
+        )
+
+        val sw = Stopwatch.createStarted()
+        repeat(NUM_REQUESTS) {
+            val ids = pool.take(REQUEST_SIZE).toSet()
+            Assert.assertEquals(REQUEST_SIZE, ids.size)
+        }
+        val elapsed = sw.elapsed(TimeUnit.MILLISECONDS)
+
+        executor.shutdownNow()
+        return elapsed
+    }
+
+    private fun rangeLease(): (Int) -> List<UUID> {
+        val ranges = (0L until NUM_RANGES).map { Range(it shl 48) }
+        val random = Random()
+
+        return { count ->
+            val range = ranges[random.nextInt(ranges.size)]
+            synchronized(range) { IdsGeneratingEntryProcessor(count).getIds(range).toList() }
+        }
+    }
+}
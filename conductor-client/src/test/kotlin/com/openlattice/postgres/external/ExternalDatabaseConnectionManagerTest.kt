@@ -0,0 +1,86 @@
+package com.openlattice.postgres.external
+
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+import kotlin.math.max
+
+/**
+ * Checks how [ExternalDatabaseConnectionManager.allocateConnections] splits the connection budget between pools.
+ */
+class ExternalDatabaseConnectionManagerTest {
+
+    @Test
+    fun testIdleBudgetIsShared() {
+        val allocations = ExternalDatabaseConnectionManager.allocateConnections(
+                mapOf("idle" to 0.0, "light" to 3.0, "busy" to 50.0),
+                20,
+                2,
+                10
+        )
+
+        Assert.assertEquals(mapOf("idle" to 1, "light" to 4, "busy" to 10), allocations)
+    }
+
+    @Test
+    fun testContendedBudgetIsSplitFairly() {
+        val allocations = ExternalDatabaseConnectionManager.allocateConnections(
+                mapOf("a" to 10.0, "b" to 10.0, "c" to 1.0),
+                10,
+                2,
+                10
+        )
+
+        Assert.assertEquals(mapOf("a" to 4, "b" to 4, "c" to 2), allocations)
+        Assert.assertEquals(10, allocations.values.sum())
+    }
+
+    @Test
+    fun testIdlePoolsKeepOneConnectionOfAContendedBudget() {
+        val allocations = ExternalDatabaseConnectionManager.allocateConnections(
+                mapOf("idle" to 0.0, "busy" to 50.0),
+                10,
+                2,
+                10
+        )
+
+        Assert.assertEquals(mapOf("idle" to 1, "busy" to 9), allocations)
+    }
+
+    @Test
+    fun testBudgetSmallerThanPoolsGivesEachPoolOneConnection() {
+        val allocations = ExternalDatabaseConnectionManager.allocateConnections(
+                mapOf("a" to 5.0, "b" to 5.0, "c" to 5.0, "idle" to 0.0),
+                2,
+                2,
+                10
+        )
+
+        Assert.assertEquals(mapOf("a" to 1, "b" to 1, "c" to 1, "idle" to 1), allocations)
+    }
+
+    @Test
+    fun testBudgetIsNeverExceeded() {
+        val random = Random(42)
+        repeat(10_000) {
+            val demands = (0 until random.nextInt(20)).associate { i ->
+                "db$i" to if (random.nextInt(4) == 0) 0.0 else random.nextDouble() * 20
+            }
+            val budget = random.nextInt(50)
+            val minimumPoolSize = random.nextInt(4)
+            val maximumPoolSize = 1 + random.nextInt(12)
+
+            val allocations = ExternalDatabaseConnectionManager.allocateConnections(
+                    demands,
+                    budget,
+                    minimumPoolSize,
+                    maximumPoolSize
+            )
+
+            val case = "demands $demands, budget $budget, pool sizes $minimumPoolSize to $maximumPoolSize"
+            Assert.assertEquals(case, demands.keys, allocations.keys)
+            Assert.assertTrue(case, allocations.values.sum() <= max(budget, demands.size))
+            Assert.assertTrue(case, allocations.values.all { it in 1..maximumPoolSize })
+        }
+    }
+}
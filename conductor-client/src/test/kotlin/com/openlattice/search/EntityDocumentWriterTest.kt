@@ -0,0 +1,204 @@
+package com.openlattice.search
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.SerializationFeature
+import com.geekbeast.mappers.mappers.ObjectMappers
+import com.google.common.collect.ImmutableMap
+import com.openlattice.IdConstants
+import com.openlattice.conductor.rpc.ConductorElasticsearchApi
+import org.apache.commons.lang3.RandomStringUtils
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+import org.slf4j.LoggerFactory
+import java.lang.management.ManagementFactory
+import java.time.OffsetDateTime
+import java.util.*
+
+private const val NUM_ENTITIES = 1_000
+private const val NUM_ITERATIONS = 1_000
+
+/**
+ * Checks that bulk bodies written by [EntityDocumentWriter] contain the same documents as the map based formatting
+ * and compares the allocation rate of both approaches.
+ */
+class EntityDocumentWriterTest {
+    companion object {
+        private val logger = LoggerFactory.getLogger(EntityDocumentWriterTest::class.java)
+        private val mapper: ObjectMapper = ObjectMappers.newJsonMapper()
+                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+    }
+
+    private val entitySetId = UUID.randomUUID()
+    private val propertyTypeIds = (0 until 10).map { UUID.randomUUID() }
+
+    @Test
+    fun testEntityDocuments() {
+        val entities = entities()
+        val writer = EntityDocumentWriter(mapper)
+        entities.forEach { (id, entity) -> writer.writeEntity("index", "type", id, entitySetId, entity) }
+
+        val lines = writer.bytes().utf8ToString().lines().filter { it.isNotEmpty() }
+        Assert.assertEquals(2 * entities.size, lines.size)
+        Assert.assertEquals(entities.size, writer.documentCount)
+
+        entities.entries.forEachIndexed { i, (id, entity) ->
+            val action = mapper.readTree(lines[2 * i])
+            Assert.assertEquals(id.toString(), action["index"]["_id"].asText())
+            Assert.assertEquals(
+                    mapper.readTree(formatEntity(entitySetId, entity)),
+                    mapper.readTree(lines[2 * i + 1])
+            )
+        }
+
+        writer.reset()
+        Assert.assertEquals(0, writer.bytes().length())
+    }
+
+    @Test
+    fun testEntityUpdates() {
+        val id = UUID.randomUUID()
+        val propertyTypeId = propertyTypeIds.first()
+        val lastWrite = OffsetDateTime.now()
+        val entity = mapOf<UUID, Set<Any?>>(
+                propertyTypeId to setOf("value"),
+                IdConstants.LAST_WRITE_ID.id to setOf(lastWrite)
+        )
+        val writer = EntityDocumentWriter(mapper)
+        writer.writeEntityUpdate("index", "type", id, entity, true)
+
+        val lines = writer.bytes().utf8ToString().lines().filter { it.isNotEmpty() }
+        Assert.assertEquals(2, lines.size)
+        Assert.assertEquals(id.toString(), mapper.readTree(lines[0])["update"]["_id"].asText())
+
+        val body = mapper.readTree(lines[1])
+        val params = body["script"]["params"]
+        Assert.assertEquals(listOf(propertyTypeId.toString()), params["added"].fieldNames().asSequence().toList())
+        Assert.assertEquals(
+                listOf(IdConstants.LAST_WRITE_ID.id.toString()),
+                params["replaced"].fieldNames().asSequence().toList()
+        )
+        // the written properties alone aren't a complete document, so entities that aren't indexed yet aren't created
+        Assert.assertFalse(body.has("upsert"))
+        Assert.assertFalse(body.has("scripted_upsert"))
+        Assert.assertFalse(body.has("doc_as_upsert"))
+    }
+
+    @Test
+    fun testLinkedEntityDocuments() {
+        val linkingId = UUID.randomUUID()
+        val entityValues = mapOf(entitySetId to entities().entries.take(3).associate { it.key to it.value })
+        val writer = EntityDocumentWriter(mapper)
+        writer.writeLinkedEntity("index", "type", linkingId, entityValues)
+
+        val lines = writer.bytes().utf8ToString().lines().filter { it.isNotEmpty() }
+        Assert.assertEquals(2, lines.size)
+        Assert.assertEquals(
+                mapper.readTree(formatLinkedEntity(entityValues)),
+                mapper.readTree(lines[1])
+        )
+    }
+
+    @Test
+    fun testResetAfterFailedDocument() {
+        val writer = EntityDocumentWriter(mapper)
+        val entities = entities().entries.take(2).associate { it.key to it.value }
+        val unserializable = mapOf<UUID, Set<Any?>>(propertyTypeIds.first() to setOf(Unserializable()))
+
+        try {
+            entities.forEach { (id, entity) -> writer.writeEntity("index", "type", id, entitySetId, entity) }
+            writer.writeEntity("index", "type", UUID.randomUUID(), entitySetId, unserializable)
+            Assert.fail("Writing an unserializable value should fail.")
+        } catch (ex: Exception) {
+            writer.reset()
+        }
+
+        Assert.assertEquals(0, writer.bytes().length())
+        Assert.assertEquals(0, writer.documentCount)
+
+        entities.forEach { (id, entity) -> writer.writeEntity("index", "type", id, entitySetId, entity) }
+        val lines = writer.bytes().utf8ToString().lines().filter { it.isNotEmpty() }
+        Assert.assertEquals(2 * entities.size, lines.size)
+        entities.entries.forEachIndexed { i, (id, entity) ->
+            Assert.assertEquals(id.toString(), mapper.readTree(lines[2 * i])["index"]["_id"].asText())
+            Assert.assertEquals(
+                    mapper.readTree(formatEntity(entitySetId, entity)),
+                    mapper.readTree(lines[2 * i + 1])
+            )
+        }
+    }
+
+    @Test
+    @Ignore
+    fun benchmarkAllocations() {
+        val entities = entities()
+        val writer = EntityDocumentWriter(mapper)
+
+        val mapBytes = allocatedBytes {
+            entities.forEach { (_, entity) -> formatEntity(entitySetId, entity) }
+        }
+        val writerBytes = allocatedBytes {
+            entities.forEach { (id, entity) -> writer.writeEntity("index", "type", id, entitySetId, entity) }
+            writer.bytes()
+            writer.reset()
+        }
+
+        logger.info(
+                "Formatting {} entities allocated {} bytes per batch using maps and {} bytes per batch using the writer.",
+                NUM_ENTITIES,
+                mapBytes / NUM_ITERATIONS,
+                writerBytes / NUM_ITERATIONS
+        )
+    }
+
+    private fun allocatedBytes(batch: () -> Unit): Long {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+
+        repeat(NUM_ITERATIONS) { batch() }
+        val start = threadMXBean.getThreadAllocatedBytes(threadId)
+        repeat(NUM_ITERATIONS) { batch() }
+        return threadMXBean.getThreadAllocatedBytes(threadId) - start
+    }
+
+    private fun entities(): Map<UUID, Map<UUID, Set<Any?>>> {
+        return (0 until NUM_ENTITIES).associate {
+            UUID.randomUUID() to propertyTypeIds.associateWith {
+                setOf<Any?>(RandomStringUtils.randomAlphanumeric(10), it.hashCode(), OffsetDateTime.now())
+            }
+        }
+    }
+
+    private fun formatEntity(entitySetId: UUID, entity: Map<UUID, Set<Any?>>): ByteArray {
+        val values: MutableMap<Any, Any> = HashMap(entity.size + 1)
+        entity.forEach { (key, value) -> values[key] = value }
+        values[IdConstants.ENTITY_SET_ID_KEY_ID.id] = entitySetId
+        return mapper.writeValueAsBytes(
+                ImmutableMap.of(
+                        ConductorElasticsearchApi.ENTITY,
+                        values,
+                        ConductorElasticsearchApi.ENTITY_SET_ID_FIELD,
+                        entitySetId
+                )
+        )
+    }
+
+    private class Unserializable {
+        @Suppress("unused")
+        val value: String
+            get() = throw IllegalStateException("Not serializable.")
+    }
+
+    private fun formatLinkedEntity(entityValues: Map<UUID, Map<UUID, Map<UUID, Set<Any?>>>>): ByteArray {
+        val documents = entityValues.flatMap { (entitySetId, entities) ->
+            entities.map { (entityKeyId, propertyValues) ->
+                val values: MutableMap<Any, Any> = HashMap(propertyValues.size + 2)
+                propertyValues.forEach { (key, value) -> values[key] = value }
+                values[IdConstants.ID_ID.id] = entityKeyId
+                values[IdConstants.ENTITY_SET_ID_KEY_ID.id] = entitySetId
+                values
+            }
+        }
+        return mapper.writeValueAsBytes(ImmutableMap.of(ConductorElasticsearchApi.ENTITY, documents))
+    }
+}
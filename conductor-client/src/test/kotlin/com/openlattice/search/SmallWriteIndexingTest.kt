@@ -0,0 +1,121 @@
+package com.openlattice.search
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.eventbus.EventBus
+import com.hazelcast.collection.IQueue
+import com.hazelcast.core.HazelcastInstance
+import com.hazelcast.map.IMap
+import com.openlattice.authorization.AuthorizationManager
+import com.openlattice.conductor.rpc.ConductorElasticsearchApi
+import com.openlattice.data.EntityDataKey
+import com.openlattice.data.PropertyUpdateType
+import com.openlattice.data.storage.DataSourceResolver
+import com.openlattice.data.storage.EntityDatastore
+import com.openlattice.data.storage.IndexingChangeFeed
+import com.openlattice.data.storage.IndexingMetadataManager
+import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService
+import com.openlattice.data.storage.postgres.PostgresEntityDatastore
+import com.openlattice.datasets.DataSetService
+import com.openlattice.datastore.services.EdmManager
+import com.openlattice.datastore.services.EntitySetManager
+import com.openlattice.edm.type.PropertyType
+import com.openlattice.graph.core.GraphService
+import com.openlattice.hazelcast.HazelcastQueue
+import com.openlattice.linking.LinkingQueryService
+import com.openlattice.linking.PostgresLinkingFeedbackService
+import com.openlattice.mapstores.TestDataFactory
+import com.zaxxer.hikari.HikariDataSource
+import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import org.junit.Test
+import org.mockito.Matchers
+import org.mockito.Mockito
+import java.util.*
+
+/**
+ * Checks that entities created by writes too small for the indexing change feed are still indexed right away, even
+ * though the partial update of their missing documents fails.
+ */
+class SmallWriteIndexingTest {
+    private val name = PropertyType(
+            UUID.randomUUID(),
+            FullQualifiedName("test.name"),
+            "name",
+            Optional.empty(),
+            setOf(),
+            EdmPrimitiveTypeKind.String
+    )
+    private val entityType = TestDataFactory.entityType(name)
+    private val entitySetId = UUID.randomUUID()
+
+    @Suppress("UNCHECKED_CAST")
+    private val queue = Mockito.mock(IQueue::class.java) as IQueue<EntityDataKey>
+    private val hazelcastInstance = Mockito.mock(HazelcastInstance::class.java).also {
+        Mockito.`when`(it.getQueue<EntityDataKey>(HazelcastQueue.INDEXING_CHANGES.name)).thenReturn(queue)
+        Mockito.`when`(it.getMap<Any, Any>(Matchers.anyString())).thenReturn(Mockito.mock(IMap::class.java))
+    }
+    private val indexingChangeFeed = IndexingChangeFeed(hazelcastInstance)
+
+    private val eventBus = EventBus()
+    private val elasticsearchApi = Mockito.mock(ConductorElasticsearchApi::class.java)
+    private val entitySetManager = Mockito.mock(EntitySetManager::class.java).also {
+        Mockito.`when`(it.getEntityTypeByEntitySetId(entitySetId)).thenReturn(entityType)
+    }
+
+    private val datastore = PostgresEntityDatastore(
+            Mockito.mock(PostgresEntityDataQueryService::class.java),
+            Mockito.mock(EdmManager::class.java),
+            entitySetManager,
+            MetricRegistry(),
+            eventBus,
+            PostgresLinkingFeedbackService(Mockito.mock(HikariDataSource::class.java), hazelcastInstance),
+            Mockito.mock(LinkingQueryService::class.java),
+            indexingChangeFeed
+    )
+
+    init {
+        SearchService(
+                eventBus,
+                MetricRegistry(),
+                Mockito.mock(AuthorizationManager::class.java),
+                elasticsearchApi,
+                Mockito.mock(EdmManager::class.java),
+                entitySetManager,
+                Mockito.mock(GraphService::class.java),
+                Mockito.mock(EntityDatastore::class.java),
+                IndexingMetadataManager(Mockito.mock(DataSourceResolver::class.java)),
+                indexingChangeFeed,
+                Mockito.mock(DataSetService::class.java)
+        )
+    }
+
+    @Test
+    fun testNewEntityIsPublished() {
+        val entityKeyId = UUID.randomUUID()
+        Mockito.`when`(queue.remainingCapacity()).thenReturn(Int.MAX_VALUE)
+        // the document of a new entity is missing, so its partial update fails and nothing is updated
+        Mockito.`when`(
+                elasticsearchApi.updateBulkEntityData(
+                        Matchers.eq(entityType.id),
+                        Matchers.eq(entitySetId),
+                        Matchers.any<Map<UUID, Map<UUID, Set<Any>>>>(),
+                        Matchers.eq(true)
+                )
+        ).thenReturn(setOf())
+
+        datastore.createOrUpdateEntities(
+                entitySetId,
+                mapOf(entityKeyId to mapOf(name.id to setOf<Any>("new"))),
+                mapOf(name.id to name),
+                PropertyUpdateType.Versioned
+        )
+
+        Mockito.verify(elasticsearchApi).updateBulkEntityData(
+                Matchers.eq(entityType.id),
+                Matchers.eq(entitySetId),
+                Matchers.any<Map<UUID, Map<UUID, Set<Any>>>>(),
+                Matchers.eq(true)
+        )
+        Mockito.verify(queue).addAll(listOf(EntityDataKey(entitySetId, entityKeyId)))
+    }
+}
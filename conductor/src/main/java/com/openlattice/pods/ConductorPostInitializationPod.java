@@ -29,6 +29,7 @@ import com.openlattice.conductor.rpc.ConductorConfiguration;
 import com.openlattice.conductor.rpc.ConductorElasticsearchApi;
 import com.openlattice.conductor.rpc.MapboxConfiguration;
 import com.openlattice.data.storage.EntityDatastore;
+import com.openlattice.data.storage.IndexingChangeFeed;
 import com.openlattice.data.storage.IndexingMetadataManager;
 import com.openlattice.datasets.DataSetService;
 import com.openlattice.datastore.services.EdmManager;
@@ -88,6 +89,9 @@ public class ConductorPostInitializationPod {
     @Inject
     private IndexingMetadataManager indexingMetadataManager;
 
+    @Inject
+    private IndexingChangeFeed indexingChangeFeed;
+
     @Inject
     private GraphService graphService;
 
@@ -133,6 +137,7 @@ public class ConductorPostInitializationPod {
                 graphService,
                 entityDatastore,
                 indexingMetadataManager,
+                indexingChangeFeed,
                 dataSetService
         );
     }
@@ -82,6 +82,7 @@ import com.openlattice.data.storage.ByteBlobDataManager;
 import com.openlattice.data.storage.DataDeletionService;
 import com.openlattice.data.storage.DataSourceResolver;
 import com.openlattice.data.storage.EntityDatastore;
+import com.openlattice.data.storage.IndexingChangeFeed;
 import com.openlattice.data.storage.IndexingMetadataManager;
 import com.openlattice.data.storage.PostgresEntitySetSizesInitializationTask;
 import com.openlattice.data.storage.PostgresEntitySetSizesTaskDependency;
@@ -276,7 +277,10 @@ public class ConductorServicesPod {
 
     @Bean
     public AuthorizationManager authorizationManager() {
-        return new HazelcastAuthorizationService( hazelcastInstance, eventBus, principalsMapManager() );
+        return new HazelcastAuthorizationService( hazelcastInstance,
+                eventBus,
+                principalsMapManager(),
+                metricRegistry );
     }
 
     @Bean
@@ -584,6 +588,11 @@ public class ConductorServicesPod {
         );
     }
 
+    @Bean
+    public IndexingChangeFeed indexingChangeFeed() {
+        return new IndexingChangeFeed( hazelcastInstance );
+    }
+
     @Bean
     public EntityDatastore entityDatastore() {
         return new PostgresEntityDatastore(
@@ -593,7 +602,8 @@ public class ConductorServicesPod {
                 metricRegistry,
                 eventBus,
                 postgresLinkingFeedbackQueryService(),
-                lqs()
+                lqs(),
+                indexingChangeFeed()
         );
     }
 
@@ -601,7 +611,9 @@ public class ConductorServicesPod {
     public EntityKeyIdService idService() {
         return new PostgresEntityKeyIdService(
                 dataSourceResolver(),
-                idGenerationService()
+                idGenerationService(),
+                hazelcastInstance,
+                metricRegistry
         );
     }
 
@@ -171,7 +171,8 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     @RequestMapping(
             path = { "/" + ENTITY_SET + "/" + SET_ID_PATH },
             method = RequestMethod.GET,
-            produces = { MediaType.APPLICATION_JSON_VALUE, CustomMediaType.TEXT_CSV_VALUE } )
+            produces = { MediaType.APPLICATION_JSON_VALUE, CustomMediaType.TEXT_CSV_VALUE,
+                    CustomMediaType.APPLICATION_ARROW_STREAM_VALUE } )
     @Timed
     public EntitySetData<FullQualifiedName> loadEntitySetData(
             @PathVariable( ENTITY_SET_ID ) UUID entitySetId,
@@ -205,7 +206,8 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
             path = { "/" + ENTITY_SET + "/" + SET_ID_PATH },
             method = RequestMethod.POST,
             consumes = { MediaType.APPLICATION_JSON_VALUE },
-            produces = { MediaType.APPLICATION_JSON_VALUE, CustomMediaType.TEXT_CSV_VALUE } )
+            produces = { MediaType.APPLICATION_JSON_VALUE, CustomMediaType.TEXT_CSV_VALUE,
+                    CustomMediaType.APPLICATION_ARROW_STREAM_VALUE } )
     @Timed
     public EntitySetData<FullQualifiedName> loadEntitySetData(
             @PathVariable( ENTITY_SET_ID ) UUID entitySetId,
@@ -1246,6 +1248,8 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
     private static void setDownloadContentType( HttpServletResponse response, FileType fileType ) {
         if ( fileType == FileType.csv ) {
             response.setContentType( CustomMediaType.TEXT_CSV_VALUE );
+        } else if ( fileType == FileType.arrow ) {
+            response.setContentType( CustomMediaType.APPLICATION_ARROW_STREAM_VALUE );
         } else {
             response.setContentType( MediaType.APPLICATION_JSON_VALUE );
         }
@@ -1255,7 +1259,7 @@ public class DataController implements DataApi, AuthorizingComponent, AuditingCo
             HttpServletResponse response,
             String fileName,
             FileType fileType ) {
-        if ( fileType == FileType.csv || fileType == FileType.json ) {
+        if ( fileType == FileType.csv || fileType == FileType.json || fileType == FileType.arrow ) {
             response.setHeader( "Content-Disposition",
                     "attachment; filename=" + fileName + "." + fileType.toString() );
         }
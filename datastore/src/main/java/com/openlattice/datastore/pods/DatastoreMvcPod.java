@@ -45,6 +45,7 @@ import com.openlattice.organizations.controllers.DatasetController;
 import com.openlattice.organizations.controllers.OrganizationsController;
 import com.openlattice.subscriptions.controllers.FeedsController;
 import com.openlattice.subscriptions.controllers.SubscriptionController;
+import com.openlattice.web.converters.ArrowHttpMessageConverter;
 import com.openlattice.web.converters.CsvHttpMessageConverter;
 import com.openlattice.web.converters.YamlHttpMessageConverter;
 import com.openlattice.web.mediatypes.CustomMediaType;
@@ -105,6 +106,7 @@ public class DatastoreMvcPod extends WebMvcConfigurationSupport {
         }
         converters.add( new CsvHttpMessageConverter() );
         converters.add( new YamlHttpMessageConverter() );
+        converters.add( new ArrowHttpMessageConverter() );
     }
 
     // TODO(LATTICE-2346): We need to lock this down. Since all endpoints are stateless + authenticated this is more a
@@ -129,6 +131,7 @@ public class DatastoreMvcPod extends WebMvcConfigurationSupport {
                 .mediaType( "csv", CustomMediaType.TEXT_CSV )
                 .mediaType( "json", MediaType.APPLICATION_JSON )
                 .mediaType( "yaml", CustomMediaType.TEXT_YAML )
+                .mediaType( "arrow", CustomMediaType.APPLICATION_ARROW_STREAM )
                 .defaultContentType( MediaType.APPLICATION_JSON );
     }
 
@@ -69,6 +69,7 @@ import com.openlattice.data.storage.ByteBlobDataManager;
 import com.openlattice.data.storage.DataDeletionService;
 import com.openlattice.data.storage.DataSourceResolver;
 import com.openlattice.data.storage.EntityDatastore;
+import com.openlattice.data.storage.IndexingChangeFeed;
 import com.openlattice.data.storage.IndexingMetadataManager;
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService;
 import com.openlattice.data.storage.postgres.PostgresEntityDatastore;
@@ -274,7 +275,10 @@ public class DatastoreServicesPod {
 
     @Bean
     public AuthorizationManager authorizationManager() {
-        return new HazelcastAuthorizationService( hazelcastInstance, eventBus, principalsMapManager() );
+        return new HazelcastAuthorizationService( hazelcastInstance,
+                eventBus,
+                principalsMapManager(),
+                metricRegistry );
     }
 
     @Bean
@@ -345,6 +349,11 @@ public class DatastoreServicesPod {
         return new IndexingMetadataManager( dataSourceResolver() );
     }
 
+    @Bean
+    public IndexingChangeFeed indexingChangeFeed() {
+        return new IndexingChangeFeed( hazelcastInstance );
+    }
+
     @Bean
     public EntityDatastore entityDatastore() {
         return new PostgresEntityDatastore(
@@ -354,7 +363,8 @@ public class DatastoreServicesPod {
                 metricRegistry,
                 eventBus,
                 postgresLinkingFeedbackQueryService(),
-                lqs()
+                lqs(),
+                indexingChangeFeed()
         );
     }
 
@@ -503,7 +513,9 @@ public class DatastoreServicesPod {
     public EntityKeyIdService idService() {
         return new PostgresEntityKeyIdService(
                 dataSourceResolver(),
-                idGenerationService()
+                idGenerationService(),
+                hazelcastInstance,
+                metricRegistry
         );
     }
 
@@ -569,6 +581,7 @@ public class DatastoreServicesPod {
                 graphApi(),
                 entityDatastore(),
                 indexingMetadataManager(),
+                indexingChangeFeed(),
                 dataSetService()
         );
     }
@@ -645,13 +658,19 @@ public class DatastoreServicesPod {
     @Profile( { ConfigurationConstants.Profiles.AWS_CONFIGURATION_PROFILE,
             ConfigurationConstants.Profiles.AWS_TESTING_PROFILE, AuditingProfiles.LOCAL_AWS_AUDITING_PROFILE } )
     public AuditingManager s3AuditingService() {
-        return new S3AuditingService( auditingConfiguration, longIdService(), defaultObjectMapper() );
+        return new S3AuditingService( auditingConfiguration, longIdService(), defaultObjectMapper(), metricRegistry );
     }
 
     @Bean
     @Profile( AuditingProfiles.LOCAL_AUDITING_PROFILE )
     public AuditingManager localAuditingService() {
-        return new LocalAuditingService( dataGraphService(), auditRecordEntitySetsManager(), defaultObjectMapper() );
+        return new LocalAuditingService(
+                dataGraphService(),
+                auditRecordEntitySetsManager(),
+                defaultObjectMapper(),
+                auditingConfiguration,
+                metricRegistry
+        );
     }
 
     @Bean
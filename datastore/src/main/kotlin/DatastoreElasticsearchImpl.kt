@@ -23,6 +23,7 @@ import com.openlattice.organizations.Organization
 import com.geekbeast.hazelcast.DelegatedStringSet
 import com.geekbeast.hazelcast.DelegatedUUIDSet
 import com.openlattice.scrunchie.search.ElasticsearchTransportClientFactory
+import com.openlattice.search.EntityDocumentWriter
 import com.openlattice.search.SortDefinition
 import com.openlattice.search.SortType
 import com.openlattice.search.requests.*
@@ -35,6 +36,8 @@ import org.elasticsearch.action.admin.indices.mapping.put.PutMappingRequest
 import org.elasticsearch.action.bulk.BulkItemResponse
 import org.elasticsearch.action.search.MultiSearchRequest
 import org.elasticsearch.action.search.MultiSearchResponse
+import org.elasticsearch.action.search.SearchRequestBuilder
+import org.elasticsearch.action.search.SearchResponse
 import org.elasticsearch.action.update.UpdateRequest
 import org.elasticsearch.client.Client
 import org.elasticsearch.client.RequestOptions
@@ -51,6 +54,7 @@ import org.elasticsearch.common.xcontent.XContentType
 import org.elasticsearch.index.query.*
 import org.elasticsearch.index.reindex.DeleteByQueryAction
 import org.elasticsearch.index.reindex.DeleteByQueryRequestBuilder
+import org.elasticsearch.rest.RestStatus
 import org.elasticsearch.search.SearchHit
 import org.elasticsearch.search.builder.SearchSourceBuilder
 import org.elasticsearch.search.sort.*
@@ -112,6 +116,8 @@ class DatastoreKotlinElasticsearchImpl(
         init {
             mapper.configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
         }
+
+        private val documentWriters = ThreadLocal.withInitial { EntityDocumentWriter(mapper) }
     }
 
     private var connected = true
@@ -535,33 +541,6 @@ class DatastoreKotlinElasticsearchImpl(
 
     /*** ENTITY DATA CREATE/DELETE ***/
 
-    /*** ENTITY DATA CREATE/DELETE  */
-    /**
-     * @param entityValues Property values of a linked entity mapped by the normal entity set id, normal entity key id
-     * and property type ids respectively.
-     */
-    private fun formatLinkedEntity(entityValues: Map<UUID, Map<UUID, Map<UUID, Set<Any>>>>): ByteArray? {
-        val documents = entityValues.entries.stream().flatMap { esEntry: Map.Entry<UUID, Map<UUID, Map<UUID, Set<Any>>>> ->
-            val entitySetId = esEntry.key
-            val entity = esEntry.value // ek_id -> pt_id -> pt_values
-            entity.entries.stream().map<Map<Any, Any>> { ekEntry: Map.Entry<UUID, Map<UUID, Set<Any>>> ->
-                val entityKeyId = ekEntry.key
-                val propertyValues = ekEntry.value
-                val values: MutableMap<Any, Any> = HashMap(propertyValues.size + 2)
-                propertyValues.forEach { (key: UUID, value: Set<Any>) -> values[key] = value }
-                values[IdConstants.ID_ID.id] = entityKeyId
-                values[IdConstants.ENTITY_SET_ID_KEY_ID.id] = entitySetId
-                values
-            }
-        }.collect(Collectors.toList())
-        return try {
-            mapper.writeValueAsBytes(ImmutableMap.of(ConductorElasticsearchApi.ENTITY, documents))
-        } catch (e: JsonProcessingException) {
-            logger.debug("error creating linked entity data")
-            null
-        }
-    }
-
     private fun formatEntity(entitySetId: UUID, entity: Map<UUID, Set<Any?>>): ByteArray? {
         val values: MutableMap<Any, Any> = HashMap(entity.size + 1)
         entity.forEach { (key: UUID, value: Set<Any?>) -> values[key] = value }
@@ -609,17 +588,25 @@ class DatastoreKotlinElasticsearchImpl(
         if (!entitiesById.isEmpty()) {
             val indexName = getIndexName(entityTypeId)
             val indexType = getTypeName(entityTypeId)
-            val requestBuilder = client.prepareBulk()
-            entitiesById.forEach { (entityKeyId: UUID, entityData: Map<UUID, Set<Any?>>) ->
-                val data = formatEntity(entitySetId, entityData)
-                if (data != null) {
-                    requestBuilder.add(
-                            client.prepareIndex(indexName, indexType, entityKeyId.toString())
-                                    .setSource(data, XContentType.JSON)
-                    )
+            val writer = documentWriters.get()
+            val resp = try {
+                entitiesById.forEach { (entityKeyId: UUID, entityData: Map<UUID, Set<Any?>>) ->
+                    writer.writeEntity(indexName, indexType, entityKeyId, entitySetId, entityData)
                 }
+                val requestBuilder = client.prepareBulk()
+                requestBuilder.request().add(writer.bytes(), indexName, indexType, XContentType.JSON)
+                requestBuilder.execute().actionGet()
+            } catch (e: IOException) {
+                logger.error(
+                        "Unable to create bulk request for {} entities of entity set {}",
+                        entitiesById.size,
+                        entitySetId,
+                        e
+                )
+                return false
+            } finally {
+                writer.reset()
             }
-            val resp = requestBuilder.execute().actionGet()
             if (resp.hasFailures()) {
                 logger.info(
                         "At least one failure observed when attempting to index {} entities for entity set {}: {}",
@@ -633,6 +620,53 @@ class DatastoreKotlinElasticsearchImpl(
         return true
     }
 
+    override fun updateBulkEntityData(
+            entityTypeId: UUID,
+            entitySetId: UUID,
+            entitiesById: Map<UUID, Map<UUID, Set<Any?>>>,
+            merge: Boolean
+    ): Set<UUID> {
+        if (!verifyElasticsearchConnection() || entitiesById.isEmpty()) {
+            return setOf()
+        }
+        val indexName = getIndexName(entityTypeId)
+        val indexType = getTypeName(entityTypeId)
+        val writer = documentWriters.get()
+        val resp = try {
+            entitiesById.forEach { (entityKeyId: UUID, entityData: Map<UUID, Set<Any?>>) ->
+                writer.writeEntityUpdate(indexName, indexType, entityKeyId, entityData, merge)
+            }
+            val requestBuilder = client.prepareBulk()
+            requestBuilder.request().add(writer.bytes(), indexName, indexType, XContentType.JSON)
+            requestBuilder.execute().actionGet()
+        } catch (e: IOException) {
+            logger.error(
+                    "Unable to create bulk update request for {} entities of entity set {}",
+                    entitiesById.size,
+                    entitySetId,
+                    e
+            )
+            return setOf()
+        } finally {
+            writer.reset()
+        }
+        if (resp.hasFailures()) {
+            // updates of entities that aren't indexed yet are expected to fail, as their documents are missing
+            val failures = resp.items.count { it.isFailed && it.status() != RestStatus.NOT_FOUND }
+            if (failures > 0) {
+                logger.info(
+                        "{} of {} entity updates failed for entity set {}: {}",
+                        failures,
+                        entitiesById.size,
+                        entitySetId,
+                        resp.buildFailureMessage()
+                )
+            }
+        }
+
+        return resp.items.filter { !it.isFailed }.map { UUID.fromString(it.id) }.toSet()
+    }
+
     override fun createBulkLinkedData(
             entityTypeId: UUID,
             entitiesByLinkingId: Map<UUID, Map<UUID, Map<UUID, Map<UUID, Set<Any>>>>>
@@ -643,17 +677,20 @@ class DatastoreKotlinElasticsearchImpl(
         if (entitiesByLinkingId.isNotEmpty()) {
             val indexName = getIndexName(entityTypeId)
             val indexType = getTypeName(entityTypeId)
-            val requestBuilder = client.prepareBulk()
-            entitiesByLinkingId.forEach { (linkingId: UUID, entityValues: Map<UUID, Map<UUID, Map<UUID, Set<Any>>>>) ->
-                val data = formatLinkedEntity(entityValues)
-                if (data != null) {
-                    requestBuilder.add(
-                            client.prepareIndex(indexName, indexType, linkingId.toString())
-                                    .setSource(data, XContentType.JSON)
-                    )
+            val writer = documentWriters.get()
+            val resp = try {
+                entitiesByLinkingId.forEach { (linkingId: UUID, entityValues: Map<UUID, Map<UUID, Map<UUID, Set<Any>>>>) ->
+                    writer.writeLinkedEntity(indexName, indexType, linkingId, entityValues)
                 }
+                val requestBuilder = client.prepareBulk()
+                requestBuilder.request().add(writer.bytes(), indexName, indexType, XContentType.JSON)
+                requestBuilder.execute().actionGet()
+            } catch (e: IOException) {
+                logger.error("Unable to create bulk request for linking ids {}", entitiesByLinkingId.keys, e)
+                return false
+            } finally {
+                writer.reset()
             }
-            val resp = requestBuilder.execute().actionGet()
             if (resp.hasFailures()) {
                 logger.info(
                         "At least one failure observed when attempting to index linking entities with linking " +
@@ -998,6 +1035,40 @@ class DatastoreKotlinElasticsearchImpl(
         require(verifyElasticsearchConnection()) {
             "A connection to the search service is required."
         }
+        return getBlockingSearchResults(
+                buildBlockingSearch(entityTypeId, fieldSearches, size)
+                        .setExplain(explain)
+                        .execute()
+                        .actionGet()
+        )
+    }
+
+    override fun executeBlockingSearches(
+            entityTypeId: UUID?,
+            fieldSearches: List<Map<UUID?, DelegatedStringSet>>,
+            size: Int
+    ): List<Map<UUID, Set<UUID>>> {
+        require(verifyElasticsearchConnection()) {
+            "A connection to the search service is required."
+        }
+        if (fieldSearches.isEmpty()) {
+            return listOf()
+        }
+        val requests = MultiSearchRequest()
+        fieldSearches.forEach { requests.add(buildBlockingSearch(entityTypeId, it, size)) }
+
+        // a failed search must fail the whole batch, since an empty result would link the entity only to itself
+        return client.multiSearch(requests).actionGet().responses.map { item ->
+            check(!item.isFailure) { "Unable to execute blocking search: ${item.failureMessage}" }
+            getBlockingSearchResults(item.response)
+        }
+    }
+
+    private fun buildBlockingSearch(
+            entityTypeId: UUID?,
+            fieldSearches: Map<UUID?, DelegatedStringSet>,
+            size: Int
+    ): SearchRequestBuilder {
         val valuesQuery = BoolQueryBuilder()
         fieldSearches.entries.stream().forEach { entry: Map.Entry<UUID?, DelegatedStringSet> ->
             val fieldQuery = BoolQueryBuilder()
@@ -1017,10 +1088,11 @@ class DatastoreKotlinElasticsearchImpl(
                 .setQuery(query)
                 .setFrom(0)
                 .setSize(size)
-                .setExplain(explain)
                 .setFetchSource(ConductorElasticsearchApi.ENTITY_SET_ID_FIELD, null)
-                .execute()
-                .actionGet().hits.asSequence()
+    }
+
+    private fun getBlockingSearchResults(response: SearchResponse): Map<UUID, Set<UUID>> {
+        return response.hits.asSequence()
                 .map { hit: SearchHit ->
                     Pair
                             .of(
@@ -37,6 +37,7 @@ import com.openlattice.data.DataDeletionManager;
 import com.openlattice.data.DataGraphManager;
 import com.openlattice.data.storage.DataSourceResolver;
 import com.openlattice.data.storage.EntityDatastore;
+import com.openlattice.data.storage.IndexingChangeFeed;
 import com.openlattice.data.storage.IndexingMetadataManager;
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService;
 import com.openlattice.datasets.DataSetService;
@@ -84,6 +85,9 @@ public class IndexerPostConfigurationServicesPod {
     @Inject
     private DataGraphManager dataGraphService;
 
+    @Inject
+    private IndexingChangeFeed indexingChangeFeed;
+
     @Inject
     private PostgresEntityDataQueryService dataQueryService;
 
@@ -156,6 +160,7 @@ public class IndexerPostConfigurationServicesPod {
     public BackgroundIndexingService backgroundIndexingService() {
         return new BackgroundIndexingService(
                 hazelcastInstance,
+                metricRegistry,
                 indexerConfiguration,
                 resolver,
                 dataQueryService,
@@ -220,6 +225,7 @@ public class IndexerPostConfigurationServicesPod {
         return new BackgroundExternalDatabaseSyncingService(
                 hazelcastInstance,
                 executor,
+                metricRegistry,
                 edms(),
                 externalDatabasePermissioningService,
                 auditingManager,
@@ -251,6 +257,7 @@ public class IndexerPostConfigurationServicesPod {
                 graphApi,
                 entityDatastore,
                 indexingMetadataManager(),
+                indexingChangeFeed,
                 dataSetService
         );
     }
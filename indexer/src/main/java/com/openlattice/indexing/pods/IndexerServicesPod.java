@@ -53,6 +53,7 @@ import com.openlattice.data.storage.ByteBlobDataManager;
 import com.openlattice.data.storage.DataDeletionService;
 import com.openlattice.data.storage.DataSourceResolver;
 import com.openlattice.data.storage.EntityDatastore;
+import com.openlattice.data.storage.IndexingChangeFeed;
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService;
 import com.openlattice.data.storage.postgres.PostgresEntityDatastore;
 import com.openlattice.datasets.DataSetService;
@@ -166,7 +167,10 @@ public class IndexerServicesPod {
 
     @Bean
     public AuthorizationManager authorizationManager() {
-        return new HazelcastAuthorizationService( hazelcastInstance, eventBus, principalsMapManager() );
+        return new HazelcastAuthorizationService( hazelcastInstance,
+                eventBus,
+                principalsMapManager(),
+                metricRegistry );
     }
 
     @Bean
@@ -326,7 +330,9 @@ public class IndexerServicesPod {
     public EntityKeyIdService idService() {
         return new PostgresEntityKeyIdService(
                 dataSourceResolver(),
-                idGeneration()
+                idGeneration(),
+                hazelcastInstance,
+                metricRegistry
         );
     }
 
@@ -338,6 +344,11 @@ public class IndexerServicesPod {
         );
     }
 
+    @Bean
+    public IndexingChangeFeed indexingChangeFeed() {
+        return new IndexingChangeFeed( hazelcastInstance );
+    }
+
     @Bean
     public EntityDatastore entityDatastore() {
         return new PostgresEntityDatastore(
@@ -347,7 +358,8 @@ public class IndexerServicesPod {
                 metricRegistry,
                 eventBus,
                 postgresLinkingFeedbackService(),
-                lqs()
+                lqs(),
+                indexingChangeFeed()
         );
     }
 
@@ -386,13 +398,19 @@ public class IndexerServicesPod {
     @Profile( { ConfigurationConstants.Profiles.AWS_CONFIGURATION_PROFILE,
             ConfigurationConstants.Profiles.AWS_TESTING_PROFILE, AuditingProfiles.LOCAL_AWS_AUDITING_PROFILE } )
     public AuditingManager s3AuditingService() {
-        return new S3AuditingService( auditingConfiguration, longIdService(), defaultObjectMapper() );
+        return new S3AuditingService( auditingConfiguration, longIdService(), defaultObjectMapper(), metricRegistry );
     }
 
     @Bean( name = "auditingManager" )
     @Profile( AuditingProfiles.LOCAL_AUDITING_PROFILE )
     public AuditingManager localAuditingService() {
-        return new LocalAuditingService( dataGraphService(), auditRecordEntitySetsManager(), defaultObjectMapper() );
+        return new LocalAuditingService(
+                dataGraphService(),
+                auditRecordEntitySetsManager(),
+                defaultObjectMapper(),
+                auditingConfiguration,
+                metricRegistry
+        );
     }
 
     @Bean
@@ -1,5 +1,6 @@
 package com.openlattice
 
+import com.codahale.metrics.MetricRegistry
 import com.google.common.base.Stopwatch
 import com.google.common.collect.ImmutableMap
 import com.google.common.util.concurrent.ListeningExecutorService
@@ -19,7 +20,9 @@ import com.openlattice.indexing.configuration.IndexerConfiguration
 import com.openlattice.organization.ExternalColumn
 import com.openlattice.organization.ExternalTable
 import com.openlattice.organizations.ExternalDatabaseManagementService
+import com.openlattice.organizations.TableInfo
 import com.openlattice.organizations.mapstores.ORGANIZATION_ID_INDEX
+import com.openlattice.organizations.mapstores.TABLE_ID_INDEX
 import com.openlattice.postgres.TableColumn
 import com.openlattice.postgres.external.ExternalDatabasePermissioningService
 import com.openlattice.postgres.external.Schemas
@@ -30,9 +33,19 @@ import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
+/**
+ * Syncs the tables and columns of organization databases into their securable objects, data set metadata and
+ * permissions.
+ *
+ * Every scan reads a catalog fingerprint for each table of an organization database, and only tables whose
+ * fingerprint differs from the one recorded by the last successful sync on this node are synced. After a restart, and
+ * every [FULL_SYNC_RATE] after that, every table is synced again, so that data set metadata and permissions are
+ * repaired even for changes the fingerprint can't see.
+ */
 class BackgroundExternalDatabaseSyncingService(
     hazelcastInstance: HazelcastInstance,
     private val executor: ListeningExecutorService,
+    metricRegistry: MetricRegistry,
     private val edms: ExternalDatabaseManagementService,
     private val extDbPermsService: ExternalDatabasePermissioningService,
     private val auditingManager: AuditingManager,
@@ -46,7 +59,41 @@ class BackgroundExternalDatabaseSyncingService(
         private val logger = LoggerFactory.getLogger(BackgroundExternalDatabaseSyncingService::class.java)
 
         const val SCAN_RATE = 1_000L * 30
+        const val FULL_SYNC_RATE = 1_000L * 60 * 60
         private val orgsToBeSynced: ConcurrentHashMap.KeySetView<UUID, Boolean> = ConcurrentHashMap.newKeySet()
+
+        /**
+         * @return The tables that are synced with the same catalog fingerprint as they have now, by table oid.
+         */
+        internal fun getUnchangedTables(
+            syncedTables: Map<Long, SyncedTable>,
+            tableInfos: Collection<TableInfo>
+        ): Map<Long, SyncedTable> {
+            return tableInfos
+                .mapNotNull { tableInfo ->
+                    syncedTables[tableInfo.oid]
+                        ?.takeIf { it.catalogFingerprint == tableInfo.catalogFingerprint }
+                        ?.let { tableInfo.oid to it }
+                }
+                .toMap()
+        }
+
+        /**
+         * Columns can only have been removed from tables that changed or were deleted, so only the stored columns of
+         * [tableIdsToCheck] are checked.
+         *
+         * @return The ids of the stored columns that no longer exist, by table id.
+         */
+        internal fun getColumnIdsToDelete(
+            storedColumns: Collection<ExternalColumn>,
+            tableIdsToCheck: Set<UUID>,
+            existingColumnIds: Set<UUID>
+        ): Map<UUID, Set<UUID>> {
+            return storedColumns
+                .filter { tableIdsToCheck.contains(it.tableId) && !existingColumnIds.contains(it.id) }
+                .groupBy { it.tableId }
+                .mapValues { it.value.map { c -> c.id }.toSet() }
+        }
     }
 
     private val organizationExternalDatabaseColumns = EXTERNAL_COLUMNS.getMap(hazelcastInstance)
@@ -54,6 +101,21 @@ class BackgroundExternalDatabaseSyncingService(
     private val organizationDatabases = ORGANIZATION_DATABASES.getMap(hazelcastInstance)
     private val organizations = HazelcastMap.ORGANIZATIONS.getMap(hazelcastInstance)
 
+    /**
+     * Tables synced by the last scan of each organization database.
+     */
+    private val syncedOrganizations = ConcurrentHashMap<UUID, SyncedOrganization>()
+
+    private val syncLag = metricRegistry.histogram(
+        MetricRegistry.name(BackgroundExternalDatabaseSyncingService::class.java, "syncLagMillis")
+    )
+    private val tablesSynced = metricRegistry.meter(
+        MetricRegistry.name(BackgroundExternalDatabaseSyncingService::class.java, "tablesSynced")
+    )
+    private val tablesUnchanged = metricRegistry.meter(
+        MetricRegistry.name(BackgroundExternalDatabaseSyncingService::class.java, "tablesUnchanged")
+    )
+
     // NOTE: commenting this out in case we want to bring it back in the future
     // private val taskLock = ReentrantLock()
 
@@ -68,9 +130,12 @@ class BackgroundExternalDatabaseSyncingService(
 
         try {
             logger.info("starting to sync organization databases - {}", organizations.size)
-            organizations
-                .keys
-                .filter { it != IdConstants.GLOBAL_ORGANIZATION_ID.id }
+            val organizationIds = organizations.keys.filter { it != IdConstants.GLOBAL_ORGANIZATION_ID.id }
+
+            // forget the tables of deleted organizations
+            syncedOrganizations.keys.retainAll(organizationIds.toSet())
+
+            organizationIds
                 .shuffled()
                 .forEach { syncOrganizationDatabase(it) }
         }
@@ -112,13 +177,34 @@ class BackgroundExternalDatabaseSyncingService(
                 val adminRoleAclKey = organizations.getValue(organizationId).adminRoleAclKey
                 val adminRolePrincipal = principalsMapManager.getSecurablePrincipal(adminRoleAclKey)!!.principal
 
+                val syncStart = System.currentTimeMillis()
+                val previouslySynced = syncedOrganizations[organizationId]
+                val fullSync = previouslySynced == null || previouslySynced.isFullSyncDue(syncStart)
+                val tableInfos = edms.getTableInfoForOrganization(organizationId)
+                val unchangedTables = if (fullSync) {
+                    mapOf()
+                } else {
+                    getUnchangedTables(previouslySynced!!.tables, tableInfos)
+                }
+
+                val currentlySyncedTables = mutableMapOf<Long, SyncedTable>()
                 val tableIds = mutableSetOf<UUID>()
+                val changedTableIds = mutableSetOf<UUID>()
                 val columnIds = mutableSetOf<UUID>()
-                edms.getTableInfoForOrganization(organizationId).forEach { (oid, tableName, schemaName, _) ->
+                tableInfos.forEach { tableInfo ->
+                    val (oid, tableName, schemaName, _, fingerprint) = tableInfo
+                    val syncedTable = unchangedTables[oid]
+                    if (syncedTable != null) {
+                        tableIds.add(syncedTable.tableId)
+                        currentlySyncedTables[oid] = syncedTable
+                        tablesUnchanged.mark()
+                        return@forEach
+                    }
+
                     try {
                         val table = getOrCreateTable(organizationId, oid, tableName, schemaName)
                         logger.info(
-                            "org {}: obtained table {}",
+                            "org {}: obtained changed table {}",
                             organizationId,
                             table.id
                         )
@@ -132,17 +218,36 @@ class BackgroundExternalDatabaseSyncingService(
                             table.id
                         )
                         tableIds.add(table.id)
+                        changedTableIds.add(table.id)
                         columnIds.addAll(columns.map { it.id })
+                        currentlySyncedTables[oid] = SyncedTable(table.id, fingerprint)
+                        tablesSynced.mark()
                     } catch (e: Exception) {
                         logger.error("error syncing organization table - org {}", organizationId, e)
                     }
                 }
 
-                removeNonexistentTablesAndColumnsForOrg(organizationId, tableIds, columnIds)
+                val removedTableIds = removeNonexistentTablesAndColumnsForOrg(
+                    organizationId,
+                    tableIds,
+                    changedTableIds,
+                    columnIds
+                )
+                syncedOrganizations[organizationId] = SyncedOrganization(
+                    currentlySyncedTables,
+                    if (fullSync) syncStart else previouslySynced!!.fullSyncAt
+                )
+
+                if (changedTableIds.isNotEmpty() || removedTableIds.isNotEmpty()) {
+                    syncLag.update(System.currentTimeMillis() - queueTime)
+                }
 
                 logger.info(
-                    "syncing organization database took {} ms - org {} db {}",
+                    "syncing organization database took {} ms ({} of {} tables synced, full sync {}) - org {} db {}",
                     timer.elapsed(TimeUnit.MILLISECONDS),
+                    changedTableIds.size,
+                    currentlySyncedTables.size,
+                    fullSync,
                     organizationId,
                     database.name
                 )
@@ -236,11 +341,18 @@ class BackgroundExternalDatabaseSyncingService(
         }.toSet()
     }
 
+    /**
+     * Deletes tables of the organization that no longer exist, and columns of changed or deleted tables that no
+     * longer exist. Columns of unchanged tables can not have changed.
+     *
+     * @return The ids of the deleted tables.
+     */
     private fun removeNonexistentTablesAndColumnsForOrg(
         orgId: UUID,
         existingTableIds: Set<UUID>,
+        changedTableIds: Set<UUID>,
         existingColumnIds: Set<UUID>
-    ) {
+    ): Set<UUID> {
         logger.info(
             "Removing non-existent tables and columns for org {}",
             orgId
@@ -259,15 +371,20 @@ class BackgroundExternalDatabaseSyncingService(
 
         // delete missing columns
 
-        val columnIdsToDelete = organizationExternalDatabaseColumns
-            .values(Predicates.equal(ORGANIZATION_ID_INDEX, orgId))
-            .filter { !existingColumnIds.contains(it.id) }
-            .groupBy { it.tableId }
-            .mapValues { it.value.map { c -> c.id }.toSet() }
+        val tableIdsToCheck = changedTableIds + tableIdsToDelete
+        if (tableIdsToCheck.isEmpty()) {
+            return tableIdsToDelete
+        }
+
+        val storedColumns = organizationExternalDatabaseColumns
+            .values(Predicates.`in`(TABLE_ID_INDEX, *tableIdsToCheck.toTypedArray()))
+        val columnIdsToDelete = getColumnIdsToDelete(storedColumns, tableIdsToCheck, existingColumnIds)
 
         if (columnIdsToDelete.isNotEmpty()) {
             edms.deleteExternalColumnObjects(orgId, columnIdsToDelete)
         }
+
+        return tableIdsToDelete
     }
 
     private fun createColumns(
@@ -343,3 +460,15 @@ class BackgroundExternalDatabaseSyncingService(
         auditingManager.recordEvents(events)
     }
 }
+
+internal data class SyncedTable(val tableId: UUID, val catalogFingerprint: String)
+
+/**
+ * @param tables The synced tables of an organization database, by table oid.
+ * @param fullSyncAt When every table of the organization database was last synced, regardless of its fingerprint.
+ */
+internal data class SyncedOrganization(val tables: Map<Long, SyncedTable>, val fullSyncAt: Long) {
+    fun isFullSyncDue(now: Long): Boolean {
+        return now - fullSyncAt >= BackgroundExternalDatabaseSyncingService.FULL_SYNC_RATE
+    }
+}
@@ -0,0 +1,49 @@
+package com.openlattice.indexing
+
+import org.elasticsearch.rest.RestStatus
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Additive increase / multiplicative decrease batch size for elasticsearch bulk requests.
+ *
+ * The batch size grows by [step] while bulk requests complete within [targetLatencyMillis], shrinks by a quarter when
+ * they take more than twice as long and is halved whenever elasticsearch rejects a bulk request because of its size or
+ * load, see [isSizeRelated]. Other failures leave the batch size alone.
+ */
+class AdaptiveBatchSize(
+        private val minimum: Int,
+        private val maximum: Int,
+        initial: Int,
+        private val step: Int,
+        private val targetLatencyMillis: Long
+) {
+    companion object {
+        /**
+         * @return Whether a bulk request that failed with [status] might succeed if it were smaller, which is the case
+         * when elasticsearch is out of queue or memory for it or the request is too large to accept.
+         */
+        @JvmStatic
+        fun isSizeRelated(status: RestStatus): Boolean {
+            return status == RestStatus.TOO_MANY_REQUESTS || status == RestStatus.REQUEST_ENTITY_TOO_LARGE
+        }
+    }
+
+    private val current = AtomicInteger(initial.coerceIn(minimum, maximum))
+
+    init {
+        check(minimum in 1..maximum) { "Minimum batch size must be positive and not exceed maximum batch size." }
+    }
+
+    fun get(): Int = current.get()
+
+    fun onSuccess(latencyMillis: Long) {
+        when {
+            latencyMillis <= targetLatencyMillis -> current.updateAndGet { (it + step).coerceAtMost(maximum) }
+            latencyMillis > 2 * targetLatencyMillis -> current.updateAndGet { (it * 3 / 4).coerceAtLeast(minimum) }
+        }
+    }
+
+    fun onRejected() {
+        current.updateAndGet { (it / 2).coerceAtLeast(minimum) }
+    }
+}
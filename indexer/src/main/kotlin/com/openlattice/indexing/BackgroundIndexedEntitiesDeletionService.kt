@@ -22,6 +22,7 @@ package com.openlattice.indexing
 
 import com.google.common.base.Stopwatch
 import com.hazelcast.core.HazelcastInstance
+import com.openlattice.data.ids.EntityKeyIdCache
 import com.openlattice.data.storage.DataSourceResolver
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService
 import com.openlattice.hazelcast.HazelcastMap
@@ -67,6 +68,7 @@ class BackgroundIndexedEntitiesDeletionService(
 
     private val entitySets = HazelcastMap.ENTITY_SETS.getMap(hazelcastInstance)
     private val deletedEntitySets = HazelcastMap.DELETED_ENTITY_SETS.getMap(hazelcastInstance)
+    private val entityKeyIdEpochs = HazelcastMap.ENTITY_KEY_ID_EPOCHS.getMap(hazelcastInstance)
 
     private val taskLock = ReentrantLock()
 
@@ -139,6 +141,7 @@ class BackgroundIndexedEntitiesDeletionService(
         while (deletableIds.isNotEmpty()) {
             deleteCount += dataQueryService.deleteEntities(entitySet.id, deletableIds).numUpdates
             deleteFromSyncIds(entitySet.id, deletableIds)
+            EntityKeyIdCache.invalidate(entityKeyIdEpochs, listOf(entitySet.id))
             deletableIds = getDeletedIdsBatch(entitySet, isCurrentEntitySet).toSet()
         }
 
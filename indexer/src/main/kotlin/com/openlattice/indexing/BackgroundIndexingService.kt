@@ -21,11 +21,19 @@
 
 package com.openlattice.indexing
 
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.geekbeast.hazelcast.ChunkedQueueSequence
 import com.google.common.base.Stopwatch
-import com.google.common.collect.Iterables
+import com.google.common.util.concurrent.Futures
+import com.google.common.util.concurrent.ListenableFuture
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.google.common.util.concurrent.MoreExecutors
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.hazelcast.core.HazelcastInstance
 import com.hazelcast.query.Predicates
 import com.openlattice.conductor.rpc.ConductorElasticsearchApi
+import com.openlattice.data.EntityDataKey
 import com.openlattice.data.storage.DataSourceResolver
 import com.openlattice.data.storage.IndexingMetadataManager
 import com.openlattice.data.storage.MetadataOption
@@ -34,6 +42,7 @@ import com.openlattice.edm.EntitySet
 import com.openlattice.edm.set.EntitySetFlag
 import com.openlattice.edm.type.PropertyType
 import com.openlattice.hazelcast.HazelcastMap
+import com.openlattice.hazelcast.HazelcastQueue
 import com.openlattice.indexer.IndexerEntitySetMetadata
 import com.openlattice.indexing.configuration.IndexerConfiguration
 import com.openlattice.postgres.DataTables.LAST_INDEX
@@ -49,25 +58,46 @@ import com.openlattice.postgres.mapstores.EntitySetMapstore
 import com.geekbeast.postgres.streams.BasePostgresIterable
 import com.geekbeast.postgres.streams.PreparedStatementHolderSupplier
 import org.apache.olingo.commons.api.edm.EdmPrimitiveTypeKind
+import org.elasticsearch.ExceptionsHelper
 import org.slf4j.LoggerFactory
 import org.springframework.scheduling.annotation.Scheduled
 import java.time.Instant
 import java.time.OffsetDateTime
 import java.util.*
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.Semaphore
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.locks.ReentrantLock
-import java.util.stream.StreamSupport
-import kotlin.streams.asSequence
 
 const val EXPIRATION_MILLIS = 60_000L
+
+/**
+ * Entities written in large batches are picked up from [HazelcastQueue.INDEXING_CHANGES], so the scan of the ids table
+ * only needs to recover changes that were dropped from or never made it to the queue. It still runs as often as it did
+ * before the queue existed, since the queue only keeps a single backup and changes lost with it wait for the scan.
+ */
 const val INDEX_RATE = 300_000L
 const val FETCH_SIZE = 128_000
 
 /** IMPORTANT! If this number is too big, elasticsearch will explode and everything will go down. Calibrate carefully. **/
 const val INDEX_SIZE = 1_000
 
+/**
+ * Bounds for the bulk request size of the background scan, which adapts between them based on bulk request latency and
+ * rejections. See [AdaptiveBatchSize].
+ */
+const val MIN_INDEX_SIZE = 100
+const val MAX_INDEX_SIZE = 5_000
+const val INDEX_SIZE_STEP = 100
+const val TARGET_BULK_LATENCY_MILLIS = 2_000L
+
 class BackgroundIndexingService(
         hazelcastInstance: HazelcastInstance,
+        metricRegistry: MetricRegistry,
         private val indexerConfiguration: IndexerConfiguration,
         private val resolver: DataSourceResolver,
         private val dataQueryService: PostgresEntityDataQueryService,
@@ -76,6 +106,19 @@ class BackgroundIndexingService(
 ) {
     companion object {
         private val logger = LoggerFactory.getLogger(BackgroundIndexingService::class.java)!!
+
+        /**
+         * Preparable sql statement to select entity key ids (with last write and version) that have not been indexed
+         * since their last write.
+         * Bind order is the following:
+         * 1. entity set id
+         * 2. entity key ids (uuid array)
+         */
+        private val CHANGED_ENTITY_DATA_KEYS_SQL = "SELECT ${ID.name}, ${LAST_WRITE.name}, ${VERSION.name} " +
+                "FROM ${IDS.name} " +
+                "WHERE ${ENTITY_SET_ID.name} = ? " +
+                "AND ${ID.name} = ANY(?) " +
+                "AND ${LAST_INDEX.name} < ${LAST_WRITE.name}"
     }
 
     private val propertyTypes = HazelcastMap.PROPERTY_TYPES.getMap( hazelcastInstance )
@@ -86,6 +129,102 @@ class BackgroundIndexingService(
 
     private val taskLock = ReentrantLock()
 
+    private val indexingChanges = HazelcastQueue.INDEXING_CHANGES.getQueue( hazelcastInstance )
+
+    private val indexingLag = metricRegistry.histogram(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "indexingLagMillis")
+    )
+    private val changesIndexed = metricRegistry.meter(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "changesIndexed")
+    )
+
+    private val fetchTimer = metricRegistry.timer(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "fetch")
+    )
+    private val bulkIndexTimer = metricRegistry.timer(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "bulkIndex")
+    )
+    private val markAsIndexedTimer = metricRegistry.timer(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "markAsIndexed")
+    )
+    private val entitiesFetched = metricRegistry.meter(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "entitiesFetched")
+    )
+    private val entitiesBulkIndexed = metricRegistry.meter(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "entitiesBulkIndexed")
+    )
+    private val bulkRejections = metricRegistry.meter(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "bulkRejections")
+    )
+    private val bulkFailures = metricRegistry.meter(
+            MetricRegistry.name(BackgroundIndexingService::class.java, "bulkFailures")
+    )
+
+    private val batchSize = AdaptiveBatchSize(
+            MIN_INDEX_SIZE,
+            MAX_INDEX_SIZE,
+            INDEX_SIZE,
+            INDEX_SIZE_STEP,
+            TARGET_BULK_LATENCY_MILLIS
+    )
+
+    /**
+     * Bounds the number of bulk requests in flight across all entity sets being indexed by the background scan.
+     */
+    private val inFlightBulkRequests = Semaphore(indexerConfiguration.maxInFlightBulkRequests)
+
+    /**
+     * Runs the bulk requests of the background scan. It has a thread and a queue slot for every permit of
+     * [inFlightBulkRequests], so submissions are only rejected once it is shut down.
+     */
+    private val bulkRequestExecutor: ListeningExecutorService = MoreExecutors.listeningDecorator(
+            ThreadPoolExecutor(
+                    indexerConfiguration.maxInFlightBulkRequests,
+                    indexerConfiguration.maxInFlightBulkRequests,
+                    0L,
+                    TimeUnit.MILLISECONDS,
+                    ArrayBlockingQueue(indexerConfiguration.maxInFlightBulkRequests),
+                    ThreadFactoryBuilder().setDaemon(true).setNameFormat("background-indexing-bulk-%d").build()
+            )
+    )
+
+    init {
+        metricRegistry.register(
+                MetricRegistry.name(BackgroundIndexingService::class.java, "indexingChangesQueueDepth"),
+                Gauge<Int> { indexingChanges.size }
+        )
+        metricRegistry.register(
+                MetricRegistry.name(BackgroundIndexingService::class.java, "batchSize"),
+                Gauge<Int> { batchSize.get() }
+        )
+    }
+
+    /**
+     * Consumes changes published by [com.openlattice.data.storage.IndexingChangeFeed] in micro-batches of at most
+     * [INDEX_SIZE] entities. The consumer never returns, so it runs on a thread of its own.
+     */
+    @Suppress("UNUSED")
+    private val indexingChangesJob = if (indexerConfiguration.backgroundIndexingEnabled) {
+        Executors.newSingleThreadExecutor(
+                ThreadFactoryBuilder().setDaemon(true).setNameFormat("indexing-changes-%d").build()
+        ).submit {
+            ChunkedQueueSequence(indexingChanges, INDEX_SIZE).forEach { changes ->
+                try {
+                    indexChanges(changes)
+                } catch (ex: Exception) {
+                    logger.error(
+                            "Unable to index batch of {} changes, leaving them to the background scan.",
+                            changes.size,
+                            ex
+                    )
+                }
+            }
+        }
+    } else {
+        logger.info("Not consuming indexing changes as background indexing is not enabled.")
+        null
+    }
+
     @Suppress("UNUSED")
     @Scheduled(fixedRate = INDEX_RATE)
     fun indexUpdatedEntitySets() {
@@ -177,6 +316,76 @@ class BackgroundIndexingService(
         ) { ResultSetAdapters.id(it) to ResultSetAdapters.lastWriteTyped(it) }
     }
 
+    /**
+     * Indexes or un-indexes a micro-batch of changed entities. The version is read back from the ids table instead of
+     * being carried along with the change, so that only the latest state of each entity gets indexed and changes that
+     * have already been indexed (for example by the background scan) are skipped.
+     *
+     * Each entity set is locked like it is by the background scan. Changes to an entity set that is already being
+     * indexed are left to the background scan, since they are still marked as not indexed in the ids table.
+     */
+    private fun indexChanges(changes: List<EntityDataKey>): Int {
+        val now = System.currentTimeMillis()
+
+        val indexCount = changes
+                .groupBy({ it.entitySetId }, { it.entityKeyId })
+                .entries
+                .sumBy { (entitySetId, entityKeyIds) ->
+                    val entitySet = entitySets[entitySetId] ?: return@sumBy 0
+                    if (tryLockEntitySet(entitySetId) != null) {
+                        logger.info(
+                                "Leaving {} changes of entity set {} to the background scan as it is being indexed.",
+                                entityKeyIds.size,
+                                entitySetId
+                        )
+                        return@sumBy 0
+                    }
+
+                    try {
+                        indexChangedEntities(IndexerEntitySetMetadata.fromEntitySet(entitySet), entityKeyIds, now)
+                    } finally {
+                        deleteIndexingLock(entitySetId)
+                    }
+                }
+
+        changesIndexed.mark(indexCount.toLong())
+        return indexCount
+    }
+
+    private fun indexChangedEntities(entitySet: IndexerEntitySetMetadata, entityKeyIds: List<UUID>, now: Long): Int {
+        val (active, tombstoned) = getChangedEntityDataKeys(entitySet.id, entityKeyIds)
+                .partition { (_, _, version) -> version > 0 }
+
+        (active + tombstoned).forEach { (_, lastWrite, _) ->
+            indexingLag.update(now - lastWrite.toInstant().toEpochMilli())
+        }
+
+        val indexed = if (active.isEmpty()) 0 else indexEntities(
+                entitySet,
+                active.associate { (id, lastWrite, _) -> id to lastWrite },
+                getPropertyTypeForEntityType(entitySet.entityTypeId)
+        )
+        val unindexed = if (tombstoned.isEmpty()) 0 else unindexEntities(
+                entitySet,
+                tombstoned.associate { (id, lastWrite, _) -> id to lastWrite }
+        )
+
+        return indexed + unindexed
+    }
+
+    private fun getChangedEntityDataKeys(
+            entitySetId: UUID,
+            entityKeyIds: Collection<UUID>
+    ): BasePostgresIterable<Triple<UUID, OffsetDateTime, Long>> {
+        val hds = resolver.resolve(entitySetId)
+        return BasePostgresIterable(
+                PreparedStatementHolderSupplier(hds, CHANGED_ENTITY_DATA_KEYS_SQL, FETCH_SIZE) { ps ->
+                    ps.setObject(1, entitySetId)
+                    ps.setArray(2, PostgresArrays.createUuidArray(ps.connection, entityKeyIds))
+                }
+        ) { Triple(ResultSetAdapters.id(it), ResultSetAdapters.lastWriteTyped(it), ResultSetAdapters.version(it)) }
+    }
+
     private fun getPropertyTypeForEntityType(entityTypeId: UUID): Map<UUID, PropertyType> {
         return propertyTypes
                 .getAll(entityTypes[entityTypeId]?.properties ?: setOf())
@@ -216,27 +425,36 @@ class BackgroundIndexingService(
 
         val propertyTypes = getPropertyTypeForEntityType(entitySet.entityTypeId)
 
-        val entityKeyIdsWithLastWrite = getEntityDataKeys(entitySet, reindexAll, indexTombstoned)
-        if (Iterables.size(entityKeyIdsWithLastWrite) == 0) {
+        val entityKeyIdsWithLastWrite = getEntityDataKeys(entitySet, reindexAll, indexTombstoned).iterator()
+        if (!entityKeyIdsWithLastWrite.hasNext()) {
             return 0
         }
 
         val timer = Stopwatch.createStarted()
         logger.info("starting to index entity set {}", entitySet.id)
 
-        val indexCount = StreamSupport
-            .stream( entityKeyIdsWithLastWrite.spliterator(), false )
-            .asSequence()
-            .chunked(INDEX_SIZE)
-            .sumBy {
-                refreshExpiration( entitySet.id )
-                if ( indexTombstoned ) {
-                    unindexEntities(entitySet, it.toMap(), !reindexAll)
-                } else {
-                    indexEntities(entitySet, it.toMap(), propertyTypes, !reindexAll)
-                }
+        // Entities of the next batch are read from postgres while previous batches are being formatted and sent to
+        // elasticsearch. Only as many bulk requests as can be in flight are kept around before waiting on the oldest.
+        val bulkRequests = ArrayDeque<ListenableFuture<Int>>()
+        var indexCount = 0
+        while (entityKeyIdsWithLastWrite.hasNext()) {
+            if (bulkRequests.size >= indexerConfiguration.maxInFlightBulkRequests) {
+                indexCount += bulkRequests.removeFirst().get()
             }
 
+            val batchToIndex = nextBatch(entityKeyIdsWithLastWrite, batchSize.get())
+            refreshExpiration( entitySet.id )
+
+            bulkRequests += if ( indexTombstoned ) {
+                submitBulkRequest { unindexEntities(entitySet, batchToIndex, !reindexAll) }
+            } else {
+                val entitiesById = getEntities(entitySet, batchToIndex, propertyTypes)
+                submitBulkRequest { writeEntities(entitySet, batchToIndex, entitiesById, !reindexAll) }
+            }
+        }
+
+        indexCount += bulkRequests.sumBy { it.get() }
+
         logger.info(
             "indexing entity set took {} ms - entity set {} index count {}",
             timer.elapsed(TimeUnit.MILLISECONDS),
@@ -247,25 +465,87 @@ class BackgroundIndexingService(
         return indexCount
     }
 
+    private fun nextBatch(
+            entityKeyIdsWithLastWrite: Iterator<Pair<UUID, OffsetDateTime>>,
+            size: Int
+    ): Map<UUID, OffsetDateTime> {
+        val batch = LinkedHashMap<UUID, OffsetDateTime>(size)
+        while (batch.size < size && entityKeyIdsWithLastWrite.hasNext()) {
+            val (id, lastWrite) = entityKeyIdsWithLastWrite.next()
+            batch[id] = lastWrite
+        }
+        return batch
+    }
+
+    /**
+     * Submits a bulk request to [bulkRequestExecutor], blocking while [inFlightBulkRequests] are already in flight. A
+     * bulk request that is rejected by the executor is run on the calling thread instead, so no batch is dropped.
+     */
+    private fun submitBulkRequest(bulkRequest: () -> Int): ListenableFuture<Int> {
+        inFlightBulkRequests.acquire()
+        val task = Callable<Int> {
+            try {
+                bulkRequest()
+            } catch (ex: Exception) {
+                logger.error("Unable to execute bulk request.", ex)
+                0
+            } finally {
+                inFlightBulkRequests.release()
+            }
+        }
+
+        return try {
+            bulkRequestExecutor.submit(task)
+        } catch (ex: RejectedExecutionException) {
+            logger.warn("Bulk request executor rejected a bulk request, running it on the calling thread.", ex)
+            Futures.immediateFuture(task.call())
+        }
+    }
+
     internal fun indexEntities(
         entitySet: IndexerEntitySetMetadata,
         batchToIndex: Map<UUID, OffsetDateTime>,
         propertyTypeMap: Map<UUID, PropertyType>,
         markAsIndexed: Boolean = true
     ): Int {
+        val entitiesById = getEntities(entitySet, batchToIndex, propertyTypeMap)
+        return writeEntities(entitySet, batchToIndex, entitiesById, markAsIndexed)
+    }
 
+    private fun getEntities(
+        entitySet: IndexerEntitySetMetadata,
+        batchToIndex: Map<UUID, OffsetDateTime>,
+        propertyTypeMap: Map<UUID, PropertyType>
+    ): Map<UUID, Map<UUID, Set<Any>>> {
         val timer = Stopwatch.createStarted()
         logger.info("starting to index batch - entity set {} batch size {}", entitySet.id, batchToIndex.size)
 
-        val entitiesById = dataQueryService.getEntitiesWithPropertyTypeIds(
-                mapOf(entitySet.id to Optional.of(batchToIndex.keys)),
-                mapOf(entitySet.id to propertyTypeMap),
-                mapOf(),
-                EnumSet.of(MetadataOption.LAST_WRITE)
-        ).toMap()
+        val entitiesById = fetchTimer.time().use {
+            dataQueryService.getEntitiesWithPropertyTypeIds(
+                    mapOf(entitySet.id to Optional.of(batchToIndex.keys)),
+                    mapOf(entitySet.id to propertyTypeMap),
+                    mapOf(),
+                    EnumSet.of(MetadataOption.LAST_WRITE)
+            ).toMap()
+        }
+        entitiesFetched.mark(entitiesById.size.toLong())
 
         logger.info("getting batch entities took {} ms", timer.elapsed(TimeUnit.MILLISECONDS))
-        timer.reset().start()
+
+        return entitiesById
+    }
+
+    /**
+     * Formats and bulk indexes [entitiesById], adapting [batchSize] to the latency of the bulk request and to
+     * rejections by elasticsearch.
+     */
+    private fun writeEntities(
+        entitySet: IndexerEntitySetMetadata,
+        batchToIndex: Map<UUID, OffsetDateTime>,
+        entitiesById: Map<UUID, Map<UUID, Set<Any>>>,
+        markAsIndexed: Boolean
+    ): Int {
+        val timer = Stopwatch.createStarted()
 
         if (entitiesById.size != batchToIndex.size) {
             logger.error(
@@ -275,16 +555,13 @@ class BackgroundIndexingService(
             )
         }
 
-        if (
-            entitiesById.isEmpty()
-            || !elasticsearchApi.createBulkEntityData(entitySet.entityTypeId, entitySet.id, entitiesById)
-        ) {
+        if (entitiesById.isEmpty() || !bulkIndex(entitySet, entitiesById)) {
             logger.error("error indexing batch - entity set {} batch size {}", entitySet.id, batchToIndex.size)
             return 0
         }
 
         val indexCount = if (markAsIndexed) {
-            dataManager.markAsIndexed(mapOf(entitySet.id to batchToIndex))
+            markAsIndexedTimer.time().use { dataManager.markAsIndexed(mapOf(entitySet.id to batchToIndex)) }
         } else {
             batchToIndex.size
         }
@@ -300,6 +577,32 @@ class BackgroundIndexingService(
 
     }
 
+    private fun bulkIndex(entitySet: IndexerEntitySetMetadata, entitiesById: Map<UUID, Map<UUID, Set<Any>>>): Boolean {
+        val timer = bulkIndexTimer.time()
+        val indexed = try {
+            elasticsearchApi.createBulkEntityData(entitySet.entityTypeId, entitySet.id, entitiesById)
+        } catch (ex: Exception) {
+            if (!AdaptiveBatchSize.isSizeRelated(ExceptionsHelper.status(ExceptionsHelper.unwrapCause(ex)))) {
+                throw ex
+            }
+            logger.warn("Elasticsearch rejected bulk request of {} entities.", entitiesById.size, ex)
+            batchSize.onRejected()
+            bulkRejections.mark()
+            return false
+        }
+        val latencyMillis = TimeUnit.NANOSECONDS.toMillis(timer.stop())
+
+        if (indexed) {
+            batchSize.onSuccess(latencyMillis)
+            entitiesBulkIndexed.mark(entitiesById.size.toLong())
+        } else {
+            //Failures such as mapping errors or a lost connection are not caused by the size of the request.
+            bulkFailures.mark()
+        }
+
+        return indexed
+    }
+
     private fun unindexEntities(
         entitySet: IndexerEntitySetMetadata,
         batchToIndex: Map<UUID, OffsetDateTime>,
@@ -42,6 +42,7 @@ private const val BACKGROUND_LINKING_INDEXING_ENABLED = "background-linking-inde
 private const val BACKGROUND_EXPIRED_DATA_DELETION_ENABLED = "background-expired-data-deletion-enabled"
 private const val BACKGROUND_EXTERNAL_DATABASE_SYNCING_ENABLED = "background-external-database-syncing-enabled"
 private const val BACKGROUND_DELETION_ENABLED = "background-deletion-enabled"
+private const val MAX_IN_FLIGHT_BULK_REQUESTS = "max-in-flight-bulk-requests"
 
 @ReloadableConfiguration(uri = "indexer.yaml")
 data class IndexerConfiguration(
@@ -52,7 +53,8 @@ data class IndexerConfiguration(
         @JsonProperty(BACKGROUND_EXPIRED_DATA_DELETION_ENABLED) val backgroundExpiredDataDeletionEnabled: Boolean = true,
         @JsonProperty(BACKGROUND_EXTERNAL_DATABASE_SYNCING_ENABLED) val backgroundExternalDatabaseSyncingEnabled: Boolean = true,
         @JsonProperty(BACKGROUND_DELETION_ENABLED) val backgroundDeletionEnabled: Boolean = true,
-        @JsonProperty("parallelism") val parallelism : Int = Runtime.getRuntime().availableProcessors()
+        @JsonProperty("parallelism") val parallelism : Int = Runtime.getRuntime().availableProcessors(),
+        @JsonProperty(MAX_IN_FLIGHT_BULK_REQUESTS) val maxInFlightBulkRequests: Int = 4
 ) : Configuration {
     companion object {
         @JvmStatic
@@ -0,0 +1,107 @@
+package com.openlattice
+
+import com.geekbeast.postgres.PostgresDatatype
+import com.openlattice.organization.ExternalColumn
+import com.openlattice.organizations.TableInfo
+import org.junit.Assert
+import org.junit.Test
+import java.util.*
+
+/**
+ * Checks which tables of an organization database are skipped by a sync, and which stored columns are removed.
+ */
+class BackgroundExternalDatabaseSyncingServiceTest {
+    private val organizationId = UUID.randomUUID()
+
+    @Test
+    fun testOnlyTablesWithSameFingerprintAreUnchanged() {
+        val unchanged = SyncedTable(UUID.randomUUID(), "a")
+        val changed = SyncedTable(UUID.randomUUID(), "b")
+        val dropped = SyncedTable(UUID.randomUUID(), "c")
+        val synced = mapOf(1L to unchanged, 2L to changed, 3L to dropped)
+
+        val tableInfos = listOf(tableInfo(1L, "a"), tableInfo(2L, "b2"), tableInfo(4L, "d"))
+
+        Assert.assertEquals(
+                mapOf(1L to unchanged),
+                BackgroundExternalDatabaseSyncingService.getUnchangedTables(synced, tableInfos)
+        )
+    }
+
+    @Test
+    fun testRecreatedTableIsNotUnchanged() {
+        // a table that is dropped and recreated with the same definition gets a new oid
+        val synced = mapOf(1L to SyncedTable(UUID.randomUUID(), "a"))
+
+        Assert.assertEquals(
+                mapOf<Long, SyncedTable>(),
+                BackgroundExternalDatabaseSyncingService.getUnchangedTables(synced, listOf(tableInfo(2L, "a")))
+        )
+    }
+
+    @Test
+    fun testFullSyncIsDueHourly() {
+        val synced = SyncedOrganization(mapOf(1L to SyncedTable(UUID.randomUUID(), "a")), 1_000L)
+
+        Assert.assertFalse(synced.isFullSyncDue(1_000L))
+        Assert.assertFalse(synced.isFullSyncDue(1_000L + BackgroundExternalDatabaseSyncingService.FULL_SYNC_RATE - 1))
+        Assert.assertTrue(synced.isFullSyncDue(1_000L + BackgroundExternalDatabaseSyncingService.FULL_SYNC_RATE))
+    }
+
+    @Test
+    fun testOnlyMissingColumnsOfCheckedTablesAreDeleted() {
+        val changedTableId = UUID.randomUUID()
+        val deletedTableId = UUID.randomUUID()
+        val unchangedTableId = UUID.randomUUID()
+
+        val kept = column(changedTableId)
+        val removed = column(changedTableId)
+        val ofDeletedTable = column(deletedTableId)
+        val ofUnchangedTable = column(unchangedTableId)
+
+        val columnIdsToDelete = BackgroundExternalDatabaseSyncingService.getColumnIdsToDelete(
+                listOf(kept, removed, ofDeletedTable, ofUnchangedTable),
+                setOf(changedTableId, deletedTableId),
+                setOf(kept.id)
+        )
+
+        Assert.assertEquals(
+                mapOf(changedTableId to setOf(removed.id), deletedTableId to setOf(ofDeletedTable.id)),
+                columnIdsToDelete
+        )
+    }
+
+    @Test
+    fun testNoColumnsAreDeletedWhenAllExist() {
+        val tableId = UUID.randomUUID()
+        val columns = listOf(column(tableId), column(tableId))
+
+        Assert.assertEquals(
+                mapOf<UUID, Set<UUID>>(),
+                BackgroundExternalDatabaseSyncingService.getColumnIdsToDelete(
+                        columns,
+                        setOf(tableId),
+                        columns.map { it.id }.toSet()
+                )
+        )
+    }
+
+    private fun tableInfo(oid: Long, fingerprint: String): TableInfo {
+        return TableInfo(oid, "table_$oid", "openlattice", listOf("id"), fingerprint)
+    }
+
+    private fun column(tableId: UUID): ExternalColumn {
+        val id = UUID.randomUUID()
+        return ExternalColumn(
+                id,
+                "column_$id",
+                "column_$id",
+                Optional.empty(),
+                tableId,
+                organizationId,
+                PostgresDatatype.TEXT,
+                false,
+                0
+        )
+    }
+}
@@ -0,0 +1,80 @@
+package com.openlattice.indexing
+
+import org.elasticsearch.rest.RestStatus
+import org.junit.Assert
+import org.junit.Test
+
+/**
+ * Checks how the bulk indexing batch size reacts to latency and rejections.
+ */
+class AdaptiveBatchSizeTest {
+
+    @Test
+    fun testGrowsWhileFast() {
+        val batchSize = AdaptiveBatchSize(10, 100, 50, 10, 1_000)
+
+        batchSize.onSuccess(1_000)
+        Assert.assertEquals(60, batchSize.get())
+
+        repeat(10) { batchSize.onSuccess(0) }
+        Assert.assertEquals(100, batchSize.get())
+    }
+
+    @Test
+    fun testHoldsBetweenTargetAndTwiceTarget() {
+        val batchSize = AdaptiveBatchSize(10, 100, 50, 10, 1_000)
+
+        batchSize.onSuccess(2_000)
+        Assert.assertEquals(50, batchSize.get())
+    }
+
+    @Test
+    fun testShrinksWhenSlow() {
+        val batchSize = AdaptiveBatchSize(10, 100, 80, 10, 1_000)
+
+        batchSize.onSuccess(2_001)
+        Assert.assertEquals(60, batchSize.get())
+
+        repeat(10) { batchSize.onSuccess(5_000) }
+        Assert.assertEquals(10, batchSize.get())
+    }
+
+    @Test
+    fun testHalvesWhenRejected() {
+        val batchSize = AdaptiveBatchSize(10, 100, 100, 10, 1_000)
+
+        batchSize.onRejected()
+        Assert.assertEquals(50, batchSize.get())
+
+        repeat(10) { batchSize.onRejected() }
+        Assert.assertEquals(10, batchSize.get())
+
+        batchSize.onSuccess(0)
+        Assert.assertEquals(20, batchSize.get())
+    }
+
+    @Test
+    fun testInitialIsClamped() {
+        Assert.assertEquals(100, AdaptiveBatchSize(10, 100, 1_000, 10, 1_000).get())
+        Assert.assertEquals(10, AdaptiveBatchSize(10, 100, 1, 10, 1_000).get())
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun testMinimumMustBePositive() {
+        AdaptiveBatchSize(0, 100, 50, 10, 1_000)
+    }
+
+    @Test
+    fun testOnlySizeRelatedStatusesShrink() {
+        Assert.assertTrue(AdaptiveBatchSize.isSizeRelated(RestStatus.TOO_MANY_REQUESTS))
+        Assert.assertTrue(AdaptiveBatchSize.isSizeRelated(RestStatus.REQUEST_ENTITY_TOO_LARGE))
+
+        listOf(
+                RestStatus.BAD_REQUEST,
+                RestStatus.NOT_FOUND,
+                RestStatus.CONFLICT,
+                RestStatus.INTERNAL_SERVER_ERROR,
+                RestStatus.SERVICE_UNAVAILABLE
+        ).forEach { Assert.assertFalse(AdaptiveBatchSize.isSizeRelated(it)) }
+    }
+}
@@ -37,6 +37,7 @@ import com.openlattice.data.ids.PostgresEntityKeyIdService;
 import com.openlattice.data.storage.ByteBlobDataManager;
 import com.openlattice.data.storage.DataSourceResolver;
 import com.openlattice.data.storage.EntityDatastore;
+import com.openlattice.data.storage.IndexingChangeFeed;
 import com.openlattice.data.storage.IndexingMetadataManager;
 import com.openlattice.data.storage.postgres.PostgresEntityDataQueryService;
 import com.openlattice.data.storage.postgres.PostgresEntityDatastore;
@@ -50,6 +51,7 @@ import com.geekbeast.jdbc.DataSourceManager;
 import com.openlattice.linking.BackgroundLinkingService;
 import com.openlattice.linking.DataLoader;
 import com.openlattice.linking.EdmCachingDataLoader;
+import com.openlattice.linking.LinkingCandidateScheduler;
 import com.openlattice.linking.LinkingConfiguration;
 import com.openlattice.linking.LinkingQueryService;
 import com.openlattice.linking.PostgresLinkingFeedbackService;
@@ -133,7 +135,9 @@ public class LinkerPostConfigurationServicesPod {
     public EntityKeyIdService idService() {
         return new PostgresEntityKeyIdService(
                 dataSourceResolver(),
-                idGeneration() );
+                idGeneration(),
+                hazelcastInstance,
+                metricRegistry );
     }
 
     @Bean
@@ -174,6 +178,11 @@ public class LinkerPostConfigurationServicesPod {
         return new PostgresLinkingQueryService( hikariDataSource );
     }
 
+    @Bean
+    public IndexingChangeFeed indexingChangeFeed() {
+        return new IndexingChangeFeed( hazelcastInstance );
+    }
+
     @Bean
     public EntityDatastore entityDatastore() {
         return new PostgresEntityDatastore(
@@ -183,7 +192,8 @@ public class LinkerPostConfigurationServicesPod {
                 metricRegistry,
                 eventBus,
                 postgresLinkingFeedbackQueryService,
-                lqs()
+                lqs(),
+                indexingChangeFeed()
         );
     }
 
@@ -221,10 +231,19 @@ public class LinkerPostConfigurationServicesPod {
                 clusterer(),
                 lqs(),
                 postgresLinkingFeedbackQueryService,
-                edm.getEntityTypeUuids( linkingConfiguration.getEntityTypes() ),
                 linkingConfiguration );
     }
 
+    @Bean
+    public LinkingCandidateScheduler linkingCandidateScheduler() {
+        return new LinkingCandidateScheduler( executor,
+                hazelcastInstance,
+                lqs(),
+                edm.getEntityTypeUuids( linkingConfiguration.getEntityTypes() ),
+                linkingConfiguration,
+                metricRegistry );
+    }
+
     @Bean
     public Clusterer clusterer() {
         return new PostgresClusterer(
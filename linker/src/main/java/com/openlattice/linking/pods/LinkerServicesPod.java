@@ -160,7 +160,10 @@ public class LinkerServicesPod {
 
     @Bean
     public AuthorizationManager authorizationManager() {
-        return new HazelcastAuthorizationService( hazelcastInstance, eventBus, principalsMapManager() );
+        return new HazelcastAuthorizationService( hazelcastInstance,
+                eventBus,
+                principalsMapManager(),
+                metricRegistry );
     }
 
     @Bean
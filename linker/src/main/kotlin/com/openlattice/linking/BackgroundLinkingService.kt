@@ -28,11 +28,8 @@ import com.google.common.base.Stopwatch
 import com.google.common.collect.Sets
 import com.google.common.util.concurrent.ListeningExecutorService
 import com.hazelcast.core.HazelcastInstance
-import com.hazelcast.query.Predicates
 import com.openlattice.data.EntityDataKey
 import com.openlattice.data.EntityKeyIdService
-import com.openlattice.edm.EntitySet
-import com.openlattice.edm.set.EntitySetFlag
 import com.openlattice.hazelcast.HazelcastMap
 import com.openlattice.hazelcast.HazelcastQueue
 import com.openlattice.linking.blocking.Blocker
@@ -40,10 +37,8 @@ import com.openlattice.linking.clustering.Cluster
 import com.openlattice.linking.clustering.Clusterer
 import com.openlattice.linking.clustering.KeyedCluster
 import com.openlattice.linking.matching.Matcher
-import com.openlattice.postgres.mapstores.EntitySetMapstore
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
-import org.springframework.scheduling.annotation.Scheduled
 import org.springframework.stereotype.Component
 import java.time.Instant
 import java.util.*
@@ -68,7 +63,6 @@ class BackgroundLinkingService(
         private val clusterer: Clusterer,
         private val lqs: LinkingQueryService,
         private val linkingFeedbackService: PostgresLinkingFeedbackService,
-        private val linkableTypes: Set<UUID>,
         private val configuration: LinkingConfiguration
 ) {
     companion object {
@@ -91,55 +85,8 @@ class BackgroundLinkingService(
         }
     }
 
-    private val entitySets = HazelcastMap.ENTITY_SETS.getMap(hazelcastInstance)
     private val linkingLocks = HazelcastMap.LINKING_LOCKS.getMap(hazelcastInstance)
     private val candidates = HazelcastQueue.LINKING_CANDIDATES.getQueue( hazelcastInstance )
-    private val priorityEntitySets = configuration.whitelist.orElseGet { setOf() }
-
-    @Suppress("UNUSED")
-    @Scheduled(fixedRate = LINKING_RATE)
-    fun enqueue() {
-        if ( candidates.isNotEmpty() ){
-            logger.info("Linking queue still has candidates on it, not adding more at the moment")
-            return
-        }
-        try {
-            val filteredLinkableEntitySetIds = entitySets.keySet(
-                    Predicates.and(
-                            Predicates.`in`<UUID, EntitySet>(EntitySetMapstore.ENTITY_TYPE_ID_INDEX, *linkableTypes.toTypedArray()),
-                            Predicates.notEqual<UUID,EntitySet>(EntitySetMapstore.FLAGS_INDEX, EntitySetFlag.LINKING)
-                    )
-            )
-
-            (priorityEntitySets + filteredLinkableEntitySetIds).filter {
-                val es = entitySets[it]
-                if ( es == null ){
-                    logger.info("Entityset with id {} doesnt exist", it)
-                    return@filter false
-                }
-
-                val keep = filteredLinkableEntitySetIds.contains(it)
-                if ( keep ) {
-                    logger.info("including entityset {} for candidate linking", es.id )
-                } else {
-                    logger.info("excluding entityset {} because its not linkable", es.name)
-                }
-                keep
-            }.forEach { esid ->
-                val es = entitySets.getValue(esid)
-                logger.info("Starting to queue linking candidates from entity set {}({})", es.name, esid)
-                val forLinking = lqs.getEntitiesNeedingLinking(
-                        esid,
-                        3 * configuration.loadSize
-                )
-                logger.debug("Entities needing linking: {}", forLinking)
-                candidates.addAll(forLinking)
-                logger.info( "Queued entities needing linking")
-            }
-        } catch (ex: Exception) {
-            logger.info("Encountered error while updating candidates for linking.", ex)
-        }
-    }
 
     private val limiter = Semaphore(configuration.parallelism * 4)
 
@@ -147,28 +94,29 @@ class BackgroundLinkingService(
     private val linkingWorker = if (isLinkingEnabled()) executor.submit {
         while (true) {
             try {
-                val candidate = candidates.take()
+                val batch = takeCandidates()
                 limiter.acquire()
                 executor.submit( Runnable {
-                    if( !tryLockCandidate(candidate) ) {
-                        logger.info("candidate already locked for linking: {}\nNot resubmitting", candidate)
-                        return@Runnable
+                    val lockedCandidates = batch.filter { candidate ->
+                        val locked = tryLockCandidate(candidate)
+                        if (locked) {
+                            logger.info("candidate freshly locked for linking: {}", candidate)
+                        } else {
+                            logger.info("candidate already locked for linking: {}\nNot resubmitting", candidate)
+                        }
+                        locked
                     }
-                    logger.info("candidate freshly locked for linking: {}", candidate)
                     try {
-                        logger.info("Linking {}", candidate)
-                        metrics.time(
-                                BackgroundLinkingService::class.java,
-                                "linking"
-                        ) { _, _->
-                            link(candidate)
+                        when (lockedCandidates.size) {
+                            0 -> Unit
+                            1 -> linkCandidate(lockedCandidates.first())
+                            else -> linkCandidates(lockedCandidates)
                         }
-                        logger.info("Finished linking {}", candidate)
-                    } catch (ex: Exception) {
-                        logger.error("Unable to link {}.", candidate, ex)
                     } finally {
-                        logger.info("Unlocking candidate after linking: {}", candidate)
-                        unlock(candidate)
+                        lockedCandidates.forEach { candidate ->
+                            logger.info("Unlocking candidate after linking: {}", candidate)
+                            unlock(candidate)
+                        }
                         limiter.release()
                     }
                 })
@@ -178,6 +126,49 @@ class BackgroundLinkingService(
         }
     } else null
 
+    /**
+     * Takes the next candidate from the queue, along with up to batch size - 1 more candidates when batch linking is
+     * enabled.
+     */
+    private fun takeCandidates(): List<EntityDataKey> {
+        val batch = mutableListOf(candidates.take())
+        if (configuration.batchLinkingEnabled && configuration.batchSize > 1) {
+            candidates.drainTo(batch, configuration.batchSize - 1)
+        }
+        return batch.distinct()
+    }
+
+    private fun linkCandidate(candidate: EntityDataKey) {
+        try {
+            logger.info("Linking {}", candidate)
+            metrics.time(
+                    BackgroundLinkingService::class.java,
+                    "linking"
+            ) { _, _->
+                link(candidate)
+            }
+            logger.info("Finished linking {}", candidate)
+        } catch (ex: Exception) {
+            logger.error("Unable to link {}.", candidate, ex)
+        }
+    }
+
+    private fun linkCandidates(batch: List<EntityDataKey>) {
+        try {
+            logger.info("Linking batch of {} candidates", batch.size)
+            metrics.time(
+                    BackgroundLinkingService::class.java,
+                    "linkingBatch"
+            ) { _, _->
+                linkBatch(batch)
+            }
+            logger.info("Finished linking batch of {} candidates", batch.size)
+        } catch (ex: Exception) {
+            logger.error("Unable to link batch of {} candidates, linking them individually.", batch.size, ex)
+            batch.forEach { linkCandidate(it) }
+        }
+    }
+
     /**
      * Links a candidate entity to other matching entities.
      *
@@ -211,19 +202,7 @@ class BackgroundLinkingService(
         // v TODO v Getting Arithmetic exceptions in here
         try {
             val (linkingId, scores) = lqs.lockClustersDoWorkAndCommit(candidate, dataKeys) { clusters ->
-                val maybeBestCluster = clusters.asSequence()
-                        .map { clusterer.cluster(candidate, KeyedCluster.fromEntry(it)) }
-                        .filter { it.score > MINIMUM_SCORE }
-                        .maxByOrNull { it.score }
-                return@lockClustersDoWorkAndCommit if (maybeBestCluster != null) {
-                    Triple(maybeBestCluster.clusterId, maybeBestCluster.cluster, false)
-                } else {
-                    val linkingId = ids.reserveLinkingIds(1).first()
-                    val block = Block(candidate, mapOf(candidate to initialBlock.entities.getValue(candidate)))
-                    val cluster = matcher.match(block).matches
-                    //TODO: When creating new cluster do we really need to re-match or can we assume score of 1.0?
-                    Triple(linkingId, cluster, true)
-                }
+                clusterCandidate(candidate, initialBlock, clusters)
             }
             insertMatches(linkingId, candidate, Cluster(scores))
         } catch (ex: Exception) {
@@ -232,6 +211,82 @@ class BackgroundLinkingService(
         }
     }
 
+    /**
+     * Links a batch of candidate entities.
+     *
+     * 1) Blocks all candidates with a single multi-search
+     * 2) Scores the pairs of all blocks in a single pass of the model
+     * 3) Clusters all candidates and inserts their match scores in a single transaction
+     * 4) Updates the linked entities table grouped by linking id.
+     *
+     * @param batch The data keys for the entities to perform linking upon.
+     */
+    private fun linkBatch(batch: List<EntityDataKey>) {
+        val clearedCount = lqs.deleteNeighborhoods(batch)
+        logger.debug("Cleared {} neighbors from neighborhoods of {} candidates", clearedCount, batch.size)
+
+        val sw = Stopwatch.createStarted()
+        val initialBlocks = blocker.blockAll(batch)
+        logger.info("Blocking {} candidates took {} ms.", batch.size, sw.elapsed(TimeUnit.MILLISECONDS))
+
+        // candidates without linking data get an empty block, which has nothing to score or start a cluster with, so
+        // they are left out instead of failing the whole batch
+        val (blockedCandidates, emptyCandidates) = initialBlocks.keys.partition { candidate ->
+            !initialBlocks.getValue(candidate).entities[candidate].isNullOrEmpty()
+        }
+        if (emptyCandidates.isNotEmpty()) {
+            logger.info("Skipping {} candidates without linking data: {}", emptyCandidates.size, emptyCandidates)
+        }
+        if (blockedCandidates.isEmpty()) {
+            return
+        }
+
+        val initializedBlocks = matcher.initializeAll(blockedCandidates.map(initialBlocks::getValue))
+        logger.info("Initialization took {} ms", sw.elapsed(TimeUnit.MILLISECONDS))
+
+        val dataKeys = blockedCandidates.zip(initializedBlocks) { candidate, initializedBlock ->
+            candidate to collectKeys(initializedBlock.matches)
+        }.toMap()
+
+        try {
+            val results = lqs.lockClustersDoWorkAndCommitAll(dataKeys) { candidate, clusters ->
+                clusterCandidate(candidate, initialBlocks.getValue(candidate), clusters)
+            }
+
+            val newMembers = results.entries.groupBy({ it.value.first }, { it.key }).mapValues { it.value.toSet() }
+            val clusters = newMembers.mapValues { (_, members) ->
+                groupByEntitySet(collectKeys(results.getValue(members.first()).second) + members)
+            }
+            lqs.updateLinkingInformation(newMembers, clusters)
+        } catch (ex: Exception) {
+            logger.error("An error occurred while performing batch linking.", ex)
+            throw IllegalStateException("Error occured while performing batch linking.", ex)
+        }
+    }
+
+    /**
+     * Decides whether to merge the candidate into the best scoring existing cluster or to start a new cluster.
+     */
+    private fun clusterCandidate(
+            candidate: EntityDataKey,
+            initialBlock: Block,
+            clusters: Map<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>>
+    ): Triple<UUID, Map<EntityDataKey, Map<EntityDataKey, Double>>, Boolean> {
+        val maybeBestCluster = clusters.asSequence()
+                .map { clusterer.cluster(candidate, KeyedCluster.fromEntry(it)) }
+                .filter { it.score > MINIMUM_SCORE }
+                .maxByOrNull { it.score }
+        return if (maybeBestCluster != null) {
+            Triple(maybeBestCluster.clusterId, maybeBestCluster.cluster, false)
+        } else {
+            val linkingId = ids.reserveLinkingIds(1).first()
+            val block = Block(candidate, mapOf(candidate to initialBlock.entities.getValue(candidate)))
+            val cluster = matcher.match(block).matches
+            //TODO: When creating new cluster do we really need to re-match or can we assume score of 1.0?
+            Triple(linkingId, cluster, true)
+        }
+    }
+
     private fun clearNeighborhoods(candidate: EntityDataKey) {
         logger.debug("Starting neighborhood cleanup of {}", candidate)
         // TODO: gather Positive feedbacks
@@ -246,12 +301,16 @@ class BackgroundLinkingService(
             newMember: EntityDataKey,
             scores: Cluster
     ) {
-        val scoresAsEsidToEkids = (collectKeys(scores) + newMember)
+        val scoresAsEsidToEkids = groupByEntitySet(collectKeys(scores) + newMember)
+        lqs.updateLinkingInformation( linkingId, newMember, scoresAsEsidToEkids )
+    }
+
+    private fun groupByEntitySet(dataKeys: Set<EntityDataKey>): Map<UUID, LinkedHashSet<UUID>> {
+        return dataKeys
                 .groupBy { edk -> edk.entitySetId }
                 .mapValues { (_, edks) ->
                     Sets.newLinkedHashSet(edks.map { it.entityKeyId })
                 }
-        lqs.updateLinkingInformation( linkingId, newMember, scoresAsEsidToEkids )
     }
 
     private fun isLinkingEnabled(): Boolean {
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2018. OpenLattice, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * You can contact the owner of the copyright at support@openlattice.com
+ *
+ *
+ */
+
+package com.openlattice.linking
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.hazelcast.core.HazelcastInstance
+import com.hazelcast.query.Predicates
+import com.openlattice.data.EntityDataKey
+import com.openlattice.edm.EntitySet
+import com.openlattice.edm.set.EntitySetFlag
+import com.openlattice.hazelcast.HazelcastMap
+import com.openlattice.hazelcast.HazelcastQueue
+import com.openlattice.postgres.mapstores.EntitySetMapstore
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+internal const val REFILL_INTERVAL_MILLIS = 1_000L
+internal const val BACKLOG_REFRESH_INTERVAL_MILLIS = 300_000L
+internal const val PRIORITY_WEIGHT = 4
+
+/**
+ * Keeps the linking candidates queue filled between a low and a high watermark.
+ *
+ * Each linkable entity set has a cursor over its entities needing linking, ordered by version and id, so refills
+ * continue where the previous refill for that entity set stopped instead of re-reading entities that are already
+ * queued. Free queue capacity is shared among all entity sets with remaining candidates, with whitelisted entity sets
+ * weighted [PRIORITY_WEIGHT] times ahead of others, so large entity sets do not starve small ones. Once an entity set
+ * runs out of candidates its cursor is reset and it is skipped for [LINKING_RATE] ms before being scanned again. A
+ * scan that starts over skips entities that are still queued or being linked.
+ */
+class LinkingCandidateScheduler(
+        executor: ListeningExecutorService,
+        hazelcastInstance: HazelcastInstance,
+        private val lqs: LinkingQueryService,
+        private val linkableTypes: Set<UUID>,
+        private val configuration: LinkingConfiguration,
+        private val metricRegistry: MetricRegistry
+) {
+    companion object {
+        private val logger: Logger = LoggerFactory.getLogger(LinkingCandidateScheduler::class.java)
+        private val INITIAL_ID = UUID(0, 0)
+
+        internal fun backlogGaugeName(entitySetId: UUID): String {
+            return MetricRegistry.name(LinkingCandidateScheduler::class.java, "backlog", entitySetId.toString())
+        }
+    }
+
+    private val entitySets = HazelcastMap.ENTITY_SETS.getMap(hazelcastInstance)
+    private val linkingLocks = HazelcastMap.LINKING_LOCKS.getMap(hazelcastInstance)
+    private val candidates = HazelcastQueue.LINKING_CANDIDATES.getQueue(hazelcastInstance)
+    private val priorityEntitySets = configuration.whitelist.orElseGet { setOf() }
+
+    private val cursors = mutableMapOf<UUID, Pair<Long, UUID>>()
+    private val exhaustedAt = mutableMapOf<UUID, Long>()
+    private val backlogs = ConcurrentHashMap<UUID, Long>()
+
+    private var linkableEntitySetIds = listOf<UUID>()
+    private var lastEntitySetRefresh = 0L
+    private var lastBacklogRefresh = 0L
+
+    private val candidatesQueued = metricRegistry.meter(
+            MetricRegistry.name(LinkingCandidateScheduler::class.java, "candidatesQueued")
+    )
+
+    init {
+        metricRegistry.register(
+                MetricRegistry.name(LinkingCandidateScheduler::class.java, "queueDepth"),
+                Gauge<Int> { candidates.size }
+        )
+    }
+
+    @Suppress("UNUSED")
+    private val refillWorker = if (configuration.backgroundLinkingEnabled) executor.submit {
+        while (!Thread.currentThread().isInterrupted) {
+            try {
+                refreshEntitySets()
+                refreshBacklogs()
+                if (candidates.size >= configuration.candidateLowWatermark || refill() == 0) {
+                    Thread.sleep(REFILL_INTERVAL_MILLIS)
+                }
+            } catch (ex: InterruptedException) {
+                logger.info("Linking candidate scheduler interrupted.")
+                Thread.currentThread().interrupt()
+            } catch (ex: Exception) {
+                logger.error("Encountered error while queueing linking candidates.", ex)
+                pauseAfterError()
+            }
+        }
+    } else null
+
+    private fun pauseAfterError() {
+        try {
+            Thread.sleep(REFILL_INTERVAL_MILLIS)
+        } catch (ex: InterruptedException) {
+            logger.info("Linking candidate scheduler interrupted.")
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    /**
+     * Fills the queue up to the high watermark.
+     *
+     * @return The number of queued candidates.
+     */
+    internal fun refill(): Int {
+        var remaining = configuration.candidateHighWatermark - candidates.size
+        val now = System.currentTimeMillis()
+        val activeEntitySetIds = linkableEntitySetIds.filter { (exhaustedAt[it] ?: 0L) + LINKING_RATE < now }
+        if (remaining <= 0 || activeEntitySetIds.isEmpty()) {
+            return 0
+        }
+
+        val totalWeight = activeEntitySetIds.sumOf { weight(it) }
+        val quotas = activeEntitySetIds.associateWith {
+            (remaining.toLong() * weight(it) / totalWeight).toInt().coerceAtLeast(configuration.loadSize)
+        }
+
+        // only read when a scan starts over, since the queue is copied to check for pending candidates
+        val queuedCandidates by lazy { candidates.toHashSet() }
+
+        var queued = 0
+        for (entitySetId in activeEntitySetIds) {
+            if (remaining <= 0) {
+                break
+            }
+            val limit = minOf(quotas.getValue(entitySetId), remaining)
+            val cursor = cursors[entitySetId]
+            val (version, id) = cursor ?: (0L to INITIAL_ID)
+            val batch = lqs.getEntitiesNeedingLinking(entitySetId, version, id, limit)
+
+            if (batch.size < limit) {
+                cursors.remove(entitySetId)
+                exhaustedAt[entitySetId] = now
+            } else {
+                val (lastVersion, lastDataKey) = batch.last()
+                cursors[entitySetId] = lastVersion to lastDataKey.entityKeyId
+            }
+
+            val batchCandidates = batch.map { it.second }
+            val newCandidates = if (cursor == null) {
+                withoutPendingCandidates(batchCandidates, queuedCandidates)
+            } else {
+                batchCandidates
+            }
+
+            if (newCandidates.isNotEmpty()) {
+                try {
+                    candidates.addAll(newCandidates)
+                } catch (ex: IllegalStateException) {
+                    logger.info("Linking candidates queue is full, stopping refill.")
+                    // nothing of the batch was queued, so the next refill reads it again
+                    if (cursor == null) {
+                        cursors.remove(entitySetId)
+                    } else {
+                        cursors[entitySetId] = cursor
+                    }
+                    exhaustedAt.remove(entitySetId)
+                    break
+                }
+                logger.debug("Queued {} linking candidates from entity set {}", newCandidates.size, entitySetId)
+                queued += newCandidates.size
+                remaining -= newCandidates.size
+            }
+        }
+
+        candidatesQueued.mark(queued.toLong())
+        return queued
+    }
+
+    /**
+     * Entities that still need linking while they are queued or being linked would be read again by a scan that
+     * starts over, so they are skipped to keep them from being queued twice.
+     */
+    private fun withoutPendingCandidates(
+            dataKeys: List<EntityDataKey>,
+            queuedCandidates: Set<EntityDataKey>
+    ): List<EntityDataKey> {
+        if (dataKeys.isEmpty()) {
+            return dataKeys
+        }
+        val lockedCandidates = linkingLocks.getAll(dataKeys.toSet()).keys
+        return dataKeys.filter { !queuedCandidates.contains(it) && !lockedCandidates.contains(it) }
+    }
+
+    private fun weight(entitySetId: UUID): Int {
+        return if (priorityEntitySets.contains(entitySetId)) PRIORITY_WEIGHT else 1
+    }
+
+    /**
+     * Reloads the linkable entity sets every [LINKING_RATE] ms.
+     */
+    private fun refreshEntitySets() {
+        val now = System.currentTimeMillis()
+        if (lastEntitySetRefresh + LINKING_RATE > now) {
+            return
+        }
+        lastEntitySetRefresh = now
+        reloadEntitySets()
+    }
+
+    /**
+     * Reloads the linkable entity sets, ordering whitelisted entity sets first, and drops the state and backlog gauges
+     * of entity sets that are no longer linkable.
+     */
+    internal fun reloadEntitySets() {
+        val filteredLinkableEntitySetIds = entitySets.keySet(
+                Predicates.and(
+                        Predicates.`in`<UUID, EntitySet>(EntitySetMapstore.ENTITY_TYPE_ID_INDEX, *linkableTypes.toTypedArray()),
+                        Predicates.notEqual<UUID, EntitySet>(EntitySetMapstore.FLAGS_INDEX, EntitySetFlag.LINKING)
+                )
+        )
+
+        priorityEntitySets.filterNot { filteredLinkableEntitySetIds.contains(it) }.forEach {
+            logger.info("excluding entityset {} because its not linkable", it)
+        }
+
+        linkableEntitySetIds = filteredLinkableEntitySetIds.sortedByDescending { weight(it) }
+
+        cursors.keys.retainAll(filteredLinkableEntitySetIds)
+        exhaustedAt.keys.retainAll(filteredLinkableEntitySetIds)
+        backlogs.keys.filterNot { filteredLinkableEntitySetIds.contains(it) }.forEach { entitySetId ->
+            backlogs.remove(entitySetId)
+            metricRegistry.remove(backlogGaugeName(entitySetId))
+        }
+    }
+
+    /**
+     * Recounts the backlog of every linkable entity set every [BACKLOG_REFRESH_INTERVAL_MILLIS] ms.
+     */
+    private fun refreshBacklogs() {
+        val now = System.currentTimeMillis()
+        if (lastBacklogRefresh + BACKLOG_REFRESH_INTERVAL_MILLIS > now) {
+            return
+        }
+        lastBacklogRefresh = now
+        recountBacklogs()
+    }
+
+    /**
+     * Recounts the backlog of every linkable entity set, registering a gauge for entity sets seen for the first time.
+     */
+    internal fun recountBacklogs() {
+        linkableEntitySetIds.forEach { entitySetId ->
+            val backlog = lqs.countEntitiesNeedingLinking(entitySetId)
+            if (backlogs.put(entitySetId, backlog) == null) {
+                val name = backlogGaugeName(entitySetId)
+                // a gauge left behind by a previous scheduler on the same registry would make registration fail
+                metricRegistry.remove(name)
+                metricRegistry.register(name, Gauge<Long> { backlogs[entitySetId] ?: 0L })
+            }
+        }
+    }
+}
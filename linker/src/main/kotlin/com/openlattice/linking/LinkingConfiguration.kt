@@ -43,6 +43,9 @@ private const val SEARCH_CONFIGURATION = "searchConfiguration"
 private const val BATCH_SIZE = "batch-size"
 private const val LOAD_SIZE = "load-size"
 private const val BACKGROUND_LINKING_ENABLED = "background-linking-enabled"
+private const val BATCH_LINKING_ENABLED = "batch-linking-enabled"
+private const val CANDIDATE_LOW_WATERMARK = "candidate-low-watermark"
+private const val CANDIDATE_HIGH_WATERMARK = "candidate-high-watermark"
 private val DEFAULT_ENTITY_TYPES = setOf(PersonProperties.PERSON_TYPE_FQN)
 
 /**
@@ -58,7 +61,10 @@ data class LinkingConfiguration(
         @JsonProperty(LOAD_SIZE) val loadSize: Int = 100,
         @JsonProperty(BACKGROUND_LINKING_ENABLED) val backgroundLinkingEnabled: Boolean = true,
         @JsonProperty(ENTITY_TYPES_FIELD) val entityTypes: Set<FullQualifiedName> = DEFAULT_ENTITY_TYPES,
-        @JsonProperty("parallelism") val parallelism : Int = Runtime.getRuntime().availableProcessors()
+        @JsonProperty("parallelism") val parallelism : Int = Runtime.getRuntime().availableProcessors(),
+        @JsonProperty(BATCH_LINKING_ENABLED) val batchLinkingEnabled: Boolean = false,
+        @JsonProperty(CANDIDATE_LOW_WATERMARK) val candidateLowWatermark: Int = 2_000,
+        @JsonProperty(CANDIDATE_HIGH_WATERMARK) val candidateHighWatermark: Int = 8_000
 ) : Configuration {
     companion object {
         @JvmStatic
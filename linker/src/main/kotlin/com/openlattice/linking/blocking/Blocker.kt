@@ -42,4 +42,15 @@ interface Blocker {
             top: Int = 50
     ): Block
 
+    /**
+     * Performs blocking for several entities at once, retrieving the top matches per entity set for each of them.
+     *
+     * @param entityDataKeys The entity data keys of the entities upon which to perform blocking.
+     * @return The block of each entity mapped by its entity data key.
+     */
+    fun blockAll(
+            entityDataKeys: Collection<EntityDataKey>,
+            top: Int = 50
+    ): Map<EntityDataKey, Block>
+
 }
\ No newline at end of file
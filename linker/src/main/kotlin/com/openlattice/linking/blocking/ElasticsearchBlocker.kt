@@ -81,14 +81,12 @@ class ElasticsearchBlocker(
             return Block.emptyBlock(entityDataKey)
         }
 
-        var blockedEntitySetSearchResults = elasticsearch.executeBlockingSearch(
+        val blockedEntitySetSearchResults = elasticsearch.executeBlockingSearch(
                 personEntityType.id,
                 getFieldSearches(loadedCandidateData),
                 top,
                 false
-        ).filter {
-            entitySetKeysCache.get().contains(it.key)
-        }
+        )
 
         logger.info(
                 "Entity data key {} blocked to {} elements in {} ms.", entityDataKey,
@@ -96,26 +94,10 @@ class ElasticsearchBlocker(
                 sw.elapsed(TimeUnit.MILLISECONDS)
         )
 
-        val selfBlock: MutableSet<UUID>? = blockedEntitySetSearchResults[entityDataKey.entitySetId]
-        if (selfBlock == null || !selfBlock.contains(entityDataKey.entityKeyId)) {
-            logger.error("Entity {} did not block to itself.", entityDataKey)
-            /*
-             * We're going to assume there is something pathological about elements that do not block to themselves.
-             * The main linking service will skip these elements anyway so we should avoid loading data related to
-             * pathological cases
-             */
-            /* There can be cases, when there is no sufficient data for an entity to be blocked to itself
-             * (example: only 1 property has value)
-             * If it cannot block to itself, we add link it to itself
-             */
-            blockedEntitySetSearchResults = mutableMapOf(
-                    entityDataKey.entitySetId to mutableSetOf(entityDataKey.entityKeyId))
-        }
-
         sw.reset()
         sw.start()
 
-        val filteredSearchResults = removeNegativeFeedbackFromSearchResult(entityDataKey, blockedEntitySetSearchResults)
+        val filteredSearchResults = filterSearchResults(entityDataKey, blockedEntitySetSearchResults)
 
         val block = Block(
                 entityDataKey,
@@ -135,6 +117,107 @@ class ElasticsearchBlocker(
         return block
     }
 
+    /**
+     * Issues a single multi-search for all entities being blocked and loads the data of all blocked entities once,
+     * grouped by entity set, instead of once per block.
+     */
+    @Timed
+    override fun blockAll(
+            entityDataKeys: Collection<EntityDataKey>,
+            top: Int
+    ): Map<EntityDataKey, Block> {
+        logger.info("Blocking for {} entity data keys", entityDataKeys.size)
+
+        val sw = Stopwatch.createStarted()
+
+        val loadedCandidateData = dataLoader.getLinkingEntities(entityDataKeys.toSet())
+        val (nonEmptyCandidates, emptyCandidates) = entityDataKeys.partition {
+            !isEntityEmpty(loadedCandidateData[it] ?: mapOf())
+        }
+
+        val blockedEntitySetSearchResults = elasticsearch.executeBlockingSearches(
+                personEntityType.id,
+                nonEmptyCandidates.map { getFieldSearches(loadedCandidateData.getValue(it)) },
+                top
+        )
+
+        logger.info(
+                "{} entity data keys blocked to {} elements in {} ms.",
+                nonEmptyCandidates.size,
+                blockedEntitySetSearchResults.sumOf { results -> results.values.sumOf { it.size } },
+                sw.elapsed(TimeUnit.MILLISECONDS)
+        )
+
+        sw.reset()
+        sw.start()
+
+        val filteredSearchResults = nonEmptyCandidates.zip(blockedEntitySetSearchResults) { candidate, results ->
+            candidate to filterSearchResults(candidate, results)
+        }
+
+        val blockedEntities = filteredSearchResults
+                .flatMap { (_, results) -> results.entries }
+                .groupBy({ it.key }, { it.value })
+                .mapValues { (_, entityKeyIds) -> entityKeyIds.flatMapTo(mutableSetOf()) { it } }
+                .filter { it.value.isNotEmpty() }
+                .flatMap { (entitySetId, entityKeyIds) ->
+                    dataLoader.getLinkingEntityStream(entitySetId, entityKeyIds)
+                            .filter { !isEntityEmpty(it.second) }
+                            .map { EntityDataKey(entitySetId, it.first) to it.second }
+                }.toMap()
+
+        val blocks = filteredSearchResults.associate { (candidate, results) ->
+            candidate to Block(
+                    candidate,
+                    results.flatMap { (entitySetId, entityKeyIds) ->
+                        entityKeyIds.mapNotNull { entityKeyId ->
+                            val dataKey = EntityDataKey(entitySetId, entityKeyId)
+                            blockedEntities[dataKey]?.let { dataKey to it }
+                        }
+                    }.toMap()
+            )
+        } + emptyCandidates.associateWith { Block.emptyBlock(it) }
+
+        logger.info(
+                "Loading {} entities for {} blocks took {} ms.",
+                blockedEntities.size,
+                blocks.size,
+                sw.elapsed(TimeUnit.MILLISECONDS)
+        )
+        return blocks
+    }
+
+    /**
+     * Removes results from entity sets that no longer exist and results that have negative feedback. Entities that do
+     * not block to themselves are linked only to themselves.
+     */
+    private fun filterSearchResults(
+            entityDataKey: EntityDataKey,
+            searchResults: Map<UUID, Set<UUID>>
+    ): Map<UUID, Set<UUID>> {
+        var blockedEntitySetSearchResults = searchResults.filter {
+            entitySetKeysCache.get().contains(it.key)
+        }
+
+        val selfBlock: Set<UUID>? = blockedEntitySetSearchResults[entityDataKey.entitySetId]
+        if (selfBlock == null || !selfBlock.contains(entityDataKey.entityKeyId)) {
+            logger.error("Entity {} did not block to itself.", entityDataKey)
+            /*
+             * We're going to assume there is something pathological about elements that do not block to themselves.
+             * The main linking service will skip these elements anyway so we should avoid loading data related to
+             * pathological cases
+             */
+            /* There can be cases, when there is no sufficient data for an entity to be blocked to itself
+             * (example: only 1 property has value)
+             * If it cannot block to itself, we add link it to itself
+             */
+            blockedEntitySetSearchResults = mutableMapOf(
+                    entityDataKey.entitySetId to mutableSetOf(entityDataKey.entityKeyId))
+        }
+
+        return removeNegativeFeedbackFromSearchResult(entityDataKey, blockedEntitySetSearchResults)
+    }
+
     private fun isEntityEmpty(candidateData: Map<UUID, Set<Any>>): Boolean {
         return personLinkingPropertyTypeIds.all { candidateData[it]?.isEmpty() ?: true }
     }
@@ -0,0 +1,242 @@
+package com.openlattice.linking.matching
+
+import com.geekbeast.hazelcast.DelegatedStringSet
+import com.openlattice.data.EntityDataKey
+import com.openlattice.linking.util.PersonMetric
+import com.openlattice.linking.util.PersonMetric.*
+import com.openlattice.linking.util.PersonProperties
+import org.apache.commons.codec.language.DoubleMetaphone
+import org.apache.commons.text.similarity.LevenshteinDistance
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import java.util.*
+import java.util.stream.IntStream
+
+private const val MAX_MEMOIZED_SIMILARITIES = 1 shl 20
+
+private val doubleMetaphone = DoubleMetaphone()
+private val levenshteinDistance = LevenshteinDistance.getDefaultInstance()
+
+/**
+ * Row major matrix of pairwise features, one row per compared pair and one column per [PersonMetric].
+ */
+class FeatureMatrix(val rows: Int, val columns: Int, val data: DoubleArray)
+
+/**
+ * Columnar feature extraction for a block of person entities.
+ *
+ * Values of each person property are interned once per block and their lower cased and double metaphone encodings are
+ * computed once per distinct value, instead of once per compared pair of values as in [PersonMetric]. Similarities
+ * between distinct values are memoized and the features of all pairs are written into a single matrix, with rows
+ * computed in parallel.
+ *
+ * The features are identical to the ones computed by [PersonMetric.pDistanceBulk].
+ */
+class BlockFeatureExtractor(private val fqnToIdMap: Map<FullQualifiedName, UUID>) {
+    companion object {
+        private val METRICS = PersonMetric.values()
+
+        @JvmField
+        val NUM_FEATURES = METRICS.size
+    }
+
+    /**
+     * Computes the features of the given pairs of entities.
+     *
+     * @param entities The extracted properties of every entity referenced by [pairs].
+     * @param pairs The pairs of entities to compare.
+     */
+    fun extract(
+            entities: Map<EntityDataKey, Map<UUID, DelegatedStringSet>>,
+            pairs: List<Pair<EntityDataKey, EntityDataKey>>
+    ): FeatureMatrix {
+        val keys = entities.keys.toList()
+        val indices = keys.withIndex().associate { it.value to it.index }
+        val block = EncodedBlock(keys.map { entities.getValue(it) })
+
+        val features = DoubleArray(pairs.size * NUM_FEATURES)
+        IntStream.range(0, pairs.size).parallel().forEach { row ->
+            val (lhs, rhs) = pairs[row]
+            block.writeFeatures(indices.getValue(lhs), indices.getValue(rhs), features, row * NUM_FEATURES)
+        }
+
+        return FeatureMatrix(pairs.size, NUM_FEATURES, features)
+    }
+
+    private inner class EncodedBlock(entities: List<Map<UUID, DelegatedStringSet>>) {
+        private val firstName = ValueColumn(entities, PersonProperties.FIRST_NAME_FQN, true)
+        private val lastName = ValueColumn(entities, PersonProperties.LAST_NAME_FQN, true)
+        private val sex = ValueColumn(entities, PersonProperties.SEX_FQN, false)
+        private val dob = ValueColumn(entities, PersonProperties.DOB_FQN, false)
+        private val race = ValueColumn(entities, PersonProperties.RACE_FQN, false)
+        private val ethnicity = ValueColumn(entities, PersonProperties.ETHNICITY_FQN, false)
+        private val ssn = ValueColumn(entities, PersonProperties.SSN_FQN, false)
+
+        private val firstNameProbabilities = entities.map { PersonProperties.getFirstProba(it, fqnToIdMap) }
+        private val lastNameProbabilities = entities.map { PersonProperties.getLastProba(it, fqnToIdMap) }
+
+        private val dobValues = Interner()
+        private val dobs = entities.map { entity ->
+            PersonProperties.getDobStrs(entity, fqnToIdMap).map { dobValues.intern(it) }.toIntArray()
+        }
+        private val dobSimilarities = Similarities(dobValues.values(), ::dobSimilarity)
+
+        fun writeFeatures(lhs: Int, rhs: Int, features: DoubleArray, offset: Int) {
+            METRICS.forEach { metric ->
+                val feature = when (metric) {
+                    FIRST_NAME_STRING -> firstName.similarity(lhs, rhs)
+                    FIRST_NAME_METAPHONE -> firstName.metaphoneSimilarity(lhs, rhs)
+                    FIRST_NAME_METAPHONE_ALT -> firstName.alternateMetaphoneSimilarity(lhs, rhs)
+                    FIRST_NAME_LHS_PRESENCE -> firstName.presence(lhs)
+                    FIRST_NAME_RHS_PRESENCE -> firstName.presence(rhs)
+                    FIRST_NAME_LHS_PROBA -> firstNameProbabilities[lhs]
+                    FIRST_NAME_RHS_PROBA -> firstNameProbabilities[rhs]
+
+                    MIDDLE_NAME_STRING,
+                    MIDDLE_NAME_METAPHONE,
+                    MIDDLE_NAME_METAPHONE_ALT,
+                    MIDDLE_NAME_LHS_PRESENCE,
+                    MIDDLE_NAME_RHS_PRESENCE -> 0.0
+
+                    LAST_NAME_STRING -> lastName.similarity(lhs, rhs)
+                    LAST_NAME_METAPHONE -> lastName.metaphoneSimilarity(lhs, rhs)
+                    LAST_NAME_METAPHONE_ALT -> lastName.alternateMetaphoneSimilarity(lhs, rhs)
+                    LAST_NAME_LHS_PRESENCE -> lastName.presence(lhs)
+                    LAST_NAME_RHS_PRESENCE -> lastName.presence(rhs)
+                    LAST_NAME_LHS_PROBA -> lastNameProbabilities[lhs]
+                    LAST_NAME_RHS_PROBA -> lastNameProbabilities[rhs]
+
+                    SEX_STRING -> sex.similarity(lhs, rhs)
+                    SEX_LHS_PRESENCE -> sex.presence(lhs)
+                    SEX_RHS_PRESENCE -> sex.presence(rhs)
+
+                    DOB_STRING -> dob.similarity(lhs, rhs)
+                    DOB_LHS_PRESENCE -> dob.presence(lhs)
+                    DOB_RHS_PRESENCE -> dob.presence(rhs)
+                    DOB_DIFF -> maxSimilarity(dobs[lhs], dobs[rhs], dobSimilarities)
+
+                    RACE_STRING -> race.similarity(lhs, rhs)
+                    RACE_LHS_PRESENCE -> race.presence(lhs)
+                    RACE_RHS_PRESENCE -> race.presence(rhs)
+
+                    ETHNICITY_STRING -> ethnicity.similarity(lhs, rhs)
+                    ETHNICITY_LHS_PRESENCE -> ethnicity.presence(lhs)
+                    ETHNICITY_RHS_PRESENCE -> ethnicity.presence(rhs)
+
+                    SSN_STRING -> ssn.similarity(lhs, rhs)
+                    SSN_LHS_PRESENCE -> ssn.presence(lhs)
+                    SSN_RHS_PRESENCE -> ssn.presence(rhs)
+                }
+                features[offset + metric.ordinal] = feature * 100.0
+            }
+        }
+    }
+
+    /**
+     * The distinct lower cased values of a single property across all entities of a block.
+     */
+    private inner class ValueColumn(
+            entities: List<Map<UUID, DelegatedStringSet>>,
+            fqn: FullQualifiedName,
+            encodeMetaphones: Boolean
+    ) {
+        private val interner = Interner()
+        private val entityValues = entities.map { entity ->
+            PersonProperties.getValuesAsSet(entity, fqnToIdMap[fqn])
+                    .map { interner.intern(it.lowercase(Locale.getDefault())) }
+                    .toIntArray()
+        }
+
+        private val values = interner.values()
+
+        private val similarities = Similarities(values, ::jaroWinkler)
+        private val metaphoneSimilarities = if (encodeMetaphones) {
+            Similarities(values.map { doubleMetaphone.doubleMetaphone(it, false) }, ::jaroWinkler)
+        } else {
+            null
+        }
+        private val alternateMetaphoneSimilarities = if (encodeMetaphones) {
+            Similarities(values.map { doubleMetaphone.doubleMetaphone(it, true) }, ::jaroWinkler)
+        } else {
+            null
+        }
+
+        fun presence(entity: Int): Double = if (entityValues[entity].isEmpty()) 0.0 else 1.0
+
+        fun similarity(lhs: Int, rhs: Int): Double {
+            return maxSimilarity(entityValues[lhs], entityValues[rhs], similarities)
+        }
+
+        fun metaphoneSimilarity(lhs: Int, rhs: Int): Double {
+            return maxSimilarity(entityValues[lhs], entityValues[rhs], metaphoneSimilarities!!)
+        }
+
+        fun alternateMetaphoneSimilarity(lhs: Int, rhs: Int): Double {
+            return maxSimilarity(entityValues[lhs], entityValues[rhs], alternateMetaphoneSimilarities!!)
+        }
+    }
+}
+
+private fun jaroWinkler(lhs: String?, rhs: String?): Double {
+    return PersonMetric.getStringDistance(lhs, rhs, false, false)
+}
+
+private fun dobSimilarity(lhs: String?, rhs: String?): Double {
+    return (8 - levenshteinDistance.apply(lhs, rhs)) / 8.0
+}
+
+private fun maxSimilarity(lhs: IntArray, rhs: IntArray, similarities: Similarities): Double {
+    var max = 0.0
+    for (i in lhs) {
+        for (j in rhs) {
+            val similarity = similarities[i, j]
+            if (similarity > max) {
+                max = similarity
+            }
+        }
+    }
+    return max
+}
+
+private class Interner {
+    private val ids = mutableMapOf<String, Int>()
+
+    fun intern(value: String): Int = ids.getOrPut(value) { ids.size }
+
+    fun values(): List<String> {
+        val values = arrayOfNulls<String>(ids.size)
+        ids.forEach { (value, id) -> values[id] = value }
+        return values.map { it!! }
+    }
+}
+
+/**
+ * Lazily memoized pairwise similarities between distinct values. Concurrent computation of the same similarity is
+ * harmless since it always yields the same value.
+ */
+private class Similarities(
+        private val values: List<String?>,
+        private val similarity: (String?, String?) -> Double
+) {
+    private val size = values.size
+    private val memoized = if (size.toLong() * size <= MAX_MEMOIZED_SIMILARITIES) {
+        DoubleArray(size * size) { Double.NaN }
+    } else {
+        null
+    }
+
+    operator fun get(lhs: Int, rhs: Int): Double {
+        if (memoized == null) {
+            return similarity(values[lhs], values[rhs])
+        }
+
+        val index = lhs * size + rhs
+        val cached = memoized[index]
+        if (!cached.isNaN()) {
+            return cached
+        }
+
+        val computed = similarity(values[lhs], values[rhs])
+        memoized[index] = computed
+        return computed
+    }
+}
@@ -38,6 +38,14 @@ interface Matcher {
 
     fun initialize( block: Block): PairwiseMatch
 
+    /**
+     * Initializes several blocks at once, scoring the pairs of all blocks together.
+     *
+     * @param blocks The blocks to initialize.
+     * @return The initialized blocks, in the same order as [blocks].
+     */
+    fun initializeAll( blocks: List<Block>): List<PairwiseMatch>
+
     /**
      * Computes an approximation of the discrete metric of every pair of blocked entities.
      *
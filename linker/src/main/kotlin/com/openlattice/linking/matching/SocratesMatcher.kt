@@ -33,6 +33,7 @@ import org.apache.olingo.commons.api.edm.FullQualifiedName
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork
 import org.deeplearning4j.parallelism.ParallelInference
 import org.deeplearning4j.parallelism.inference.InferenceMode
+import org.nd4j.linalg.api.ndarray.INDArray
 import org.nd4j.linalg.factory.Nd4j
 import org.slf4j.LoggerFactory
 import org.springframework.stereotype.Component
@@ -57,6 +58,8 @@ class SocratesMatcher(
                         .workers(Runtime.getRuntime().availableProcessors())
                         .build()
 
+    private val featureExtractor = BlockFeatureExtractor(fqnToIdMap)
+
     override fun updateMatchingModel(model: MultiLayerNetwork) {
         localModel.updateModel(model)
     }
@@ -73,17 +76,14 @@ class SocratesMatcher(
         val entities = block.entities
 
         // extract properties and features for all entities in block
-        val firstProperties = extractProperties(entities.getValue(entityDataKey))
-        val extractedFeatures = entities.mapValues {
-            val extractedProperties = extractProperties(it.value)
-            extractFeatures(firstProperties, extractedProperties)
-        }
+        val extractedProperties = entities.mapValues { extractProperties(it.value) }
+        val pairs = entities.keys.map { entityDataKey to it }
+        val featureMatrix = featureExtractor.extract(extractedProperties, pairs)
 
-        // transform features to matrix and compute scores
-        val featureMatrix = extractedFeatures.values.toTypedArray()
+        // compute scores
         val scores = computeScore(localModel, featureMatrix).asIterable()
 
-        val matchedEntities = extractedFeatures.keys.zip(scores).toMap(mutableMapOf())
+        val matchedEntities = entities.keys.zip(scores).toMap(mutableMapOf())
         val initializedBlock = PairwiseMatch(entityDataKey, mutableMapOf(entityDataKey to matchedEntities))
 
         // trim low scores
@@ -91,6 +91,49 @@ class SocratesMatcher(
         return initializedBlock
     }
 
+    /**
+     * Gets initial blocks for several entities, extracting the features of all blocks into a single matrix that is
+     * scored in one pass of the model.
+     * @param blocks Blocks of potential matches based on search
+     * @return The resulting blocks around the entity data key of each block
+     */
+    @Timed
+    override fun initializeAll(blocks: List<Block>): List<PairwiseMatch> {
+        if (blocks.isEmpty()) {
+            return listOf()
+        }
+
+        // blocks of a batch overlap, so properties are only extracted once per entity
+        val extractedProperties = mutableMapOf<EntityDataKey, Map<UUID, DelegatedStringSet>>()
+        blocks.forEach { block ->
+            block.entities.forEach { (dataKey, entity) ->
+                extractedProperties.getOrPut(dataKey) { extractProperties(entity) }
+            }
+        }
+        val pairs = blocks.flatMap { block -> block.entities.keys.map { block.entityDataKey to it } }
+        val featureMatrix = featureExtractor.extract(extractedProperties, pairs)
+
+        // compute scores
+        val scores = if (pairs.isEmpty()) DoubleArray(0) else computeScore(localModel, featureMatrix)
+
+        var offset = 0
+        return blocks.map { block ->
+            val matchedEntities = block.entities.keys
+                    .mapIndexed { i, dataKey -> dataKey to scores[offset + i] }
+                    .toMap(mutableMapOf())
+            offset += block.entities.size
+
+            val initializedBlock = PairwiseMatch(
+                    block.entityDataKey,
+                    mutableMapOf(block.entityDataKey to matchedEntities)
+            )
+
+            // trim low scores
+            trimAndMerge(initializedBlock)
+            initializedBlock
+        }
+    }
+
     /**
      * Computes the pairwise matching values for a block.
      * @param block The resulting block around for the entity data key in block.first and property values for each
@@ -149,9 +192,6 @@ class SocratesMatcher(
         return PairwiseMatch(block.entityDataKey, matchedEntities)
     }
 
-    /**
-     * Looks like currently the speed limiting factor
-     */
     private fun computeResults(
             entityValues: Map<EntityDataKey, Map<UUID, Set<Any>>>,
             entities: Map<EntityDataKey, Set<EntityDataKey>>,
@@ -176,41 +216,19 @@ class SocratesMatcher(
 
         val propsExtractionSw = sw.elapsed(TimeUnit.MILLISECONDS)
 
-        // extract features for all entities in block
-        val extractedFeatures = entities.mapValues { (edk, neighbors) ->
-            val selfProperties = extractedProperties.getValue(edk)
-            val neighborExtractedProperties = neighbors.associateWith {
-                extractedProperties.getValue(it)
-            }
-            extractFeaturesBulk(selfProperties, neighborExtractedProperties)
-        }
+        // extract features for all pairs in block into a single matrix
+        val pairs = entities.flatMap { (edk, neighbors) -> neighbors.map { edk to it } }
+        val featureMatrix = featureExtractor.extract(extractedProperties, pairs)
 
         val blockFeatureExtraction = sw.elapsed(TimeUnit.MILLISECONDS)
 
-        // transform features to matrix and compute scores
-        val featureMatrix = extractedFeatures
-                .flatMap { (_, features) -> features.map { it.value } }
-                .toTypedArray()
-
-        // extract list of keys (instead of map)
-        val featureKeys = extractedFeatures.flatMap { (entityDataKey1, features) ->
-            features.map {
-                entityDataKey1 to it.key
-            }
-        }
-
-        val featureExtractionSW = sw.elapsed(TimeUnit.MILLISECONDS)
-
         // get scores from matrix
         val scores = computeScore(localModel, featureMatrix)
 
         // collect and combine keys and scores
-        val results = scores.zip(featureKeys).map {
-            ResultSet(it.second.first, it.second.second, it.first)
-        }.plus(positiveMatches)
+        val results = pairs.mapIndexed { i, (lhs, rhs) -> ResultSet(lhs, rhs, scores[i]) }.plus(positiveMatches)
 
         val bfTime = blockFeatureExtraction - propsExtractionSw
-        val fblTime = featureExtractionSW - blockFeatureExtraction
 
         if (propsExtractionSw > 300){
             logger.error("Property extraction: $propsExtractionSw ms")
@@ -218,15 +236,12 @@ class SocratesMatcher(
         if (bfTime > 300){
             logger.error("Block feature extraction: $bfTime ms")
         }
-        if (fblTime > 300){
-            logger.error("final transforms: $fblTime ms")
-        }
         return results
     }
 
     private fun computeScore(
             model: ParallelInference,
-            features: Array<DoubleArray>
+            features: FeatureMatrix
     ): DoubleArray {
         val sw = Stopwatch.createStarted()
         val scores = model.getModelScore(features)
@@ -234,13 +249,6 @@ class SocratesMatcher(
         return scores
     }
 
-    fun extractFeaturesBulk(
-        lhs: Map<UUID, DelegatedStringSet>,
-        rhs: Map<EntityDataKey, Map<UUID, DelegatedStringSet>>
-    ): Map<EntityDataKey, DoubleArray> {
-        return PersonMetric.pDistanceBulk(lhs, rhs, fqnToIdMap)
-    }
-
     override fun extractFeatures(
         lhs: Map<UUID, DelegatedStringSet>,
         rhs: Map<UUID, DelegatedStringSet>
@@ -269,15 +277,31 @@ class SocratesMatcher(
 }
 
 fun ParallelInference.getModelScore(features: Array<DoubleArray>): DoubleArray {
+    return getModelScore(features.size, { Nd4j.create(features) }, { features.toList() })
+}
+
+fun ParallelInference.getModelScore(features: FeatureMatrix): DoubleArray {
+    return getModelScore(
+            features.rows,
+            { Nd4j.create(features.data, intArrayOf(features.rows, features.columns)) },
+            { features.data.asList().chunked(features.columns) }
+    )
+}
+
+private fun ParallelInference.getModelScore(
+        rows: Int,
+        features: () -> INDArray,
+        describe: () -> Any
+): DoubleArray {
     return try {
-        output(Nd4j.create(features)).toDoubleVector()
+        output(features()).toDoubleVector()
     } catch (ex: Exception) {
-        logger.error("Failed to compute model score trying again! Features = {}", features.toList(), ex)
+        logger.error("Failed to compute model score trying again! Features = {}", describe(), ex)
         try {
-            output(Nd4j.create(features)).toDoubleVector()
+            output(features()).toDoubleVector()
         } catch (ex2: Exception) {
-            logger.error("Failed to compute model score a second time! Return 0! Features = {}", features.toList(), ex)
-            Nd4j.ones(features.size).toDoubleVector()
+            logger.error("Failed to compute model score a second time! Return 0! Features = {}", describe(), ex)
+            Nd4j.ones(rows).toDoubleVector()
         }
     }
 }
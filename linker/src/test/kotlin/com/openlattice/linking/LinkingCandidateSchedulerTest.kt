@@ -0,0 +1,143 @@
+package com.openlattice.linking
+
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.ListeningExecutorService
+import com.hazelcast.collection.IQueue
+import com.hazelcast.core.HazelcastInstance
+import com.hazelcast.map.IMap
+import com.hazelcast.query.Predicate
+import com.openlattice.conductor.rpc.SearchConfiguration
+import com.openlattice.data.EntityDataKey
+import com.openlattice.edm.EntitySet
+import com.openlattice.hazelcast.HazelcastMap
+import com.openlattice.hazelcast.HazelcastQueue
+import org.junit.Assert
+import org.junit.Test
+import org.mockito.AdditionalAnswers
+import org.mockito.Matchers
+import org.mockito.Mockito
+import java.util.*
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * Checks how [LinkingCandidateScheduler] pages through entities needing linking and tracks linkable entity sets.
+ */
+class LinkingCandidateSchedulerTest {
+    private val entitySetId = UUID.randomUUID()
+    private val queued = LinkedBlockingQueue<EntityDataKey>()
+    private val locked = mutableSetOf<EntityDataKey>()
+    private val linkableEntitySetIds = mutableSetOf(entitySetId)
+    private val metricRegistry = MetricRegistry()
+    private val lqs = Mockito.mock(LinkingQueryService::class.java)
+
+    @Suppress("UNCHECKED_CAST")
+    private val candidates = Mockito.mock(IQueue::class.java, AdditionalAnswers.delegatesTo<Any>(queued))
+            as IQueue<EntityDataKey>
+
+    @Suppress("UNCHECKED_CAST")
+    private val entitySets = (Mockito.mock(IMap::class.java) as IMap<UUID, EntitySet>).also {
+        Mockito.`when`(it.keySet(Matchers.any<Predicate<UUID, EntitySet>>())).thenAnswer { linkableEntitySetIds.toSet() }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private val linkingLocks = (Mockito.mock(IMap::class.java) as IMap<EntityDataKey, Long>).also {
+        Mockito.`when`(it.getAll(Matchers.anySetOf(EntityDataKey::class.java))).thenAnswer { invocation ->
+            (invocation.arguments[0] as Set<*>).filter { key -> locked.contains(key) }.associate { key -> key to 0L }
+        }
+    }
+
+    private val hazelcastInstance = Mockito.mock(HazelcastInstance::class.java).also {
+        Mockito.`when`(it.getMap<UUID, EntitySet>(HazelcastMap.ENTITY_SETS.name)).thenReturn(entitySets)
+        Mockito.`when`(it.getMap<EntityDataKey, Long>(HazelcastMap.LINKING_LOCKS.name)).thenReturn(linkingLocks)
+        Mockito.`when`(it.getQueue<EntityDataKey>(HazelcastQueue.LINKING_CANDIDATES.name)).thenReturn(candidates)
+    }
+
+    private val configuration = LinkingConfiguration(
+            SearchConfiguration("localhost", "cluster", 9300, 9200, Optional.empty(), Optional.empty()),
+            whitelist = Optional.empty(),
+            loadSize = 2,
+            backgroundLinkingEnabled = false,
+            candidateLowWatermark = 2,
+            candidateHighWatermark = 4
+    )
+
+    private val scheduler = LinkingCandidateScheduler(
+            Mockito.mock(ListeningExecutorService::class.java),
+            hazelcastInstance,
+            lqs,
+            setOf(UUID.randomUUID()),
+            configuration,
+            metricRegistry
+    )
+
+    @Test
+    fun testRefillResumesFromCursor() {
+        val entities = entities(6)
+        Mockito.`when`(lqs.getEntitiesNeedingLinking(entitySetId, 0L, UUID(0, 0), 4)).thenReturn(entities.take(4))
+        Mockito.`when`(lqs.getEntitiesNeedingLinking(entitySetId, 4L, entities[3].second.entityKeyId, 4))
+                .thenReturn(entities.drop(4))
+        scheduler.reloadEntitySets()
+
+        Assert.assertEquals(4, scheduler.refill())
+        Assert.assertEquals(entities.take(4).map { it.second }, drain())
+
+        Assert.assertEquals(2, scheduler.refill())
+        Assert.assertEquals(entities.drop(4).map { it.second }, drain())
+
+        // exhausted entity sets are left alone until they are due for another scan
+        Assert.assertEquals(0, scheduler.refill())
+    }
+
+    @Test
+    fun testRescanSkipsPendingCandidates() {
+        val entities = entities(3)
+        val (queuedCandidate, lockedCandidate, newCandidate) = entities.map { it.second }
+        queued.add(queuedCandidate)
+        locked.add(lockedCandidate)
+        Mockito.`when`(lqs.getEntitiesNeedingLinking(entitySetId, 0L, UUID(0, 0), 3)).thenReturn(entities)
+        scheduler.reloadEntitySets()
+
+        Assert.assertEquals(1, scheduler.refill())
+        Assert.assertEquals(listOf(queuedCandidate, newCandidate), drain())
+    }
+
+    @Test
+    fun testBacklogGaugesFollowLinkableEntitySets() {
+        val otherEntitySetId = UUID.randomUUID()
+        linkableEntitySetIds.add(otherEntitySetId)
+        Mockito.`when`(lqs.countEntitiesNeedingLinking(entitySetId)).thenReturn(5L)
+        Mockito.`when`(lqs.countEntitiesNeedingLinking(otherEntitySetId)).thenReturn(7L)
+
+        scheduler.reloadEntitySets()
+        scheduler.recountBacklogs()
+        Assert.assertEquals(5L, backlogGauge(entitySetId))
+        Assert.assertEquals(7L, backlogGauge(otherEntitySetId))
+
+        linkableEntitySetIds.remove(otherEntitySetId)
+        scheduler.reloadEntitySets()
+        Assert.assertEquals(5L, backlogGauge(entitySetId))
+        Assert.assertFalse(
+                metricRegistry.gauges.containsKey(LinkingCandidateScheduler.backlogGaugeName(otherEntitySetId))
+        )
+
+        linkableEntitySetIds.add(otherEntitySetId)
+        Mockito.`when`(lqs.countEntitiesNeedingLinking(otherEntitySetId)).thenReturn(2L)
+        scheduler.reloadEntitySets()
+        scheduler.recountBacklogs()
+        Assert.assertEquals(2L, backlogGauge(otherEntitySetId))
+    }
+
+    private fun entities(count: Int): List<Pair<Long, EntityDataKey>> {
+        return (1..count).map { it.toLong() to EntityDataKey(entitySetId, UUID.randomUUID()) }
+    }
+
+    private fun drain(): List<EntityDataKey> {
+        val drained = mutableListOf<EntityDataKey>()
+        queued.drainTo(drained)
+        return drained
+    }
+
+    private fun backlogGauge(entitySetId: UUID): Any? {
+        return metricRegistry.gauges.getValue(LinkingCandidateScheduler.backlogGaugeName(entitySetId)).value
+    }
+}
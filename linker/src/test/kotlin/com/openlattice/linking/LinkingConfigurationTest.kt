@@ -70,6 +70,9 @@ class LinkingConfigurationTest : AbstractJacksonYamlSerializationTest<LinkingCon
                 && a.blockSize == b.blockSize
                 && a.loadSize == b.loadSize
                 && a.parallelism == b.parallelism
+                && a.batchLinkingEnabled == b.batchLinkingEnabled
+                && a.candidateLowWatermark == b.candidateLowWatermark
+                && a.candidateHighWatermark == b.candidateHighWatermark
                 && a.entityTypes.size == b.entityTypes.size
                 && a.entityTypes.all { b.entityTypes.contains(it) }
                 && b.entityTypes.all { a.entityTypes.contains(it) }
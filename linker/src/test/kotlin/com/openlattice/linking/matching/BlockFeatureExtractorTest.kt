@@ -0,0 +1,133 @@
+package com.openlattice.linking.matching
+
+import com.geekbeast.hazelcast.DelegatedStringSet
+import com.geekbeast.mappers.mappers.ObjectMappers
+import com.google.common.base.Stopwatch
+import com.openlattice.data.EntityDataKey
+import com.openlattice.linking.LinkingTestData
+import com.openlattice.linking.util.PersonMetric
+import com.openlattice.linking.util.PersonProperties
+import org.apache.olingo.commons.api.edm.FullQualifiedName
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+import org.nd4j.linalg.io.ClassPathResource
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.time.LocalDate
+import java.util.*
+import java.util.concurrent.TimeUnit
+
+private const val BLOCK_SIZE = 200
+private const val NUM_BLOCKS = 20
+
+class BlockFeatureExtractorTest {
+    companion object {
+        private val logger = LoggerFactory.getLogger(BlockFeatureExtractorTest::class.java)
+
+        private val FIRST_NAMES = listOf("John", "Jon", "Johnny", "Jane", "Janet", "Maria", "Mario", "Marie", "Ann")
+        private val LAST_NAMES = listOf("Doe", "Do", "Smith", "Smyth", "Garcia", "Garsia", "Nguyen", "Ngyuen")
+        private val SEXES = listOf("M", "F", "Male", "Female")
+        private val RACES = listOf("White", "Black", "Asian", "white")
+        private val ETHNICITIES = listOf("hispanic", "nonhispanic")
+    }
+
+    @Test
+    fun testFeaturesMatchPersonMetric() {
+        val configFile = ClassPathResource("scoringTest.yaml").file.path
+        val configurations = ObjectMappers.getYamlMapper().readValue(File(configFile), LinkingTestData::class.java)
+        val entitySetId = UUID.randomUUID()
+
+        val entities = configurations.people.values.associate {
+            EntityDataKey(entitySetId, UUID.randomUUID()) to it.mapValues { (_, v) -> DelegatedStringSet(v) }
+        }
+        assertMatchesPersonMetric(entities, configurations.fqnMap)
+    }
+
+    @Test
+    fun testSyntheticBlockFeaturesMatchPersonMetric() {
+        val fqnToIdMap = PersonProperties.FQNS.associateWith { UUID.randomUUID() }
+        assertMatchesPersonMetric(block(fqnToIdMap, Random(0), 50), fqnToIdMap)
+    }
+
+    @Test
+    @Ignore
+    fun benchmarkBlockFeatureExtraction() {
+        val fqnToIdMap = PersonProperties.FQNS.associateWith { UUID.randomUUID() }
+        val random = Random(0)
+        val blocks = (0 until NUM_BLOCKS).map { block(fqnToIdMap, random, BLOCK_SIZE) }
+        val extractor = BlockFeatureExtractor(fqnToIdMap)
+
+        val bulkSw = Stopwatch.createStarted()
+        blocks.forEach { entities ->
+            entities.forEach { (_, lhs) -> PersonMetric.pDistanceBulk(lhs, entities, fqnToIdMap) }
+        }
+        val bulkMillis = bulkSw.elapsed(TimeUnit.MILLISECONDS)
+
+        val blockSw = Stopwatch.createStarted()
+        blocks.forEach { entities -> extractor.extract(entities, pairs(entities)) }
+        val blockMillis = blockSw.elapsed(TimeUnit.MILLISECONDS)
+
+        logger.info(
+                "Extracted features for {} blocks of {} persons in {} ms per pair and {} ms columnar.",
+                NUM_BLOCKS,
+                BLOCK_SIZE,
+                bulkMillis,
+                blockMillis
+        )
+    }
+
+    private fun assertMatchesPersonMetric(
+            entities: Map<EntityDataKey, Map<UUID, DelegatedStringSet>>,
+            fqnToIdMap: Map<FullQualifiedName, UUID>
+    ) {
+        val pairs = pairs(entities)
+        val features = BlockFeatureExtractor(fqnToIdMap).extract(entities, pairs)
+        Assert.assertEquals(pairs.size, features.rows)
+
+        pairs.forEachIndexed { row, (lhs, rhs) ->
+            val expected = PersonMetric.pDistanceBulk(
+                    entities.getValue(lhs),
+                    mapOf(rhs to entities.getValue(rhs)),
+                    fqnToIdMap
+            ).getValue(rhs)
+            val actual = features.data.copyOfRange(row * features.columns, (row + 1) * features.columns)
+            Assert.assertArrayEquals(expected, actual, 0.0)
+        }
+    }
+
+    private fun pairs(
+            entities: Map<EntityDataKey, Map<UUID, DelegatedStringSet>>
+    ): List<Pair<EntityDataKey, EntityDataKey>> {
+        return entities.keys.flatMap { lhs -> entities.keys.map { rhs -> lhs to rhs } }
+    }
+
+    private fun block(
+            fqnToIdMap: Map<FullQualifiedName, UUID>,
+            random: Random,
+            size: Int
+    ): Map<EntityDataKey, Map<UUID, DelegatedStringSet>> {
+        val entitySetId = UUID.randomUUID()
+        return (0 until size).associate {
+            EntityDataKey(entitySetId, UUID.randomUUID()) to mapOf(
+                    fqnToIdMap.getValue(PersonProperties.FIRST_NAME_FQN) to values(random, FIRST_NAMES),
+                    fqnToIdMap.getValue(PersonProperties.LAST_NAME_FQN) to values(random, LAST_NAMES),
+                    fqnToIdMap.getValue(PersonProperties.SEX_FQN) to values(random, SEXES),
+                    fqnToIdMap.getValue(PersonProperties.RACE_FQN) to values(random, RACES),
+                    fqnToIdMap.getValue(PersonProperties.ETHNICITY_FQN) to values(random, ETHNICITIES),
+                    fqnToIdMap.getValue(PersonProperties.DOB_FQN) to DelegatedStringSet.wrap(
+                            mutableSetOf(LocalDate.of(1950 + random.nextInt(50), 1 + random.nextInt(12), 1).toString())
+                    ),
+                    fqnToIdMap.getValue(PersonProperties.SSN_FQN) to DelegatedStringSet.wrap(
+                            mutableSetOf((100_000_000 + random.nextInt(899_999_999)).toString())
+                    )
+            )
+        }
+    }
+
+    private fun values(random: Random, candidates: List<String>): DelegatedStringSet {
+        return DelegatedStringSet.wrap((0..random.nextInt(2)).mapTo(mutableSetOf()) {
+            candidates[random.nextInt(candidates.size)]
+        })
+    }
+}